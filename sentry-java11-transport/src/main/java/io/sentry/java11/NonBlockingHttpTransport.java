@@ -0,0 +1,353 @@
+package io.sentry.java11;
+
+import static io.sentry.SentryLevel.DEBUG;
+import static io.sentry.SentryLevel.ERROR;
+import static io.sentry.SentryLevel.WARNING;
+import static java.net.HttpURLConnection.HTTP_OK;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import io.sentry.ILogger;
+import io.sentry.SentryEnvelope;
+import io.sentry.SentryItemType;
+import io.sentry.SentryOptions;
+import io.sentry.transport.CurrentDateProvider;
+import io.sentry.transport.IAsyncTransport;
+import io.sentry.transport.ICurrentDateProvider;
+import io.sentry.transport.RateLimiter;
+import io.sentry.transport.TransportResult;
+import io.sentry.util.Objects;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * An implementation of the {@link IAsyncTransport} interface that sends the envelopes with the
+ * non-blocking java.net.http client, over HTTP/2 where the server supports it and HTTP/1.1
+ * otherwise. The responses are handled by a small thread pool, so many envelopes can be in flight
+ * at once without holding a thread each.
+ *
+ * <p>It's created by the SDK through reflection if {@link
+ * SentryOptions#isEnableNonBlockingTransport()} is enabled.
+ */
+@ApiStatus.Internal
+public final class NonBlockingHttpTransport implements IAsyncTransport {
+
+  private static final int CLIENT_THREAD_COUNT = 2;
+
+  private final @NotNull SentryOptions options;
+  private final @NotNull HttpClient client;
+  private final @Nullable ExecutorService clientExecutor;
+  private final @NotNull URI envelopeUri;
+  private final @NotNull Map<String, String> headers;
+  private final @NotNull Duration readTimeout;
+  private final @NotNull RateLimiter rateLimiter;
+  private final @NotNull ILogger logger;
+
+  private final int maxInFlight;
+  private final @NotNull Semaphore inFlight;
+
+  /**
+   * Constructs a new non-blocking HTTP transport.
+   *
+   * @param options sentry options to read the config from
+   * @param headers the credential headers set on every request
+   * @param sentryUrl sentryUrl which is the parsed DSN
+   */
+  public NonBlockingHttpTransport(
+      final @NotNull SentryOptions options,
+      final @NotNull Map<String, String> headers,
+      final @NotNull URL sentryUrl) {
+    this(options, headers, sentryUrl, null, CurrentDateProvider.getInstance());
+  }
+
+  NonBlockingHttpTransport(
+      final @NotNull SentryOptions options,
+      final @NotNull Map<String, String> headers,
+      final @NotNull URL sentryUrl,
+      final @Nullable HttpClient client,
+      final @NotNull ICurrentDateProvider currentDateProvider) {
+    this.options = Objects.requireNonNull(options, "SentryOptions is required.");
+    this.headers = Objects.requireNonNull(headers, "Headers are required.");
+    this.logger = Objects.requireNonNull(options.getLogger(), "Logger is required.");
+    this.rateLimiter = new RateLimiter(currentDateProvider, logger);
+    this.readTimeout = Duration.ofMillis(options.getReadTimeoutMillis());
+    this.maxInFlight = options.getMaxQueueSize();
+    this.inFlight = new Semaphore(maxInFlight);
+
+    try {
+      final URI uri = sentryUrl.toURI();
+      envelopeUri = uri.resolve(uri.getPath() + "/envelope/");
+    } catch (URISyntaxException e) {
+      throw new IllegalArgumentException("Failed to compose the Sentry's server URL.", e);
+    }
+
+    if (client != null) {
+      this.client = client;
+      this.clientExecutor = null;
+    } else {
+      this.clientExecutor =
+          Executors.newFixedThreadPool(CLIENT_THREAD_COUNT, new HttpClientThreadFactory());
+      this.client = createClient(options, clientExecutor);
+    }
+  }
+
+  private static @NotNull HttpClient createClient(
+      final @NotNull SentryOptions options, final @NotNull ExecutorService executor) {
+    final HttpClient.Builder builder =
+        HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(Duration.ofMillis(options.getConnectionTimeoutMillis()))
+            .executor(executor);
+
+    final SentryOptions.Proxy proxy = options.getProxy();
+    if (proxy != null && proxy.getHost() != null && proxy.getPort() != null) {
+      try {
+        builder.proxy(
+            ProxySelector.of(
+                new InetSocketAddress(proxy.getHost(), Integer.parseInt(proxy.getPort()))));
+      } catch (NumberFormatException e) {
+        options
+            .getLogger()
+            .log(
+                ERROR,
+                e,
+                "Failed to parse Sentry Proxy port: " + proxy.getPort() + ". Proxy is ignored");
+      }
+
+      final String proxyUser = proxy.getUser();
+      final String proxyPassword = proxy.getPass();
+      if (proxyUser != null && proxyPassword != null) {
+        builder.authenticator(
+            new Authenticator() {
+              @Override
+              protected @Nullable PasswordAuthentication getPasswordAuthentication() {
+                if (getRequestorType() == RequestorType.PROXY) {
+                  return new PasswordAuthentication(proxyUser, proxyPassword.toCharArray());
+                }
+                return null;
+              }
+            });
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public boolean isRetryAfter(final @NotNull String itemType) {
+    return rateLimiter.isRetryAfter(itemType);
+  }
+
+  @Override
+  public boolean isRetryAfter(final @NotNull SentryItemType itemType) {
+    return rateLimiter.isRetryAfter(itemType);
+  }
+
+  /**
+   * Sends the envelope and waits for the response, used for the envelopes that have to reach
+   * Sentry in order.
+   *
+   * @param envelope the envelope
+   * @return the result
+   * @throws IOException if the request failed
+   */
+  @Override
+  public @NotNull TransportResult send(final @NotNull SentryEnvelope envelope)
+      throws IOException {
+    final HttpRequest request = createRequest(envelope);
+    try {
+      return readAndLog(client.send(request, this::bodyHandler));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sending the envelope.");
+    }
+  }
+
+  @SuppressWarnings("FutureReturnValueIgnored")
+  @Override
+  public void sendAsync(final @NotNull SentryEnvelope envelope, final @NotNull Callback callback) {
+    final HttpRequest request;
+    try {
+      request = createRequest(envelope);
+      // the sender thread waits here only if there are too many requests in flight
+      inFlight.acquire();
+    } catch (IOException e) {
+      callback.onFailure(e);
+      return;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      callback.onFailure(e);
+      return;
+    }
+
+    try {
+      client
+          .sendAsync(request, this::bodyHandler)
+          .whenComplete(
+              (response, error) -> {
+                inFlight.release();
+                if (response != null) {
+                  callback.onResult(readAndLog(response));
+                } else {
+                  callback.onFailure(unwrap(error));
+                }
+              });
+    } catch (RuntimeException e) {
+      inFlight.release();
+      callback.onFailure(e);
+    }
+  }
+
+  private static @NotNull Throwable unwrap(final @NotNull Throwable error) {
+    if (error instanceof CompletionException && error.getCause() != null) {
+      return error.getCause();
+    }
+    return error;
+  }
+
+  /**
+   * Creates the request with the gzipped envelope as its body. The envelope is serialized on the
+   * calling thread, so the client threads only deal with the network. An envelope read gzipped
+   * from the cache is sent as is.
+   *
+   * @param envelope the envelope
+   * @return the request
+   * @throws IOException if the envelope couldn't be serialized
+   */
+  private @NotNull HttpRequest createRequest(final @NotNull SentryEnvelope envelope)
+      throws IOException {
+    byte[] body = envelope.getCompressedBytes();
+    if (body == null) {
+      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      try (final GZIPOutputStream gzip = new GZIPOutputStream(stream)) {
+        options.getSerializer().serialize(envelope, gzip);
+      } catch (IOException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IOException("Failed to serialize the envelope.", e);
+      }
+      body = stream.toByteArray();
+    }
+
+    final HttpRequest.Builder builder =
+        HttpRequest.newBuilder(envelopeUri)
+            .timeout(readTimeout)
+            .header("Content-Encoding", "gzip")
+            .header("Content-Type", "application/x-sentry-envelope")
+            .header("Accept", "application/json")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body));
+    for (final Map.Entry<String, String> header : headers.entrySet()) {
+      builder.header(header.getKey(), header.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Only the body of a failed request is read, and only in debug mode, the others are discarded.
+   *
+   * @param responseInfo the status code and headers
+   * @return the body subscriber
+   */
+  private @NotNull HttpResponse.BodySubscriber<String> bodyHandler(
+      final @NotNull HttpResponse.ResponseInfo responseInfo) {
+    if (!isSuccessfulResponseCode(responseInfo.statusCode()) && options.isDebug()) {
+      return HttpResponse.BodySubscribers.ofString(UTF_8);
+    }
+    return HttpResponse.BodySubscribers.replacing(null);
+  }
+
+  /**
+   * Reads the status code and the rate limit headers and logs them
+   *
+   * @param response the response
+   * @return TransportResult.success if responseCode is 200 or TransportResult.error otherwise
+   */
+  private @NotNull TransportResult readAndLog(final @NotNull HttpResponse<String> response) {
+    final int responseCode = response.statusCode();
+
+    rateLimiter.updateRetryAfterLimits(
+        response.headers().firstValue("X-Sentry-Rate-Limits").orElse(null),
+        response.headers().firstValue("Retry-After").orElse(null),
+        responseCode);
+
+    if (!isSuccessfulResponseCode(responseCode)) {
+      logger.log(ERROR, "Request failed, API returned %s", responseCode);
+      final String errorMessage = response.body();
+      if (errorMessage != null) {
+        logger.log(ERROR, errorMessage);
+      }
+      return TransportResult.error(responseCode);
+    }
+
+    logger.log(DEBUG, "Envelope sent successfully.");
+    return TransportResult.success();
+  }
+
+  private static boolean isSuccessfulResponseCode(final int responseCode) {
+    return responseCode == HTTP_OK;
+  }
+
+  @TestOnly
+  int getInFlightCount() {
+    return maxInFlight - inFlight.availablePermits();
+  }
+
+  /**
+   * Waits up to the flush timeout for the requests in flight to complete, then stops the client
+   * threads.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (inFlight.tryAcquire(
+          maxInFlight, options.getFlushTimeoutMillis(), TimeUnit.MILLISECONDS)) {
+        inFlight.release(maxInFlight);
+      } else {
+        logger.log(
+            WARNING,
+            "Failed to complete the requests in flight within %d ms.",
+            options.getFlushTimeoutMillis());
+      }
+    } catch (InterruptedException e) {
+      logger.log(DEBUG, "Thread interrupted while closing the transport.");
+      Thread.currentThread().interrupt();
+    } finally {
+      if (clientExecutor != null) {
+        clientExecutor.shutdownNow();
+      }
+    }
+  }
+
+  private static final class HttpClientThreadFactory implements ThreadFactory {
+    private int cnt;
+
+    @Override
+    public @NotNull Thread newThread(final @NotNull Runnable r) {
+      final Thread ret = new Thread(r, "SentryHttpClient-" + cnt++);
+      ret.setDaemon(true);
+      return ret;
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package io.sentry.java11
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.argumentCaptor
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEvent
+import io.sentry.SentryOptions
+import io.sentry.transport.IAsyncTransport
+import io.sentry.transport.ICurrentDateProvider
+import io.sentry.transport.TransportResult
+import java.io.IOException
+import java.net.URL
+import java.net.http.HttpClient
+import java.net.http.HttpHeaders
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.util.concurrent.CompletableFuture
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class NonBlockingHttpTransportTest {
+
+    private class Fixture {
+        val client = mock<HttpClient>()
+        val currentDateProvider = mock<ICurrentDateProvider>()
+        val options = SentryOptions()
+        val headers = mapOf("X-Sentry-Auth" to "Sentry sentry_key=key")
+
+        fun getSUT(): NonBlockingHttpTransport {
+            return NonBlockingHttpTransport(options, headers, URL("http://localhost:8000/api/1"), client, currentDateProvider)
+        }
+
+        fun respond(statusCode: Int, headers: Map<String, List<String>> = emptyMap()): CompletableFuture<HttpResponse<String>> {
+            val response = mock<HttpResponse<String>>()
+            whenever(response.statusCode()).thenReturn(statusCode)
+            whenever(response.headers()).thenReturn(HttpHeaders.of(headers) { _, _ -> true })
+            val future = CompletableFuture<HttpResponse<String>>()
+            whenever(client.sendAsync(any(), any<HttpResponse.BodyHandler<String>>())).thenReturn(future)
+            return future.also { it.complete(response) }
+        }
+    }
+
+    private val fixture = Fixture()
+
+    private class ResultCallback : IAsyncTransport.Callback {
+        var result: TransportResult? = null
+        var error: Throwable? = null
+
+        override fun onResult(result: TransportResult) {
+            this.result = result
+        }
+
+        override fun onFailure(error: Throwable) {
+            this.error = error
+        }
+    }
+
+    @Test
+    fun `posts the gzipped envelope with the credential headers`() {
+        fixture.respond(200)
+        val callback = ResultCallback()
+
+        fixture.getSUT().sendAsync(createEnvelope(), callback)
+
+        val request = argumentCaptor<HttpRequest>()
+        verify(fixture.client).sendAsync(request.capture(), any<HttpResponse.BodyHandler<String>>())
+        assertEquals("http://localhost:8000/api/1/envelope/", request.firstValue.uri().toString())
+        assertEquals("POST", request.firstValue.method())
+        assertEquals("gzip", request.firstValue.headers().firstValue("Content-Encoding").get())
+        assertEquals("Sentry sentry_key=key", request.firstValue.headers().firstValue("X-Sentry-Auth").get())
+        assertTrue(callback.result!!.isSuccess)
+        assertNull(callback.error)
+    }
+
+    @Test
+    fun `rate limit headers of the response are applied`() {
+        fixture.respond(429, mapOf("X-Sentry-Rate-Limits" to listOf("50:transaction:key")))
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0L, 0L, 1000L)
+        val sut = fixture.getSUT()
+        val callback = ResultCallback()
+
+        sut.sendAsync(createEnvelope(), callback)
+
+        assertEquals(429, callback.result!!.responseCode)
+        assertTrue(sut.isRetryAfter("transaction"))
+        assertFalse(sut.isRetryAfter("event"))
+    }
+
+    @Test
+    fun `failed requests are passed on to the callback and leave the in flight slot`() {
+        val future = CompletableFuture<HttpResponse<String>>()
+        whenever(fixture.client.sendAsync(any(), any<HttpResponse.BodyHandler<String>>())).thenReturn(future)
+        val sut = fixture.getSUT()
+        val callback = ResultCallback()
+
+        sut.sendAsync(createEnvelope(), callback)
+        assertEquals(1, sut.inFlightCount)
+        assertNull(callback.error)
+
+        val error = IOException()
+        future.completeExceptionally(error)
+        assertEquals(error, callback.error)
+        assertEquals(0, sut.inFlightCount)
+    }
+
+    private fun createEnvelope(): SentryEnvelope {
+        return SentryEnvelope.from(fixture.options.serializer, SentryEvent(), null)
+    }
+}
@@ -1,6 +1,7 @@
 package io.sentry;
 
 import io.sentry.util.CollectionUtils;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Locale;
 import java.util.Map;
@@ -22,8 +23,11 @@ public final class Breadcrumb implements Cloneable, IUnknownPropertiesConsumer {
   /** The type of breadcrumb. */
   private @Nullable String type;
 
-  /** Data associated with this breadcrumb. */
-  private @NotNull Map<String, Object> data = new ConcurrentHashMap<>();
+  /**
+   * Data associated with this breadcrumb. Most breadcrumbs have none, the map is only created once
+   * there's some. Volatile as it's created lazily, see {@link #ownData()}.
+   */
+  private volatile @NotNull Map<String, Object> data = Collections.emptyMap();
 
   /** Dotted strings that indicate what the crumb is or where it comes from. */
   private @Nullable String category;
@@ -84,6 +88,15 @@ public final class Breadcrumb implements Cloneable, IUnknownPropertiesConsumer {
     return (Date) timestamp.clone();
   }
 
+  /**
+   * Returns the timestamp without copying it, for sorting the breadcrumbs
+   *
+   * @return the timestamp in millis
+   */
+  long getTimestampMillis() {
+    return timestamp != null ? timestamp.getTime() : 0;
+  }
+
   /**
    * Returns the message
    *
@@ -121,14 +134,14 @@ public final class Breadcrumb implements Cloneable, IUnknownPropertiesConsumer {
   }
 
   /**
-   * Returns the data map
+   * Returns the data map, it's created if there's no data yet as it can be changed through it
    *
    * @return the data map
    */
   @ApiStatus.Internal
   @NotNull
   public Map<String, Object> getData() {
-    return data;
+    return ownData();
   }
 
   /**
@@ -149,7 +162,7 @@ public final class Breadcrumb implements Cloneable, IUnknownPropertiesConsumer {
    * @param value the value
    */
   public void setData(@NotNull String key, @NotNull Object value) {
-    data.put(key, value);
+    ownData().put(key, value);
   }
 
   /**
@@ -161,6 +174,26 @@ public final class Breadcrumb implements Cloneable, IUnknownPropertiesConsumer {
     data.remove(key);
   }
 
+  /**
+   * Returns the data map to be changed, creating it if there was no data yet
+   *
+   * @return the data map
+   */
+  private @NotNull Map<String, Object> ownData() {
+    Map<String, Object> dataRef = data;
+    if (dataRef == Collections.<String, Object>emptyMap()) {
+      // double-checked, so concurrent setData calls don't replace each other's map
+      synchronized (this) {
+        dataRef = data;
+        if (dataRef == Collections.<String, Object>emptyMap()) {
+          dataRef = new ConcurrentHashMap<>();
+          data = dataRef;
+        }
+      }
+    }
+    return dataRef;
+  }
+
   /**
    * Returns the category
    *
@@ -2,6 +2,8 @@ package io.sentry;
 
 import io.sentry.transport.IConnectionConfigurator;
 import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Used by {@link SentryClient} to inject credentials into the HTTP requests for sending the events.
@@ -38,4 +40,16 @@ final class CredentialsSettingConfigurator implements IConnectionConfigurator {
     connection.setRequestProperty(USER_AGENT, userAgent);
     connection.setRequestProperty(SENTRY_AUTH, authHeader);
   }
+
+  /**
+   * Returns the same headers for the transports that don't use a HttpURLConnection
+   *
+   * @return the headers by name
+   */
+  Map<String, String> getHeaders() {
+    final Map<String, String> headers = new HashMap<>();
+    headers.put(USER_AGENT, userAgent);
+    headers.put(SENTRY_AUTH, authHeader);
+    return headers;
+  }
 }
@@ -51,8 +51,8 @@ public final class DateUtils {
    */
   @SuppressWarnings("JdkObsolete")
   public static @NotNull Date getCurrentDateTime() {
-    final Calendar calendar = Calendar.getInstance(UTC_TIMEZONE);
-    return calendar.getTime();
+    // a Date is the millis since the epoch, which is UTC already, there's no need for a Calendar
+    return new Date();
   }
 
   /**
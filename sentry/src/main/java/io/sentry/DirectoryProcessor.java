@@ -2,24 +2,52 @@ package io.sentry;
 
 import static io.sentry.SentryLevel.ERROR;
 
+import io.sentry.cache.CompressedEnvelope;
+import io.sentry.cache.FramedEnvelope;
 import io.sentry.hints.Cached;
 import io.sentry.hints.Flushable;
 import io.sentry.hints.Retryable;
 import io.sentry.hints.SubmissionResult;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 abstract class DirectoryProcessor {
 
+  /** Envelopes with errors are replayed first, then the ones with sessions, then the rest. */
+  private static final int PRIORITY_ERROR = 0;
+
+  private static final int PRIORITY_SESSION = 1;
+  private static final int PRIORITY_OTHER = 2;
+
+  /** The item headers of a file are only looked for in its first bytes. */
+  private static final int MAX_ITEM_HEADER_LENGTH = 8192;
+
   private final @NotNull ILogger logger;
   private final long flushTimeoutMillis;
+  private final int replayConcurrency;
 
   DirectoryProcessor(final @NotNull ILogger logger, final long flushTimeoutMillis) {
+    this(logger, flushTimeoutMillis, 1);
+  }
+
+  DirectoryProcessor(
+      final @NotNull ILogger logger, final long flushTimeoutMillis, final int replayConcurrency) {
     this.logger = logger;
     this.flushTimeoutMillis = flushTimeoutMillis;
+    this.replayConcurrency = replayConcurrency;
   }
 
   public void processDirectory(final @NotNull File directory) {
@@ -45,14 +73,25 @@ abstract class DirectoryProcessor {
         return;
       }
 
-      final File[] filteredListFiles = directory.listFiles((d, name) -> isRelevantFileName(name));
+      // counted from the same listing instead of listing the directory again
+      int relevantFiles = 0;
+      for (final File file : listFiles) {
+        if (isRelevantFileName(file.getName())) {
+          relevantFiles++;
+        }
+      }
 
       logger.log(
           SentryLevel.DEBUG,
           "Processing %d items from cache dir %s",
-          filteredListFiles != null ? filteredListFiles.length : 0,
+          relevantFiles,
           directory.getAbsolutePath());
 
+      if (replayConcurrency > 1) {
+        processFilesConcurrently(listFiles);
+        return;
+      }
+
       for (File file : listFiles) {
         // it ignores .sentry-native database folder and new ones that might come up
         if (!file.isFile()) {
@@ -62,18 +101,256 @@ abstract class DirectoryProcessor {
 
         logger.log(SentryLevel.DEBUG, "Processing file: %s", file.getAbsolutePath());
 
-        final SendCachedEnvelopeHint hint = new SendCachedEnvelopeHint(flushTimeoutMillis, logger);
-        processFile(file, hint);
+        processFile(file, createHint());
       }
     } catch (Exception e) {
       logger.log(SentryLevel.ERROR, e, "Failed processing '%s'", directory.getAbsolutePath());
     }
   }
 
+  /**
+   * Processes up to replayConcurrency files at once, so the time spent waiting for each envelope to
+   * be sent overlaps. Envelopes with errors go first, then the ones with sessions, then the rest,
+   * the oldest first. The ones with sessions are processed one at a time in order, as the updates
+   * of a session have to be sent after its start. Every file keeps its own hint, so it's deleted or
+   * kept for a retry as if it was processed on its own.
+   *
+   * @param files the files of the directory
+   */
+  @SuppressWarnings("FutureReturnValueIgnored")
+  private void processFilesConcurrently(final @NotNull File[] files) {
+    final List<File> errors = new ArrayList<>();
+    final List<File> sessions = new ArrayList<>();
+    final List<File> others = new ArrayList<>();
+    for (final File file : files) {
+      // it ignores .sentry-native database folder and new ones that might come up
+      if (!file.isFile()) {
+        logger.log(SentryLevel.DEBUG, "File %s is not a File.", file.getAbsolutePath());
+        continue;
+      }
+      switch (getReplayPriority(file)) {
+        case PRIORITY_ERROR:
+          errors.add(file);
+          break;
+        case PRIORITY_SESSION:
+          sessions.add(file);
+          break;
+        default:
+          others.add(file);
+          break;
+      }
+    }
+    sortOldestToNewest(errors);
+    sortOldestToNewest(sessions);
+    sortOldestToNewest(others);
+
+    final ExecutorService executor =
+        Executors.newFixedThreadPool(replayConcurrency, new ReplayThreadFactory());
+    try {
+      for (final File file : errors) {
+        executor.submit(() -> processFileWithNewHint(file));
+      }
+      if (!sessions.isEmpty()) {
+        executor.submit(
+            () -> {
+              for (final File file : sessions) {
+                processFileWithNewHint(file);
+              }
+            });
+      }
+      for (final File file : others) {
+        executor.submit(() -> processFileWithNewHint(file));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    try {
+      // every file is bound by the flush timeout
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      executor.shutdownNow();
+      logger.log(SentryLevel.ERROR, e, "Interrupted while processing cached files.");
+    }
+  }
+
+  private void processFileWithNewHint(final @NotNull File file) {
+    logger.log(SentryLevel.DEBUG, "Processing file: %s", file.getAbsolutePath());
+    try {
+      processFile(file, createHint());
+    } catch (Exception e) {
+      logger.log(SentryLevel.ERROR, e, "Failed processing '%s'", file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Returns when the envelope of the file is replayed, by the types of its items. The files the
+   * cache framed or gzipped are decoded first. Files whose types can't be told are replayed with
+   * the sessions, one at a time in order, as they could hold one.
+   *
+   * @param file the envelope file
+   * @return one of the PRIORITY_ constants
+   */
+  private int getReplayPriority(final @NotNull File file) {
+    try {
+      if (FramedEnvelope.isFramed(file)) {
+        return getReplayPriority(FramedEnvelope.readItemTypes(file));
+      }
+      if (CompressedEnvelope.isCompressed(file)) {
+        return getReplayPriority(CompressedEnvelope.readItemTypes(file));
+      }
+      return readReplayPriority(file);
+    } catch (IOException | NumberFormatException e) {
+      logger.log(SentryLevel.DEBUG, e, "Failed to read the item types of %s.", file.getName());
+    }
+    return PRIORITY_SESSION;
+  }
+
+  private static int getReplayPriority(final @Nullable List<SentryItemType> types) {
+    if (types == null) {
+      return PRIORITY_SESSION;
+    }
+    int priority = PRIORITY_OTHER;
+    for (final SentryItemType type : types) {
+      if (type == SentryItemType.Session) {
+        return PRIORITY_SESSION;
+      }
+      if (type == SentryItemType.Event
+          || type == SentryItemType.UserFeedback
+          || type == SentryItemType.Attachment) {
+        priority = PRIORITY_ERROR;
+      }
+    }
+    return priority;
+  }
+
+  /**
+   * Reads the replay priority of a file in the wire format. Only the item headers are read,
+   * skipping the payloads.
+   *
+   * @param file the envelope file
+   * @return one of the PRIORITY_ constants
+   * @throws IOException if the file couldn't be read
+   */
+  private static int readReplayPriority(final @NotNull File file) throws IOException {
+    int priority = PRIORITY_OTHER;
+    // it can't be told until an item type is read
+    boolean classified = false;
+    try (final InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
+      // the envelope header
+      if (readLine(stream) == null) {
+        return PRIORITY_SESSION;
+      }
+      String itemHeader;
+      while ((itemHeader = readLine(stream)) != null) {
+        final String type = findJsonValue(itemHeader, "type");
+        if (type == null) {
+          break;
+        }
+        classified = true;
+        if (SentryItemType.Session.getItemType().equals(type)) {
+          priority = PRIORITY_SESSION;
+        } else if (SentryItemType.Event.getItemType().equals(type)
+            || SentryItemType.UserFeedback.getItemType().equals(type)
+            || SentryItemType.Attachment.getItemType().equals(type)) {
+          priority = Math.min(priority, PRIORITY_ERROR);
+        }
+        if (priority == PRIORITY_SESSION) {
+          // the order of the sessions matters the most
+          break;
+        }
+        final String length = findJsonValue(itemHeader, "length");
+        if (length == null) {
+          break;
+        }
+        // the payload and its line break
+        final long toSkip = Long.parseLong(length) + 1;
+        if (stream.skip(toSkip) < toSkip) {
+          break;
+        }
+      }
+    }
+    return classified ? priority : PRIORITY_SESSION;
+  }
+
+  private static @Nullable String readLine(final @NotNull InputStream stream) throws IOException {
+    final StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = stream.read()) != -1 && b != '\n') {
+      if (line.length() >= MAX_ITEM_HEADER_LENGTH) {
+        return null;
+      }
+      line.append((char) b);
+    }
+    return b == -1 && line.length() == 0 ? null : line.toString();
+  }
+
+  /**
+   * Finds the value of a key in a flat JSON object, like an item header. Strings can't hold an
+   * unescaped quote, so the quoted key is only found where it's a key.
+   *
+   * @param json the JSON object
+   * @param key the key
+   * @return the value without its quotes or null if not found
+   */
+  private static @Nullable String findJsonValue(
+      final @NotNull String json, final @NotNull String key) {
+    final String quotedKey = "\"" + key + "\"";
+    int index = json.indexOf(quotedKey);
+    if (index < 0) {
+      return null;
+    }
+    index = json.indexOf(':', index + quotedKey.length());
+    if (index < 0) {
+      return null;
+    }
+    int start = index + 1;
+    while (start < json.length() && json.charAt(start) == ' ') {
+      start++;
+    }
+    if (start < json.length() && json.charAt(start) == '"') {
+      final int end = json.indexOf('"', start + 1);
+      return end < 0 ? null : json.substring(start + 1, end);
+    }
+    int end = start;
+    while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+      end++;
+    }
+    return json.substring(start, end).trim();
+  }
+
+  private static void sortOldestToNewest(final @NotNull List<File> files) {
+    if (files.size() > 1) {
+      Collections.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+    }
+  }
+
   protected abstract void processFile(final @NotNull File file, final @Nullable Object hint);
 
   protected abstract boolean isRelevantFileName(String fileName);
 
+  /**
+   * Creates the hint a cached envelope is captured with, so it's marked as cached and its result
+   * can be awaited.
+   *
+   * @return the hint
+   */
+  @NotNull
+  Object createHint() {
+    return new SendCachedEnvelopeHint(flushTimeoutMillis, logger);
+  }
+
+  private static final class ReplayThreadFactory implements ThreadFactory {
+    private int cnt;
+
+    @Override
+    public @NotNull Thread newThread(final @NotNull Runnable r) {
+      final Thread ret = new Thread(r, "SentryCacheReplay-" + cnt++);
+      ret.setDaemon(true);
+      return ret;
+    }
+  }
+
   private static final class SendCachedEnvelopeHint
       implements Cached, Retryable, SubmissionResult, Flushable {
     boolean retry = false;
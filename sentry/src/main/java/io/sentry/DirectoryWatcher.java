@@ -0,0 +1,298 @@
+package io.sentry;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import io.sentry.util.Objects;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Watches a directory for the envelope files written to it by other processes and hands each of
+ * them to the {@link DirectoryProcessor} once, without listing the directory again. It's the pure
+ * Java counterpart of the FileObserver used on Android.
+ *
+ * <p>It uses a {@link WatchService} if the file system has one, and lists the directory every
+ * interval otherwise. As there's no event for a file being closed, a file is only processed once
+ * its size and last modified time stay the same for an interval. The files already in the
+ * directory when it starts are left to the replay on startup.
+ */
+final class DirectoryWatcher implements Closeable {
+
+  private final @NotNull File directory;
+  private final @NotNull DirectoryProcessor processor;
+  private final @NotNull ILogger logger;
+  private final long intervalMillis;
+  private final boolean useWatchService;
+
+  // the files seen by the watcher thread that are yet to be processed, by name
+  private final @NotNull Map<String, ObservedFile> candidates = new HashMap<>();
+  // the names listed the last time, only used when polling
+  private @NotNull Set<String> listedNames = new HashSet<>();
+
+  private volatile boolean running;
+  private volatile @Nullable WatchService watchService;
+  private @Nullable Thread thread;
+
+  DirectoryWatcher(
+      final @NotNull File directory,
+      final @NotNull DirectoryProcessor processor,
+      final @NotNull ILogger logger,
+      final long intervalMillis) {
+    this(directory, processor, logger, intervalMillis, true);
+  }
+
+  @TestOnly
+  DirectoryWatcher(
+      final @NotNull File directory,
+      final @NotNull DirectoryProcessor processor,
+      final @NotNull ILogger logger,
+      final long intervalMillis,
+      final boolean useWatchService) {
+    this.directory = Objects.requireNonNull(directory, "Directory is required.");
+    this.processor = Objects.requireNonNull(processor, "DirectoryProcessor is required.");
+    this.logger = Objects.requireNonNull(logger, "Logger is required.");
+    this.intervalMillis = intervalMillis;
+    this.useWatchService = useWatchService;
+  }
+
+  /** Starts watching the directory on a daemon thread. */
+  synchronized void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+
+    if (useWatchService) {
+      watchService = openWatchService();
+    }
+    if (watchService == null) {
+      listedNames = listRelevantNames();
+    }
+
+    final Thread watcherThread = new Thread(this::watch, "SentryDirectoryWatcher");
+    watcherThread.setDaemon(true);
+    watcherThread.start();
+    thread = watcherThread;
+  }
+
+  @Override
+  public synchronized void close() {
+    running = false;
+    closeWatchService();
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  private void watch() {
+    logger.log(
+        SentryLevel.DEBUG,
+        "Watching %s %s.",
+        directory.getAbsolutePath(),
+        watchService != null ? "with a WatchService" : "by listing it");
+    try {
+      while (running) {
+        final WatchService service = watchService;
+        if (service != null) {
+          takeEvents(service);
+        } else {
+          Thread.sleep(intervalMillis);
+          listNewFiles();
+        }
+        processStableCandidates();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ClosedWatchServiceException e) {
+      // closed by close()
+    } catch (Exception e) {
+      logger.log(SentryLevel.ERROR, e, "Watching %s failed.", directory.getAbsolutePath());
+    }
+    logger.log(SentryLevel.DEBUG, "Stopped watching %s.", directory.getAbsolutePath());
+  }
+
+  private @Nullable WatchService openWatchService() {
+    WatchService service = null;
+    try {
+      service = FileSystems.getDefault().newWatchService();
+      directory.toPath().register(service, ENTRY_CREATE, ENTRY_MODIFY);
+      return service;
+    } catch (IOException | UnsupportedOperationException e) {
+      logger.log(
+          SentryLevel.INFO,
+          e,
+          "No WatchService for %s, it will be listed every %d ms.",
+          directory.getAbsolutePath(),
+          intervalMillis);
+      if (service != null) {
+        try {
+          service.close();
+        } catch (IOException ignored) {
+          // it's not used anyway
+        }
+      }
+      return null;
+    }
+  }
+
+  private void closeWatchService() {
+    final WatchService service = watchService;
+    watchService = null;
+    if (service != null) {
+      try {
+        service.close();
+      } catch (IOException e) {
+        logger.log(SentryLevel.DEBUG, e, "Failed to close the WatchService.");
+      }
+    }
+  }
+
+  /**
+   * Waits up to an interval for the events of the directory, adding the files they're about to the
+   * candidates. If the directory can't be watched anymore, it falls back to listing it.
+   */
+  private void takeEvents(final @NotNull WatchService service) throws InterruptedException {
+    final WatchKey key = service.poll(intervalMillis, TimeUnit.MILLISECONDS);
+    if (key == null) {
+      return;
+    }
+    for (final WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == OVERFLOW) {
+        // some events were lost, the directory has to be listed once
+        logger.log(SentryLevel.DEBUG, "Events of %s were lost.", directory.getAbsolutePath());
+        for (final String name : listRelevantNames()) {
+          addCandidate(name);
+        }
+        continue;
+      }
+      final Object context = event.context();
+      if (context instanceof Path) {
+        addCandidate(context.toString());
+      }
+    }
+    if (!key.reset()) {
+      logger.log(
+          SentryLevel.WARNING,
+          "%s can't be watched anymore, it will be listed instead.",
+          directory.getAbsolutePath());
+      closeWatchService();
+      listedNames = listRelevantNames();
+    }
+  }
+
+  /** Adds the files that weren't listed the last time to the candidates. */
+  private void listNewFiles() {
+    final Set<String> names = listRelevantNames();
+    for (final String name : names) {
+      if (!listedNames.contains(name)) {
+        addCandidate(name);
+      }
+    }
+    listedNames = names;
+  }
+
+  private @NotNull Set<String> listRelevantNames() {
+    final Set<String> names = new HashSet<>();
+    final String[] list = directory.list();
+    if (list != null) {
+      for (final String name : list) {
+        if (processor.isRelevantFileName(name)) {
+          names.add(name);
+        }
+      }
+    }
+    return names;
+  }
+
+  private void addCandidate(final @NotNull String name) {
+    if (!processor.isRelevantFileName(name)) {
+      return;
+    }
+    final ObservedFile observed = candidates.get(name);
+    if (observed != null) {
+      // it's still being written, it has to stay the same for another interval
+      observed.observe(new File(directory, name));
+    } else {
+      candidates.put(name, new ObservedFile(new File(directory, name)));
+    }
+  }
+
+  /** Processes the candidates that didn't change for an interval, dropping the ones deleted. */
+  private void processStableCandidates() {
+    final long now = System.nanoTime();
+    final Iterator<Map.Entry<String, ObservedFile>> iterator = candidates.entrySet().iterator();
+    while (iterator.hasNext() && running) {
+      final Map.Entry<String, ObservedFile> entry = iterator.next();
+      final File file = new File(directory, entry.getKey());
+      if (!file.isFile()) {
+        iterator.remove();
+        continue;
+      }
+      final ObservedFile observed = entry.getValue();
+      if (observed.observe(file)) {
+        continue;
+      }
+      if (TimeUnit.NANOSECONDS.toMillis(now - observed.since) < intervalMillis) {
+        continue;
+      }
+      iterator.remove();
+
+      logger.log(SentryLevel.DEBUG, "Processing file: %s", file.getAbsolutePath());
+      try {
+        processor.processFile(file, processor.createHint());
+      } catch (Exception e) {
+        logger.log(SentryLevel.ERROR, e, "Failed processing '%s'", file.getAbsolutePath());
+      }
+    }
+  }
+
+  /** The size and last modified time a file had, and since when. */
+  private static final class ObservedFile {
+    private long length;
+    private long lastModified;
+    private long since;
+
+    ObservedFile(final @NotNull File file) {
+      length = file.length();
+      lastModified = file.lastModified();
+      since = System.nanoTime();
+    }
+
+    /**
+     * Looks at the file again
+     *
+     * @param file the file
+     * @return true if it changed since the last time
+     */
+    boolean observe(final @NotNull File file) {
+      final long currentLength = file.length();
+      final long currentLastModified = file.lastModified();
+      if (currentLength == length && currentLastModified == lastModified) {
+        return false;
+      }
+      length = currentLength;
+      lastModified = currentLastModified;
+      since = System.nanoTime();
+      return true;
+    }
+  }
+}
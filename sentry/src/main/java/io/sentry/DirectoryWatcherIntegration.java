@@ -0,0 +1,67 @@
+package io.sentry;
+
+import io.sentry.util.Objects;
+import java.io.Closeable;
+import java.io.File;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Watches the outbox dir. and sends the envelopes written to it by other processes, like a sidecar
+ * or a native crash handler, while the App. is running. It's only installed if {@link
+ * SentryOptions#isEnableDirectoryWatcher()} is enabled, Android watches it with a FileObserver.
+ */
+public final class DirectoryWatcherIntegration implements Integration, Closeable {
+
+  private @Nullable DirectoryWatcher watcher;
+  private @Nullable ILogger logger;
+
+  @Override
+  public void register(final @NotNull IHub hub, final @NotNull SentryOptions options) {
+    Objects.requireNonNull(hub, "Hub is required");
+    Objects.requireNonNull(options, "SentryOptions is required");
+
+    logger = options.getLogger();
+
+    if (!options.isEnableDirectoryWatcher()) {
+      logger.log(SentryLevel.DEBUG, "DirectoryWatcherIntegration is disabled.");
+      return;
+    }
+
+    final String path = options.getOutboxPath();
+    if (path == null) {
+      logger.log(
+          SentryLevel.WARNING,
+          "Null given as a path to DirectoryWatcherIntegration. Nothing will be registered.");
+      return;
+    }
+
+    final OutboxSender outboxSender =
+        new OutboxSender(
+            hub,
+            options.getEnvelopeReader(),
+            options.getSerializer(),
+            logger,
+            options.getFlushTimeoutMillis());
+
+    final DirectoryWatcher directoryWatcher =
+        new DirectoryWatcher(
+            new File(path), outboxSender, logger, options.getDirectoryWatcherIntervalMillis());
+    directoryWatcher.start();
+    watcher = directoryWatcher;
+
+    logger.log(SentryLevel.DEBUG, "DirectoryWatcherIntegration installed for path: %s", path);
+  }
+
+  @Override
+  public void close() {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+
+      if (logger != null) {
+        logger.log(SentryLevel.DEBUG, "DirectoryWatcherIntegration removed.");
+      }
+    }
+  }
+}
@@ -2,10 +2,17 @@ package io.sentry;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -13,12 +20,33 @@ import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Parses envelopes one line and one item at a time, without copying the whole envelope first.
+ *
+ * <p>Items read from a stream get an array of exactly their length. Items read from a file channel
+ * are views of a single buffer holding the file, which is memory-mapped for big files.
+ */
 @ApiStatus.Internal
 public final class EnvelopeReader implements IEnvelopeReader {
 
   @SuppressWarnings("CharsetObjectCanBeUsed")
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+  /** Files from this size on are memory-mapped instead of read onto the heap. */
+  static final long MAPPING_THRESHOLD = 1024 * 1024; // 1MB
+
+  private static final int CHUNK_SIZE = 8192;
+
+  /**
+   * Payloads read from a stream up to this length are allocated at once, longer ones grow as they
+   * are read, so a damaged length doesn't allocate more than the stream holds.
+   */
+  static final int MAX_PREALLOCATED_PAYLOAD = 1024 * 1024; // 1MB
+
+  // a mapped file can't be deleted on Windows until the mapping is garbage collected
+  private static final boolean CAN_MAP_FILES =
+      !System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+
   private final Gson gson =
       new GsonBuilder()
           .registerTypeAdapter(SentryEnvelopeHeader.class, new SentryEnvelopeHeaderAdapter())
@@ -28,122 +56,329 @@ public final class EnvelopeReader implements IEnvelopeReader {
 
   public @Override @Nullable SentryEnvelope read(final @NotNull InputStream stream)
       throws IOException {
-    byte[] buffer = new byte[1024];
-    int currentLength;
-    int streamOffset = 0;
-    // Offset of the line break defining the end of the envelope header
-    int envelopeEndHeaderOffset = -1;
-    try (final ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-      while ((currentLength = stream.read(buffer)) > 0) {
-        for (int i = 0; envelopeEndHeaderOffset == -1 && i < currentLength; i++) {
-          if (buffer[i] == '\n') {
-            envelopeEndHeaderOffset = streamOffset + i;
-            break;
-          }
+    return read(new StreamSource(stream));
+  }
+
+  /**
+   * Reads the envelope from the given file channel. The whole file is loaded into a single buffer,
+   * which is memory-mapped if the file is big, and the item payloads are views of it.
+   *
+   * @param channel the channel of the envelope file
+   * @return the envelope
+   * @throws IOException if the file couldn't be read
+   */
+  @Override
+  public @Nullable SentryEnvelope readChannel(final @NotNull FileChannel channel)
+      throws IOException {
+    final long size = channel.size();
+    if (size > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Envelope is too big: " + size + " bytes.");
+    }
+
+    final ByteBuffer buffer;
+    if (CAN_MAP_FILES && size >= MAPPING_THRESHOLD) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    } else {
+      buffer = ByteBuffer.allocate((int) size);
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer) < 0) {
+          break;
         }
-        outputStream.write(buffer, 0, currentLength);
-        streamOffset += currentLength;
       }
-      // TODO: Work on the stream instead reading to the whole thing and allocating this array
-      byte[] envelopeBytes = outputStream.toByteArray();
+      buffer.flip();
+    }
+    return read(new BufferSource(buffer));
+  }
+
+  private @NotNull SentryEnvelope read(final @NotNull Source source) throws IOException {
+    if (source.isAtEnd()) {
+      throw new IllegalArgumentException("Empty stream.");
+    }
+
+    final HeaderDecoder decoder = new HeaderDecoder();
+
+    final ByteBuffer envelopeHeaderLine = source.readLine();
+    if (envelopeHeaderLine == null) {
+      throw new IllegalArgumentException("Envelope contains no header.");
+    }
+    final SentryEnvelopeHeader header =
+        gson.fromJson(decoder.decode(envelopeHeaderLine), SentryEnvelopeHeader.class);
+    if (header == null) {
+      throw new IllegalArgumentException("Envelope header is null.");
+    }
 
-      if (envelopeBytes.length == 0) {
-        throw new IllegalArgumentException("Empty stream.");
+    final List<SentryEnvelopeItem> items = new ArrayList<>();
+    do {
+      final ByteBuffer itemHeaderLine = source.readLine();
+      if (itemHeaderLine == null) {
+        throw new IllegalArgumentException(
+            "Invalid envelope. Item at index '"
+                + items.size()
+                + "'. "
+                + "has no header delimiter.");
       }
-      if (envelopeEndHeaderOffset == -1) {
-        throw new IllegalArgumentException("Envelope contains no header.");
+
+      final SentryEnvelopeItemHeader itemHeader =
+          gson.fromJson(decoder.decode(itemHeaderLine), SentryEnvelopeItemHeader.class);
+      if (itemHeader == null) {
+        throw new IllegalArgumentException("Item header at index '" + items.size() + "' is null.");
       }
 
-      SentryEnvelopeHeader header =
-          deserializeEnvelopeHeader(envelopeBytes, 0, envelopeEndHeaderOffset);
-      if (header == null) {
-        throw new IllegalArgumentException("Envelope header is null.");
+      if (itemHeader.getLength() <= 0) {
+        throw new IllegalArgumentException(
+            "Item header at index '"
+                + items.size()
+                + "' has an invalid value: '"
+                + itemHeader.getLength()
+                + "'.");
       }
 
-      int itemHeaderStartOffset = envelopeEndHeaderOffset + 1;
+      final long payloadEndOffsetExclusive = source.getPosition() + itemHeader.getLength();
+      final SentryEnvelopeItem item = source.readItem(itemHeader);
+      if (item == null) {
+        throw new IllegalArgumentException(
+            "Invalid length for item at index '"
+                + items.size()
+                + "'. "
+                + "Item is '"
+                + payloadEndOffsetExclusive
+                + "' bytes. There are '"
+                + source.getPosition()
+                + "' in the buffer.");
+      }
+      items.add(item);
 
-      int payloadEndOffsetExclusive;
-      List<SentryEnvelopeItem> items = new ArrayList<>();
-      do {
-        int lineBreakIndex = -1;
-        // Look from startHeaderOffset until line break to find next header
-        for (int i = itemHeaderStartOffset; i < envelopeBytes.length; i++) {
-          if (envelopeBytes[i] == '\n') {
-            lineBreakIndex = i;
-            break;
-          }
+      final int delimiter = source.read();
+      if (delimiter == -1) {
+        // End of envelope
+        break;
+      } else if (source.isAtEnd()) {
+        // Envelope items can be closed with a final line break
+        if (delimiter == '\n') {
+          break;
+        } else {
+          throw new IllegalArgumentException("Envelope has invalid data following an item.");
         }
+      }
+    } while (true);
+
+    return new SentryEnvelope(header, items);
+  }
+
+  /** Where the envelope is read from, byte by byte, line by line or item by item. */
+  private interface Source {
+    boolean isAtEnd() throws IOException;
+
+    /** The number of bytes read so far. */
+    long getPosition();
+
+    /** Returns the next byte or -1 at the end. */
+    int read() throws IOException;
+
+    /**
+     * Reads up to the next line break, which is skipped.
+     *
+     * @return the line, only valid until the next call, or null if there is no line break left
+     */
+    @Nullable
+    ByteBuffer readLine() throws IOException;
+
+    /**
+     * Reads the payload of the item with the given header.
+     *
+     * @return the item or null if there are less bytes left than the header announced
+     */
+    @Nullable
+    SentryEnvelopeItem readItem(@NotNull SentryEnvelopeItemHeader itemHeader) throws IOException;
+  }
+
+  /** Reads the stream in chunks, only a line or an item payload is held at a time. */
+  private static final class StreamSource implements Source {
+    private final @NotNull InputStream stream;
+    private final @NotNull byte[] chunk = new byte[CHUNK_SIZE];
+    private int chunkPosition;
+    private int chunkLimit;
+    private long position;
+    private boolean endOfStream;
+
+    private @NotNull byte[] line = new byte[256];
+
+    StreamSource(final @NotNull InputStream stream) {
+      this.stream = stream;
+    }
+
+    private boolean fill() throws IOException {
+      if (chunkPosition < chunkLimit) {
+        return true;
+      }
+      if (endOfStream) {
+        return false;
+      }
+      final int read = stream.read(chunk);
+      if (read <= 0) {
+        endOfStream = true;
+        return false;
+      }
+      chunkPosition = 0;
+      chunkLimit = read;
+      return true;
+    }
+
+    @Override
+    public boolean isAtEnd() throws IOException {
+      return !fill();
+    }
+
+    @Override
+    public long getPosition() {
+      return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill()) {
+        return -1;
+      }
+      position++;
+      return chunk[chunkPosition++] & 0xff;
+    }
 
-        if (lineBreakIndex == -1) {
-          throw new IllegalArgumentException(
-              "Invalid envelope. Item at index '"
-                  + items.size()
-                  + "'. "
-                  + "has no header delimiter.");
+    @Override
+    public @Nullable ByteBuffer readLine() throws IOException {
+      int length = 0;
+      while (fill()) {
+        int end = chunkPosition;
+        while (end < chunkLimit && chunk[end] != '\n') {
+          end++;
+        }
+        final int count = end - chunkPosition;
+        if (length + count > line.length) {
+          final byte[] grown = new byte[Math.max(line.length * 2, length + count)];
+          System.arraycopy(line, 0, grown, 0, length);
+          line = grown;
         }
+        System.arraycopy(chunk, chunkPosition, line, length, count);
+        length += count;
+        position += count;
+        chunkPosition = end;
 
-        SentryEnvelopeItemHeader itemHeader =
-            deserializeEnvelopeItemHeader(
-                envelopeBytes, itemHeaderStartOffset, lineBreakIndex - itemHeaderStartOffset);
-
-        if (itemHeader.getLength() <= 0) {
-          throw new IllegalArgumentException(
-              "Item header at index '"
-                  + items.size()
-                  + "' has an invalid value: '"
-                  + itemHeader.getLength()
-                  + "'.");
+        if (end < chunkLimit) {
+          // skip the line break
+          chunkPosition++;
+          position++;
+          return ByteBuffer.wrap(line, 0, length);
         }
+      }
+      return null;
+    }
 
-        payloadEndOffsetExclusive = lineBreakIndex + itemHeader.getLength() + 1;
-        if (payloadEndOffsetExclusive > envelopeBytes.length) {
-          throw new IllegalArgumentException(
-              "Invalid length for item at index '"
-                  + items.size()
-                  + "'. "
-                  + "Item is '"
-                  + payloadEndOffsetExclusive
-                  + "' bytes. There are '"
-                  + envelopeBytes.length
-                  + "' in the buffer.");
+    @Override
+    public @Nullable SentryEnvelopeItem readItem(final @NotNull SentryEnvelopeItemHeader itemHeader)
+        throws IOException {
+      final int length = itemHeader.getLength();
+      byte[] payload = new byte[Math.min(length, MAX_PREALLOCATED_PAYLOAD)];
+      int read = Math.min(payload.length, chunkLimit - chunkPosition);
+      System.arraycopy(chunk, chunkPosition, payload, 0, read);
+      chunkPosition += read;
+      position += read;
+
+      while (read < length && !endOfStream) {
+        if (read == payload.length) {
+          payload = Arrays.copyOf(payload, (int) Math.min(length, 2L * payload.length));
+        }
+        final int count = stream.read(payload, read, payload.length - read);
+        if (count <= 0) {
+          endOfStream = true;
+        } else {
+          read += count;
+          position += count;
         }
+      }
+      // the payload grows up to the length, so a complete payload is an array of its exact length
+      return read == length ? new SentryEnvelopeItem(itemHeader, payload) : null;
+    }
+  }
 
-        // if 'to' parameter overflows, copyOfRange is happy to pretend nothing happened. Bound need
-        // checking.
-        byte[] envelopeItemBytes =
-            Arrays.copyOfRange(
-                envelopeBytes, lineBreakIndex + 1, payloadEndOffsetExclusive /* to is exclusive */);
+  /** Reads a buffer holding the whole envelope, items are views of it and are not copied. */
+  private static final class BufferSource implements Source {
+    private final @NotNull ByteBuffer buffer;
 
-        SentryEnvelopeItem item = new SentryEnvelopeItem(itemHeader, envelopeItemBytes);
-        items.add(item);
+    BufferSource(final @NotNull ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
 
-        if (payloadEndOffsetExclusive == envelopeBytes.length) {
-          // End of envelope
-          break;
-        } else if (payloadEndOffsetExclusive + 1 == envelopeBytes.length) {
-          // Envelope items can be closed with a final line break
-          if (envelopeBytes[payloadEndOffsetExclusive] == '\n') {
-            break;
-          } else {
-            throw new IllegalArgumentException("Envelope has invalid data following an item.");
-          }
+    @Override
+    public boolean isAtEnd() {
+      return !buffer.hasRemaining();
+    }
+
+    @Override
+    public long getPosition() {
+      return buffer.position();
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public @Nullable ByteBuffer readLine() {
+      final int start = buffer.position();
+      for (int i = start; i < buffer.limit(); i++) {
+        if (buffer.get(i) == '\n') {
+          buffer.position(i + 1);
+          return slice(start, i);
         }
+      }
+      buffer.position(buffer.limit());
+      return null;
+    }
 
-        itemHeaderStartOffset = payloadEndOffsetExclusive + 1; // Skip over delimiter
-      } while (true);
+    @Override
+    public @Nullable SentryEnvelopeItem readItem(
+        final @NotNull SentryEnvelopeItemHeader itemHeader) {
+      final int start = buffer.position();
+      if (itemHeader.getLength() > buffer.remaining()) {
+        buffer.position(buffer.limit());
+        return null;
+      }
+      final int end = start + itemHeader.getLength();
+      buffer.position(end);
+      return new SentryEnvelopeItem(itemHeader, slice(start, end));
+    }
 
-      return new SentryEnvelope(header, items);
+    private @NotNull ByteBuffer slice(final int start, final int end) {
+      final ByteBuffer view = buffer.duplicate();
+      view.position(start);
+      view.limit(end);
+      return view.slice();
     }
   }
 
-  private SentryEnvelopeHeader deserializeEnvelopeHeader(byte[] buffer, int offset, int length) {
-    String json = new String(buffer, offset, length, UTF_8);
-    return gson.fromJson(json, SentryEnvelopeHeader.class);
-  }
+  /** Decodes header lines into a reused char array, instead of creating a String for each. */
+  private static final class HeaderDecoder {
+    private final @NotNull CharsetDecoder decoder =
+        UTF_8
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private @NotNull CharBuffer chars = CharBuffer.allocate(256);
 
-  private SentryEnvelopeItemHeader deserializeEnvelopeItemHeader(
-      byte[] buffer, int offset, int length) {
-    String json = new String(buffer, offset, length, UTF_8);
-    return gson.fromJson(json, SentryEnvelopeItemHeader.class);
+    @NotNull
+    Reader decode(final @NotNull ByteBuffer line) {
+      // UTF-8 never has more chars than bytes
+      if (chars.capacity() < line.remaining()) {
+        chars = CharBuffer.allocate(line.remaining());
+      }
+      chars.clear();
+      decoder.reset();
+      final CoderResult result = decoder.decode(line, chars, true);
+      if (!result.isError()) {
+        decoder.flush(chars);
+      }
+      chars.flip();
+      return new CharArrayReader(chars.array(), chars.arrayOffset(), chars.remaining());
+    }
   }
 }
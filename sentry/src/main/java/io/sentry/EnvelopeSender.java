@@ -1,11 +1,15 @@
 package io.sentry;
 
+import io.sentry.cache.CompressedEnvelope;
 import io.sentry.cache.EnvelopeCache;
+import io.sentry.cache.FramedEnvelope;
+import io.sentry.cache.IEnvelopeCache;
 import io.sentry.hints.Flushable;
 import io.sentry.hints.Retryable;
 import io.sentry.util.LogUtils;
 import io.sentry.util.Objects;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -27,7 +31,16 @@ public final class EnvelopeSender extends DirectoryProcessor implements IEnvelop
       final @NotNull ISerializer serializer,
       final @NotNull ILogger logger,
       final long flushTimeoutMillis) {
-    super(logger, flushTimeoutMillis);
+    this(hub, serializer, logger, flushTimeoutMillis, 1);
+  }
+
+  public EnvelopeSender(
+      final @NotNull IHub hub,
+      final @NotNull ISerializer serializer,
+      final @NotNull ILogger logger,
+      final long flushTimeoutMillis,
+      final int replayConcurrency) {
+    super(logger, flushTimeoutMillis, replayConcurrency);
     this.hub = Objects.requireNonNull(hub, "Hub is required.");
     this.serializer = Objects.requireNonNull(serializer, "Serializer is required.");
     this.logger = Objects.requireNonNull(logger, "Logger is required.");
@@ -54,8 +67,13 @@ public final class EnvelopeSender extends DirectoryProcessor implements IEnvelop
       return;
     }
 
-    try (final InputStream is = new BufferedInputStream(new FileInputStream(file))) {
-      SentryEnvelope envelope = serializer.deserializeEnvelope(is);
+    try {
+      final SentryEnvelope envelope = readEnvelopeFile(file);
+      if (envelope == null) {
+        logger.log(
+            SentryLevel.ERROR, "Envelope file '%s' has nothing intact left.", file.getAbsolutePath());
+        return;
+      }
       hub.captureEnvelope(envelope, hint);
 
       if (hint instanceof Flushable) {
@@ -96,6 +114,27 @@ public final class EnvelopeSender extends DirectoryProcessor implements IEnvelop
     }
   }
 
+  /**
+   * Reads the envelope file in any of the formats of the cache. The envelope of a gzipped file
+   * keeps its bytes to be sent as they are.
+   *
+   * @param file the envelope file
+   * @return the envelope or null if nothing of it is intact
+   * @throws IOException if the file couldn't be read
+   */
+  private @Nullable SentryEnvelope readEnvelopeFile(final @NotNull File file) throws IOException {
+    if (CompressedEnvelope.isCompressed(file)) {
+      return CompressedEnvelope.read(file, serializer);
+    }
+    if (FramedEnvelope.isFramed(file)) {
+      final byte[] wire = FramedEnvelope.readWire(file, logger);
+      return wire != null ? serializer.deserializeEnvelope(new ByteArrayInputStream(wire)) : null;
+    }
+    try (final InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+      return serializer.deserializeEnvelope(is);
+    }
+  }
+
   @Override
   protected boolean isRelevantFileName(String fileName) {
     return fileName.endsWith(EnvelopeCache.SUFFIX_ENVELOPE_FILE);
@@ -108,6 +147,41 @@ public final class EnvelopeSender extends DirectoryProcessor implements IEnvelop
     processFile(new File(path), hint);
   }
 
+  /**
+   * Captures the envelopes of the given cache one at a time, the ones that aren't marked to be
+   * retried are discarded from it afterwards.
+   *
+   * @param envelopeCache the cache
+   */
+  public void processEnvelopeCache(final @NotNull IEnvelopeCache envelopeCache) {
+    Objects.requireNonNull(envelopeCache, "EnvelopeCache is required.");
+
+    for (final SentryEnvelope envelope : envelopeCache) {
+      final Object hint = createHint();
+      try {
+        hub.captureEnvelope(envelope, hint);
+
+        if (hint instanceof Flushable) {
+          if (!((Flushable) hint).waitFlush()) {
+            logger.log(SentryLevel.WARNING, "Timed out waiting for envelope submission.");
+          }
+        }
+      } catch (Exception e) {
+        logger.log(SentryLevel.ERROR, e, "Failed to capture cached envelope.");
+        if (hint instanceof Retryable) {
+          ((Retryable) hint).setRetry(false);
+        }
+      } finally {
+        // Unless the transport marked this to be retried, it'll be discarded.
+        if (hint instanceof Retryable && ((Retryable) hint).isRetry()) {
+          logger.log(SentryLevel.INFO, "Envelope not discarded since retry was marked.");
+        } else {
+          envelopeCache.discard(envelope);
+        }
+      }
+    }
+  }
+
   private void safeDelete(File file, String errorMessageSuffix) {
     try {
       if (!file.delete()) {
@@ -0,0 +1,259 @@
+package io.sentry;
+
+import io.sentry.protocol.SentryId;
+import io.sentry.protocol.User;
+import io.sentry.util.Objects;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A Hub that is a clone of another one, only cloned once it's written to. Until then it reads the
+ * Hub it was forked from, so handing a Hub to a thread or a task that never changes its scope or
+ * captures anything doesn't copy the Stack and its Scopes.
+ *
+ * <p>Capturing counts as a write, as each Hub keeps its own last event id.
+ *
+ * <p>If the caller can prove that only one thread ever writes to it, it can be created thread
+ * confined, then the Hub it's forked into pushes and pops its scopes without locking. The Hubs
+ * handed out by {@link Sentry#getCurrentHub()} or installed by {@link SentryWrapper} aren't, as
+ * whoever gets them may pass them on to other threads.
+ */
+final class ForkOnWriteHub implements IHub {
+
+  private final @NotNull IHub parent;
+  private final boolean threadConfined;
+  private volatile @Nullable IHub forked;
+
+  ForkOnWriteHub(final @NotNull IHub parent) {
+    this(parent, false);
+  }
+
+  ForkOnWriteHub(final @NotNull IHub parent, final boolean threadConfined) {
+    Objects.requireNonNull(parent, "Hub is required.");
+    // a fork of a fork that wasn't written to reads the same Hub, they don't have to be stacked
+    this.parent = parent instanceof ForkOnWriteHub ? ((ForkOnWriteHub) parent).reading() : parent;
+    this.threadConfined = threadConfined;
+  }
+
+  /**
+   * Returns the Hub to read from, the parent one until forked
+   *
+   * @return the Hub
+   */
+  private @NotNull IHub reading() {
+    final IHub hub = forked;
+    return hub != null ? hub : parent;
+  }
+
+  /**
+   * Returns the Hub to write to, forking it from the parent one the first time
+   *
+   * @return the forked Hub
+   */
+  private @NotNull IHub writing() {
+    IHub hub = forked;
+    if (hub == null) {
+      synchronized (this) {
+        hub = forked;
+        if (hub == null) {
+          hub =
+              threadConfined && parent instanceof Hub
+                  ? ((Hub) parent).cloneThreadConfined()
+                  : parent.clone();
+          forked = hub;
+        }
+      }
+    }
+    return hub;
+  }
+
+  /**
+   * Checks if it was written to and has its own Hub
+   *
+   * @return true if forked
+   */
+  boolean isForked() {
+    return forked != null;
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return reading().isEnabled();
+  }
+
+  @Override
+  public SentryId captureEvent(SentryEvent event, @Nullable Object hint) {
+    return writing().captureEvent(event, hint);
+  }
+
+  @Override
+  public SentryId captureMessage(String message, SentryLevel level) {
+    return writing().captureMessage(message, level);
+  }
+
+  @Override
+  public SentryId captureEnvelope(SentryEnvelope envelope, @Nullable Object hint) {
+    return writing().captureEnvelope(envelope, hint);
+  }
+
+  @Override
+  public SentryId captureException(Throwable throwable, @Nullable Object hint) {
+    return writing().captureException(throwable, hint);
+  }
+
+  @Override
+  public void captureUserFeedback(UserFeedback userFeedback) {
+    reading().captureUserFeedback(userFeedback);
+  }
+
+  @Override
+  public void startSession() {
+    writing().startSession();
+  }
+
+  @Override
+  public void endSession() {
+    writing().endSession();
+  }
+
+  @Override
+  public void close() {
+    // closing disables the Hub, not the one it was forked from
+    writing().close();
+  }
+
+  @Override
+  public void addBreadcrumb(Breadcrumb breadcrumb, @Nullable Object hint) {
+    writing().addBreadcrumb(breadcrumb, hint);
+  }
+
+  @Override
+  public void setLevel(SentryLevel level) {
+    writing().setLevel(level);
+  }
+
+  @Override
+  public void setTransaction(String transaction) {
+    writing().setTransaction(transaction);
+  }
+
+  @Override
+  public void setUser(User user) {
+    writing().setUser(user);
+  }
+
+  @Override
+  public void setFingerprint(List<String> fingerprint) {
+    writing().setFingerprint(fingerprint);
+  }
+
+  @Override
+  public void clearBreadcrumbs() {
+    writing().clearBreadcrumbs();
+  }
+
+  @Override
+  public void setTag(String key, String value) {
+    writing().setTag(key, value);
+  }
+
+  @Override
+  public void removeTag(String key) {
+    writing().removeTag(key);
+  }
+
+  @Override
+  public void setExtra(String key, String value) {
+    writing().setExtra(key, value);
+  }
+
+  @Override
+  public void removeExtra(String key) {
+    writing().removeExtra(key);
+  }
+
+  @Override
+  public SentryId getLastEventId() {
+    // nothing was captured by this Hub until it's forked
+    final IHub hub = forked;
+    return hub != null ? hub.getLastEventId() : SentryId.EMPTY_ID;
+  }
+
+  @Override
+  public void pushScope() {
+    writing().pushScope();
+  }
+
+  @Override
+  public void popScope() {
+    writing().popScope();
+  }
+
+  @Override
+  public void withScope(ScopeCallback callback) {
+    writing().withScope(callback);
+  }
+
+  @Override
+  public void configureScope(ScopeCallback callback) {
+    writing().configureScope(callback);
+  }
+
+  @Override
+  public void bindClient(ISentryClient client) {
+    writing().bindClient(client);
+  }
+
+  @Override
+  public void flush(long timeoutMillis) {
+    reading().flush(timeoutMillis);
+  }
+
+  @Override
+  public IHub clone() {
+    return reading().clone();
+  }
+
+  @Override
+  public @NotNull SentryId captureTransaction(ITransaction transaction, Object hint) {
+    return writing().captureTransaction(transaction, hint);
+  }
+
+  @Override
+  public @NotNull ITransaction startTransaction(TransactionContext transactionContexts) {
+    return writing().startTransaction(transactionContexts);
+  }
+
+  @Override
+  public @NotNull ITransaction startTransaction(
+      TransactionContext transactionContexts, CustomSamplingContext customSamplingContext) {
+    return writing().startTransaction(transactionContexts, customSamplingContext);
+  }
+
+  @Override
+  public @NotNull ITransaction startTransaction(
+      String name, CustomSamplingContext customSamplingContext) {
+    return writing().startTransaction(name, customSamplingContext);
+  }
+
+  @Override
+  public @Nullable SentryTraceHeader traceHeaders() {
+    return reading().traceHeaders();
+  }
+
+  @Override
+  public void setSpanContext(final @NotNull Throwable t, final @NotNull SpanContext sc) {
+    writing().setSpanContext(t, sc);
+  }
+
+  @Override
+  public @Nullable SpanContext getSpanContext(final @NotNull Throwable ex) {
+    return reading().getSpanContext(ex);
+  }
+
+  @Override
+  public @Nullable ISpan getSpan() {
+    return reading().getSpan();
+  }
+}
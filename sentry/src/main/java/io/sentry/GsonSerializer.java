@@ -169,20 +169,29 @@ public final class GsonSerializer implements ISerializer {
       writer.write("\n");
 
       for (final SentryEnvelopeItem item : envelope.getItems()) {
+        final int length;
+        final byte[] data;
         try {
           // When this throws we don't write anything and continue with the next item.
-          final byte[] data = item.getData();
-
-          gson.toJson(item.getHeader(), SentryEnvelopeItemHeader.class, writer);
-          writer.write("\n");
-          writer.flush();
-
-          outputStream.write(data);
-
-          writer.write("\n");
+          length = item.getHeader().computeLength();
+          data = item.preparePayload(length);
         } catch (Exception exception) {
           logger.log(SentryLevel.ERROR, "Failed to create envelope item. Dropping it.", exception);
+          continue;
         }
+
+        gson.toJson(item.getHeader(), SentryEnvelopeItemHeader.class, writer);
+        writer.write("\n");
+        writer.flush();
+
+        if (data != null) {
+          bufferedOutputStream.write(data);
+        } else {
+          // the header is written already, if it fails the whole envelope does
+          item.writePayload(bufferedOutputStream, length);
+        }
+
+        writer.write("\n");
       }
       writer.flush();
     }
@@ -1,19 +1,25 @@
 package io.sentry;
 
 import io.sentry.transport.HttpTransport;
-import io.sentry.transport.IConnectionConfigurator;
 import io.sentry.transport.ITransport;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Map;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 final class HttpTransportFactory {
 
+  static final String NON_BLOCKING_TRANSPORT_CLASS_NAME =
+      "io.sentry.java11.NonBlockingHttpTransport";
+
+  private static final String HTTP_CLIENT_CLASS_NAME = "java.net.http.HttpClient";
+
   private HttpTransportFactory() {}
 
   static ITransport create(@NotNull SentryOptions options) {
     Dsn parsedDsn = new Dsn(options.getDsn());
-    IConnectionConfigurator credentials =
+    CredentialsSettingConfigurator credentials =
         new CredentialsSettingConfigurator(parsedDsn, options.getSentryClientName());
 
     URL sentryUrl;
@@ -23,6 +29,14 @@ final class HttpTransportFactory {
       throw new IllegalArgumentException("Failed to compose the Sentry's server URL.", e);
     }
 
+    if (options.isEnableNonBlockingTransport()) {
+      final ITransport transport =
+          createNonBlockingTransport(options, credentials.getHeaders(), sentryUrl);
+      if (transport != null) {
+        return transport;
+      }
+    }
+
     return new HttpTransport(
         options,
         credentials,
@@ -32,4 +46,60 @@ final class HttpTransportFactory {
         options.getHostnameVerifier(),
         sentryUrl);
   }
+
+  /**
+   * Creates the transport of the sentry-java11-transport module through reflection, as the core
+   * module targets Java 8 and Android, which don't have java.net.http.
+   *
+   * @param options the SentryOptions
+   * @param headers the credential headers
+   * @param sentryUrl the parsed DSN
+   * @return the transport or null if it's not available
+   */
+  private static @Nullable ITransport createNonBlockingTransport(
+      final @NotNull SentryOptions options,
+      final @NotNull Map<String, String> headers,
+      final @NotNull URL sentryUrl) {
+    // java.net.http takes a SSLContext, which can't be made out of them
+    if (options.getSslSocketFactory() != null || options.getHostnameVerifier() != null) {
+      options
+          .getLogger()
+          .log(
+              SentryLevel.WARNING,
+              "The non-blocking transport doesn't support a custom sslSocketFactory or hostnameVerifier, the default transport is used.");
+      return null;
+    }
+
+    try {
+      Class.forName(HTTP_CLIENT_CLASS_NAME);
+    } catch (ClassNotFoundException e) {
+      options
+          .getLogger()
+          .log(
+              SentryLevel.WARNING,
+              "The non-blocking transport requires Java 11+, the default transport is used.");
+      return null;
+    }
+
+    try {
+      final Class<?> transportClass = Class.forName(NON_BLOCKING_TRANSPORT_CLASS_NAME);
+      final Object transport =
+          transportClass
+              .getConstructor(SentryOptions.class, Map.class, URL.class)
+              .newInstance(options, headers, sentryUrl);
+      options.getLogger().log(SentryLevel.DEBUG, "Non-blocking transport created.");
+      return (ITransport) transport;
+    } catch (ClassNotFoundException e) {
+      options
+          .getLogger()
+          .log(
+              SentryLevel.WARNING,
+              "The non-blocking transport requires the sentry-java11-transport module, the default transport is used.");
+    } catch (Throwable e) {
+      options
+          .getLogger()
+          .log(SentryLevel.ERROR, "Failed to create the non-blocking transport.", e);
+    }
+    return null;
+  }
 }
@@ -498,6 +498,21 @@ public final class Hub implements IHub {
     return new Hub(this.options, new Stack(this.stack));
   }
 
+  /**
+   * Clones the Hub for a single thread. Only that thread may push and pop its scopes, which it does
+   * without locking, other threads may still read it. Only for internal callers that can prove the
+   * Hub never escapes that thread, a Hub handed out to users must be cloned with {@link #clone()}.
+   *
+   * @return the cloned Hub
+   */
+  @NotNull
+  IHub cloneThreadConfined() {
+    if (!isEnabled()) {
+      options.getLogger().log(SentryLevel.WARNING, "Disabled Hub cloned.");
+    }
+    return new Hub(this.options, new Stack(this.stack, true));
+  }
+
   @ApiStatus.Internal
   @Override
   public @NotNull SentryId captureTransaction(
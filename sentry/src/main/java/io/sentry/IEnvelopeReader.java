@@ -2,10 +2,25 @@ package io.sentry;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public interface IEnvelopeReader {
   @Nullable
   SentryEnvelope read(@NotNull InputStream stream) throws IOException;
+
+  /**
+   * Reads the envelope stored in a file. Readers that can access the file directly avoid copying
+   * the item payloads, by default the channel is read as a stream.
+   *
+   * @param channel the channel of the envelope file, not closed by the reader
+   * @return the envelope or null
+   * @throws IOException if the file couldn't be read
+   */
+  default @Nullable SentryEnvelope readChannel(final @NotNull FileChannel channel)
+      throws IOException {
+    return read(Channels.newInputStream(channel));
+  }
 }
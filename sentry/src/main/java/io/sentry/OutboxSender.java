@@ -9,13 +9,10 @@ import io.sentry.hints.SubmissionResult;
 import io.sentry.util.CollectionUtils;
 import io.sentry.util.LogUtils;
 import io.sentry.util.Objects;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.Charset;
@@ -40,7 +37,17 @@ public final class OutboxSender extends DirectoryProcessor implements IEnvelopeS
       final @NotNull ISerializer serializer,
       final @NotNull ILogger logger,
       final long flushTimeoutMillis) {
-    super(logger, flushTimeoutMillis);
+    this(hub, envelopeReader, serializer, logger, flushTimeoutMillis, 1);
+  }
+
+  public OutboxSender(
+      final @NotNull IHub hub,
+      final @NotNull IEnvelopeReader envelopeReader,
+      final @NotNull ISerializer serializer,
+      final @NotNull ILogger logger,
+      final long flushTimeoutMillis,
+      final int replayConcurrency) {
+    super(logger, flushTimeoutMillis, replayConcurrency);
     this.hub = Objects.requireNonNull(hub, "Hub is required.");
     this.envelopeReader = Objects.requireNonNull(envelopeReader, "Envelope reader is required.");
     this.serializer = Objects.requireNonNull(serializer, "Serializer is required.");
@@ -56,8 +63,8 @@ public final class OutboxSender extends DirectoryProcessor implements IEnvelopeS
       return;
     }
 
-    try (final InputStream stream = new BufferedInputStream(new FileInputStream(file))) {
-      final SentryEnvelope envelope = envelopeReader.read(stream);
+    try (final FileInputStream stream = new FileInputStream(file)) {
+      final SentryEnvelope envelope = envelopeReader.readChannel(stream.getChannel());
       if (envelope == null) {
         logger.log(
             SentryLevel.ERROR,
@@ -116,8 +123,7 @@ public final class OutboxSender extends DirectoryProcessor implements IEnvelopeS
       }
       if (SentryItemType.Event.equals(item.getHeader().getType())) {
         try (final Reader eventReader =
-            new BufferedReader(
-                new InputStreamReader(new ByteArrayInputStream(item.getData()), UTF_8))) {
+            new BufferedReader(new InputStreamReader(item.getDataStream(), UTF_8))) {
           SentryEvent event = serializer.deserialize(eventReader, SentryEvent.class);
           if (event == null) {
             logger.log(
@@ -0,0 +1,120 @@
+package io.sentry;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An immutable list of the newest breadcrumbs, up to a max. Adding a breadcrumb returns a new list
+ * that shares every older breadcrumb with this one, so a Scope and its clones share the breadcrumbs
+ * they had when cloned and each of them adds its own without copying the others.
+ *
+ * <p>The list is linked newest first and each list is a link itself, so adding a breadcrumb
+ * allocates a single object. The older ones are only dropped once twice the max are linked, so
+ * adding a breadcrumb is O(1) amortized.
+ */
+final class PersistentBreadcrumbs implements Iterable<Breadcrumb> {
+
+  private final int maxBreadcrumbs;
+  // null for the empty list
+  private final @Nullable Breadcrumb newest;
+  private final @Nullable PersistentBreadcrumbs older;
+  // the number of breadcrumbs linked from this one, itself included
+  private final int length;
+
+  private PersistentBreadcrumbs(
+      final int maxBreadcrumbs,
+      final @Nullable Breadcrumb newest,
+      final @Nullable PersistentBreadcrumbs older,
+      final int length) {
+    this.maxBreadcrumbs = maxBreadcrumbs;
+    this.newest = newest;
+    this.older = older;
+    this.length = length;
+  }
+
+  /**
+   * Returns an empty list
+   *
+   * @param maxBreadcrumbs the max number of breadcrumbs
+   * @return the empty list
+   * @throws IllegalArgumentException if the max is &lt; 1
+   */
+  static @NotNull PersistentBreadcrumbs empty(final int maxBreadcrumbs) {
+    if (maxBreadcrumbs <= 0) {
+      throw new IllegalArgumentException("The size must be greater than 0");
+    }
+    return new PersistentBreadcrumbs(maxBreadcrumbs, null, null, 0);
+  }
+
+  /**
+   * Adds a breadcrumb, dropping the oldest one if the max is reached
+   *
+   * @param breadcrumb the breadcrumb
+   * @return the list with the breadcrumb, this one is left as it is
+   */
+  @NotNull
+  PersistentBreadcrumbs add(final @NotNull Breadcrumb breadcrumb) {
+    final PersistentBreadcrumbs added =
+        new PersistentBreadcrumbs(
+            maxBreadcrumbs, breadcrumb, length > 0 ? this : null, length + 1);
+    return added.length >= 2L * maxBreadcrumbs ? added.relink() : added;
+  }
+
+  /**
+   * Returns an empty list with the same max
+   *
+   * @return the empty list
+   */
+  @NotNull
+  PersistentBreadcrumbs clear() {
+    return length > 0 ? new PersistentBreadcrumbs(maxBreadcrumbs, null, null, 0) : this;
+  }
+
+  int size() {
+    return Math.min(length, maxBreadcrumbs);
+  }
+
+  /**
+   * Returns the breadcrumbs, oldest first
+   *
+   * @return the breadcrumbs
+   */
+  @NotNull
+  List<Breadcrumb> toList() {
+    final int size = size();
+    if (size == 0) {
+      return Collections.emptyList();
+    }
+    final Breadcrumb[] breadcrumbs = new Breadcrumb[size];
+    PersistentBreadcrumbs link = this;
+    for (int i = size - 1; i >= 0 && link != null; i--) {
+      breadcrumbs[i] = link.newest;
+      link = link.older;
+    }
+    return Collections.unmodifiableList(Arrays.asList(breadcrumbs));
+  }
+
+  @Override
+  public @NotNull Iterator<Breadcrumb> iterator() {
+    return toList().iterator();
+  }
+
+  /** Links the newest breadcrumbs again, leaving the older ones to whoever still shares them. */
+  private @NotNull PersistentBreadcrumbs relink() {
+    final List<Breadcrumb> kept = toList();
+    PersistentBreadcrumbs relinked = empty(maxBreadcrumbs);
+    for (final Breadcrumb breadcrumb : kept) {
+      relinked =
+          new PersistentBreadcrumbs(
+              maxBreadcrumbs,
+              breadcrumb,
+              relinked.length > 0 ? relinked : null,
+              relinked.length + 1);
+    }
+    return relinked;
+  }
+}
@@ -3,19 +3,28 @@ package io.sentry;
 import io.sentry.protocol.Contexts;
 import io.sentry.protocol.User;
 import io.sentry.util.Objects;
+import java.util.AbstractQueue;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-/** Scope data to be sent with the event */
+/**
+ * Scope data to be sent with the event
+ *
+ * <p>The breadcrumbs, tags, extras, event processors and attachments are copy-on-write: they're
+ * never changed in place but replaced, so a clone shares them with the Scope it was cloned from
+ * and cloning doesn't copy them. The contexts are only copied once either Scope changes them.
+ */
 public final class Scope implements Cloneable {
 
   /** Scope's SentryLevel */
@@ -30,17 +39,20 @@ public final class Scope implements Cloneable {
   /** Scope's fingerprint */
   private @NotNull List<String> fingerprint = new ArrayList<>();
 
-  /** Scope's breadcrumb queue */
-  private @NotNull Queue<Breadcrumb> breadcrumbs;
+  /**
+   * Scope's breadcrumbs, shared with its clones. Replaced with compare-and-set, so adding a
+   * breadcrumb doesn't lock and whoever reads them gets a consistent snapshot.
+   */
+  private @NotNull AtomicReference<PersistentBreadcrumbs> breadcrumbs;
 
-  /** Scope's tags */
-  private @NotNull Map<String, String> tags = new ConcurrentHashMap<>();
+  /** Scope's tags, never changed in place */
+  private volatile @NotNull Map<String, String> tags = Collections.emptyMap();
 
-  /** Scope's extras */
-  private @NotNull Map<String, Object> extra = new ConcurrentHashMap<>();
+  /** Scope's extras, never changed in place */
+  private volatile @NotNull Map<String, Object> extra = Collections.emptyMap();
 
-  /** Scope's event processor list */
-  private @NotNull List<EventProcessor> eventProcessors = new CopyOnWriteArrayList<>();
+  /** Scope's event processor list, never changed in place */
+  private volatile @NotNull List<EventProcessor> eventProcessors = Collections.emptyList();
 
   /** Scope's SentryOptions */
   private final @NotNull SentryOptions options;
@@ -56,8 +68,17 @@ public final class Scope implements Cloneable {
   /** Scope's contexts */
   private @NotNull Contexts contexts = new Contexts();
 
-  /** Scope's attachments */
-  private @NotNull List<Attachment> attachments = new CopyOnWriteArrayList<>();
+  /** If the contexts are shared with a clone and have to be copied before being changed */
+  private boolean contextsShared;
+
+  /** If the contexts were handed out by getContexts and could be changed without the Scope */
+  private boolean contextsExposed;
+
+  /** Scope's attachments, never changed in place */
+  private volatile @NotNull List<Attachment> attachments = Collections.emptyList();
+
+  /** Write lock, replacing the copy-on-write fields should be atomic */
+  private @NotNull Object writeLock = new Object();
 
   /**
    * Scope's ctor
@@ -66,7 +87,8 @@ public final class Scope implements Cloneable {
    */
   public Scope(final @NotNull SentryOptions options) {
     this.options = options;
-    this.breadcrumbs = createBreadcrumbsList(options.getMaxBreadcrumbs());
+    this.breadcrumbs =
+        new AtomicReference<>(PersistentBreadcrumbs.empty(options.getMaxBreadcrumbs()));
   }
 
   /**
@@ -183,13 +205,13 @@ public final class Scope implements Cloneable {
   }
 
   /**
-   * Returns the Scope's breadcrumbs queue
+   * Returns a read-only view of the Scope's breadcrumbs queue
    *
    * @return the breadcrumbs queue
    */
   @NotNull
   Queue<Breadcrumb> getBreadcrumbs() {
-    return breadcrumbs;
+    return new BreadcrumbsView();
   }
 
   /**
@@ -236,7 +258,10 @@ public final class Scope implements Cloneable {
       breadcrumb = executeBeforeBreadcrumb(callback, breadcrumb, hint);
     }
     if (breadcrumb != null) {
-      this.breadcrumbs.add(breadcrumb);
+      PersistentBreadcrumbs current;
+      do {
+        current = this.breadcrumbs.get();
+      } while (!this.breadcrumbs.compareAndSet(current, current.add(breadcrumb)));
 
       if (options.isEnableScopeSync()) {
         for (final IScopeObserver observer : options.getScopeObservers()) {
@@ -260,7 +285,7 @@ public final class Scope implements Cloneable {
 
   /** Clear all the breadcrumbs */
   public void clearBreadcrumbs() {
-    breadcrumbs.clear();
+    breadcrumbs.set(breadcrumbs.get().clear());
   }
 
   /** Clears the transaction. */
@@ -284,12 +309,14 @@ public final class Scope implements Cloneable {
     transaction = null;
     user = null;
     fingerprint.clear();
-    breadcrumbs.clear();
-    tags.clear();
-    extra.clear();
-    eventProcessors.clear();
+    clearBreadcrumbs();
+    synchronized (writeLock) {
+      tags = Collections.emptyMap();
+      extra = Collections.emptyMap();
+      eventProcessors = Collections.emptyList();
+      attachments = Collections.emptyList();
+    }
     clearTransaction();
-    attachments.clear();
   }
 
   /**
@@ -299,7 +326,7 @@ public final class Scope implements Cloneable {
    */
   @NotNull
   Map<String, String> getTags() {
-    return tags;
+    return Collections.unmodifiableMap(tags);
   }
 
   /**
@@ -309,7 +336,11 @@ public final class Scope implements Cloneable {
    * @param value the value
    */
   public void setTag(final @NotNull String key, final @NotNull String value) {
-    this.tags.put(key, value);
+    synchronized (writeLock) {
+      final Map<String, String> copy = new HashMap<>(tags);
+      copy.put(key, value);
+      this.tags = copy;
+    }
 
     if (options.isEnableScopeSync()) {
       for (final IScopeObserver observer : options.getScopeObservers()) {
@@ -324,7 +355,13 @@ public final class Scope implements Cloneable {
    * @param key the key
    */
   public void removeTag(final @NotNull String key) {
-    this.tags.remove(key);
+    synchronized (writeLock) {
+      if (tags.containsKey(key)) {
+        final Map<String, String> copy = new HashMap<>(tags);
+        copy.remove(key);
+        this.tags = copy;
+      }
+    }
 
     if (options.isEnableScopeSync()) {
       for (final IScopeObserver observer : options.getScopeObservers()) {
@@ -340,7 +377,7 @@ public final class Scope implements Cloneable {
    */
   @NotNull
   Map<String, Object> getExtras() {
-    return extra;
+    return Collections.unmodifiableMap(extra);
   }
 
   /**
@@ -350,7 +387,11 @@ public final class Scope implements Cloneable {
    * @param value the value
    */
   public void setExtra(final @NotNull String key, final @NotNull String value) {
-    this.extra.put(key, value);
+    synchronized (writeLock) {
+      final Map<String, Object> copy = new HashMap<>(extra);
+      copy.put(key, value);
+      this.extra = copy;
+    }
 
     if (options.isEnableScopeSync()) {
       for (final IScopeObserver observer : options.getScopeObservers()) {
@@ -365,7 +406,13 @@ public final class Scope implements Cloneable {
    * @param key the key
    */
   public void removeExtra(final @NotNull String key) {
-    this.extra.remove(key);
+    synchronized (writeLock) {
+      if (extra.containsKey(key)) {
+        final Map<String, Object> copy = new HashMap<>(extra);
+        copy.remove(key);
+        this.extra = copy;
+      }
+    }
 
     if (options.isEnableScopeSync()) {
       for (final IScopeObserver observer : options.getScopeObservers()) {
@@ -380,6 +427,43 @@ public final class Scope implements Cloneable {
    * @return the contexts
    */
   public @NotNull Contexts getContexts() {
+    synchronized (writeLock) {
+      final Contexts ownContexts = ownContexts();
+      contextsExposed = true;
+      return ownContexts;
+    }
+  }
+
+  /**
+   * Returns a copy of the Scope's contexts without handing out the contexts themselves
+   *
+   * @return the copy of the contexts
+   * @throws CloneNotSupportedException if object is not cloneable
+   */
+  @NotNull
+  Contexts cloneContexts() throws CloneNotSupportedException {
+    synchronized (writeLock) {
+      return contexts.clone();
+    }
+  }
+
+  /**
+   * Returns the contexts to be changed, copying them first if they're shared with a clone. Has to
+   * be called holding the write lock.
+   *
+   * @return the contexts owned by this Scope
+   */
+  private @NotNull Contexts ownContexts() {
+    if (contextsShared) {
+      try {
+        contexts = contexts.clone();
+      } catch (CloneNotSupportedException e) {
+        // Contexts is Cloneable, won't happen
+        contexts = new Contexts();
+      }
+      contextsShared = false;
+      contextsExposed = false;
+    }
     return contexts;
   }
 
@@ -390,7 +474,9 @@ public final class Scope implements Cloneable {
    * @param value the context value
    */
   public void setContexts(final @NotNull String key, final @NotNull Object value) {
-    this.contexts.put(key, value);
+    synchronized (writeLock) {
+      ownContexts().put(key, value);
+    }
   }
 
   /**
@@ -435,7 +521,9 @@ public final class Scope implements Cloneable {
    * @param key the Key
    */
   public void removeContexts(final @NotNull String key) {
-    contexts.remove(key);
+    synchronized (writeLock) {
+      ownContexts().remove(key);
+    }
   }
 
   /**
@@ -456,21 +544,16 @@ public final class Scope implements Cloneable {
    */
   @ApiStatus.Experimental
   public void addAttachment(final @NotNull Attachment attachment) {
-    attachments.add(attachment);
-  }
-
-  /**
-   * Creates a breadcrumb list with the max number of breadcrumbs
-   *
-   * @param maxBreadcrumb the max number of breadcrumbs
-   * @return the breadcrumbs queue
-   */
-  private @NotNull Queue<Breadcrumb> createBreadcrumbsList(final int maxBreadcrumb) {
-    return SynchronizedQueue.synchronizedQueue(new CircularFifoQueue<>(maxBreadcrumb));
+    synchronized (writeLock) {
+      final List<Attachment> copy = new ArrayList<>(attachments);
+      copy.add(attachment);
+      attachments = copy;
+    }
   }
 
   /**
-   * Clones a Scope aka deep copy
+   * Clones a Scope. The copy-on-write fields are shared with the clone, the breadcrumbs themselves
+   * aren't copied.
    *
    * @return the cloned Scope
    * @throws CloneNotSupportedException if object is not cloneable
@@ -487,46 +570,29 @@ public final class Scope implements Cloneable {
     clone.user = userRef != null ? userRef.clone() : null;
 
     clone.fingerprint = new ArrayList<>(fingerprint);
-    clone.eventProcessors = new CopyOnWriteArrayList<>(eventProcessors);
-
-    final Queue<Breadcrumb> breadcrumbsRef = breadcrumbs;
 
-    Queue<Breadcrumb> breadcrumbsClone = createBreadcrumbsList(options.getMaxBreadcrumbs());
-
-    for (Breadcrumb item : breadcrumbsRef) {
-      final Breadcrumb breadcrumbClone = item.clone();
-      breadcrumbsClone.add(breadcrumbClone);
-    }
-    clone.breadcrumbs = breadcrumbsClone;
-
-    final Map<String, String> tagsRef = tags;
-
-    final Map<String, String> tagsClone = new ConcurrentHashMap<>();
-
-    for (Map.Entry<String, String> item : tagsRef.entrySet()) {
-      if (item != null) {
-        tagsClone.put(item.getKey(), item.getValue()); // shallow copy
+    clone.breadcrumbs = new AtomicReference<>(breadcrumbs.get());
+
+    clone.writeLock = new Object();
+    synchronized (writeLock) {
+      // the copy-on-write fields were copied by super.clone, read them again while holding the lock
+      clone.tags = tags;
+      clone.extra = extra;
+      clone.eventProcessors = eventProcessors;
+      clone.attachments = attachments;
+
+      if (contextsExposed) {
+        // whoever holds them could still change them
+        clone.contexts = contexts.clone();
+        clone.contextsShared = false;
+      } else {
+        clone.contexts = contexts;
+        clone.contextsShared = true;
+        contextsShared = true;
       }
+      clone.contextsExposed = false;
     }
 
-    clone.tags = tagsClone;
-
-    final Map<String, Object> extraRef = extra;
-
-    Map<String, Object> extraClone = new ConcurrentHashMap<>();
-
-    for (Map.Entry<String, Object> item : extraRef.entrySet()) {
-      if (item != null) {
-        extraClone.put(item.getKey(), item.getValue()); // shallow copy
-      }
-    }
-
-    clone.extra = extraClone;
-
-    clone.contexts = contexts.clone();
-
-    clone.attachments = new CopyOnWriteArrayList<>(attachments);
-
     return clone;
   }
 
@@ -537,7 +603,7 @@ public final class Scope implements Cloneable {
    */
   @NotNull
   List<EventProcessor> getEventProcessors() {
-    return eventProcessors;
+    return Collections.unmodifiableList(eventProcessors);
   }
 
   /**
@@ -546,7 +612,52 @@ public final class Scope implements Cloneable {
    * @param eventProcessor the event processor
    */
   public void addEventProcessor(final @NotNull EventProcessor eventProcessor) {
-    eventProcessors.add(eventProcessor);
+    synchronized (writeLock) {
+      final List<EventProcessor> copy = new ArrayList<>(eventProcessors);
+      copy.add(eventProcessor);
+      eventProcessors = copy;
+    }
+  }
+
+  /** A read-only view of the Scope's breadcrumbs, it always shows the current ones. */
+  private final class BreadcrumbsView extends AbstractQueue<Breadcrumb> {
+
+    @Override
+    public @NotNull Iterator<Breadcrumb> iterator() {
+      return breadcrumbs.get().iterator();
+    }
+
+    @Override
+    public int size() {
+      return breadcrumbs.get().size();
+    }
+
+    @Override
+    public @NotNull Object[] toArray() {
+      // a single snapshot, size() and iterator() could each see a different one
+      return breadcrumbs.get().toList().toArray();
+    }
+
+    @Override
+    public <T> T[] toArray(final @NotNull T[] array) {
+      return breadcrumbs.get().toList().toArray(array);
+    }
+
+    @Override
+    public boolean offer(final @NotNull Breadcrumb breadcrumb) {
+      throw new UnsupportedOperationException("Use Scope#addBreadcrumb");
+    }
+
+    @Override
+    public @Nullable Breadcrumb poll() {
+      throw new UnsupportedOperationException("Use Scope#clearBreadcrumbs");
+    }
+
+    @Override
+    public @Nullable Breadcrumb peek() {
+      final Iterator<Breadcrumb> iterator = iterator();
+      return iterator.hasNext() ? iterator.next() : null;
+    }
   }
 
   /**
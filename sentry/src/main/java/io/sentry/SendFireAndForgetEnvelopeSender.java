@@ -1,5 +1,7 @@
 package io.sentry;
 
+import io.sentry.cache.IEnvelopeCache;
+import io.sentry.cache.SegmentedEnvelopeCache;
 import io.sentry.util.Objects;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
@@ -33,8 +35,26 @@ public final class SendFireAndForgetEnvelopeSender
 
     final EnvelopeSender envelopeSender =
         new EnvelopeSender(
-            hub, options.getSerializer(), options.getLogger(), options.getFlushTimeoutMillis());
-
-    return processDir(envelopeSender, dirPath, options.getLogger());
+            hub,
+            options.getSerializer(),
+            options.getLogger(),
+            options.getFlushTimeoutMillis(),
+            options.getCachedEnvelopeReplayConcurrency());
+
+    final SendCachedEnvelopeFireAndForgetIntegration.SendFireAndForget dirSender =
+        processDir(envelopeSender, dirPath, options.getLogger());
+
+    final IEnvelopeCache envelopeCache = options.getEnvelopeDiskCache();
+    if (!(envelopeCache instanceof SegmentedEnvelopeCache)) {
+      return dirSender;
+    }
+    return () -> {
+      // envelopes cached as files before the segmented cache was enabled
+      dirSender.send();
+
+      options.getLogger().log(SentryLevel.DEBUG, "Started processing the envelope log.");
+      envelopeSender.processEnvelopeCache(envelopeCache);
+      options.getLogger().log(SentryLevel.DEBUG, "Finished processing the envelope log.");
+    };
   }
 }
@@ -1,6 +1,7 @@
 package io.sentry;
 
 import io.sentry.cache.EnvelopeCache;
+import io.sentry.cache.SegmentedEnvelopeCache;
 import io.sentry.config.PropertiesProviderFactory;
 import io.sentry.protocol.SentryId;
 import io.sentry.protocol.User;
@@ -29,7 +30,8 @@ public final class Sentry {
   private static volatile boolean globalHubMode = GLOBAL_HUB_DEFAULT_MODE;
 
   /**
-   * Returns the current (threads) hub, if none, clones the mainHub and returns it.
+   * Returns the current (threads) hub, if none, forks the mainHub and returns it. The fork only
+   * clones the mainHub once the thread writes to it.
    *
    * @return the hub
    */
@@ -39,12 +41,38 @@ public final class Sentry {
     }
     IHub hub = currentHub.get();
     if (hub == null) {
-      hub = mainHub.clone();
+      hub = new ForkOnWriteHub(mainHub);
       currentHub.set(hub);
     }
     return hub;
   }
 
+  /**
+   * Sets the current (threads) hub, or removes it so the next call to getCurrentHub forks the
+   * mainHub again. It's a no-op if globalHubMode is enabled.
+   *
+   * @param hub the hub or null
+   */
+  static void setCurrentHub(final @Nullable IHub hub) {
+    if (globalHubMode) {
+      return;
+    }
+    if (hub != null) {
+      currentHub.set(hub);
+    } else {
+      currentHub.remove();
+    }
+  }
+
+  /**
+   * Returns the current (threads) hub without forking the mainHub if there's none
+   *
+   * @return the hub or null
+   */
+  static @Nullable IHub peekCurrentHub() {
+    return globalHubMode ? mainHub : currentHub.get();
+  }
+
   /**
    * Check if the current Hub is enabled/active.
    *
@@ -208,7 +236,11 @@ public final class Sentry {
       final File outboxDir = new File(options.getOutboxPath());
       outboxDir.mkdirs();
 
-      options.setEnvelopeDiskCache(new EnvelopeCache(options));
+      if (options.isEnableSegmentedEnvelopeCache()) {
+        options.setEnvelopeDiskCache(new SegmentedEnvelopeCache(options));
+      } else {
+        options.setEnvelopeDiskCache(new EnvelopeCache(options));
+      }
     } else {
       logger.log(SentryLevel.INFO, "No outbox dir path is defined in options.");
     }
@@ -420,7 +420,7 @@ public final class SentryClient implements ISentryClient {
         }
       }
       try {
-        for (Map.Entry<String, Object> entry : scope.getContexts().clone().entrySet()) {
+        for (Map.Entry<String, Object> entry : scope.cloneContexts().entrySet()) {
           if (!event.getContexts().containsKey(entry.getKey())) {
             event.getContexts().put(entry.getKey(), entry.getValue());
           }
@@ -511,10 +511,9 @@ public final class SentryClient implements ISentryClient {
 
   private static final class SortBreadcrumbsByDate implements Comparator<Breadcrumb> {
 
-    @SuppressWarnings("JdkObsolete")
     @Override
     public int compare(final @NotNull Breadcrumb b1, final @NotNull Breadcrumb b2) {
-      return b1.getTimestamp().compareTo(b2.getTimestamp());
+      return Long.compare(b1.getTimestampMillis(), b2.getTimestampMillis());
     }
   }
 }
@@ -17,6 +17,8 @@ public final class SentryEnvelope {
   // an envelope cannot have 2 events, but eg multiple sessions
   private final @NotNull SentryEnvelopeHeader header;
   private final @NotNull Iterable<SentryEnvelopeItem> items;
+  // the gzipped wire format the envelope was read from, if it was cached gzipped
+  private final @Nullable byte[] compressedBytes;
 
   public @NotNull Iterable<SentryEnvelopeItem> getItems() {
     return items;
@@ -26,11 +28,28 @@ public final class SentryEnvelope {
     return header;
   }
 
+  /**
+   * Returns the gzipped wire format the envelope was read from, to be sent as is
+   *
+   * @return the gzipped bytes or null if it has to be serialized
+   */
+  public @Nullable byte[] getCompressedBytes() {
+    return compressedBytes;
+  }
+
   public SentryEnvelope(
       final @NotNull SentryEnvelopeHeader header,
       final @NotNull Iterable<SentryEnvelopeItem> items) {
+    this(header, items, null);
+  }
+
+  private SentryEnvelope(
+      final @NotNull SentryEnvelopeHeader header,
+      final @NotNull Iterable<SentryEnvelopeItem> items,
+      final @Nullable byte[] compressedBytes) {
     this.header = Objects.requireNonNull(header, "SentryEnvelopeHeader is required.");
     this.items = Objects.requireNonNull(items, "SentryEnvelope items are required.");
+    this.compressedBytes = compressedBytes;
   }
 
   public SentryEnvelope(
@@ -39,6 +58,7 @@ public final class SentryEnvelope {
       final @NotNull Iterable<SentryEnvelopeItem> items) {
     header = new SentryEnvelopeHeader(eventId, sdkVersion);
     this.items = Objects.requireNonNull(items, "SentryEnvelope items are required.");
+    this.compressedBytes = null;
   }
 
   public SentryEnvelope(
@@ -51,6 +71,18 @@ public final class SentryEnvelope {
     final List<SentryEnvelopeItem> items = new ArrayList<>(1);
     items.add(item);
     this.items = items;
+    this.compressedBytes = null;
+  }
+
+  /**
+   * Returns the same envelope along with the gzipped wire format it was read from. The bytes have
+   * to be of this very envelope, as they're sent instead of it.
+   *
+   * @param compressedBytes the gzipped bytes
+   * @return the envelope
+   */
+  public @NotNull SentryEnvelope withCompressedBytes(final @NotNull byte[] compressedBytes) {
+    return new SentryEnvelope(header, items, compressedBytes);
   }
 
   public static @NotNull SentryEnvelope from(
@@ -2,7 +2,6 @@ package io.sentry;
 
 import io.sentry.exception.SentryEnvelopeException;
 import io.sentry.util.Objects;
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
@@ -10,10 +9,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.concurrent.Callable;
 import org.jetbrains.annotations.ApiStatus;
@@ -26,34 +28,166 @@ public final class SentryEnvelopeItem {
   @SuppressWarnings("CharsetObjectCanBeUsed")
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
+  private static final int BUFFER_SIZE = 8192;
+
+  // payloads up to this size are held in memory before their item header is written
+  static final int MAX_BUFFERED_PAYLOAD_SIZE = 256 * 1024;
+
   private final SentryEnvelopeItemHeader header;
   // Either dataFactory is set or data needs to be set.
   private final @Nullable Callable<byte[]> dataFactory;
-  // TODO: Can we have a slice or a reader here instead?
+  // Writes the payload without materializing it, if the item supports it.
+  private final @Nullable PayloadWriter payloadWriter;
+  // A view of the envelope the item was read from, copied only if getData is called.
+  private final @Nullable ByteBuffer payload;
   private @Nullable byte[] data;
 
   SentryEnvelopeItem(final @NotNull SentryEnvelopeItemHeader header, final byte[] data) {
     this.header = Objects.requireNonNull(header, "SentryEnvelopeItemHeader is required.");
     this.data = data;
     this.dataFactory = null;
+    this.payloadWriter = null;
+    this.payload = null;
+  }
+
+  SentryEnvelopeItem(
+      final @NotNull SentryEnvelopeItemHeader header, final @NotNull ByteBuffer payload) {
+    this.header = Objects.requireNonNull(header, "SentryEnvelopeItemHeader is required.");
+    this.payload = Objects.requireNonNull(payload, "Payload is required.");
+    this.dataFactory = null;
+    this.payloadWriter = null;
+    this.data = null;
   }
 
   SentryEnvelopeItem(
       final @NotNull SentryEnvelopeItemHeader header,
       final @Nullable Callable<byte[]> dataFactory) {
+    this(header, dataFactory, null);
+  }
+
+  SentryEnvelopeItem(
+      final @NotNull SentryEnvelopeItemHeader header,
+      final @Nullable Callable<byte[]> dataFactory,
+      final @Nullable PayloadWriter payloadWriter) {
     this.header = Objects.requireNonNull(header, "SentryEnvelopeItemHeader is required.");
     this.dataFactory = Objects.requireNonNull(dataFactory, "DataFactory is required.");
+    this.payloadWriter = payloadWriter;
+    this.payload = null;
     this.data = null;
   }
 
-  // TODO: Should be a Stream
+  /**
+   * Returns the payload of the item, reading or serializing all of it into memory. Use {@link
+   * #writeData(OutputStream)} to send or store the item.
+   *
+   * @return the payload
+   * @throws Exception if the payload couldn't be created
+   */
   public @NotNull byte[] getData() throws Exception {
-    if (data == null && dataFactory != null) {
-      data = dataFactory.call();
+    if (data == null) {
+      if (payload != null) {
+        final byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        data = bytes;
+      } else if (dataFactory != null) {
+        data = dataFactory.call();
+      }
     }
     return data;
   }
 
+  /**
+   * Returns a new stream of the payload. Items read from an envelope file are streamed without
+   * copying their payload.
+   *
+   * @return the stream
+   * @throws Exception if the payload couldn't be created
+   */
+  public @NotNull InputStream getDataStream() throws Exception {
+    if (data == null && payload != null) {
+      return new ByteBufferInputStream(payload.duplicate());
+    }
+    return new ByteArrayInputStream(getData());
+  }
+
+  /**
+   * Writes the payload of the item to the given stream. Large attachments and transactions are
+   * streamed instead of being held in memory, the stream is not closed.
+   *
+   * @param stream the stream to write to
+   * @throws Exception if the payload couldn't be created or written
+   */
+  public void writeData(final @NotNull OutputStream stream) throws Exception {
+    if (data == null && payloadWriter != null) {
+      payloadWriter.writeTo(stream);
+    } else if (data == null && payload != null) {
+      writeBuffer(payload.duplicate(), stream);
+    } else {
+      stream.write(getData());
+    }
+  }
+
+  /**
+   * Gets the payload ready to be written after the item header, so if it fails the item can still
+   * be left out. Payloads up to {@link #MAX_BUFFERED_PAYLOAD_SIZE} are read or serialized into
+   * memory, larger ones are only checked to still be there.
+   *
+   * @param length the length announced in the item header
+   * @return the payload, or null if it's to be streamed with {@link #writePayload(OutputStream,
+   *     int)}
+   * @throws Exception if the payload couldn't be created
+   */
+  @Nullable
+  byte[] preparePayload(final int length) throws Exception {
+    if (data != null) {
+      return data;
+    }
+    if (payload != null) {
+      // a view of bytes that were read already, it can't fail
+      return null;
+    }
+    if (payloadWriter == null) {
+      return getData();
+    }
+    if (length <= MAX_BUFFERED_PAYLOAD_SIZE && dataFactory != null) {
+      // not kept by the item, the envelope is only written once or twice
+      return dataFactory.call();
+    }
+    payloadWriter.check();
+    return null;
+  }
+
+  /**
+   * Streams the payload after its item header was written, never more bytes than the header
+   * announced. The item can't be left out anymore, so if the payload fails halfway or isn't of the
+   * announced length, the whole envelope fails and whoever writes it has to drop what was written.
+   *
+   * @param stream the stream to write to
+   * @param length the length announced in the item header
+   * @throws IOException if the payload or writing to the stream failed
+   */
+  void writePayload(final @NotNull OutputStream stream, final int length) throws IOException {
+    final PayloadOutputStream payloadStream = new PayloadOutputStream(stream, length);
+    try {
+      writeData(payloadStream);
+    } catch (IOException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new IOException(
+          "Failed to stream the payload of the " + header.getType().getItemType() + " item.", e);
+    }
+    if (payloadStream.getCount() != length) {
+      throw new IOException(
+          "The payload of the "
+              + header.getType().getItemType()
+              + " item is "
+              + payloadStream.getCount()
+              + " bytes instead of "
+              + length
+              + ".");
+    }
+  }
+
   public @NotNull SentryEnvelopeItemHeader getHeader() {
     return header;
   }
@@ -86,7 +220,7 @@ public final class SentryEnvelopeItem {
       return null;
     }
     try (final Reader eventReader =
-        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(getData()), UTF_8))) {
+        new BufferedReader(new InputStreamReader(getDataStream(), UTF_8))) {
       return serializer.deserialize(eventReader, SentryEvent.class);
     }
   }
@@ -97,6 +231,10 @@ public final class SentryEnvelopeItem {
     Objects.requireNonNull(serializer, "ISerializer is required.");
     Objects.requireNonNull(event, "SentryEvent is required.");
 
+    if (event instanceof SentryTransaction) {
+      return fromTransaction(serializer, (SentryTransaction) event);
+    }
+
     final CachedItem cachedItem =
         new CachedItem(
             () -> {
@@ -118,13 +256,30 @@ public final class SentryEnvelopeItem {
     return new SentryEnvelopeItem(itemHeader, () -> cachedItem.getBytes());
   }
 
+  /**
+   * Transactions with many spans are big, so they are serialized straight into the stream the
+   * envelope is written to. The length is counted without keeping the bytes, and the transaction is
+   * only materialized when {@link #getData()} is called.
+   */
+  private static @NotNull SentryEnvelopeItem fromTransaction(
+      final @NotNull ISerializer serializer, final @NotNull SentryTransaction transaction) {
+    final JsonPayload payload = new JsonPayload(serializer, transaction);
+
+    SentryEnvelopeItemHeader itemHeader =
+        new SentryEnvelopeItemHeader(
+            SentryItemType.Transaction, () -> payload.getLength(), "application/json", null);
+
+    // Don't use method reference. This can cause issues on Android
+    return new SentryEnvelopeItem(itemHeader, () -> payload.getBytes(), payload);
+  }
+
   public @Nullable ITransaction getTransaction(final @NotNull ISerializer serializer)
       throws Exception {
     if (header == null || header.getType() != SentryItemType.Transaction) {
       return null;
     }
     try (final Reader eventReader =
-        new BufferedReader(new InputStreamReader(new ByteArrayInputStream(getData()), UTF_8))) {
+        new BufferedReader(new InputStreamReader(getDataStream(), UTF_8))) {
       return serializer.deserialize(eventReader, SentryTransaction.class);
     }
   }
@@ -156,47 +311,15 @@ public final class SentryEnvelopeItem {
   }
 
   public static SentryEnvelopeItem fromAttachment(final @NotNull Attachment attachment) {
+    if (attachment.getBytes() == null && attachment.getPathname() != null) {
+      return fromAttachmentFile(attachment, attachment.getPathname());
+    }
 
     final CachedItem cachedItem =
         new CachedItem(
             () -> {
               if (attachment.getBytes() != null) {
                 return attachment.getBytes();
-              } else if (attachment.getPathname() != null) {
-
-                try {
-                  File file = new File(attachment.getPathname());
-
-                  if (!file.isFile()) {
-                    throw new SentryEnvelopeException(
-                        String.format(
-                            "Reading the attachment %s failed, because the file located at the path is not a file.",
-                            attachment.getPathname()));
-                  }
-
-                  if (!file.canRead()) {
-                    throw new SentryEnvelopeException(
-                        String.format(
-                            "Reading the attachment %s failed, because can't read the file.",
-                            attachment.getPathname()));
-                  }
-
-                  try (FileInputStream fileInputStream =
-                          new FileInputStream(attachment.getPathname());
-                      BufferedInputStream inputStream = new BufferedInputStream(fileInputStream);
-                      ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                    byte[] bytes = new byte[1024];
-                    int length;
-                    int offset = 0;
-                    while ((length = inputStream.read(bytes)) != -1) {
-                      outputStream.write(bytes, offset, length);
-                    }
-                    return outputStream.toByteArray();
-                  }
-                } catch (IOException | SecurityException exception) {
-                  throw new SentryEnvelopeException(
-                      String.format("Reading the attachment %s failed.", attachment.getPathname()));
-                }
               }
 
               throw new SentryEnvelopeException(
@@ -217,6 +340,348 @@ public final class SentryEnvelopeItem {
     return new SentryEnvelopeItem(itemHeader, () -> cachedItem.getBytes());
   }
 
+  /**
+   * The file is only read when the item is written, straight into the envelope stream, and its
+   * length is taken from the file system.
+   */
+  private static @NotNull SentryEnvelopeItem fromAttachmentFile(
+      final @NotNull Attachment attachment, final @NotNull String pathname) {
+    final FilePayload payload = new FilePayload(pathname);
+
+    SentryEnvelopeItemHeader itemHeader =
+        new SentryEnvelopeItemHeader(
+            SentryItemType.Attachment,
+            () -> payload.getLength(),
+            attachment.getContentType(),
+            attachment.getFilename());
+
+    // Don't use method reference. This can cause issues on Android
+    return new SentryEnvelopeItem(itemHeader, () -> payload.getBytes(), payload);
+  }
+
+  private static void writeBuffer(
+      final @NotNull ByteBuffer buffer, final @NotNull OutputStream stream) throws IOException {
+    if (buffer.hasArray()) {
+      stream.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      return;
+    }
+    // memory-mapped, copied in chunks
+    final byte[] chunk = new byte[Math.min(BUFFER_SIZE, buffer.remaining())];
+    while (buffer.hasRemaining()) {
+      final int count = Math.min(chunk.length, buffer.remaining());
+      buffer.get(chunk, 0, count);
+      stream.write(chunk, 0, count);
+    }
+  }
+
+  /** Writes the payload of an item to a stream, without holding all of it in memory. */
+  interface PayloadWriter {
+    /**
+     * Checks the payload can still be written as announced, before the item header is written.
+     *
+     * @throws Exception if it can't
+     */
+    void check() throws Exception;
+
+    void writeTo(@NotNull OutputStream stream) throws Exception;
+  }
+
+  private static final class FilePayload implements PayloadWriter {
+    private final @NotNull String pathname;
+    private int length = -1;
+
+    FilePayload(final @NotNull String pathname) {
+      this.pathname = pathname;
+    }
+
+    int getLength() throws SentryEnvelopeException {
+      if (length < 0) {
+        final long fileLength;
+        try {
+          final File file = new File(pathname);
+
+          if (!file.isFile()) {
+            throw new SentryEnvelopeException(
+                String.format(
+                    "Reading the attachment %s failed, because the file located at the path is not a file.",
+                    pathname));
+          }
+
+          if (!file.canRead()) {
+            throw new SentryEnvelopeException(
+                String.format(
+                    "Reading the attachment %s failed, because can't read the file.", pathname));
+          }
+          fileLength = file.length();
+        } catch (SecurityException exception) {
+          throw new SentryEnvelopeException(
+              String.format("Reading the attachment %s failed.", pathname));
+        }
+
+        if (fileLength > Integer.MAX_VALUE) {
+          throw new SentryEnvelopeException(
+              String.format("Reading the attachment %s failed, because it is too big.", pathname));
+        }
+        length = (int) fileLength;
+      }
+      return length;
+    }
+
+    @NotNull
+    byte[] getBytes() throws SentryEnvelopeException {
+      try (final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(getLength())) {
+        writeTo(outputStream);
+        return outputStream.toByteArray();
+      } catch (IOException exception) {
+        throw new SentryEnvelopeException(
+            String.format("Reading the attachment %s failed.", pathname));
+      }
+    }
+
+    @Override
+    public void check() throws SentryEnvelopeException {
+      final int expected = getLength();
+      final File file = new File(pathname);
+      try {
+        if (!file.isFile() || file.length() < expected) {
+          throw new SentryEnvelopeException(
+              String.format(
+                  "Reading the attachment %s failed, because it was removed or truncated.",
+                  pathname));
+        }
+      } catch (SecurityException exception) {
+        throw new SentryEnvelopeException(
+            String.format("Reading the attachment %s failed.", pathname));
+      }
+    }
+
+    /**
+     * Copies exactly as many bytes as the item header announced, even if the file was changed in
+     * the meantime.
+     */
+    @Override
+    public void writeTo(final @NotNull OutputStream stream) throws SentryEnvelopeException {
+      final int expected = getLength();
+      try (final InputStream inputStream = new FileInputStream(pathname)) {
+        final byte[] buffer = new byte[Math.min(BUFFER_SIZE, Math.max(expected, 1))];
+        int remaining = expected;
+        int read;
+        while (remaining > 0
+            && (read = inputStream.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+          stream.write(buffer, 0, read);
+          remaining -= read;
+        }
+        if (remaining > 0) {
+          throw new SentryEnvelopeException(
+              String.format(
+                  "Reading the attachment %s failed, because it was truncated.", pathname));
+        }
+      } catch (IOException | SecurityException exception) {
+        throw new SentryEnvelopeException(
+            String.format("Reading the attachment %s failed.", pathname));
+      }
+    }
+  }
+
+  /**
+   * Serialized once to count its length, keeping the bytes if there are up to {@link
+   * #MAX_BUFFERED_PAYLOAD_SIZE} of them. Only larger ones are serialized again when written.
+   */
+  private static final class JsonPayload implements PayloadWriter {
+    private final @NotNull ISerializer serializer;
+    private final @NotNull Object entity;
+    private int length = -1;
+    private @Nullable byte[] bytes;
+
+    JsonPayload(final @NotNull ISerializer serializer, final @NotNull Object entity) {
+      this.serializer = serializer;
+      this.entity = entity;
+    }
+
+    int getLength() throws IOException {
+      if (length < 0) {
+        final BoundedOutputStream buffer = new BoundedOutputStream(MAX_BUFFERED_PAYLOAD_SIZE);
+        serialize(buffer);
+        bytes = buffer.toByteArray();
+        length = buffer.getCount();
+      }
+      return length;
+    }
+
+    @NotNull
+    byte[] getBytes() throws IOException {
+      getLength();
+      if (bytes != null) {
+        return bytes;
+      }
+      try (final ByteArrayOutputStream stream = new ByteArrayOutputStream(length)) {
+        serialize(stream);
+        return stream.toByteArray();
+      }
+    }
+
+    @Override
+    public void check() {
+      // the entity is in memory, it can always be serialized again
+    }
+
+    @Override
+    public void writeTo(final @NotNull OutputStream stream) throws IOException {
+      final int expected = getLength();
+      if (bytes != null) {
+        stream.write(bytes);
+        return;
+      }
+      final CountingOutputStream counter = new CountingOutputStream(stream);
+      serialize(counter);
+      if (counter.getCount() != expected) {
+        throw new IOException(
+            "The item changed while it was written, its length doesn't match the header.");
+      }
+    }
+
+    private void serialize(final @NotNull OutputStream stream) throws IOException {
+      // not closed, that would close the given stream as well
+      final Writer writer = new BufferedWriter(new OutputStreamWriter(stream, UTF_8));
+      serializer.serialize(entity, writer);
+      writer.flush();
+    }
+  }
+
+  private static final class ByteBufferInputStream extends InputStream {
+    private final @NotNull ByteBuffer buffer;
+
+    ByteBufferInputStream(final @NotNull ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final @NotNull byte[] b, final int off, final int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      final int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+
+  /** Counts the bytes written and passes them on, if there's a stream to write to. */
+  private static final class CountingOutputStream extends OutputStream {
+    private final @Nullable OutputStream delegate;
+    private int count;
+
+    CountingOutputStream(final @Nullable OutputStream delegate) {
+      this.delegate = delegate;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      if (delegate != null) {
+        delegate.write(b);
+      }
+      count++;
+    }
+
+    @Override
+    public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+      if (delegate != null) {
+        delegate.write(b, off, len);
+      }
+      count += len;
+    }
+  }
+
+  /** Keeps the bytes written up to a max, past which it only counts them. */
+  private static final class BoundedOutputStream extends OutputStream {
+    private final int maxSize;
+    private @Nullable ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private int count;
+
+    BoundedOutputStream(final int maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    /**
+     * Returns the bytes written
+     *
+     * @return the bytes or null if there were more than the max
+     */
+    @Nullable
+    byte[] toByteArray() {
+      return buffer != null ? buffer.toByteArray() : null;
+    }
+
+    @Override
+    public void write(final int b) {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final @NotNull byte[] b, final int off, final int len) {
+      count += len;
+      if (buffer != null) {
+        if (count > maxSize) {
+          buffer = null;
+        } else {
+          buffer.write(b, off, len);
+        }
+      }
+    }
+  }
+
+  /** Passes on up to the announced length of a payload and counts what it was given. */
+  private static final class PayloadOutputStream extends OutputStream {
+    private final @NotNull OutputStream delegate;
+    private final int length;
+    private int count;
+
+    PayloadOutputStream(final @NotNull OutputStream delegate, final int length) {
+      this.delegate = delegate;
+      this.length = length;
+    }
+
+    int getCount() {
+      return count;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(final @NotNull byte[] b, final int off, final int len) throws IOException {
+      // what's past the announced length would be read as the next item
+      final int passed = Math.max(0, Math.min(len, length - count));
+      count += len;
+      if (passed > 0) {
+        delegate.write(b, off, passed);
+      }
+    }
+  }
+
   private static class CachedItem {
     private @Nullable byte[] bytes;
     private final @Nullable Callable<byte[]> dataFactory;
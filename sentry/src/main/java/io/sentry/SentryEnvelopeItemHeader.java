@@ -20,12 +20,23 @@ public final class SentryEnvelopeItemHeader {
   }
 
   public int getLength() {
+    try {
+      return computeLength();
+    } catch (Exception ignored) {
+      return -1;
+    }
+  }
+
+  /**
+   * Returns the length like {@link #getLength()}, but lets through the exception thrown if the
+   * length couldn't be computed, e.g. because the payload couldn't be read.
+   *
+   * @return the length of the payload
+   * @throws Exception if computing the length failed
+   */
+  int computeLength() throws Exception {
     if (getLength != null) {
-      try {
-        return getLength.call();
-      } catch (Exception ignored) {
-        return -1;
-      }
+      return getLength.call();
     }
     return length;
   }
@@ -109,9 +109,105 @@ public class SentryOptions {
   /** The cache dir. size for capping the number of events Default is 30 */
   private int cacheDirSize = 30;
 
+  /**
+   * The max. size in bytes of the envelopes in the cache dir. Default is 0, only the number of
+   * envelopes is capped
+   */
+  private long cacheDirMaxBytes;
+
   /** Max. queue size before flushing events/envelopes to the disk */
   private int maxQueueSize = cacheDirSize;
 
+  /**
+   * The number of threads sending envelopes to Sentry at the same time. Envelopes with sessions are
+   * always sent in order. Default is 1
+   */
+  private int senderThreadCount = 1;
+
+  /** Sends queued envelopes made of session updates in a single request. Default is disabled */
+  private boolean enableEnvelopeBatching;
+
+  /**
+   * Queues envelopes in a preallocated lock-free ring buffer drained by a single thread, instead of
+   * a thread pool. Default is disabled
+   */
+  private boolean enableRingBufferQueue;
+
+  /**
+   * Writes the envelopes that don't fit in the queue to the spillover folder of the cache dir. and
+   * sends them once there's room again. Default is disabled
+   */
+  private boolean enableQueueSpillover;
+
+  /** The max. size in bytes of the spillover folder. Default is 10MB */
+  private long maxSpilloverSize = 10 * 1024 * 1024;
+
+  /**
+   * Sends the envelopes with the non-blocking java.net.http client, if running on Java 11+ and the
+   * sentry-java11-transport module is on the classpath. Default is disabled
+   */
+  private boolean enableNonBlockingTransport;
+
+  /**
+   * Caches the envelopes in an append-only log of a few segment files instead of a file per
+   * envelope. Default is disabled
+   */
+  private boolean enableSegmentedEnvelopeCache;
+
+  /** The max. size in bytes of the segmented envelope cache. Default is 10MB */
+  private long maxSegmentedCacheSize = 10 * 1024 * 1024;
+
+  /**
+   * Keeps the envelopes being sent in memory, and only stores them in the envelope cache if sending
+   * them is slow or fails. Default is disabled
+   */
+  private boolean enableWriteBehindCache;
+
+  /**
+   * How long an envelope can take to be sent before it's stored in the envelope cache, if
+   * enableWriteBehindCache is enabled. Default is 2s
+   */
+  private long writeBehindDelayMillis = 2000;
+
+  /**
+   * The max. number of cached envelopes sent at once when the cache is replayed on startup.
+   * Default is 1, one at a time
+   */
+  private int cachedEnvelopeReplayConcurrency = 1;
+
+  /**
+   * Keeps the current session in a memory-mapped file updated in place instead of a JSON file.
+   * Default is disabled
+   */
+  private boolean enableMappedSessionFile;
+
+  /**
+   * Watches the outbox dir. for envelopes written by other processes while the App. is running.
+   * Default is disabled
+   */
+  private boolean enableDirectoryWatcher;
+
+  /**
+   * How often the outbox dir. is listed if it can't be watched, and how long a new file has to stay
+   * the same before it's sent, if enableDirectoryWatcher is enabled. Default is 1s
+   */
+  private long directoryWatcherIntervalMillis = 1000;
+
+  /**
+   * Writes the cached envelopes framed, with the length and a CRC32 of each item, instead of the
+   * wire format. Default is disabled
+   */
+  private boolean enableFramedEnvelopeCache;
+
+  /** Writes the cached envelopes gzipped, to be sent as they are. Default is disabled */
+  private boolean enableCompressedEnvelopeCache;
+
+  /**
+   * Token bucket rate limits applied by the SDK before sending, by data category. Default is empty,
+   * nothing is limited until Sentry answers with a rate limit
+   */
+  private final @NotNull Map<String, ClientRateLimit> clientRateLimits = new ConcurrentHashMap<>();
+
   /**
    * This variable controls the total amount of breadcrumbs that should be captured Default is 100
    */
@@ -217,6 +313,15 @@ public class SentryOptions {
   /** read timeout in milliseconds */
   private int readTimeoutMillis = 5000;
 
+  /**
+   * Keeps the HTTP connections to Sentry open between requests instead of opening a new one (TCP
+   * and TLS handshake) per envelope. Default is disabled.
+   */
+  private boolean enableKeepAlive;
+
+  /** The max. number of connections to Sentry used at the same time if keep-alive is enabled. */
+  private int connectionPoolSize = 5;
+
   /** Reads and caches envelope files in the disk */
   private @NotNull IEnvelopeCache envelopeDiskCache = NoOpEnvelopeCache.getInstance();
 
@@ -529,6 +634,18 @@ public class SentryOptions {
     return cacheDirPath + File.separator + "outbox";
   }
 
+  /**
+   * Returns the spillover path if cacheDirPath is set
+   *
+   * @return the spillover path or null if not set
+   */
+  public @Nullable String getSpilloverPath() {
+    if (cacheDirPath == null || cacheDirPath.isEmpty()) {
+      return null;
+    }
+    return cacheDirPath + File.separator + "spillover";
+  }
+
   /**
    * Sets the cache dir. path
    *
@@ -556,6 +673,28 @@ public class SentryOptions {
     this.cacheDirSize = cacheDirSize;
   }
 
+  /**
+   * Returns the max. size in bytes of the envelopes in the cache dir.
+   *
+   * @return the max. size or 0 if it's not limited
+   */
+  public long getCacheDirMaxBytes() {
+    return cacheDirMaxBytes;
+  }
+
+  /**
+   * Sets the max. size in bytes of the envelopes in the cache dir. Once it's exceeded, the large
+   * envelopes of little worth are deleted first: transactions before sessions before errors,
+   * relative to their size. 0 disables it, only cacheDirSize caps the cache then.
+   *
+   * @param cacheDirMaxBytes the max. size in bytes
+   */
+  public void setCacheDirMaxBytes(long cacheDirMaxBytes) {
+    if (cacheDirMaxBytes >= 0) {
+      this.cacheDirMaxBytes = cacheDirMaxBytes;
+    }
+  }
+
   /**
    * Returns the max Breadcrumbs Default is 100
    *
@@ -978,6 +1117,46 @@ public class SentryOptions {
     this.readTimeoutMillis = readTimeoutMillis;
   }
 
+  /**
+   * Returns if the HTTP connections to Sentry are kept alive and reused
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableKeepAlive() {
+    return enableKeepAlive;
+  }
+
+  /**
+   * Enables or disables keeping the HTTP connections to Sentry alive and reusing them
+   *
+   * @param enableKeepAlive true if enabled or false otherwise
+   */
+  public void setEnableKeepAlive(boolean enableKeepAlive) {
+    this.enableKeepAlive = enableKeepAlive;
+  }
+
+  /**
+   * Returns the max. number of connections to Sentry used at the same time if keep-alive is enabled
+   *
+   * @return the connection pool size
+   */
+  public int getConnectionPoolSize() {
+    return connectionPoolSize;
+  }
+
+  /**
+   * Sets the max. number of connections to Sentry used at the same time if keep-alive is enabled.
+   * The JVM only keeps up to {@code http.maxConnections} (5 by default) idle connections per host,
+   * so bigger values should go along with that system property.
+   *
+   * @param connectionPoolSize the connection pool size, if bigger than 0
+   */
+  public void setConnectionPoolSize(int connectionPoolSize) {
+    if (connectionPoolSize > 0) {
+      this.connectionPoolSize = connectionPoolSize;
+    }
+  }
+
   /**
    * Returns the EnvelopeCache interface
    *
@@ -1017,6 +1196,363 @@ public class SentryOptions {
     }
   }
 
+  /**
+   * Returns the number of threads sending envelopes to Sentry at the same time
+   *
+   * @return the sender thread count
+   */
+  public int getSenderThreadCount() {
+    return senderThreadCount;
+  }
+
+  /**
+   * Sets the number of threads sending envelopes to Sentry at the same time if senderThreadCount is
+   * bigger than 0. Envelopes with sessions are still sent one after the other, in order.
+   *
+   * @param senderThreadCount the sender thread count
+   */
+  public void setSenderThreadCount(int senderThreadCount) {
+    if (senderThreadCount > 0) {
+      this.senderThreadCount = senderThreadCount;
+    }
+  }
+
+  /**
+   * Returns if queued envelopes are merged into fewer requests
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableEnvelopeBatching() {
+    return enableEnvelopeBatching;
+  }
+
+  /**
+   * Enables or disables merging queued envelopes into fewer requests. Only envelopes made of
+   * session updates are merged, as an envelope can't hold more than one event or transaction.
+   *
+   * @param enableEnvelopeBatching true if enabled or false otherwise
+   */
+  public void setEnableEnvelopeBatching(boolean enableEnvelopeBatching) {
+    this.enableEnvelopeBatching = enableEnvelopeBatching;
+  }
+
+  /**
+   * Returns if envelopes are queued in a lock-free ring buffer
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableRingBufferQueue() {
+    return enableRingBufferQueue;
+  }
+
+  /**
+   * Enables or disables queueing envelopes in a lock-free ring buffer of maxQueueSize slots.
+   * Capturing threads never wait for a lock and the queue never holds more than maxQueueSize
+   * envelopes. The envelopes are sent by a single thread, so senderThreadCount is ignored.
+   *
+   * @param enableRingBufferQueue true if enabled or false otherwise
+   */
+  public void setEnableRingBufferQueue(boolean enableRingBufferQueue) {
+    this.enableRingBufferQueue = enableRingBufferQueue;
+  }
+
+  /**
+   * Returns if envelopes that don't fit in the queue are written to the disk
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableQueueSpillover() {
+    return enableQueueSpillover;
+  }
+
+  /**
+   * Enables or disables writing the envelopes that don't fit in the queue to the spillover folder
+   * of the cache dir., instead of dropping them. They are sent once there's room in the queue
+   * again, or by the next run. Requires the cacheDirPath to be set.
+   *
+   * @param enableQueueSpillover true if enabled or false otherwise
+   */
+  public void setEnableQueueSpillover(boolean enableQueueSpillover) {
+    this.enableQueueSpillover = enableQueueSpillover;
+  }
+
+  /**
+   * Returns the max. size in bytes of the spillover folder
+   *
+   * @return the max. spillover size
+   */
+  public long getMaxSpilloverSize() {
+    return maxSpilloverSize;
+  }
+
+  /**
+   * Sets the max. size in bytes of the spillover folder if maxSpilloverSize is bigger than 0.
+   * Envelopes that don't fit anymore are dropped.
+   *
+   * @param maxSpilloverSize the max. spillover size
+   */
+  public void setMaxSpilloverSize(long maxSpilloverSize) {
+    if (maxSpilloverSize > 0) {
+      this.maxSpilloverSize = maxSpilloverSize;
+    }
+  }
+
+  /**
+   * Returns if envelopes are sent with the non-blocking java.net.http client
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableNonBlockingTransport() {
+    return enableNonBlockingTransport;
+  }
+
+  /**
+   * Enables or disables sending the envelopes with the non-blocking java.net.http client, over
+   * HTTP/2 where the server supports it. The sender threads don't wait for the responses, so up to
+   * maxQueueSize envelopes can be in flight at once. Requires Java 11+ and the
+   * sentry-java11-transport module, the default transport is used otherwise.
+   *
+   * @param enableNonBlockingTransport true if enabled or false otherwise
+   */
+  public void setEnableNonBlockingTransport(boolean enableNonBlockingTransport) {
+    this.enableNonBlockingTransport = enableNonBlockingTransport;
+  }
+
+  /**
+   * Returns if envelopes are cached in the segmented append-only log
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableSegmentedEnvelopeCache() {
+    return enableSegmentedEnvelopeCache;
+  }
+
+  /**
+   * Enables or disables caching the envelopes in an append-only log of a few segment files, in the
+   * envelope-log folder of the cache dir. Storing and discarding an envelope only appends to the
+   * log, instead of creating and deleting a file and listing the cache dir. Envelopes cached by the
+   * file based cache are still sent.
+   *
+   * @param enableSegmentedEnvelopeCache true if enabled or false otherwise
+   */
+  public void setEnableSegmentedEnvelopeCache(boolean enableSegmentedEnvelopeCache) {
+    this.enableSegmentedEnvelopeCache = enableSegmentedEnvelopeCache;
+  }
+
+  /**
+   * Returns the max. size in bytes of the segmented envelope cache
+   *
+   * @return the max. segmented cache size
+   */
+  public long getMaxSegmentedCacheSize() {
+    return maxSegmentedCacheSize;
+  }
+
+  /**
+   * Sets the max. size in bytes of the segmented envelope cache if maxSegmentedCacheSize is bigger
+   * than 0. The oldest envelopes are dropped once it's exceeded.
+   *
+   * @param maxSegmentedCacheSize the max. segmented cache size
+   */
+  public void setMaxSegmentedCacheSize(long maxSegmentedCacheSize) {
+    if (maxSegmentedCacheSize > 0) {
+      this.maxSegmentedCacheSize = maxSegmentedCacheSize;
+    }
+  }
+
+  /**
+   * Returns if the envelopes being sent are only stored in the envelope cache when needed
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableWriteBehindCache() {
+    return enableWriteBehindCache;
+  }
+
+  /**
+   * Enables or disables keeping the envelopes being sent in memory instead of storing them in the
+   * envelope cache before sending them and discarding them after. They are stored if sending them
+   * takes longer than writeBehindDelayMillis or fails, and right away when the app is crashing or
+   * the SDK is closed. Envelopes that start or end a session are always stored.
+   *
+   * @param enableWriteBehindCache true if enabled or false otherwise
+   */
+  public void setEnableWriteBehindCache(boolean enableWriteBehindCache) {
+    this.enableWriteBehindCache = enableWriteBehindCache;
+  }
+
+  /**
+   * Returns how long an envelope can take to be sent before it's stored in the envelope cache
+   *
+   * @return the delay in millis
+   */
+  public long getWriteBehindDelayMillis() {
+    return writeBehindDelayMillis;
+  }
+
+  /**
+   * Sets how long an envelope can take to be sent before it's stored in the envelope cache, if
+   * writeBehindDelayMillis isn't negative
+   *
+   * @param writeBehindDelayMillis the delay in millis
+   */
+  public void setWriteBehindDelayMillis(long writeBehindDelayMillis) {
+    if (writeBehindDelayMillis >= 0) {
+      this.writeBehindDelayMillis = writeBehindDelayMillis;
+    }
+  }
+
+  /**
+   * Returns the max. number of cached envelopes sent at once when the cache is replayed
+   *
+   * @return the number of envelopes
+   */
+  public int getCachedEnvelopeReplayConcurrency() {
+    return cachedEnvelopeReplayConcurrency;
+  }
+
+  /**
+   * Sets the max. number of cached envelopes sent at once when the cache is replayed on startup,
+   * if it's at least 1. With more than 1, the envelopes with errors are sent first and the oldest
+   * first, and the ones with sessions are still sent one at a time in order.
+   *
+   * @param cachedEnvelopeReplayConcurrency the number of envelopes
+   */
+  public void setCachedEnvelopeReplayConcurrency(int cachedEnvelopeReplayConcurrency) {
+    if (cachedEnvelopeReplayConcurrency >= 1) {
+      this.cachedEnvelopeReplayConcurrency = cachedEnvelopeReplayConcurrency;
+    }
+  }
+
+  /**
+   * Checks if the current session is kept in a memory-mapped file
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableMappedSessionFile() {
+    return enableMappedSessionFile;
+  }
+
+  /**
+   * Enables or disables keeping the current session in a memory-mapped file with a fixed binary
+   * layout instead of the session.json file. It's written in place on each session update, not
+   * only when the session starts, and it's only turned into an envelope when it's found
+   * unfinished on the next run. Sessions that don't fit in it are still kept as JSON.
+   *
+   * @param enableMappedSessionFile true if enabled or false otherwise
+   */
+  public void setEnableMappedSessionFile(boolean enableMappedSessionFile) {
+    this.enableMappedSessionFile = enableMappedSessionFile;
+  }
+
+  /**
+   * Checks if the outbox dir. is watched for envelopes written by other processes
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableDirectoryWatcher() {
+    return enableDirectoryWatcher;
+  }
+
+  /**
+   * Enables or disables watching the outbox dir. with a WatchService, or by listing it if there's
+   * none, so the envelopes written to it by other processes are sent while the App. is running and
+   * not only on the next start. Not needed on Android, where it's watched with a FileObserver.
+   *
+   * @param enableDirectoryWatcher true if enabled or false otherwise
+   */
+  public void setEnableDirectoryWatcher(boolean enableDirectoryWatcher) {
+    this.enableDirectoryWatcher = enableDirectoryWatcher;
+  }
+
+  /**
+   * Returns the interval of the outbox dir. watcher
+   *
+   * @return the interval in millis
+   */
+  public long getDirectoryWatcherIntervalMillis() {
+    return directoryWatcherIntervalMillis;
+  }
+
+  /**
+   * Sets how often the outbox dir. is listed if it can't be watched, and how long a new file has to
+   * stay the same before it's sent. Values under 1 are ignored.
+   *
+   * @param directoryWatcherIntervalMillis the interval in millis
+   */
+  public void setDirectoryWatcherIntervalMillis(long directoryWatcherIntervalMillis) {
+    if (directoryWatcherIntervalMillis >= 1) {
+      this.directoryWatcherIntervalMillis = directoryWatcherIntervalMillis;
+    }
+  }
+
+  /**
+   * Checks if the cached envelopes are written framed
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableFramedEnvelopeCache() {
+    return enableFramedEnvelopeCache;
+  }
+
+  /**
+   * Enables or disables writing the cached envelopes framed: a header with the length the file
+   * should have, then each item with its length and a CRC32. Files cut short or corrupted by a crash
+   * are told without parsing them, their intact items are kept and the others dropped. They are
+   * turned back into the wire format when sent, and files in both formats can be read.
+   *
+   * @param enableFramedEnvelopeCache true if enabled or false otherwise
+   */
+  public void setEnableFramedEnvelopeCache(boolean enableFramedEnvelopeCache) {
+    this.enableFramedEnvelopeCache = enableFramedEnvelopeCache;
+  }
+
+  /**
+   * Checks if the cached envelopes are written gzipped
+   *
+   * @return true if enabled or false otherwise
+   */
+  public boolean isEnableCompressedEnvelopeCache() {
+    return enableCompressedEnvelopeCache;
+  }
+
+  /**
+   * Enables or disables writing the cached envelopes gzipped, so they take less of the cache
+   * budget. When they're sent from the cache, the gzipped bytes are the body of the request as they
+   * are, instead of gzipping the envelope again on every attempt. It takes precedence over
+   * enableFramedEnvelopeCache, as gzip has its own CRC32 and length.
+   *
+   * @param enableCompressedEnvelopeCache true if enabled or false otherwise
+   */
+  public void setEnableCompressedEnvelopeCache(boolean enableCompressedEnvelopeCache) {
+    this.enableCompressedEnvelopeCache = enableCompressedEnvelopeCache;
+  }
+
+  /**
+   * Returns the client side rate limits by data category
+   *
+   * @return the client rate limits map
+   */
+  public @NotNull Map<String, ClientRateLimit> getClientRateLimits() {
+    return clientRateLimits;
+  }
+
+  /**
+   * Limits the items of a data category sent to Sentry, if itemsPerSecond and burst are bigger than
+   * 0. Up to burst items can be sent at once, then itemsPerSecond of them every second. Items over
+   * the limit are dropped before being serialized.
+   *
+   * @param category the data category: error, session, attachment or transaction
+   * @param itemsPerSecond the sustained number of items per second
+   * @param burst the max. number of items sent at once
+   */
+  public void setClientRateLimit(
+      final @NotNull String category, final double itemsPerSecond, final int burst) {
+    if (itemsPerSecond > 0 && burst > 0) {
+      this.clientRateLimits.put(category, new ClientRateLimit(itemsPerSecond, burst));
+    }
+  }
+
   /**
    * Returns the SdkVersion object
    *
@@ -1208,6 +1744,8 @@ public class SentryOptions {
 
     integrations.add(new ShutdownHookIntegration());
 
+    integrations.add(new DirectoryWatcherIntegration());
+
     eventProcessors.add(new MainEventProcessor(this));
     eventProcessors.add(new DuplicateEventDetectionEventProcessor(this));
 
@@ -1266,6 +1804,25 @@ public class SentryOptions {
     }
   }
 
+  /** A token bucket rate limit of a data category */
+  public static final class ClientRateLimit {
+    private final double itemsPerSecond;
+    private final int burst;
+
+    public ClientRateLimit(final double itemsPerSecond, final int burst) {
+      this.itemsPerSecond = itemsPerSecond;
+      this.burst = burst;
+    }
+
+    public double getItemsPerSecond() {
+      return itemsPerSecond;
+    }
+
+    public int getBurst() {
+      return burst;
+    }
+  }
+
   public static final class Proxy {
     private @Nullable String host;
     private @Nullable String port;
@@ -0,0 +1,76 @@
+package io.sentry;
+
+import io.sentry.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Wraps the tasks handed to other threads, like executor pools or virtual threads, so they run with
+ * the Hub of the thread that wrapped them instead of a clone of the main one.
+ *
+ * <p>That Hub is cloned when the task is wrapped, which is cheap as the cloned Scopes share their
+ * copy-on-write fields, so what the wrapping thread changes afterwards doesn't leak into the task.
+ * Each run gets its own fork of the clone, which is only cloned again once the task writes to it,
+ * and the thread's own Hub is put back once the task is done, so pooled threads don't keep the Hubs
+ * of the tasks they ran. A {@link java.util.concurrent.CompletableFuture} is wrapped by giving its
+ * async methods a wrapped Executor.
+ */
+public final class SentryWrapper {
+
+  private SentryWrapper() {}
+
+  /**
+   * Wraps a Runnable to be run with the current Hub
+   *
+   * @param runnable the Runnable
+   * @return the wrapped Runnable
+   */
+  public static @NotNull Runnable wrapRunnable(final @NotNull Runnable runnable) {
+    Objects.requireNonNull(runnable, "Runnable is required.");
+    // the scope as it is now, not as the wrapping thread changes it until the task runs
+    final IHub snapshot = Sentry.getCurrentHub().clone();
+    return () -> {
+      final IHub previous = Sentry.peekCurrentHub();
+      Sentry.setCurrentHub(new ForkOnWriteHub(snapshot));
+      try {
+        runnable.run();
+      } finally {
+        Sentry.setCurrentHub(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps a Callable to be called with the current Hub
+   *
+   * @param callable the Callable
+   * @param <U> the type of the result
+   * @return the wrapped Callable
+   */
+  public static <U> @NotNull Callable<U> wrapCallable(final @NotNull Callable<U> callable) {
+    Objects.requireNonNull(callable, "Callable is required.");
+    // the scope as it is now, not as the wrapping thread changes it until the task runs
+    final IHub snapshot = Sentry.getCurrentHub().clone();
+    return () -> {
+      final IHub previous = Sentry.peekCurrentHub();
+      Sentry.setCurrentHub(new ForkOnWriteHub(snapshot));
+      try {
+        return callable.call();
+      } finally {
+        Sentry.setCurrentHub(previous);
+      }
+    };
+  }
+
+  /**
+   * Wraps an Executor, every task it's given runs with the Hub of the thread that gave it
+   *
+   * @param executor the Executor
+   * @return the wrapped Executor
+   */
+  public static @NotNull Executor wrapExecutor(final @NotNull Executor executor) {
+    Objects.requireNonNull(executor, "Executor is required.");
+    return command -> executor.execute(wrapRunnable(command));
+  }
+}
@@ -1,8 +1,7 @@
 package io.sentry;
 
 import io.sentry.util.Objects;
-import java.util.Deque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.Arrays;
 import org.jetbrains.annotations.NotNull;
 
 final class Stack {
@@ -47,43 +46,96 @@ final class Stack {
     }
   }
 
-  private final @NotNull Deque<StackItem> items = new LinkedBlockingDeque<>();
+  /**
+   * The items, root first. The array is never changed in place but replaced, so peek reads the top
+   * item without locking, even while another thread pushes or pops.
+   */
+  private volatile @NotNull StackItem[] items;
+
   private final @NotNull ILogger logger;
 
+  /** If only the thread that owns the Hub pushes and pops, so they don't have to lock either. */
+  private final boolean threadConfined;
+
   public Stack(final @NotNull ILogger logger, final @NotNull StackItem rootStackItem) {
+    this(logger, rootStackItem, false);
+  }
+
+  Stack(
+      final @NotNull ILogger logger,
+      final @NotNull StackItem rootStackItem,
+      final boolean threadConfined) {
     this.logger = Objects.requireNonNull(logger, "logger is required");
-    this.items.push(Objects.requireNonNull(rootStackItem, "rootStackItem is required"));
+    this.items =
+        new StackItem[] {Objects.requireNonNull(rootStackItem, "rootStackItem is required")};
+    this.threadConfined = threadConfined;
   }
 
   public Stack(final @NotNull Stack stack) {
-    this(stack.logger, stack.items.getFirst());
-    for (final StackItem item : stack.items) {
-      push(new StackItem(item));
+    this(stack, false);
+  }
+
+  Stack(final @NotNull Stack stack, final boolean threadConfined) {
+    this.logger = stack.logger;
+    // every item is cloned, in the same order, so the copy shares no Scope with the stack
+    final StackItem[] stackItems = stack.items;
+    final StackItem[] copy = new StackItem[stackItems.length];
+    for (int i = 0; i < stackItems.length; i++) {
+      copy[i] = new StackItem(stackItems[i]);
     }
+    this.items = copy;
+    this.threadConfined = threadConfined;
   }
 
   @NotNull
   StackItem peek() {
-    // peek can never return null since Stack can be created only with an item and pop does not drop
-    // the last item.
-    return items.peek();
+    // the array can never be empty since Stack can be created only with an item and pop does not
+    // drop the last item.
+    final StackItem[] stackItems = items;
+    return stackItems[stackItems.length - 1];
   }
 
   void pop() {
-    synchronized (items) {
-      if (items.size() != 1) {
-        items.pop();
-      } else {
-        logger.log(SentryLevel.WARNING, "Attempt to pop the root scope.");
+    if (threadConfined) {
+      popItem();
+    } else {
+      synchronized (this) {
+        popItem();
       }
     }
   }
 
   void push(final @NotNull StackItem stackItem) {
-    items.push(stackItem);
+    if (threadConfined) {
+      pushItem(stackItem);
+    } else {
+      synchronized (this) {
+        pushItem(stackItem);
+      }
+    }
   }
 
   int size() {
-    return items.size();
+    return items.length;
+  }
+
+  boolean isThreadConfined() {
+    return threadConfined;
+  }
+
+  private void popItem() {
+    final StackItem[] stackItems = items;
+    if (stackItems.length != 1) {
+      items = Arrays.copyOf(stackItems, stackItems.length - 1);
+    } else {
+      logger.log(SentryLevel.WARNING, "Attempt to pop the root scope.");
+    }
+  }
+
+  private void pushItem(final @NotNull StackItem stackItem) {
+    final StackItem[] current = items;
+    final StackItem[] stackItems = Arrays.copyOf(current, current.length + 1);
+    stackItems[current.length] = stackItem;
+    items = stackItems;
   }
 }
@@ -1,7 +1,11 @@
 package io.sentry.cache;
 
+import static io.sentry.SentryLevel.DEBUG;
 import static io.sentry.SentryLevel.ERROR;
+import static io.sentry.SentryLevel.INFO;
+import static io.sentry.SentryLevel.WARNING;
 
+import io.sentry.DateUtils;
 import io.sentry.ISerializer;
 import io.sentry.SentryEnvelope;
 import io.sentry.SentryEnvelopeItem;
@@ -9,21 +13,26 @@ import io.sentry.SentryItemType;
 import io.sentry.SentryLevel;
 import io.sentry.SentryOptions;
 import io.sentry.Session;
+import io.sentry.hints.SessionEnd;
+import io.sentry.hints.SessionStart;
 import io.sentry.util.Objects;
-import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.UUID;
@@ -35,10 +44,16 @@ abstract class CacheStrategy {
   @SuppressWarnings("CharsetObjectCanBeUsed")
   protected static final Charset UTF_8 = Charset.forName("UTF-8");
 
+  // not an envelope suffix, so a file being rewritten is never read nor sent
+  static final String SUFFIX_TEMP_FILE = ".tmp";
+
   protected final @NotNull SentryOptions options;
   protected final @NotNull ISerializer serializer;
   protected final @NotNull File directory;
-  private final int maxSize;
+  protected final int maxSize;
+
+  // mapped on the first session envelope, if enableMappedSessionFile is enabled
+  private @Nullable CurrentSessionRecord currentSessionRecord;
 
   CacheStrategy(
       final @NotNull SentryOptions options,
@@ -72,152 +87,602 @@ abstract class CacheStrategy {
   }
 
   /**
-   * Sort files from oldest to the newest using the lastModified method
+   * Keeps the current session file in sync with the session hints. Once a new session starts, the
+   * one left over by a previous run is ended and stored as an envelope.
    *
-   * @param files the Files
+   * @param envelope the envelope being stored
+   * @param hint the hint
    */
-  private void sortFilesOldestToNewest(@NotNull File[] files) {
-    // just sort it if more than 1 file
-    if (files.length > 1) {
-      Arrays.sort(files, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+  protected void updateCurrentSessionFile(
+      final @NotNull SentryEnvelope envelope, final @Nullable Object hint) {
+    if (options.isEnableMappedSessionFile()) {
+      updateCurrentSessionRecord(envelope, hint);
+      return;
     }
-  }
 
-  /**
-   * Rotates the caching folder if full, deleting the oldest files first
-   *
-   * @param files the Files
-   */
-  protected void rotateCacheIfNeeded(final @NotNull File[] files) {
-    final int length = files.length;
-    if (length >= maxSize) {
-      options
-          .getLogger()
-          .log(SentryLevel.WARNING, "Cache folder if full (respecting maxSize). Rotating files");
-      final int totalToBeDeleted = (length - maxSize) + 1;
-
-      sortFilesOldestToNewest(files);
+    final File currentSessionFile = getCurrentSessionFile();
 
-      final File[] notDeletedFiles = Arrays.copyOfRange(files, totalToBeDeleted, length);
-
-      // delete files from the top of the Array as its sorted by the oldest to the newest
-      for (int i = 0; i < totalToBeDeleted; i++) {
-        final File file = files[i];
+    if (hint instanceof SessionEnd) {
+      if (!currentSessionFile.delete()) {
+        options.getLogger().log(WARNING, "Current envelope doesn't exist.");
+      }
+    }
 
-        // move init flag if necessary
-        moveInitFlagIfNecessary(file, notDeletedFiles);
+    if (hint instanceof SessionStart) {
 
-        if (!file.delete()) {
-          options
-              .getLogger()
-              .log(SentryLevel.WARNING, "File can't be deleted: %s", file.getAbsolutePath());
-        }
+      // TODO: should we move this to AppLifecycleIntegration? and do on SDK init? but it's too much
+      // on main-thread
+      if (currentSessionFile.exists()) {
+        endLeftoverSessionFile(currentSessionFile);
       }
+      updateCurrentSession(currentSessionFile, envelope);
     }
   }
 
-  private void moveInitFlagIfNecessary(
-      final @NotNull File currentFile, final @NotNull File[] notDeletedFiles) {
-    final SentryEnvelope currentEnvelope = readEnvelope(currentFile);
-
-    if (!isValidEnvelope(currentEnvelope)) {
+  /**
+   * Keeps the memory-mapped current session in sync with the envelopes being stored. Unlike the
+   * JSON file, it's also updated with the session updates sent along with other envelopes, so a
+   * hard crash leaves the latest state of the session behind.
+   *
+   * @param envelope the envelope being stored
+   * @param hint the hint
+   */
+  private void updateCurrentSessionRecord(
+      final @NotNull SentryEnvelope envelope, final @Nullable Object hint) {
+    final CurrentSessionRecord record = getCurrentSessionRecord();
+    final File currentSessionFile = getCurrentSessionFile();
+
+    if (hint instanceof SessionEnd) {
+      record.clear();
+      if (currentSessionFile.exists() && !currentSessionFile.delete()) {
+        options.getLogger().log(WARNING, "Failed to delete the current session file.");
+      }
       return;
     }
 
-    final Session currentSession = getFirstSession(currentEnvelope);
+    if (hint instanceof SessionStart) {
+      final Session leftover = record.read();
+      if (leftover != null) {
+        options.getLogger().log(WARNING, "Current session is not ended, we'd need to end it.");
+        try {
+          endLeftoverSession(leftover);
+        } catch (Exception e) {
+          options.getLogger().log(SentryLevel.ERROR, "Error processing session.", e);
+        }
+      }
+      // left over by a run that didn't use the mapped file
+      if (currentSessionFile.exists()) {
+        endLeftoverSessionFile(currentSessionFile);
+      }
 
-    if (!isValidSession(currentSession)) {
+      final Session session = getFirstSession(envelope);
+      if (session == null || !record.write(session)) {
+        record.clear();
+        if (session != null) {
+          writeSessionToDisk(currentSessionFile, session);
+        }
+      }
       return;
     }
 
-    // nothing to do if its not true
-    final Boolean currentSessionInit = currentSession.getInit();
-    if (currentSessionInit == null || !currentSessionInit) {
+    final UUID currentSessionId = record.getCurrentSessionId();
+    if (currentSessionId == null) {
       return;
     }
+    for (final SentryEnvelopeItem item : envelope.getItems()) {
+      if (!isSessionType(item)) {
+        continue;
+      }
+      final Session session = readSession(item);
+      if (session != null && currentSessionId.equals(session.getSessionId())) {
+        record.write(session);
+      }
+    }
+  }
 
-    // we need to move the init flag
-    for (final File notDeletedFile : notDeletedFiles) {
-      final SentryEnvelope envelope = readEnvelope(notDeletedFile);
+  /**
+   * Ends the session left over in the current session file and deletes the file
+   *
+   * @param currentSessionFile the current session file
+   */
+  private void endLeftoverSessionFile(final @NotNull File currentSessionFile) {
+    options.getLogger().log(WARNING, "Current session is not ended, we'd need to end it.");
 
-      if (!isValidEnvelope(envelope)) {
-        continue;
+    try (final Reader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(currentSessionFile), UTF_8))) {
+
+      final Session session = serializer.deserialize(reader, Session.class);
+      if (session == null) {
+        options
+            .getLogger()
+            .log(
+                SentryLevel.ERROR,
+                "Stream from path %s resulted in a null envelope.",
+                currentSessionFile.getAbsolutePath());
+      } else {
+        endLeftoverSession(session);
       }
+    } catch (Exception e) {
+      options.getLogger().log(SentryLevel.ERROR, "Error processing session.", e);
+    }
 
-      SentryEnvelopeItem newSessionItem = null;
-      final Iterator<SentryEnvelopeItem> itemsIterator = envelope.getItems().iterator();
+    // at this point the leftover session and its current session file already became a new
+    // envelope to be sent
+    // so deleting it as the new session will take place.
+    if (!currentSessionFile.delete()) {
+      options.getLogger().log(WARNING, "Failed to delete the current session file.");
+    }
+  }
 
-      while (itemsIterator.hasNext()) {
-        final SentryEnvelopeItem envelopeItem = itemsIterator.next();
+  /**
+   * Ends the session left over by a previous run, as crashed if the crash marker file exists, and
+   * stores it as an envelope
+   *
+   * @param session the leftover session
+   */
+  private void endLeftoverSession(final @NotNull Session session) throws IOException {
+    final File crashMarkerFile =
+        new File(options.getCacheDirPath(), EnvelopeCache.CRASH_MARKER_FILE);
+    Date timestamp = null;
+    if (crashMarkerFile.exists()) {
+      options.getLogger().log(INFO, "Crash marker file exists, last Session is gonna be Crashed.");
+
+      timestamp = getTimestampFromCrashMarkerFile(crashMarkerFile);
+      if (!crashMarkerFile.delete()) {
+        options
+            .getLogger()
+            .log(
+                ERROR,
+                "Failed to delete the crash marker file. %s.",
+                crashMarkerFile.getAbsolutePath());
+      }
+      session.update(Session.State.Crashed, null, true);
+    }
 
-        if (!isSessionType(envelopeItem)) {
-          continue;
-        }
+    session.end(timestamp);
+    // if the App. has been upgraded and there's a new version of the SDK running,
+    // SdkVersion will be outdated.
+    final SentryEnvelope fromSession =
+        SentryEnvelope.from(serializer, session, options.getSdkVersion());
+    storeEndedSession(fromSession);
+  }
 
-        final Session session = readSession(envelopeItem);
+  /**
+   * Stores the envelope of the session left over by a previous run, once it's ended
+   *
+   * @param envelope the envelope with the ended session
+   */
+  protected abstract void storeEndedSession(@NotNull SentryEnvelope envelope);
 
-        if (!isValidSession(session)) {
-          continue;
-        }
+  /**
+   * Reads the crash marker file and returns the timestamp as Date written in there
+   *
+   * @param markerFile the marker file
+   * @return the timestamp as Date
+   */
+  private @Nullable Date getTimestampFromCrashMarkerFile(final @NotNull File markerFile) {
+    try (final BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(markerFile), UTF_8))) {
+      final String timestamp = reader.readLine();
+      options.getLogger().log(DEBUG, "Crash marker file has %s timestamp.", timestamp);
+      return DateUtils.getDateTime(timestamp);
+    } catch (IOException e) {
+      options.getLogger().log(ERROR, "Error reading the crash marker file.", e);
+    } catch (IllegalArgumentException e) {
+      options.getLogger().log(SentryLevel.ERROR, e, "Error converting the crash timestamp.");
+    }
+    return null;
+  }
 
-        final Boolean init = session.getInit();
-        if (init != null && init) {
-          options
-              .getLogger()
-              .log(ERROR, "Session %s has 2 times the init flag.", currentSession.getSessionId());
-          return;
-        }
+  private void updateCurrentSession(
+      final @NotNull File currentSessionFile, final @NotNull SentryEnvelope envelope) {
+    final Iterable<SentryEnvelopeItem> items = envelope.getItems();
 
-        if (currentSession.getSessionId().equals(session.getSessionId())) {
-          session.setInitAsTrue();
-          try {
-            newSessionItem = SentryEnvelopeItem.fromSession(serializer, session);
-            // remove item from envelope items so we can replace with the new one that has the
-            // init flag true
-            itemsIterator.remove();
-          } catch (IOException e) {
+    // we know that an envelope with a SessionStart hint has a single item inside
+    if (items.iterator().hasNext()) {
+      final SentryEnvelopeItem item = items.iterator().next();
+
+      if (SentryItemType.Session.equals(item.getHeader().getType())) {
+        try (final Reader reader =
+            new BufferedReader(new InputStreamReader(item.getDataStream(), UTF_8))) {
+          final Session session = serializer.deserialize(reader, Session.class);
+          if (session == null) {
             options
                 .getLogger()
                 .log(
-                    ERROR,
-                    e,
-                    "Failed to create new envelope item for the session %s",
-                    currentSession.getSessionId());
+                    SentryLevel.ERROR,
+                    "Item of type %s returned null by the parser.",
+                    item.getHeader().getType());
+          } else {
+            writeSessionToDisk(currentSessionFile, session);
           }
+        } catch (Exception e) {
+          options.getLogger().log(ERROR, "Item failed to process.", e);
+        }
+      } else {
+        options
+            .getLogger()
+            .log(
+                INFO,
+                "Current envelope has a different envelope type %s",
+                item.getHeader().getType());
+      }
+    } else {
+      options
+          .getLogger()
+          .log(INFO, "Current envelope %s is empty", currentSessionFile.getAbsolutePath());
+    }
+  }
+
+  private void writeSessionToDisk(final @NotNull File file, final @NotNull Session session) {
+    if (file.exists()) {
+      options
+          .getLogger()
+          .log(DEBUG, "Overwriting session to offline storage: %s", session.getSessionId());
+      if (!file.delete()) {
+        options.getLogger().log(SentryLevel.ERROR, "Failed to delete: %s", file.getAbsolutePath());
+      }
+    }
+
+    try (final OutputStream outputStream = new FileOutputStream(file);
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8))) {
+      serializer.serialize(session, writer);
+    } catch (Exception e) {
+      options
+          .getLogger()
+          .log(ERROR, e, "Error writing Session to offline storage: %s", session.getSessionId());
+    }
+  }
+
+  private @NotNull File getCurrentSessionFile() {
+    return new File(
+        directory.getAbsolutePath(),
+        EnvelopeCache.PREFIX_CURRENT_SESSION_FILE + EnvelopeCache.SUFFIX_CURRENT_SESSION_FILE);
+  }
+
+  private synchronized @NotNull CurrentSessionRecord getCurrentSessionRecord() {
+    if (currentSessionRecord == null) {
+      currentSessionRecord =
+          new CurrentSessionRecord(
+              new File(
+                  directory.getAbsolutePath(),
+                  EnvelopeCache.PREFIX_CURRENT_SESSION_FILE
+                      + EnvelopeCache.SUFFIX_CURRENT_SESSION_RECORD_FILE),
+              options.getLogger());
+    }
+    return currentSessionRecord;
+  }
+
+  /**
+   * Sets the init flag of the session with the given id in the first of the files that has it. The
+   * session item is patched in place, the file is only deserialized if it can't be.
+   *
+   * @param sessionId the id of the session the init flag is moved to
+   * @param notDeletedFiles the files to look for the session, from the oldest to the newest
+   */
+  protected void moveInitFlag(
+      final @NotNull UUID sessionId, final @NotNull File[] notDeletedFiles) {
+    for (final File notDeletedFile : notDeletedFiles) {
+      final RawEnvelope rawEnvelope = readRawEnvelope(notDeletedFile);
+      InitFlagResult result =
+          rawEnvelope != null
+              ? patchInitFlag(sessionId, notDeletedFile, rawEnvelope)
+              : InitFlagResult.UNREADABLE;
+      if (result == InitFlagResult.UNREADABLE) {
+        result = rewriteInitFlag(sessionId, notDeletedFile);
+      }
 
-          break;
+      if (result == InitFlagResult.ALREADY_SET) {
+        options.getLogger().log(ERROR, "Session %s has 2 times the init flag.", sessionId);
+        return;
+      }
+      if (result == InitFlagResult.MOVED) {
+        return;
+      }
+    }
+  }
+
+  private enum InitFlagResult {
+    MOVED,
+    ALREADY_SET,
+    NOT_FOUND,
+    UNREADABLE
+  }
+
+  private @NotNull InitFlagResult patchInitFlag(
+      final @NotNull UUID sessionId,
+      final @NotNull File file,
+      final @NotNull RawEnvelope rawEnvelope) {
+    for (final RawEnvelope.Item item : rawEnvelope.getItems()) {
+      if (!SentryItemType.Session.equals(item.getType())) {
+        continue;
+      }
+      final RawEnvelope.SessionFields session = rawEnvelope.readSession(item);
+      if (session == null) {
+        return InitFlagResult.UNREADABLE;
+      }
+      if (!session.isOk()) {
+        continue;
+      }
+      if (session.isInit()) {
+        return InitFlagResult.ALREADY_SET;
+      }
+      if (sessionId.equals(session.getSessionId())) {
+        final long timestamp = file.lastModified();
+        try {
+          writeEnvelopeBytes(file, rawEnvelope.withInit(item, session));
+        } catch (IOException e) {
+          options.getLogger().log(ERROR, e, "Failed to write the init flag of %s.", sessionId);
         }
+        // we need to set the same timestamp so the sorting from oldest to newest wont break.
+        file.setLastModified(timestamp);
+        return InitFlagResult.MOVED;
+      }
+    }
+    return InitFlagResult.NOT_FOUND;
+  }
+
+  private @NotNull InitFlagResult rewriteInitFlag(
+      final @NotNull UUID sessionId, final @NotNull File notDeletedFile) {
+    final SentryEnvelope envelope = readEnvelope(notDeletedFile);
+
+    if (!isValidEnvelope(envelope)) {
+      return InitFlagResult.NOT_FOUND;
+    }
+
+    SentryEnvelopeItem newSessionItem = null;
+    final Iterator<SentryEnvelopeItem> itemsIterator = envelope.getItems().iterator();
+
+    while (itemsIterator.hasNext()) {
+      final SentryEnvelopeItem envelopeItem = itemsIterator.next();
+
+      if (!isSessionType(envelopeItem)) {
+        continue;
+      }
+
+      final Session session = readSession(envelopeItem);
+
+      if (!isValidSession(session)) {
+        continue;
       }
 
-      if (newSessionItem != null) {
-        final SentryEnvelope newEnvelope = buildNewEnvelope(envelope, newSessionItem);
+      final Boolean init = session.getInit();
+      if (init != null && init) {
+        return InitFlagResult.ALREADY_SET;
+      }
 
-        long notDeletedFileTimestamp = notDeletedFile.lastModified();
-        if (!notDeletedFile.delete()) {
+      if (sessionId.equals(session.getSessionId())) {
+        session.setInitAsTrue();
+        try {
+          newSessionItem = SentryEnvelopeItem.fromSession(serializer, session);
+          // remove item from envelope items so we can replace with the new one that has the
+          // init flag true
+          itemsIterator.remove();
+        } catch (IOException e) {
           options
               .getLogger()
-              .log(
-                  SentryLevel.WARNING,
-                  "File can't be deleted: %s",
-                  notDeletedFile.getAbsolutePath());
+              .log(ERROR, e, "Failed to create new envelope item for the session %s", sessionId);
         }
 
-        saveNewEnvelope(newEnvelope, notDeletedFile, notDeletedFileTimestamp);
         break;
       }
     }
+
+    if (newSessionItem == null) {
+      return InitFlagResult.NOT_FOUND;
+    }
+    final SentryEnvelope newEnvelope = buildNewEnvelope(envelope, newSessionItem);
+
+    long notDeletedFileTimestamp = notDeletedFile.lastModified();
+    if (!notDeletedFile.delete()) {
+      options
+          .getLogger()
+          .log(SentryLevel.WARNING, "File can't be deleted: %s", notDeletedFile.getAbsolutePath());
+    }
+
+    saveNewEnvelope(newEnvelope, notDeletedFile, notDeletedFileTimestamp);
+    return InitFlagResult.MOVED;
   }
 
-  private @Nullable SentryEnvelope readEnvelope(final @NotNull File file) {
-    try (final InputStream inputStream = new BufferedInputStream(new FileInputStream(file))) {
-      return serializer.deserializeEnvelope(inputStream);
+  /**
+   * Reads the envelope file without deserializing it
+   *
+   * @param file the envelope file
+   * @return the envelope or null if it has to be deserialized
+   */
+  protected @Nullable RawEnvelope readRawEnvelope(final @NotNull File file) {
+    try {
+      byte[] bytes = FramedEnvelope.readBytes(file);
+      if (CompressedEnvelope.isCompressed(bytes)) {
+        bytes = CompressedEnvelope.decompress(bytes);
+      }
+      if (FramedEnvelope.isFramed(bytes)) {
+        final byte[] wire = readFramedEnvelope(file, bytes);
+        return wire != null ? RawEnvelope.parse(wire) : null;
+      }
+      return RawEnvelope.parse(bytes);
     } catch (IOException e) {
+      options.getLogger().log(DEBUG, "Failed to read the envelope %s.", file.getAbsolutePath());
+    }
+    return null;
+  }
+
+  protected @Nullable SentryEnvelope readEnvelope(final @NotNull File file) {
+    if (CompressedEnvelope.isCompressed(file)) {
+      try {
+        return CompressedEnvelope.read(file, serializer);
+      } catch (IOException e) {
+        options.getLogger().log(ERROR, e, "Failed to deserialize the envelope.");
+      }
+      return null;
+    }
+    if (FramedEnvelope.isFramed(file)) {
+      try {
+        final byte[] wire = FramedEnvelope.readWire(file, options.getLogger());
+        if (wire != null) {
+          return options.getEnvelopeReader().read(new ByteArrayInputStream(wire));
+        }
+      } catch (IOException | IllegalArgumentException e) {
+        options.getLogger().log(ERROR, e, "Failed to deserialize the envelope.");
+      }
+      return null;
+    }
+
+    try (final FileInputStream inputStream = new FileInputStream(file)) {
+      return options.getEnvelopeReader().readChannel(inputStream.getChannel());
+    } catch (IOException | IllegalArgumentException e) {
       options.getLogger().log(ERROR, "Failed to deserialize the envelope.", e);
     }
 
     return null;
   }
 
+  /**
+   * Reads the framed envelope file back in the wire format. The items are only checked if the file
+   * isn't of the length it should have, then it's repaired on the way: only its intact items are
+   * written back, or it's deleted if there are none.
+   *
+   * @param file the framed file
+   * @param bytes the bytes of the file
+   * @return the envelope in the wire format or null if nothing of it is intact
+   */
+  private @Nullable byte[] readFramedEnvelope(
+      final @NotNull File file, final @NotNull byte[] bytes) {
+    final FramedEnvelope.Frames frames = FramedEnvelope.read(bytes, false);
+    if (frames == null || !frames.isDamaged()) {
+      return frames != null ? frames.getWire() : null;
+    }
+
+    final byte[] wire = frames.getWire();
+    if (wire == null) {
+      options
+          .getLogger()
+          .log(WARNING, "Envelope file %s is corrupted, deleting it.", file.getAbsolutePath());
+      if (!file.delete()) {
+        options.getLogger().log(ERROR, "Failed to delete: %s", file.getAbsolutePath());
+      }
+      return null;
+    }
+
+    options
+        .getLogger()
+        .log(
+            WARNING,
+            "Envelope file %s is damaged, %d corrupted items dropped, truncated: %s.",
+            file.getAbsolutePath(),
+            frames.getDroppedItems(),
+            frames.isTruncated());
+    final long timestamp = file.lastModified();
+    try {
+      writeEnvelopeBytes(file, wire);
+      // we need to set the same timestamp so the sorting from oldest to newest wont break.
+      file.setLastModified(timestamp);
+    } catch (IOException e) {
+      options.getLogger().log(ERROR, e, "Failed to repair %s.", file.getAbsolutePath());
+    }
+    return wire;
+  }
+
+  /**
+   * Serializes the envelope to the file, gzipped if {@link
+   * SentryOptions#isEnableCompressedEnvelopeCache()} is enabled or else framed if {@link
+   * SentryOptions#isEnableFramedEnvelopeCache()} is. If it fails halfway nothing of it is left in
+   * the file.
+   *
+   * @param envelope the envelope
+   * @param file the file
+   * @throws Exception if it couldn't be serialized or written
+   */
+  protected void serializeEnvelope(
+      final @NotNull SentryEnvelope envelope, final @NotNull File file) throws Exception {
+    if (!options.isEnableCompressedEnvelopeCache() && !options.isEnableFramedEnvelopeCache()) {
+      final File tempFile = new File(file.getParentFile(), file.getName() + SUFFIX_TEMP_FILE);
+      try (final OutputStream outputStream = new FileOutputStream(tempFile)) {
+        serializer.serialize(envelope, outputStream);
+      } catch (Exception e) {
+        tempFile.delete();
+        throw e;
+      }
+      renameTempFile(tempFile, file);
+      return;
+    }
+    final ByteArrayOutputStream wire = new ByteArrayOutputStream();
+    serializer.serialize(envelope, wire);
+    writeEnvelopeBytes(file, wire.toByteArray());
+  }
+
+  /**
+   * Writes the envelope to the file, gzipped if {@link
+   * SentryOptions#isEnableCompressedEnvelopeCache()} is enabled, or else framed if {@link
+   * SentryOptions#isEnableFramedEnvelopeCache()} is and its items can be told apart. It's written
+   * to a temp file first and renamed over the file, so a crash never leaves it half rewritten.
+   *
+   * @param file the file
+   * @param wire the envelope in the wire format
+   * @throws IOException if it couldn't be written
+   */
+  private void writeEnvelopeBytes(final @NotNull File file, final @NotNull byte[] wire)
+      throws IOException {
+    final File tempFile = new File(file.getParentFile(), file.getName() + SUFFIX_TEMP_FILE);
+    try (final OutputStream outputStream =
+        new BufferedOutputStream(new FileOutputStream(tempFile))) {
+      if (options.isEnableCompressedEnvelopeCache()) {
+        CompressedEnvelope.compress(wire, outputStream);
+      } else if (!options.isEnableFramedEnvelopeCache()
+          || !FramedEnvelope.frame(wire, outputStream)) {
+        outputStream.write(wire);
+      }
+    } catch (IOException e) {
+      tempFile.delete();
+      throw e;
+    }
+    renameTempFile(tempFile, file);
+  }
+
+  private static void renameTempFile(final @NotNull File tempFile, final @NotNull File file)
+      throws IOException {
+    if (!tempFile.renameTo(file)) {
+      tempFile.delete();
+      throw new IOException("Failed to rename the temp file to " + file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Reads the sessions of the envelope that the init flag can be moved from or to. The fields are
+   * read from the serialized sessions, which are only deserialized if they can't be.
+   *
+   * @param envelope the envelope
+   * @return the sessions that are Ok
+   */
+  protected @NotNull List<RawEnvelope.SessionFields> readValidSessions(
+      final @NotNull SentryEnvelope envelope) {
+    final List<RawEnvelope.SessionFields> sessions = new ArrayList<>();
+    for (final SentryEnvelopeItem item : envelope.getItems()) {
+      if (!isSessionType(item)) {
+        continue;
+      }
+      RawEnvelope.SessionFields fields;
+      try {
+        fields = RawEnvelope.readSession(item.getData());
+      } catch (Exception e) {
+        options.getLogger().log(ERROR, "Failed to read the session.", e);
+        continue;
+      }
+      if (fields == null) {
+        final Session session = readSession(item);
+        if (isValidSession(session)) {
+          fields =
+              new RawEnvelope.SessionFields(
+                  session.getSessionId(), true, Boolean.TRUE.equals(session.getInit()), -1);
+        }
+      }
+      if (fields != null && fields.isOk()) {
+        sessions.add(fields);
+      }
+    }
+    return sessions;
+  }
+
   private @Nullable Session getFirstSession(final @NotNull SentryEnvelope envelope) {
     for (final SentryEnvelopeItem item : envelope.getItems()) {
       if (!isSessionType(item)) {
@@ -257,8 +722,7 @@ abstract class CacheStrategy {
 
   private @Nullable Session readSession(final @NotNull SentryEnvelopeItem item) {
     try (final Reader reader =
-        new BufferedReader(
-            new InputStreamReader(new ByteArrayInputStream(item.getData()), UTF_8))) {
+        new BufferedReader(new InputStreamReader(item.getDataStream(), UTF_8))) {
       return serializer.deserialize(reader, Session.class);
     } catch (Exception e) {
       options.getLogger().log(ERROR, "Failed to deserialize the session.", e);
@@ -268,8 +732,8 @@ abstract class CacheStrategy {
 
   private void saveNewEnvelope(
       final @NotNull SentryEnvelope envelope, final @NotNull File file, final long timestamp) {
-    try (final OutputStream outputStream = new FileOutputStream(file)) {
-      serializer.serialize(envelope, outputStream);
+    try {
+      serializeEnvelope(envelope, file);
       // we need to set the same timestamp so the sorting from oldest to newest wont break.
       file.setLastModified(timestamp);
     } catch (Exception e) {
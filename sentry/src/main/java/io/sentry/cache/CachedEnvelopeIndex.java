@@ -0,0 +1,214 @@
+package io.sentry.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The envelope files of the {@link EnvelopeCache}, from the oldest to the newest. It's kept in sync
+ * with the files written and deleted by the cache, so rotating the cache folder doesn't list, stat
+ * or read the files. It's not thread safe, the cache synchronizes on it.
+ *
+ * <p>The entries are also ordered by their size divided by the weight of what they hold, to pick
+ * the one to evict once the cache is over its byte budget: a large transaction goes before a large
+ * error, and a large error before a small session.
+ */
+final class CachedEnvelopeIndex {
+
+  static final int WEIGHT_TRANSACTION = 1;
+  static final int WEIGHT_SESSION = 4;
+  static final int WEIGHT_ERROR = 16;
+
+  private final @NotNull Map<String, Entry> entriesByName = new HashMap<>();
+  private final @NotNull TreeSet<Entry> entries = new TreeSet<>();
+  private final @NotNull TreeSet<Entry> evictionOrder =
+      new TreeSet<>(
+          (e1, e2) -> {
+            final int byScore = Long.compare(e2.getEvictionScore(), e1.getEvictionScore());
+            return byScore != 0 ? byScore : e1.compareTo(e2);
+          });
+  private long nextSequence;
+  private long totalSize;
+
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Returns the size of all files in the index
+   *
+   * @return the size in bytes
+   */
+  long getTotalSize() {
+    return totalSize;
+  }
+
+  boolean contains(final @NotNull String fileName) {
+    return entriesByName.containsKey(fileName);
+  }
+
+  @Nullable
+  Entry get(final @NotNull String fileName) {
+    return entriesByName.get(fileName);
+  }
+
+  /**
+   * Adds the file, or replaces it if it's already in the index
+   *
+   * @param fileName the name of the file
+   * @param size the size of the file in bytes
+   * @param timestamp when the file was written
+   * @param weight how much the content of the file is worth keeping, one of the WEIGHT_ constants
+   * @param sessionIds the ids of the sessions in the file the init flag can be moved to
+   * @param initSessionId the id of the session in the file that has the init flag
+   * @return the entry
+   */
+  @NotNull
+  Entry put(
+      final @NotNull String fileName,
+      final long size,
+      final long timestamp,
+      final int weight,
+      final @NotNull Set<UUID> sessionIds,
+      final @Nullable UUID initSessionId) {
+    remove(fileName);
+    final Entry entry =
+        new Entry(fileName, size, timestamp, nextSequence++, weight, sessionIds, initSessionId);
+    entriesByName.put(fileName, entry);
+    entries.add(entry);
+    evictionOrder.add(entry);
+    totalSize += size;
+    return entry;
+  }
+
+  @Nullable
+  Entry remove(final @NotNull String fileName) {
+    final Entry entry = entriesByName.remove(fileName);
+    if (entry != null) {
+      entries.remove(entry);
+      evictionOrder.remove(entry);
+      totalSize -= entry.size;
+    }
+    return entry;
+  }
+
+  /**
+   * Updates the size of the entry, after its file was rewritten
+   *
+   * @param entry an entry of the index
+   * @param size the size of the file in bytes
+   */
+  void setSize(final @NotNull Entry entry, final long size) {
+    if (entriesByName.get(entry.fileName) != entry) {
+      return;
+    }
+    evictionOrder.remove(entry);
+    totalSize += size - entry.size;
+    entry.size = size;
+    evictionOrder.add(entry);
+  }
+
+  @Nullable
+  Entry oldest() {
+    return entries.isEmpty() ? null : entries.first();
+  }
+
+  /**
+   * Returns the entry to evict first to get under a byte budget, the one with the highest size to
+   * weight ratio
+   *
+   * @return the entry or null if the index is empty
+   */
+  @Nullable
+  Entry nextToEvict() {
+    return evictionOrder.isEmpty() ? null : evictionOrder.first();
+  }
+
+  /**
+   * Returns the entries from the oldest to the newest
+   *
+   * @return a copy of the entries
+   */
+  @NotNull
+  List<Entry> entries() {
+    return new ArrayList<>(entries);
+  }
+
+  static final class Entry implements Comparable<Entry> {
+    private final @NotNull String fileName;
+    private long size;
+    private final long timestamp;
+    // tells apart the files written within the same millisecond
+    private final long sequence;
+    private final int weight;
+    private final @NotNull Set<UUID> sessionIds;
+    private @Nullable UUID initSessionId;
+
+    Entry(
+        final @NotNull String fileName,
+        final long size,
+        final long timestamp,
+        final long sequence,
+        final int weight,
+        final @NotNull Set<UUID> sessionIds,
+        final @Nullable UUID initSessionId) {
+      this.fileName = fileName;
+      this.size = size;
+      this.timestamp = timestamp;
+      this.sequence = sequence;
+      this.weight = weight;
+      this.sessionIds =
+          sessionIds.isEmpty()
+              ? Collections.<UUID>emptySet()
+              : Collections.unmodifiableSet(sessionIds);
+      this.initSessionId = initSessionId;
+    }
+
+    @NotNull
+    String getFileName() {
+      return fileName;
+    }
+
+    long getSize() {
+      return size;
+    }
+
+    long getTimestamp() {
+      return timestamp;
+    }
+
+    int getWeight() {
+      return weight;
+    }
+
+    long getEvictionScore() {
+      return size / weight;
+    }
+
+    boolean hasSession(final @NotNull UUID sessionId) {
+      return sessionIds.contains(sessionId);
+    }
+
+    @Nullable
+    UUID getInitSessionId() {
+      return initSessionId;
+    }
+
+    void setInitSessionId(final @Nullable UUID initSessionId) {
+      this.initSessionId = initSessionId;
+    }
+
+    @Override
+    public int compareTo(final @NotNull Entry other) {
+      final int byTimestamp = Long.compare(timestamp, other.timestamp);
+      return byTimestamp != 0 ? byTimestamp : Long.compare(sequence, other.sequence);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package io.sentry.cache;
+
+import io.sentry.ISerializer;
+import io.sentry.SentryEnvelope;
+import io.sentry.SentryItemType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The gzipped format of the cached envelope files. The envelope read from a gzipped file keeps its
+ * bytes, so the transport sends them as they are instead of serializing and gzipping it again on
+ * every attempt.
+ *
+ * <p>Gzip has its own CRC32 and length, so the gzipped files aren't framed. The wire format starts
+ * with '{', so both formats can be told apart and read from the same folder.
+ */
+@ApiStatus.Internal
+public final class CompressedEnvelope {
+
+  private static final int GZIP_MAGIC_1 = 0x1f;
+  private static final int GZIP_MAGIC_2 = 0x8b;
+
+  private CompressedEnvelope() {}
+
+  /**
+   * Checks if the file is gzipped, only its first bytes are read
+   *
+   * @param file the envelope file
+   * @return true if gzipped
+   */
+  public static boolean isCompressed(final @NotNull File file) {
+    try (final InputStream stream = new FileInputStream(file)) {
+      return stream.read() == GZIP_MAGIC_1 && stream.read() == GZIP_MAGIC_2;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the gzipped file, the envelope keeps the gzipped bytes to be sent as they are
+   *
+   * @param file the gzipped file
+   * @param serializer the serializer
+   * @return the envelope or null if it couldn't be deserialized
+   * @throws IOException if the file couldn't be read
+   */
+  public static @Nullable SentryEnvelope read(
+      final @NotNull File file, final @NotNull ISerializer serializer) throws IOException {
+    final byte[] compressed = FramedEnvelope.readBytes(file);
+    final SentryEnvelope envelope;
+    try (final InputStream stream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      envelope = serializer.deserializeEnvelope(stream);
+    }
+    return envelope != null ? envelope.withCompressedBytes(compressed) : null;
+  }
+
+  /**
+   * Reads the types of the items of the gzipped file
+   *
+   * @param file the gzipped file
+   * @return the types or null if they can't be told
+   * @throws IOException if the file couldn't be read or decompressed
+   */
+  public static @Nullable List<SentryItemType> readItemTypes(final @NotNull File file)
+      throws IOException {
+    return RawEnvelope.readItemTypes(decompress(FramedEnvelope.readBytes(file)));
+  }
+
+  static boolean isCompressed(final @NotNull byte[] bytes) {
+    return bytes.length >= 2
+        && (bytes[0] & 0xff) == GZIP_MAGIC_1
+        && (bytes[1] & 0xff) == GZIP_MAGIC_2;
+  }
+
+  static void compress(final @NotNull byte[] wire, final @NotNull OutputStream stream)
+      throws IOException {
+    final GZIPOutputStream gzip = new GZIPOutputStream(stream);
+    gzip.write(wire);
+    gzip.finish();
+  }
+
+  static @NotNull byte[] decompress(final @NotNull byte[] compressed) throws IOException {
+    final ByteArrayOutputStream wire = new ByteArrayOutputStream(compressed.length * 4);
+    try (final InputStream stream = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+      final byte[] buffer = new byte[8192];
+      int count;
+      while ((count = stream.read(buffer)) > 0) {
+        wire.write(buffer, 0, count);
+      }
+    }
+    return wire.toByteArray();
+  }
+}
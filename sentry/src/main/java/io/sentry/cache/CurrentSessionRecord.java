@@ -0,0 +1,357 @@
+package io.sentry.cache;
+
+import static io.sentry.SentryLevel.DEBUG;
+import static io.sentry.SentryLevel.ERROR;
+
+import io.sentry.ILogger;
+import io.sentry.Session;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The current session, kept in a small memory-mapped file with a binary layout instead of a JSON
+ * file. Starting or updating the session writes to the mapped memory, and it's only turned into a
+ * JSON envelope once it's found unfinished by the next run.
+ *
+ * <p>The file has two slots, each with a generation, the length of its payload and a CRC32. A
+ * write goes to the slot not in use and is read back only if its CRC matches, so a process dying
+ * in the middle of a write leaves the previous session in place.
+ *
+ * <p>It's not a general session store: sessions whose strings don't fit in a slot aren't written,
+ * and the caller keeps them as JSON.
+ */
+final class CurrentSessionRecord {
+
+  static final int FILE_SIZE = 4096;
+
+  private static final int MAGIC = 0x534E5453; // SNTS
+  private static final int FORMAT_VERSION = 1;
+  private static final int HEADER_SIZE = 8;
+  private static final int SLOT_SIZE = (FILE_SIZE - HEADER_SIZE) / 2;
+  // generation, payload length and CRC32
+  private static final int SLOT_HEADER_SIZE = 16;
+  private static final int MAX_PAYLOAD_SIZE = SLOT_SIZE - SLOT_HEADER_SIZE;
+
+  private static final long NULL_LONG = Long.MIN_VALUE;
+  private static final byte INIT_NULL = 0;
+  private static final byte INIT_FALSE = 1;
+  private static final byte INIT_TRUE = 2;
+  // the status codes are part of the file format, don't derive them from the enum's ordinals
+  static final byte STATUS_OK = 0;
+  static final byte STATUS_EXITED = 1;
+  static final byte STATUS_CRASHED = 2;
+  static final byte STATUS_ABNORMAL = 3;
+
+  @SuppressWarnings("CharsetObjectCanBeUsed")
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final @NotNull File file;
+  private final @NotNull ILogger logger;
+
+  // mapped on the first use, guarded by this
+  private @Nullable MappedByteBuffer buffer;
+  private long generation;
+  private int activeSlot = -1;
+  private @Nullable UUID currentSessionId;
+
+  CurrentSessionRecord(final @NotNull File file, final @NotNull ILogger logger) {
+    this.file = file;
+    this.logger = logger;
+  }
+
+  /**
+   * Returns the session in the file, left over by a previous run if it wasn't cleared
+   *
+   * @return the session or null if there's none
+   */
+  synchronized @Nullable Session read() {
+    final MappedByteBuffer buffer = map();
+    if (buffer == null || activeSlot < 0) {
+      return null;
+    }
+    final ByteBuffer payload = payloadOf(buffer, activeSlot);
+    if (payload.get() == 0) {
+      return null;
+    }
+    try {
+      return readSession(payload);
+    } catch (RuntimeException e) {
+      logger.log(ERROR, e, "Failed to read the current session.");
+      return null;
+    }
+  }
+
+  /**
+   * Returns the id of the session in the file, without reading the rest of it
+   *
+   * @return the id or null if there's no session
+   */
+  synchronized @Nullable UUID getCurrentSessionId() {
+    map();
+    return currentSessionId;
+  }
+
+  /**
+   * Replaces the session in the file
+   *
+   * @param session the session
+   * @return false if the session doesn't fit and wasn't written
+   */
+  synchronized boolean write(final @NotNull Session session) {
+    final UUID sessionId = session.getSessionId();
+    if (sessionId == null) {
+      return false;
+    }
+    final ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD_SIZE);
+    try {
+      payload.put((byte) 1);
+      writeSession(payload, sessionId, session);
+    } catch (BufferOverflowException e) {
+      logger.log(DEBUG, "Session %s doesn't fit in the current session file.", sessionId);
+      return false;
+    }
+    payload.flip();
+    if (!writePayload(payload)) {
+      return false;
+    }
+    currentSessionId = sessionId;
+    return true;
+  }
+
+  /** Marks that there's no current session, the file is kept mapped for the next one. */
+  synchronized void clear() {
+    final ByteBuffer payload = ByteBuffer.allocate(1);
+    payload.put((byte) 0);
+    payload.flip();
+    if (writePayload(payload)) {
+      currentSessionId = null;
+    }
+  }
+
+  /**
+   * Writes the payload to the slot not in use, then its header, so a torn write fails the CRC
+   *
+   * @param payload the payload
+   * @return true if written
+   */
+  private boolean writePayload(final @NotNull ByteBuffer payload) {
+    final MappedByteBuffer buffer = map();
+    if (buffer == null) {
+      return false;
+    }
+    final int slot = activeSlot == 0 ? 1 : 0;
+    final int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+    final long nextGeneration = generation + 1;
+    final int length = payload.remaining();
+
+    final byte[] bytes = new byte[length];
+    payload.get(bytes);
+    buffer.position(slotOffset + SLOT_HEADER_SIZE);
+    buffer.put(bytes);
+
+    buffer.putLong(slotOffset, nextGeneration);
+    buffer.putInt(slotOffset + 8, length);
+    buffer.putInt(slotOffset + 12, crc(nextGeneration, length, bytes));
+
+    generation = nextGeneration;
+    activeSlot = slot;
+    return true;
+  }
+
+  private @Nullable MappedByteBuffer map() {
+    if (buffer != null) {
+      return buffer;
+    }
+    try (final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      final boolean isNew = randomAccessFile.length() != FILE_SIZE;
+      if (isNew) {
+        randomAccessFile.setLength(FILE_SIZE);
+      }
+      final MappedByteBuffer mapped =
+          randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+      if (isNew || mapped.getInt(0) != MAGIC || mapped.getInt(4) != FORMAT_VERSION) {
+        for (int i = 0; i < FILE_SIZE; i++) {
+          mapped.put(i, (byte) 0);
+        }
+        mapped.putInt(0, MAGIC);
+        mapped.putInt(4, FORMAT_VERSION);
+      }
+      buffer = mapped;
+      recover(mapped);
+    } catch (IOException e) {
+      logger.log(ERROR, e, "Failed to map the current session file %s.", file.getAbsolutePath());
+    }
+    return buffer;
+  }
+
+  /** Picks the valid slot with the newest generation. */
+  private void recover(final @NotNull MappedByteBuffer buffer) {
+    for (int slot = 0; slot < 2; slot++) {
+      final int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+      final long slotGeneration = buffer.getLong(slotOffset);
+      final int length = buffer.getInt(slotOffset + 8);
+      if (slotGeneration <= 0 || length <= 0 || length > MAX_PAYLOAD_SIZE) {
+        continue;
+      }
+      final byte[] bytes = new byte[length];
+      buffer.position(slotOffset + SLOT_HEADER_SIZE);
+      buffer.get(bytes);
+      if (crc(slotGeneration, length, bytes) != buffer.getInt(slotOffset + 12)) {
+        logger.log(DEBUG, "Slot %d of the current session file is torn.", slot);
+        continue;
+      }
+      if (slotGeneration > generation) {
+        generation = slotGeneration;
+        activeSlot = slot;
+      }
+    }
+    if (activeSlot >= 0) {
+      final ByteBuffer payload = payloadOf(buffer, activeSlot);
+      if (payload.get() != 0) {
+        currentSessionId = new UUID(payload.getLong(), payload.getLong());
+      }
+    }
+  }
+
+  private static @NotNull ByteBuffer payloadOf(
+      final @NotNull MappedByteBuffer buffer, final int slot) {
+    final int slotOffset = HEADER_SIZE + slot * SLOT_SIZE;
+    final ByteBuffer payload = buffer.duplicate();
+    payload.position(slotOffset + SLOT_HEADER_SIZE);
+    payload.limit(slotOffset + SLOT_HEADER_SIZE + buffer.getInt(slotOffset + 8));
+    return payload.slice();
+  }
+
+  private static int crc(final long generation, final int length, final @NotNull byte[] bytes) {
+    final CRC32 crc = new CRC32();
+    final ByteBuffer header = ByteBuffer.allocate(12);
+    header.putLong(generation);
+    header.putInt(length);
+    crc.update(header.array(), 0, 12);
+    crc.update(bytes, 0, bytes.length);
+    return (int) crc.getValue();
+  }
+
+  private static void writeSession(
+      final @NotNull ByteBuffer payload,
+      final @NotNull UUID sessionId,
+      final @NotNull Session session) {
+    payload.putLong(sessionId.getMostSignificantBits());
+    payload.putLong(sessionId.getLeastSignificantBits());
+    payload.put(statusCode(session.getStatus()));
+    final Boolean init = session.getInit();
+    payload.put(init == null ? INIT_NULL : init ? INIT_TRUE : INIT_FALSE);
+    payload.putInt(session.errorCount());
+    payload.putLong(toLong(session.getStarted()));
+    payload.putLong(toLong(session.getTimestamp()));
+    final Long sequence = session.getSequence();
+    payload.putLong(sequence != null ? sequence : NULL_LONG);
+    final Double duration = session.getDuration();
+    payload.putDouble(duration != null ? duration : Double.NaN);
+    putString(payload, session.getDistinctId());
+    putString(payload, session.getIpAddress());
+    putString(payload, session.getUserAgent());
+    putString(payload, session.getEnvironment());
+    putString(payload, session.getRelease());
+  }
+
+  private static @Nullable Session readSession(final @NotNull ByteBuffer payload) {
+    final UUID sessionId = new UUID(payload.getLong(), payload.getLong());
+    final Session.State status = statusOf(payload.get());
+    final byte init = payload.get();
+    final int errorCount = payload.getInt();
+    final long started = payload.getLong();
+    final long timestamp = payload.getLong();
+    final long sequence = payload.getLong();
+    final double duration = payload.getDouble();
+    final String distinctId = getString(payload);
+    final String ipAddress = getString(payload);
+    final String userAgent = getString(payload);
+    final String environment = getString(payload);
+    final String release = getString(payload);
+    if (status == null || started == NULL_LONG || release == null) {
+      return null;
+    }
+    return new Session(
+        status,
+        new Date(started),
+        timestamp != NULL_LONG ? new Date(timestamp) : null,
+        errorCount,
+        distinctId,
+        sessionId,
+        init == INIT_NULL ? null : init == INIT_TRUE,
+        sequence != NULL_LONG ? sequence : null,
+        Double.isNaN(duration) ? null : duration,
+        ipAddress,
+        userAgent,
+        environment,
+        release);
+  }
+
+  private static byte statusCode(final @NotNull Session.State status) {
+    switch (status) {
+      case Exited:
+        return STATUS_EXITED;
+      case Crashed:
+        return STATUS_CRASHED;
+      case Abnormal:
+        return STATUS_ABNORMAL;
+      case Ok:
+      default:
+        return STATUS_OK;
+    }
+  }
+
+  private static @Nullable Session.State statusOf(final byte code) {
+    switch (code) {
+      case STATUS_OK:
+        return Session.State.Ok;
+      case STATUS_EXITED:
+        return Session.State.Exited;
+      case STATUS_CRASHED:
+        return Session.State.Crashed;
+      case STATUS_ABNORMAL:
+        return Session.State.Abnormal;
+      default:
+        return null;
+    }
+  }
+
+  private static long toLong(final @Nullable Date date) {
+    return date != null ? date.getTime() : NULL_LONG;
+  }
+
+  private static void putString(final @NotNull ByteBuffer payload, final @Nullable String value) {
+    if (value == null) {
+      payload.putShort((short) -1);
+      return;
+    }
+    final byte[] bytes = value.getBytes(UTF_8);
+    if (bytes.length > Short.MAX_VALUE) {
+      throw new BufferOverflowException();
+    }
+    payload.putShort((short) bytes.length);
+    payload.put(bytes);
+  }
+
+  private static @Nullable String getString(final @NotNull ByteBuffer payload) {
+    final short length = payload.getShort();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] bytes = new byte[length];
+    payload.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+}
@@ -2,40 +2,26 @@ package io.sentry.cache;
 
 import static io.sentry.SentryLevel.DEBUG;
 import static io.sentry.SentryLevel.ERROR;
-import static io.sentry.SentryLevel.INFO;
 import static io.sentry.SentryLevel.WARNING;
 import static java.lang.String.format;
 
-import io.sentry.DateUtils;
 import io.sentry.SentryEnvelope;
 import io.sentry.SentryEnvelopeItem;
 import io.sentry.SentryItemType;
 import io.sentry.SentryLevel;
 import io.sentry.SentryOptions;
 import io.sentry.Session;
-import io.sentry.hints.SessionEnd;
-import io.sentry.hints.SessionStart;
 import io.sentry.util.Objects;
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Reader;
-import java.io.Writer;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.WeakHashMap;
 import org.jetbrains.annotations.ApiStatus;
@@ -50,10 +36,17 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
 
   public static final String PREFIX_CURRENT_SESSION_FILE = "session";
   static final String SUFFIX_CURRENT_SESSION_FILE = ".json";
+  static final String SUFFIX_CURRENT_SESSION_RECORD_FILE = ".bin";
   static final String CRASH_MARKER_FILE = ".sentry-native/last_crash";
 
   private final @NotNull Map<SentryEnvelope, String> fileNameMap = new WeakHashMap<>();
 
+  // built from the cache folder on the first use, then kept in sync with the files written and
+  // deleted here
+  private final @NotNull CachedEnvelopeIndex index = new CachedEnvelopeIndex();
+  private boolean indexed;
+  private long rotatedCount;
+
   public EnvelopeCache(final @NotNull SentryOptions options) {
     super(options, options.getCacheDirPath(), options.getCacheDirSize());
   }
@@ -62,82 +55,15 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
   public void store(final @NotNull SentryEnvelope envelope, final @Nullable Object hint) {
     Objects.requireNonNull(envelope, "Envelope is required.");
 
-    rotateCacheIfNeeded(allEnvelopeFiles());
-
-    final File currentSessionFile = getCurrentSessionFile();
-
-    if (hint instanceof SessionEnd) {
-      if (!currentSessionFile.delete()) {
-        options.getLogger().log(WARNING, "Current envelope doesn't exist.");
-      }
-    }
+    rotateCacheIfNeeded();
 
-    if (hint instanceof SessionStart) {
-
-      // TODO: should we move this to AppLifecycleIntegration? and do on SDK init? but it's too much
-      // on main-thread
-      if (currentSessionFile.exists()) {
-        options.getLogger().log(WARNING, "Current session is not ended, we'd need to end it.");
-
-        try (final Reader reader =
-            new BufferedReader(
-                new InputStreamReader(new FileInputStream(currentSessionFile), UTF_8))) {
-
-          final Session session = serializer.deserialize(reader, Session.class);
-          if (session == null) {
-            options
-                .getLogger()
-                .log(
-                    SentryLevel.ERROR,
-                    "Stream from path %s resulted in a null envelope.",
-                    currentSessionFile.getAbsolutePath());
-          } else {
-            final File crashMarkerFile = new File(options.getCacheDirPath(), CRASH_MARKER_FILE);
-            Date timestamp = null;
-            if (crashMarkerFile.exists()) {
-              options
-                  .getLogger()
-                  .log(INFO, "Crash marker file exists, last Session is gonna be Crashed.");
-
-              timestamp = getTimestampFromCrashMarkerFile(crashMarkerFile);
-              if (!crashMarkerFile.delete()) {
-                options
-                    .getLogger()
-                    .log(
-                        ERROR,
-                        "Failed to delete the crash marker file. %s.",
-                        crashMarkerFile.getAbsolutePath());
-              }
-              session.update(Session.State.Crashed, null, true);
-            }
-
-            session.end(timestamp);
-            // if the App. has been upgraded and there's a new version of the SDK running,
-            // SdkVersion will be outdated.
-            final SentryEnvelope fromSession =
-                SentryEnvelope.from(serializer, session, options.getSdkVersion());
-            final File fileFromSession = getEnvelopeFile(fromSession);
-            writeEnvelopeToDisk(fileFromSession, fromSession);
-          }
-        } catch (Exception e) {
-          options.getLogger().log(SentryLevel.ERROR, "Error processing session.", e);
-        }
-
-        // at this point the leftover session and its current session file already became a new
-        // envelope file to be sent
-        // so deleting it as the new session will take place.
-        if (!currentSessionFile.delete()) {
-          options.getLogger().log(WARNING, "Failed to delete the current session file.");
-        }
-      }
-      updateCurrentSession(currentSessionFile, envelope);
-    }
+    updateCurrentSessionFile(envelope, hint);
 
     // TODO: probably we need to update the current session file for session updates to because of
     // hardcrash events
 
     final File envelopeFile = getEnvelopeFile(envelope);
-    if (envelopeFile.exists()) {
+    if (isCached(envelopeFile)) {
       options
           .getLogger()
           .log(
@@ -154,65 +80,9 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
     writeEnvelopeToDisk(envelopeFile, envelope);
   }
 
-  /**
-   * Reads the crash marker file and returns the timestamp as Date written in there
-   *
-   * @param markerFile the marker file
-   * @return the timestamp as Date
-   */
-  private @Nullable Date getTimestampFromCrashMarkerFile(final @NotNull File markerFile) {
-    try (final BufferedReader reader =
-        new BufferedReader(new InputStreamReader(new FileInputStream(markerFile), UTF_8))) {
-      final String timestamp = reader.readLine();
-      options.getLogger().log(DEBUG, "Crash marker file has %s timestamp.", timestamp);
-      return DateUtils.getDateTime(timestamp);
-    } catch (IOException e) {
-      options.getLogger().log(ERROR, "Error reading the crash marker file.", e);
-    } catch (IllegalArgumentException e) {
-      options.getLogger().log(SentryLevel.ERROR, e, "Error converting the crash timestamp.");
-    }
-    return null;
-  }
-
-  private void updateCurrentSession(
-      final @NotNull File currentSessionFile, final @NotNull SentryEnvelope envelope) {
-    final Iterable<SentryEnvelopeItem> items = envelope.getItems();
-
-    // we know that an envelope with a SessionStart hint has a single item inside
-    if (items.iterator().hasNext()) {
-      final SentryEnvelopeItem item = items.iterator().next();
-
-      if (SentryItemType.Session.equals(item.getHeader().getType())) {
-        try (final Reader reader =
-            new BufferedReader(
-                new InputStreamReader(new ByteArrayInputStream(item.getData()), UTF_8))) {
-          final Session session = serializer.deserialize(reader, Session.class);
-          if (session == null) {
-            options
-                .getLogger()
-                .log(
-                    SentryLevel.ERROR,
-                    "Item of type %s returned null by the parser.",
-                    item.getHeader().getType());
-          } else {
-            writeSessionToDisk(currentSessionFile, session);
-          }
-        } catch (Exception e) {
-          options.getLogger().log(ERROR, "Item failed to process.", e);
-        }
-      } else {
-        options
-            .getLogger()
-            .log(
-                INFO,
-                "Current envelope has a different envelope type %s",
-                item.getHeader().getType());
-      }
-    } else {
-      options
-          .getLogger()
-          .log(INFO, "Current envelope %s is empty", currentSessionFile.getAbsolutePath());
-    }
+  @Override
+  protected void storeEndedSession(final @NotNull SentryEnvelope envelope) {
+    writeEnvelopeToDisk(getEnvelopeFile(envelope), envelope);
   }
 
   private void writeEnvelopeToDisk(
@@ -226,33 +96,15 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
       }
     }
 
-    try (final OutputStream outputStream = new FileOutputStream(file)) {
-      serializer.serialize(envelope, outputStream);
+    try {
+      serializeEnvelope(envelope, file);
     } catch (Exception e) {
       options
           .getLogger()
           .log(ERROR, e, "Error writing Envelope %s to offline storage", file.getAbsolutePath());
+      return;
     }
-  }
-
-  private void writeSessionToDisk(final @NotNull File file, final @NotNull Session session) {
-    if (file.exists()) {
-      options
-          .getLogger()
-          .log(DEBUG, "Overwriting session to offline storage: %s", session.getSessionId());
-      if (!file.delete()) {
-        options.getLogger().log(SentryLevel.ERROR, "Failed to delete: %s", file.getAbsolutePath());
-      }
-    }
-
-    try (final OutputStream outputStream = new FileOutputStream(file);
-        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, UTF_8))) {
-      serializer.serialize(session, writer);
-    } catch (Exception e) {
-      options
-          .getLogger()
-          .log(ERROR, e, "Error writing Session to offline storage: %s", session.getSessionId());
-    }
+    addToIndex(file, envelope);
   }
 
   @Override
@@ -260,6 +112,9 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
     Objects.requireNonNull(envelope, "Envelope is required.");
 
     final File envelopeFile = getEnvelopeFile(envelope);
+    synchronized (index) {
+      index.remove(envelopeFile.getName());
+    }
     if (envelopeFile.exists()) {
       options
           .getLogger()
@@ -275,6 +130,307 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
     }
   }
 
+  /**
+   * Rotates the caching folder if full, deleting the oldest files first. The files are taken from
+   * the index, only if it's full the folder is listed to drop the files that were already deleted.
+   */
+  private void rotateCacheIfNeeded() {
+    synchronized (index) {
+      ensureIndexed();
+      if (index.size() < maxSize) {
+        return;
+      }
+      // the EnvelopeSender deletes the cached files it sent without going through the cache
+      syncIndex();
+      if (index.size() < maxSize) {
+        return;
+      }
+
+      options
+          .getLogger()
+          .log(SentryLevel.WARNING, "Cache folder if full (respecting maxSize). Rotating files");
+      while (index.size() >= maxSize) {
+        final CachedEnvelopeIndex.Entry oldest = index.oldest();
+        if (oldest == null) {
+          break;
+        }
+        rotate(oldest);
+      }
+    }
+  }
+
+  /**
+   * Rotates the files out of the caching folder while it's over {@link
+   * SentryOptions#getCacheDirMaxBytes()}. The large files of little worth go first: transactions
+   * before sessions before errors, relative to their size.
+   */
+  private void rotateOverByteBudget() {
+    final long maxBytes = options.getCacheDirMaxBytes();
+    if (maxBytes <= 0) {
+      return;
+    }
+    synchronized (index) {
+      if (index.getTotalSize() <= maxBytes) {
+        return;
+      }
+      // the EnvelopeSender deletes the cached files it sent without going through the cache
+      syncIndex();
+
+      int rotated = 0;
+      while (index.getTotalSize() > maxBytes) {
+        final CachedEnvelopeIndex.Entry entry = index.nextToEvict();
+        if (entry == null) {
+          break;
+        }
+        rotate(entry);
+        rotated++;
+      }
+      if (rotated > 0) {
+        options
+            .getLogger()
+            .log(
+                SentryLevel.WARNING,
+                "Cache folder is full (respecting cacheDirMaxBytes), %d files rotated.",
+                rotated);
+      }
+    }
+  }
+
+  private void rotate(final @NotNull CachedEnvelopeIndex.Entry entry) {
+    index.remove(entry.getFileName());
+    rotatedCount++;
+
+    moveInitFlagFrom(entry);
+
+    final File file = new File(directory, entry.getFileName());
+    if (!file.delete()) {
+      options
+          .getLogger()
+          .log(SentryLevel.WARNING, "File can't be deleted: %s", file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Moves the init flag of the session in the file being deleted to the oldest file that has the
+   * same session. Only that file is read from the disk, to patch its session item.
+   *
+   * @param deleted the entry of the file being deleted
+   */
+  private void moveInitFlagFrom(final @NotNull CachedEnvelopeIndex.Entry deleted) {
+    final UUID sessionId = deleted.getInitSessionId();
+    if (sessionId == null) {
+      return;
+    }
+
+    for (final CachedEnvelopeIndex.Entry entry : index.entries()) {
+      if (entry.getInitSessionId() != null) {
+        options.getLogger().log(ERROR, "Session %s has 2 times the init flag.", sessionId);
+        return;
+      }
+      if (entry.hasSession(sessionId)) {
+        final File file = new File(directory, entry.getFileName());
+        moveInitFlag(sessionId, new File[] {file});
+        entry.setInitSessionId(sessionId);
+        // the patched session item is a few bytes longer
+        index.setSize(entry, file.length());
+        return;
+      }
+    }
+  }
+
+  /**
+   * Checks the index for the file, and only if it's there the disk, in case it was deleted
+   * meanwhile.
+   *
+   * @param envelopeFile the file
+   * @return true if the file is cached
+   */
+  private boolean isCached(final @NotNull File envelopeFile) {
+    synchronized (index) {
+      ensureIndexed();
+      if (!index.contains(envelopeFile.getName())) {
+        return false;
+      }
+      if (envelopeFile.exists()) {
+        return true;
+      }
+      index.remove(envelopeFile.getName());
+      return false;
+    }
+  }
+
+  private void addToIndex(final @NotNull File file, final @NotNull SentryEnvelope envelope) {
+    final Set<UUID> sessionIds = new HashSet<>();
+    final UUID initSessionId = collectSessionIds(envelope, sessionIds);
+    final int weight = getWeight(envelope);
+    final long size = file.length();
+
+    synchronized (index) {
+      ensureIndexed();
+      index.put(
+          file.getName(), size, System.currentTimeMillis(), weight, sessionIds, initSessionId);
+    }
+    rotateOverByteBudget();
+  }
+
+  /** Builds the index from the files cached by previous runs, once. */
+  private void ensureIndexed() {
+    if (indexed) {
+      return;
+    }
+    indexed = true;
+    deleteTempFiles();
+    for (final File file : allEnvelopeFiles()) {
+      indexFile(file);
+    }
+  }
+
+  /** Deletes the temp files of the rewrites a crash cut short, the files they replace are intact. */
+  private void deleteTempFiles() {
+    final File[] tempFiles =
+        isDirectoryValid()
+            ? directory.listFiles((__, fileName) -> fileName.endsWith(SUFFIX_TEMP_FILE))
+            : null;
+    if (tempFiles == null) {
+      return;
+    }
+    for (final File file : tempFiles) {
+      if (!file.delete()) {
+        options.getLogger().log(DEBUG, "Failed to delete: %s", file.getAbsolutePath());
+      }
+    }
+  }
+
+  /** Drops the files that were deleted from the index and adds the ones it's missing. */
+  private void syncIndex() {
+    final File[] files = allEnvelopeFiles();
+    final Set<String> fileNames = new HashSet<>();
+    for (final File file : files) {
+      fileNames.add(file.getName());
+    }
+
+    for (final CachedEnvelopeIndex.Entry entry : index.entries()) {
+      if (!fileNames.contains(entry.getFileName())) {
+        index.remove(entry.getFileName());
+      }
+    }
+    for (final File file : files) {
+      if (!index.contains(file.getName())) {
+        indexFile(file);
+      }
+    }
+  }
+
+  private void indexFile(final @NotNull File file) {
+    final RawEnvelope rawEnvelope = readRawEnvelope(file);
+    if (rawEnvelope != null && indexRawEnvelope(file, rawEnvelope)) {
+      return;
+    }
+
+    if (!file.exists()) {
+      // a framed file with nothing intact left
+      return;
+    }
+
+    final SentryEnvelope envelope = readEnvelope(file);
+    final Set<UUID> sessionIds = new HashSet<>();
+    final UUID initSessionId = envelope != null ? collectSessionIds(envelope, sessionIds) : null;
+    final int weight = envelope != null ? getWeight(envelope) : CachedEnvelopeIndex.WEIGHT_SESSION;
+    index.put(
+        file.getName(), file.length(), file.lastModified(), weight, sessionIds, initSessionId);
+  }
+
+  /**
+   * Indexes the file from its bytes, without deserializing the envelope
+   *
+   * @param file the file
+   * @param rawEnvelope the bytes of the file
+   * @return false if a session has to be deserialized to be read
+   */
+  private boolean indexRawEnvelope(
+      final @NotNull File file, final @NotNull RawEnvelope rawEnvelope) {
+    final Set<UUID> sessionIds = new HashSet<>();
+    UUID initSessionId = null;
+    final List<SentryItemType> types = new ArrayList<>();
+    for (final RawEnvelope.Item item : rawEnvelope.getItems()) {
+      types.add(item.getType());
+      if (!SentryItemType.Session.equals(item.getType())) {
+        continue;
+      }
+      final RawEnvelope.SessionFields session = rawEnvelope.readSession(item);
+      if (session == null) {
+        return false;
+      }
+      if (!session.isOk()) {
+        continue;
+      }
+      sessionIds.add(session.getSessionId());
+      if (initSessionId == null && session.isInit()) {
+        initSessionId = session.getSessionId();
+      }
+    }
+    index.put(
+        file.getName(),
+        file.length(),
+        file.lastModified(),
+        getWeight(types),
+        sessionIds,
+        initSessionId);
+    return true;
+  }
+
+  /**
+   * Returns how much the envelope is worth keeping, by the most valuable of its items
+   *
+   * @param envelope the envelope
+   * @return one of the CachedEnvelopeIndex.WEIGHT_ constants
+   */
+  private static int getWeight(final @NotNull SentryEnvelope envelope) {
+    final List<SentryItemType> types = new ArrayList<>();
+    for (final SentryEnvelopeItem item : envelope.getItems()) {
+      types.add(item.getHeader().getType());
+    }
+    return getWeight(types);
+  }
+
+  private static int getWeight(final @NotNull List<SentryItemType> types) {
+    int weight = 0;
+    for (final SentryItemType type : types) {
+      switch (type) {
+        case Event:
+        case UserFeedback:
+        case Attachment:
+          return CachedEnvelopeIndex.WEIGHT_ERROR;
+        case Transaction:
+          weight = Math.max(weight, CachedEnvelopeIndex.WEIGHT_TRANSACTION);
+          break;
+        default:
+          weight = Math.max(weight, CachedEnvelopeIndex.WEIGHT_SESSION);
+          break;
+      }
+    }
+    return weight != 0 ? weight : CachedEnvelopeIndex.WEIGHT_SESSION;
+  }
+
+  /**
+   * Collects the ids of the sessions of the envelope the init flag can be moved to
+   *
+   * @param envelope the envelope
+   * @param sessionIds the set the ids are added to
+   * @return the id of the session that has the init flag, if any
+   */
+  private @Nullable UUID collectSessionIds(
+      final @NotNull SentryEnvelope envelope, final @NotNull Set<UUID> sessionIds) {
+    UUID initSessionId = null;
+    for (final RawEnvelope.SessionFields session : readValidSessions(envelope)) {
+      sessionIds.add(session.getSessionId());
+      if (initSessionId == null && session.isInit()) {
+        initSessionId = session.getSessionId();
+      }
+    }
+    return initSessionId;
+  }
+
   /**
    * Returns the envelope's file path. If the envelope has no eventId header, it generates a random
    * file name to it.
@@ -299,9 +455,40 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
     return new File(directory.getAbsolutePath(), fileName);
   }
 
-  private @NotNull File getCurrentSessionFile() {
-    return new File(
-        directory.getAbsolutePath(), PREFIX_CURRENT_SESSION_FILE + SUFFIX_CURRENT_SESSION_FILE);
+  /**
+   * Returns the number of envelope files in the caching folder, as last seen by the cache. Files
+   * deleted by others are still counted until the cache is full.
+   *
+   * @return the number of cached envelopes
+   */
+  public int getCachedEnvelopeCount() {
+    synchronized (index) {
+      ensureIndexed();
+      return index.size();
+    }
+  }
+
+  /**
+   * Returns the size of the envelope files in the caching folder, as last seen by the cache
+   *
+   * @return the size in bytes
+   */
+  public long getCachedBytes() {
+    synchronized (index) {
+      ensureIndexed();
+      return index.getTotalSize();
+    }
+  }
+
+  /**
+   * Returns the number of envelope files deleted to make room in the caching folder
+   *
+   * @return the number of rotated envelopes
+   */
+  public long getRotatedEnvelopeCount() {
+    synchronized (index) {
+      return rotatedCount;
+    }
   }
 
   @Override
@@ -311,9 +498,16 @@ public final class EnvelopeCache extends CacheStrategy implements IEnvelopeCache
     final List<SentryEnvelope> ret = new ArrayList<>(allCachedEnvelopes.length);
 
     for (final File file : allCachedEnvelopes) {
-      try (final InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+      if (CompressedEnvelope.isCompressed(file) || FramedEnvelope.isFramed(file)) {
+        final SentryEnvelope envelope = readEnvelope(file);
+        if (envelope != null) {
+          ret.add(envelope);
+        }
+        continue;
+      }
+      try (final FileInputStream is = new FileInputStream(file)) {
 
-        ret.add(serializer.deserializeEnvelope(is));
+        ret.add(options.getEnvelopeReader().readChannel(is.getChannel()));
       } catch (FileNotFoundException e) {
         options
             .getLogger()
@@ -0,0 +1,302 @@
+package io.sentry.cache;
+
+import io.sentry.ILogger;
+import io.sentry.SentryItemType;
+import io.sentry.SentryLevel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The framed format of the cached envelope files. The file starts with a magic number, the length
+ * the file should have and the envelope header, then each item is prefixed by the length of its
+ * header and payload and a CRC32 of both:
+ *
+ * <pre>
+ * magic | version | file length | header length | header CRC32 | header
+ * item header length | payload length | CRC32 | item header | payload
+ * ...
+ * </pre>
+ *
+ * <p>A file cut short by a crash is told by its length alone, and a corrupted item by its CRC,
+ * without parsing any JSON. The CRCs are only checked when the envelope is read to be sent or the
+ * file was cut short. The intact items are kept and the others dropped.
+ *
+ * <p>The wire format starts with '{', so both formats can be told apart and read from the same
+ * folder.
+ */
+@ApiStatus.Internal
+public final class FramedEnvelope {
+
+  private static final int MAGIC = 0x534E5446; // SNTF
+  private static final int FORMAT_VERSION = 1;
+  // magic, version, file length, header length and header CRC32
+  private static final int FILE_HEADER_SIZE = 24;
+  // item header length, payload length and CRC32
+  private static final int ITEM_HEADER_SIZE = 12;
+
+  private FramedEnvelope() {}
+
+  /**
+   * Checks if the file is framed, only its first bytes are read
+   *
+   * @param file the envelope file
+   * @return true if framed or false if it's in the wire format
+   */
+  public static boolean isFramed(final @NotNull File file) {
+    try (final InputStream stream = new FileInputStream(file)) {
+      final byte[] magic = new byte[4];
+      int read = 0;
+      while (read < magic.length) {
+        final int count = stream.read(magic, read, magic.length - read);
+        if (count < 0) {
+          return false;
+        }
+        read += count;
+      }
+      return isFramed(magic);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Reads the framed file and returns the envelope in the wire format, dropping the items that are
+   * corrupted or were cut short
+   *
+   * @param file the framed file
+   * @param logger the logger
+   * @return the envelope or null if nothing of it is intact
+   * @throws IOException if the file couldn't be read
+   */
+  public static @Nullable byte[] readWire(final @NotNull File file, final @NotNull ILogger logger)
+      throws IOException {
+    final Frames frames = read(readBytes(file), true);
+    if (frames == null) {
+      return null;
+    }
+    if (frames.isDamaged()) {
+      logger.log(
+          SentryLevel.WARNING,
+          "Envelope file %s is damaged, %d corrupted items dropped, truncated: %s.",
+          file.getAbsolutePath(),
+          frames.getDroppedItems(),
+          frames.isTruncated());
+    }
+    return frames.getWire();
+  }
+
+  /**
+   * Reads the types of the items of the framed file. Its items aren't checked unless it was cut
+   * short.
+   *
+   * @param file the framed file
+   * @return the types or null if nothing of it is intact or they can't be told
+   * @throws IOException if the file couldn't be read
+   */
+  public static @Nullable List<SentryItemType> readItemTypes(final @NotNull File file)
+      throws IOException {
+    final Frames frames = read(readBytes(file), false);
+    final byte[] wire = frames != null ? frames.getWire() : null;
+    return wire != null ? RawEnvelope.readItemTypes(wire) : null;
+  }
+
+  static boolean isFramed(final @NotNull byte[] bytes) {
+    return bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt(0) == MAGIC;
+  }
+
+  /**
+   * Frames the envelope into the stream, straight from the bytes of the wire format
+   *
+   * @param wire the envelope in the wire format
+   * @param stream the stream
+   * @return false if its items can't be told apart, then nothing is written
+   * @throws IOException if it couldn't be written
+   */
+  static boolean frame(final @NotNull byte[] wire, final @NotNull OutputStream stream)
+      throws IOException {
+    final RawEnvelope rawEnvelope = RawEnvelope.parse(wire);
+    if (rawEnvelope == null) {
+      return false;
+    }
+    final int headerLength = rawEnvelope.getHeaderLength();
+    long size = FILE_HEADER_SIZE + headerLength;
+    for (final RawEnvelope.Item item : rawEnvelope.getItems()) {
+      size += ITEM_HEADER_SIZE + item.getHeaderLength() + item.getPayloadLength();
+    }
+
+    final DataOutputStream output = new DataOutputStream(stream);
+    output.writeInt(MAGIC);
+    output.writeInt(FORMAT_VERSION);
+    output.writeLong(size);
+    output.writeInt(headerLength);
+    output.writeInt(crc(wire, 0, headerLength, 0, 0));
+    output.write(wire, 0, headerLength);
+    for (final RawEnvelope.Item item : rawEnvelope.getItems()) {
+      output.writeInt(item.getHeaderLength());
+      output.writeInt(item.getPayloadLength());
+      output.writeInt(
+          crc(
+              wire,
+              item.getHeaderStart(),
+              item.getHeaderLength(),
+              item.getPayloadStart(),
+              item.getPayloadLength()));
+      output.write(wire, item.getHeaderStart(), item.getHeaderLength());
+      output.write(wire, item.getPayloadStart(), item.getPayloadLength());
+    }
+    output.flush();
+    return true;
+  }
+
+  /**
+   * Reads the framed envelope back in the wire format. Once the length of an item can't be trusted
+   * the rest of the file is dropped, as there's no telling where the next item starts.
+   *
+   * <p>A file of the length it should have is only checked item by item if verifyItems is set,
+   * which is done when it's read to be sent. One cut short always is, to keep what's intact.
+   *
+   * @param bytes the framed envelope
+   * @param verifyItems true to check the CRC32 of each item even if the length is right
+   * @return the frames or null if the bytes aren't framed
+   */
+  static @Nullable Frames read(final @NotNull byte[] bytes, final boolean verifyItems) {
+    if (!isFramed(bytes)) {
+      return null;
+    }
+    if (bytes.length < FILE_HEADER_SIZE) {
+      return new Frames(null, 0, true);
+    }
+    final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    buffer.position(4);
+    if (buffer.getInt() != FORMAT_VERSION) {
+      return new Frames(null, 0, false);
+    }
+    // known before reading any item
+    boolean truncated = buffer.getLong() != bytes.length;
+    final boolean verify = verifyItems || truncated;
+
+    final int headerLength = buffer.getInt();
+    final int headerCrc = buffer.getInt();
+    if (headerLength < 0 || headerLength > buffer.remaining()) {
+      return new Frames(null, 0, true);
+    }
+    final int headerStart = buffer.position();
+    if (verify && crc(bytes, headerStart, headerLength, 0, 0) != headerCrc) {
+      return new Frames(null, 0, truncated);
+    }
+    buffer.position(headerStart + headerLength);
+
+    final ByteArrayOutputStream wire = new ByteArrayOutputStream(bytes.length);
+    wire.write(bytes, headerStart, headerLength);
+    wire.write('\n');
+    int keptItems = 0;
+    int droppedItems = 0;
+    while (buffer.hasRemaining()) {
+      if (buffer.remaining() < ITEM_HEADER_SIZE) {
+        truncated = true;
+        break;
+      }
+      final int itemHeaderLength = buffer.getInt();
+      final int payloadLength = buffer.getInt();
+      final int itemCrc = buffer.getInt();
+      if (itemHeaderLength < 0
+          || payloadLength < 0
+          || (long) itemHeaderLength + payloadLength > buffer.remaining()) {
+        truncated = true;
+        break;
+      }
+      final int itemHeaderStart = buffer.position();
+      final int payloadStart = itemHeaderStart + itemHeaderLength;
+      buffer.position(payloadStart + payloadLength);
+      if (verify
+          && crc(bytes, itemHeaderStart, itemHeaderLength, payloadStart, payloadLength)
+              != itemCrc) {
+        droppedItems++;
+        continue;
+      }
+      wire.write(bytes, itemHeaderStart, itemHeaderLength);
+      wire.write('\n');
+      wire.write(bytes, payloadStart, payloadLength);
+      wire.write('\n');
+      keptItems++;
+    }
+    return new Frames(keptItems > 0 ? wire.toByteArray() : null, droppedItems, truncated);
+  }
+
+  static @NotNull byte[] readBytes(final @NotNull File file) throws IOException {
+    final long size = file.length();
+    if (size > Integer.MAX_VALUE) {
+      throw new IOException("Envelope file is too large: " + file.getAbsolutePath());
+    }
+    final byte[] bytes = new byte[(int) size];
+    try (final InputStream stream = new FileInputStream(file)) {
+      int read = 0;
+      while (read < bytes.length) {
+        final int count = stream.read(bytes, read, bytes.length - read);
+        if (count < 0) {
+          break;
+        }
+        read += count;
+      }
+      if (read < bytes.length) {
+        final byte[] shorter = new byte[read];
+        System.arraycopy(bytes, 0, shorter, 0, read);
+        return shorter;
+      }
+    }
+    return bytes;
+  }
+
+  private static int crc(
+      final @NotNull byte[] bytes,
+      final int headerStart,
+      final int headerLength,
+      final int payloadStart,
+      final int payloadLength) {
+    final CRC32 crc = new CRC32();
+    crc.update(bytes, headerStart, headerLength);
+    crc.update(bytes, payloadStart, payloadLength);
+    return (int) crc.getValue();
+  }
+
+  /** The envelope read from a framed file, and what had to be dropped. */
+  static final class Frames {
+    private final @Nullable byte[] wire;
+    private final int droppedItems;
+    private final boolean truncated;
+
+    Frames(final @Nullable byte[] wire, final int droppedItems, final boolean truncated) {
+      this.wire = wire;
+      this.droppedItems = droppedItems;
+      this.truncated = truncated;
+    }
+
+    @Nullable
+    byte[] getWire() {
+      return wire;
+    }
+
+    int getDroppedItems() {
+      return droppedItems;
+    }
+
+    boolean isTruncated() {
+      return truncated;
+    }
+
+    boolean isDamaged() {
+      return wire == null || droppedItems > 0 || truncated;
+    }
+  }
+}
@@ -1,6 +1,8 @@
 package io.sentry.cache;
 
 import io.sentry.SentryEnvelope;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 public interface IEnvelopeCache extends Iterable<SentryEnvelope> {
@@ -11,5 +13,17 @@ public interface IEnvelopeCache extends Iterable<SentryEnvelope> {
     store(envelope, null);
   }
 
+  /**
+   * Stores a group of envelopes at once. Caches that can sync them to the disk together do it once
+   * for the whole group, by default each envelope is stored on its own.
+   *
+   * @param envelopes the envelopes
+   */
+  default void storeAll(final @NotNull List<SentryEnvelope> envelopes) {
+    for (final SentryEnvelope envelope : envelopes) {
+      store(envelope);
+    }
+  }
+
   void discard(SentryEnvelope envelope);
 }
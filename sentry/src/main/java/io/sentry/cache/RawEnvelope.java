@@ -0,0 +1,477 @@
+package io.sentry.cache;
+
+import io.sentry.SentryItemType;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The bytes of a cached envelope with the position of its items, found without parsing the
+ * envelope with Gson. Rotating the cache only needs the type of the items and the id, status and
+ * init flag of the sessions, which are read straight from the compact JSON written by the SDK.
+ * Setting the init flag of a session patches the bytes of its item and the length in the item
+ * header, the rest of the envelope is copied as is.
+ *
+ * <p>Whatever it doesn't understand, like escaped strings, returns null, and the caller falls back
+ * to deserializing the envelope.
+ */
+final class RawEnvelope {
+
+  @SuppressWarnings("CharsetObjectCanBeUsed")
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private static final byte[] INIT_TRUE = "\"init\":true".getBytes(UTF_8);
+
+  private final @NotNull byte[] bytes;
+  private final @NotNull List<Item> items;
+
+  private RawEnvelope(final @NotNull byte[] bytes, final @NotNull List<Item> items) {
+    this.bytes = bytes;
+    this.items = items;
+  }
+
+  /**
+   * Finds the items of the envelope, only their headers are looked at
+   *
+   * @param bytes the serialized envelope
+   * @return the envelope or null if it isn't a well formed envelope
+   */
+  static @Nullable RawEnvelope parse(final @NotNull byte[] bytes) {
+    int position = indexOf(bytes, (byte) '\n', 0);
+    if (position < 0) {
+      return null;
+    }
+    position++;
+
+    final List<Item> items = new ArrayList<>();
+    while (position < bytes.length) {
+      final int headerEnd = indexOf(bytes, (byte) '\n', position);
+      if (headerEnd < 0) {
+        return null;
+      }
+      final Fields header = Fields.read(bytes, position, headerEnd);
+      if (header == null || header.length == null) {
+        return null;
+      }
+      final int length;
+      try {
+        length = Integer.parseInt(header.length);
+      } catch (NumberFormatException e) {
+        return null;
+      }
+      final int payloadStart = headerEnd + 1;
+      if (length <= 0 || length > bytes.length - payloadStart) {
+        return null;
+      }
+      items.add(new Item(resolveType(header.type), position, headerEnd, payloadStart, length));
+
+      position = payloadStart + length;
+      // items are separated by a line break, the last one can be followed by one
+      if (position < bytes.length) {
+        if (bytes[position] != '\n') {
+          return null;
+        }
+        position++;
+      }
+    }
+    return items.isEmpty() ? null : new RawEnvelope(bytes, items);
+  }
+
+  @NotNull
+  List<Item> getItems() {
+    return Collections.unmodifiableList(items);
+  }
+
+  /**
+   * Reads the types of the items of the envelope, only their headers are looked at
+   *
+   * @param bytes the serialized envelope
+   * @return the types or null if it isn't a well formed envelope
+   */
+  static @Nullable List<SentryItemType> readItemTypes(final @NotNull byte[] bytes) {
+    final RawEnvelope rawEnvelope = parse(bytes);
+    if (rawEnvelope == null) {
+      return null;
+    }
+    final List<SentryItemType> types = new ArrayList<>(rawEnvelope.items.size());
+    for (final Item item : rawEnvelope.items) {
+      types.add(item.getType());
+    }
+    return types;
+  }
+
+  /**
+   * Returns the serialized envelope, the items point into it
+   *
+   * @return the bytes, not a copy
+   */
+  @NotNull
+  byte[] getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Returns the length of the envelope header, without its line break
+   *
+   * @return the length of the header
+   */
+  int getHeaderLength() {
+    return indexOf(bytes, (byte) '\n', 0);
+  }
+
+  /**
+   * Reads the fields of a session item the cache needs
+   *
+   * @param item a session item of this envelope
+   * @return the fields or null if they can't be read without Gson
+   */
+  @Nullable
+  SessionFields readSession(final @NotNull Item item) {
+    return readSession(bytes, item.payloadStart, item.payloadStart + item.length);
+  }
+
+  /**
+   * Reads the fields of a session the cache needs from its serialized JSON
+   *
+   * @param payload the bytes of the session item
+   * @return the fields or null if they can't be read without Gson
+   */
+  static @Nullable SessionFields readSession(final @NotNull byte[] payload) {
+    return readSession(payload, 0, payload.length);
+  }
+
+  private static @Nullable SessionFields readSession(
+      final @NotNull byte[] bytes, final int start, final int end) {
+    final Fields fields = Fields.read(bytes, start, end);
+    if (fields == null || fields.sid == null) {
+      return null;
+    }
+    if (fields.init != null && !"true".equals(fields.init) && !"false".equals(fields.init)) {
+      return null;
+    }
+    final UUID sessionId;
+    try {
+      sessionId = UUID.fromString(fields.sid);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    return new SessionFields(
+        sessionId, "ok".equals(fields.status), "true".equals(fields.init), fields.initStart);
+  }
+
+  /**
+   * Returns the envelope with the init flag of the session item set
+   *
+   * @param item a session item of this envelope
+   * @param session the fields read from it
+   * @return the bytes of the patched envelope
+   */
+  @NotNull
+  byte[] withInit(final @NotNull Item item, final @NotNull SessionFields session) {
+    final int payloadEnd = item.payloadStart + item.length;
+    final byte[] payload;
+    if (session.initStart >= 0) {
+      // "init":false, which the SDK doesn't write but is valid
+      payload =
+          concat(
+              slice(bytes, item.payloadStart, session.initStart),
+              INIT_TRUE,
+              slice(bytes, session.initEnd(bytes), payloadEnd));
+    } else {
+      // right after the opening brace, sessions have at least their sid
+      final int brace = item.payloadStart + skipWhitespace(bytes, item.payloadStart, payloadEnd);
+      payload =
+          concat(
+              slice(bytes, item.payloadStart, brace + 1),
+              INIT_TRUE,
+              new byte[] {','},
+              slice(bytes, brace + 1, payloadEnd));
+    }
+
+    final Fields header = Fields.read(bytes, item.headerStart, item.headerEnd);
+    if (header == null || header.lengthStart < 0) {
+      throw new IllegalStateException("The item header was read before.");
+    }
+    return concat(
+        slice(bytes, 0, header.lengthStart),
+        String.valueOf(payload.length).getBytes(UTF_8),
+        slice(bytes, header.lengthStart + header.length.length(), item.payloadStart),
+        payload,
+        slice(bytes, payloadEnd, bytes.length));
+  }
+
+  private static @NotNull SentryItemType resolveType(final @Nullable String type) {
+    if (type != null) {
+      for (final SentryItemType itemType : SentryItemType.values()) {
+        if (itemType.getItemType().equals(type)) {
+          return itemType;
+        }
+      }
+    }
+    return SentryItemType.Unknown;
+  }
+
+  private static int indexOf(final @NotNull byte[] bytes, final byte value, final int from) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int skipWhitespace(final @NotNull byte[] bytes, final int from, final int end) {
+    int i = from;
+    while (i < end && (bytes[i] == ' ' || bytes[i] == '\t' || bytes[i] == '\r')) {
+      i++;
+    }
+    return i - from;
+  }
+
+  private static @NotNull byte[] slice(final @NotNull byte[] bytes, final int from, final int to) {
+    final byte[] slice = new byte[to - from];
+    System.arraycopy(bytes, from, slice, 0, slice.length);
+    return slice;
+  }
+
+  private static @NotNull byte[] concat(final @NotNull byte[]... parts) {
+    int length = 0;
+    for (final byte[] part : parts) {
+      length += part.length;
+    }
+    final byte[] result = new byte[length];
+    int position = 0;
+    for (final byte[] part : parts) {
+      System.arraycopy(part, 0, result, position, part.length);
+      position += part.length;
+    }
+    return result;
+  }
+
+  static final class Item {
+    private final @NotNull SentryItemType type;
+    private final int headerStart;
+    private final int headerEnd;
+    private final int payloadStart;
+    private final int length;
+
+    Item(
+        final @NotNull SentryItemType type,
+        final int headerStart,
+        final int headerEnd,
+        final int payloadStart,
+        final int length) {
+      this.type = type;
+      this.headerStart = headerStart;
+      this.headerEnd = headerEnd;
+      this.payloadStart = payloadStart;
+      this.length = length;
+    }
+
+    @NotNull
+    SentryItemType getType() {
+      return type;
+    }
+
+    int getHeaderStart() {
+      return headerStart;
+    }
+
+    int getHeaderLength() {
+      return headerEnd - headerStart;
+    }
+
+    int getPayloadStart() {
+      return payloadStart;
+    }
+
+    int getPayloadLength() {
+      return length;
+    }
+  }
+
+  static final class SessionFields {
+    private final @NotNull UUID sessionId;
+    private final boolean ok;
+    private final boolean init;
+    // where the init value starts in the envelope, if it's there
+    private final int initStart;
+
+    SessionFields(
+        final @NotNull UUID sessionId, final boolean ok, final boolean init, final int initStart) {
+      this.sessionId = sessionId;
+      this.ok = ok;
+      this.init = init;
+      this.initStart = initStart;
+    }
+
+    @NotNull
+    UUID getSessionId() {
+      return sessionId;
+    }
+
+    /** The init flag can only be moved from or to sessions that are Ok. */
+    boolean isOk() {
+      return ok;
+    }
+
+    boolean isInit() {
+      return init;
+    }
+
+    private int initEnd(final @NotNull byte[] bytes) {
+      // the key was matched with its value, which is a literal
+      int i = initStart + "\"init\"".length();
+      while (bytes[i] != 't' && bytes[i] != 'f') {
+        i++;
+      }
+      return i + (bytes[i] == 't' ? "true".length() : "false".length());
+    }
+  }
+
+  /**
+   * The top level fields of a JSON object the cache needs. Nested objects and arrays are skipped,
+   * strings with escapes aren't read.
+   */
+  private static final class Fields {
+    private @Nullable String sid;
+    private @Nullable String status;
+    private @Nullable String init;
+    private int initStart = -1;
+    private @Nullable String type;
+    private @Nullable String length;
+    private int lengthStart = -1;
+
+    static @Nullable Fields read(final @NotNull byte[] bytes, final int start, final int end) {
+      final Fields fields = new Fields();
+      int i = start + skipWhitespace(bytes, start, end);
+      if (i >= end || bytes[i] != '{') {
+        return null;
+      }
+      i++;
+      while (true) {
+        i += skipWhitespace(bytes, i, end);
+        if (i >= end) {
+          return null;
+        }
+        if (bytes[i] == '}') {
+          return fields;
+        }
+        if (bytes[i] == ',') {
+          i++;
+          continue;
+        }
+        final int keyStart = i;
+        final int keyEnd = skipString(bytes, i, end);
+        if (keyEnd < 0) {
+          return null;
+        }
+        i = keyEnd + skipWhitespace(bytes, keyEnd, end);
+        if (i >= end || bytes[i] != ':') {
+          return null;
+        }
+        i++;
+        i += skipWhitespace(bytes, i, end);
+        final int valueStart = i;
+        final int valueEnd = skipValue(bytes, i, end);
+        if (valueEnd < 0) {
+          return null;
+        }
+        fields.set(bytes, keyStart, keyEnd, valueStart, valueEnd);
+        i = valueEnd;
+      }
+    }
+
+    private void set(
+        final @NotNull byte[] bytes,
+        final int keyStart,
+        final int keyEnd,
+        final int valueStart,
+        final int valueEnd) {
+      final String key = new String(bytes, keyStart + 1, keyEnd - keyStart - 2, UTF_8);
+      final boolean quoted = bytes[valueStart] == '"';
+      final String value =
+          quoted
+              ? new String(bytes, valueStart + 1, valueEnd - valueStart - 2, UTF_8)
+              : new String(bytes, valueStart, valueEnd - valueStart, UTF_8);
+      switch (key) {
+        case "sid":
+          sid = value;
+          break;
+        case "status":
+          status = value;
+          break;
+        case "init":
+          init = value;
+          initStart = keyStart;
+          break;
+        case "type":
+          type = value;
+          break;
+        case "length":
+          length = value;
+          lengthStart = valueStart;
+          break;
+        default:
+          break;
+      }
+    }
+
+    /** Returns the end of the string, or -1 if it's not a string or has escapes. */
+    private static int skipString(final @NotNull byte[] bytes, final int start, final int end) {
+      if (bytes[start] != '"') {
+        return -1;
+      }
+      for (int i = start + 1; i < end; i++) {
+        if (bytes[i] == '\\') {
+          return -1;
+        }
+        if (bytes[i] == '"') {
+          return i + 1;
+        }
+      }
+      return -1;
+    }
+
+    /** Returns the end of the value, or -1 if it can't be read. */
+    private static int skipValue(final @NotNull byte[] bytes, final int start, final int end) {
+      if (start >= end) {
+        return -1;
+      }
+      final byte first = bytes[start];
+      if (first == '"') {
+        return skipString(bytes, start, end);
+      }
+      if (first == '{' || first == '[') {
+        int depth = 0;
+        for (int i = start; i < end; i++) {
+          final byte b = bytes[i];
+          if (b == '"') {
+            i = skipString(bytes, i, end);
+            if (i < 0) {
+              return -1;
+            }
+            i--;
+          } else if (b == '{' || b == '[') {
+            depth++;
+          } else if (b == '}' || b == ']') {
+            if (--depth == 0) {
+              return i + 1;
+            }
+          }
+        }
+        return -1;
+      }
+      // a number or a literal
+      int i = start;
+      while (i < end && bytes[i] != ',' && bytes[i] != '}' && bytes[i] != ' ') {
+        i++;
+      }
+      return i > start ? i : -1;
+    }
+  }
+}
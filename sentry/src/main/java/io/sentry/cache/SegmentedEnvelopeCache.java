@@ -0,0 +1,780 @@
+package io.sentry.cache;
+
+import static io.sentry.SentryLevel.DEBUG;
+import static io.sentry.SentryLevel.ERROR;
+import static io.sentry.SentryLevel.WARNING;
+
+import io.sentry.SentryEnvelope;
+import io.sentry.SentryOptions;
+import io.sentry.protocol.SentryId;
+import io.sentry.util.Objects;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.zip.CRC32;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * An {@link IEnvelopeCache} that appends the envelopes to a few segment files instead of writing a
+ * file per envelope. Discarding an envelope appends a small tombstone record, so neither storing
+ * nor discarding lists the directory or creates and deletes files.
+ *
+ * <p>Each record holds the envelope id, its length and a CRC32 of its content. The index of the
+ * envelopes still cached is kept in memory and rebuilt from the segments when the cache is first
+ * used, so creating it doesn't read the disk. A record torn by a crash is cut off along with what
+ * follows it.
+ *
+ * <p>Segments whose envelopes were all discarded are deleted, the ones mostly discarded are
+ * compacted by copying what's left to the active segment. A segment holding the tombstones of
+ * envelopes written to an older segment is kept until that one is deleted, or its tombstones are
+ * copied along when it's compacted, otherwise the next run would read those envelopes again. The
+ * segments take at most maxSegmentedCacheSize bytes, the oldest one is dropped once it's exceeded.
+ */
+@ApiStatus.Internal
+public final class SegmentedEnvelopeCache extends CacheStrategy implements IEnvelopeCache {
+
+  /** The folder of the cache dir. that the segments are written to. */
+  public static final String LOG_DIRECTORY = "envelope-log";
+
+  static final String SUFFIX_SEGMENT_FILE = ".log";
+
+  private static final byte RECORD_ENVELOPE = 1;
+  private static final byte RECORD_TOMBSTONE = 2;
+
+  /** type, id, length and checksum */
+  static final int HEADER_SIZE = 1 + 16 + 4 + 4;
+
+  /** The cache is split in about this many segments, so compacting one copies little. */
+  private static final int SEGMENTS = 8;
+
+  private final @NotNull File logDirectory;
+  private final long maxSize;
+  private final long segmentSize;
+
+  // all of the following is guarded by this
+  private final @NotNull Map<SentryId, Record> index = new HashMap<>();
+  // oldest first, the last one is the one being appended to
+  private final @NotNull Deque<Segment> segments = new ArrayDeque<>();
+  private final @NotNull Map<SentryEnvelope, SentryId> envelopeIds = new WeakHashMap<>();
+  private long totalSize;
+  private long nextSegmentId;
+  private boolean recovered;
+
+  public SegmentedEnvelopeCache(final @NotNull SentryOptions options) {
+    super(options, options.getCacheDirPath(), options.getCacheDirSize());
+    this.logDirectory = new File(directory, LOG_DIRECTORY);
+    this.maxSize = options.getMaxSegmentedCacheSize();
+    this.segmentSize = Math.max(maxSize / SEGMENTS, HEADER_SIZE);
+  }
+
+  /** Rebuilds the index from the segments written by a previous run, once. Guarded by this. */
+  private void ensureRecovered() {
+    if (recovered) {
+      return;
+    }
+    recovered = true;
+    recover();
+  }
+
+  private void recover() {
+    if (!logDirectory.isDirectory() && !logDirectory.mkdirs()) {
+      options
+          .getLogger()
+          .log(ERROR, "The directory for the envelope log is inaccessible.: %s", logDirectory);
+      return;
+    }
+
+    final File[] files =
+        logDirectory.listFiles((__, fileName) -> fileName.endsWith(SUFFIX_SEGMENT_FILE));
+    if (files == null || files.length == 0) {
+      return;
+    }
+    final long[] segmentIds = new long[files.length];
+    int count = 0;
+    for (final File file : files) {
+      final String name = file.getName();
+      try {
+        segmentIds[count] =
+            Long.parseLong(name.substring(0, name.length() - SUFFIX_SEGMENT_FILE.length()));
+        count++;
+      } catch (NumberFormatException e) {
+        options.getLogger().log(WARNING, "Not a segment of the envelope log: %s", name);
+      }
+    }
+    Arrays.sort(segmentIds, 0, count);
+
+    for (int i = 0; i < count; i++) {
+      try {
+        final Segment segment = new Segment(segmentIds[i], segmentFile(segmentIds[i]));
+        segments.add(segment);
+        scan(segment);
+        totalSize += segment.size;
+      } catch (IOException e) {
+        options.getLogger().log(ERROR, e, "Failed to read segment %d.", segmentIds[i]);
+      }
+      nextSegmentId = segmentIds[i] + 1;
+    }
+
+    for (final Segment segment : new ArrayList<>(segments)) {
+      deleteIfDead(segment);
+    }
+    evictIfNeeded();
+    options.getLogger().log(DEBUG, "%d envelopes recovered from the envelope log.", index.size());
+  }
+
+  /**
+   * Reads the records of a segment into the index, up to the first one that is incomplete or
+   * damaged.
+   *
+   * @param segment the segment
+   */
+  private void scan(final @NotNull Segment segment) throws IOException {
+    final long fileSize = segment.channel.size();
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    long position = 0;
+
+    while (position + HEADER_SIZE <= fileSize) {
+      header.clear();
+      readFully(segment.channel, header, position);
+      header.flip();
+      final byte type = header.get();
+      final SentryId id = new SentryId(new UUID(header.getLong(), header.getLong()));
+      final int length = header.getInt();
+      final int checksum = header.getInt();
+
+      if ((type != RECORD_ENVELOPE && type != RECORD_TOMBSTONE)
+          || length < 0
+          || (type == RECORD_TOMBSTONE && length != 0)
+          || position + HEADER_SIZE + length > fileSize) {
+        break;
+      }
+      final byte[] payload = new byte[length];
+      readFully(segment.channel, ByteBuffer.wrap(payload), position + HEADER_SIZE);
+      if (checksum(header.array(), payload) != checksum) {
+        break;
+      }
+
+      if (type == RECORD_ENVELOPE) {
+        putRecord(id, new Record(segment, position, length));
+      } else {
+        final Record record = removeRecord(id);
+        if (record != null) {
+          linkTombstone(segment, id, record);
+        }
+      }
+      position += HEADER_SIZE + length;
+    }
+
+    if (position < fileSize) {
+      options
+          .getLogger()
+          .log(
+              WARNING,
+              "Segment %d of the envelope log is damaged after %d bytes, it's cut off there.",
+              segment.id,
+              position);
+      segment.channel.truncate(position);
+    }
+    segment.size = position;
+  }
+
+  @Override
+  public void store(final @NotNull SentryEnvelope envelope, final @Nullable Object hint) {
+    Objects.requireNonNull(envelope, "Envelope is required.");
+
+    updateCurrentSessionFile(envelope, hint);
+
+    append(envelope);
+  }
+
+  @Override
+  protected void storeEndedSession(final @NotNull SentryEnvelope envelope) {
+    append(envelope);
+  }
+
+  private void append(final @NotNull SentryEnvelope envelope) {
+    final SentryId id = getEnvelopeId(envelope);
+    // serialized before taking the lock, only the write itself is done while holding it
+    final byte[] payload = serialize(id, envelope);
+    if (payload != null) {
+      append(id, payload);
+    }
+  }
+
+  /**
+   * Appends the envelopes and syncs the segments they were written to once, so all of them are on
+   * the disk when it returns.
+   *
+   * @param envelopes the envelopes
+   */
+  @Override
+  public void storeAll(final @NotNull List<SentryEnvelope> envelopes) {
+    final List<SentryId> ids = new ArrayList<>(envelopes.size());
+    final List<byte[]> payloads = new ArrayList<>(envelopes.size());
+    for (final SentryEnvelope envelope : envelopes) {
+      final SentryId id = getEnvelopeId(envelope);
+      final byte[] payload = serialize(id, envelope);
+      if (payload != null) {
+        ids.add(id);
+        payloads.add(payload);
+      }
+    }
+
+    synchronized (this) {
+      final Set<Segment> written = new LinkedHashSet<>();
+      for (int i = 0; i < ids.size(); i++) {
+        final Segment segment = append(ids.get(i), payloads.get(i));
+        if (segment != null) {
+          written.add(segment);
+        }
+      }
+      for (final Segment segment : written) {
+        // it may have been dropped to make room meanwhile
+        if (!segments.contains(segment)) {
+          continue;
+        }
+        try {
+          segment.channel.force(false);
+        } catch (IOException e) {
+          options.getLogger().log(ERROR, e, "Failed to sync segment %d.", segment.id);
+        }
+      }
+    }
+  }
+
+  private @Nullable byte[] serialize(
+      final @NotNull SentryId id, final @NotNull SentryEnvelope envelope) {
+    final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try {
+      serializer.serialize(envelope, outputStream);
+    } catch (Exception e) {
+      options.getLogger().log(ERROR, e, "Error writing Envelope %s to offline storage", id);
+      return null;
+    }
+    return outputStream.toByteArray();
+  }
+
+  /**
+   * Appends the envelope to the active segment
+   *
+   * @return the segment it was written to or null if it wasn't
+   */
+  private synchronized @Nullable Segment append(
+      final @NotNull SentryId id, final @NotNull byte[] payload) {
+    ensureRecovered();
+    if (index.containsKey(id)) {
+      options
+          .getLogger()
+          .log(
+              WARNING, "Not adding Envelope to offline storage because it already exists: %s", id);
+      return null;
+    }
+    if (HEADER_SIZE + payload.length > maxSize) {
+      options
+          .getLogger()
+          .log(WARNING, "Envelope %s is bigger than maxSegmentedCacheSize, it's not cached.", id);
+      return null;
+    }
+
+    final Segment segment;
+    try {
+      segment = activeSegment(HEADER_SIZE + payload.length);
+      final long offset = write(segment, RECORD_ENVELOPE, id, payload);
+      putRecord(id, new Record(segment, offset, payload.length));
+      options.getLogger().log(DEBUG, "Adding Envelope to offline storage: %s", id);
+    } catch (IOException e) {
+      options.getLogger().log(ERROR, e, "Error writing Envelope %s to offline storage", id);
+      return null;
+    }
+    evictIfNeeded();
+    return segment;
+  }
+
+  @Override
+  public synchronized void discard(final @NotNull SentryEnvelope envelope) {
+    Objects.requireNonNull(envelope, "Envelope is required.");
+    ensureRecovered();
+
+    SentryId id = envelopeIds.get(envelope);
+    if (id == null) {
+      id = envelope.getHeader().getEventId();
+    }
+    final Record record = id != null ? removeRecord(id) : null;
+    if (record == null) {
+      options.getLogger().log(DEBUG, "Envelope was not cached: %s", id);
+      return;
+    }
+    options.getLogger().log(DEBUG, "Discarding envelope from cache: %s", id);
+
+    try {
+      final Segment active = activeSegment(HEADER_SIZE);
+      write(active, RECORD_TOMBSTONE, id, new byte[0]);
+      linkTombstone(active, id, record);
+    } catch (IOException e) {
+      // it's sent again by the next run, but not by this one
+      options.getLogger().log(ERROR, e, "Failed to discard envelope: %s", id);
+    }
+    compactIfNeeded(record.segment);
+    evictIfNeeded();
+  }
+
+  /**
+   * Returns the segment to append a record of the given size to, a new one is started if it
+   * doesn't fit in the current one.
+   *
+   * @param recordSize the size of the record
+   * @return the active segment
+   */
+  private @NotNull Segment activeSegment(final long recordSize) throws IOException {
+    final Segment active = segments.peekLast();
+    if (active != null && (active.size == 0 || active.size + recordSize <= segmentSize)) {
+      return active;
+    }
+
+    final Segment segment = new Segment(nextSegmentId, segmentFile(nextSegmentId));
+    nextSegmentId++;
+    segments.add(segment);
+    if (active != null) {
+      deleteIfDead(active);
+    }
+    return segment;
+  }
+
+  /**
+   * Appends a record to the segment
+   *
+   * @return the offset of the record
+   */
+  private long write(
+      final @NotNull Segment segment,
+      final byte type,
+      final @NotNull SentryId id,
+      final @NotNull byte[] payload)
+      throws IOException {
+    // the 32 hex digits of the id
+    final String hex = id.toString();
+    final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header
+        .put(type)
+        .putLong(parseHex(hex, 0))
+        .putLong(parseHex(hex, 16))
+        .putInt(payload.length)
+        .putInt(0);
+    header.putInt(HEADER_SIZE - 4, checksum(header.array(), payload));
+    header.flip();
+
+    final long offset = segment.size;
+    final ByteBuffer[] buffers = {header, ByteBuffer.wrap(payload)};
+    try {
+      segment.channel.position(offset);
+      while (header.hasRemaining() || buffers[1].hasRemaining()) {
+        segment.channel.write(buffers);
+      }
+    } catch (IOException e) {
+      // don't leave a torn record behind the ones written next
+      segment.channel.truncate(offset);
+      throw e;
+    }
+    segment.size += HEADER_SIZE + payload.length;
+    totalSize += HEADER_SIZE + payload.length;
+    return offset;
+  }
+
+  private static long parseHex(final @NotNull String hex, final int start) {
+    return Long.parseLong(hex.substring(start, start + 8), 16) << 32
+        | Long.parseLong(hex.substring(start + 8, start + 16), 16);
+  }
+
+  private static int checksum(final @NotNull byte[] header, final @NotNull byte[] payload) {
+    final CRC32 crc = new CRC32();
+    // the checksum itself is the last field of the header
+    crc.update(header, 0, HEADER_SIZE - 4);
+    crc.update(payload, 0, payload.length);
+    return (int) crc.getValue();
+  }
+
+  private void putRecord(final @NotNull SentryId id, final @NotNull Record record) {
+    final Record previous = index.put(id, record);
+    if (previous != null) {
+      // written again by a compaction that was interrupted
+      markDead(id, previous);
+      record.olderCopies.addAll(previous.olderCopies);
+      if (previous.segment != record.segment) {
+        record.olderCopies.add(previous.segment);
+      }
+    }
+    record.segment.ids.add(id);
+    record.segment.liveSize += HEADER_SIZE + record.length;
+  }
+
+  private @Nullable Record removeRecord(final @NotNull SentryId id) {
+    final Record record = index.remove(id);
+    if (record != null) {
+      markDead(id, record);
+    }
+    return record;
+  }
+
+  private static void markDead(final @NotNull SentryId id, final @NotNull Record record) {
+    record.segment.ids.remove(id);
+    record.segment.liveSize -= HEADER_SIZE + record.length;
+  }
+
+  /**
+   * Keeps the segment a tombstone was written to as long as the older segments holding the
+   * discarded envelope are there.
+   *
+   * @param segment the segment of the tombstone
+   * @param id the id of the discarded envelope
+   * @param record the record of the discarded envelope
+   */
+  private void linkTombstone(
+      final @NotNull Segment segment, final @NotNull SentryId id, final @NotNull Record record) {
+    linkTombstone(segment, id, record.segment);
+    for (final Segment olderCopy : record.olderCopies) {
+      linkTombstone(segment, id, olderCopy);
+    }
+  }
+
+  private void linkTombstone(
+      final @NotNull Segment segment, final @NotNull SentryId id, final @NotNull Segment target) {
+    // a tombstone in the same segment as the envelope goes along with it
+    if (target == segment || !segments.contains(target)) {
+      return;
+    }
+    Set<SentryId> ids = segment.tombstones.get(target);
+    if (ids == null) {
+      ids = new HashSet<>();
+      segment.tombstones.put(target, ids);
+    }
+    ids.add(id);
+    target.tombstonedBy.add(segment);
+  }
+
+  /**
+   * Deletes the segment if nothing in it is cached anymore, or copies what is left to the active
+   * segment if that's less than half of it.
+   *
+   * @param segment the segment an envelope was discarded from
+   */
+  private void compactIfNeeded(final @NotNull Segment segment) {
+    // it may have been deleted already, when the tombstone rolled the active segment
+    if (!segments.contains(segment) || segment == segments.peekLast() || deleteIfDead(segment)) {
+      return;
+    }
+    if (segment.liveSize * 2 > segment.size) {
+      return;
+    }
+
+    options.getLogger().log(DEBUG, "Compacting segment %d of the envelope log.", segment.id);
+    for (final SentryId id : new ArrayList<>(segment.ids)) {
+      final Record record = index.get(id);
+      if (record == null) {
+        continue;
+      }
+      try {
+        final byte[] payload = read(record);
+        final Segment active = activeSegment(HEADER_SIZE + payload.length);
+        final long offset = write(active, RECORD_ENVELOPE, id, payload);
+        // the copy being compacted away isn't one to keep a tombstone for
+        removeRecord(id);
+        putRecord(id, new Record(active, offset, payload.length));
+      } catch (IOException e) {
+        options.getLogger().log(ERROR, e, "Failed to compact Envelope %s, it's dropped.", id);
+        removeRecord(id);
+      }
+    }
+    if (copyTombstones(segment)) {
+      deleteSegment(segment);
+    }
+  }
+
+  /**
+   * Copies the tombstones still needed by older segments to the active segment, so the segment can
+   * be deleted.
+   *
+   * @param segment the segment being compacted
+   * @return true if copied or false if the segment has to be kept
+   */
+  private boolean copyTombstones(final @NotNull Segment segment) {
+    for (final Map.Entry<Segment, Set<SentryId>> entry :
+        new ArrayList<>(segment.tombstones.entrySet())) {
+      final Segment target = entry.getKey();
+      for (final SentryId id : entry.getValue()) {
+        // the target may have been deleted meanwhile, by making room for the copies
+        if (!segments.contains(target)) {
+          break;
+        }
+        try {
+          final Segment active = activeSegment(HEADER_SIZE);
+          write(active, RECORD_TOMBSTONE, id, new byte[0]);
+          linkTombstone(active, id, target);
+        } catch (IOException e) {
+          // the segment is kept, it still holds the tombstones that weren't copied
+          options.getLogger().log(ERROR, e, "Failed to compact the tombstone of %s.", id);
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Deletes the segment if nothing in it is cached anymore and none of its tombstones is needed by
+   * an older segment
+   *
+   * @param segment the segment
+   * @return true if deleted
+   */
+  private boolean deleteIfDead(final @NotNull Segment segment) {
+    if (segment != segments.peekLast()
+        && segment.ids.isEmpty()
+        && segment.tombstones.isEmpty()
+        && segments.contains(segment)) {
+      deleteSegment(segment);
+      return true;
+    }
+    return false;
+  }
+
+  /** Drops the oldest segments, along with their envelopes, until the cache fits in maxSize. */
+  private void evictIfNeeded() {
+    while (totalSize > maxSize && segments.size() > 1) {
+      final Segment oldest = segments.peekFirst();
+      final int dropped = oldest.ids.size();
+      for (final SentryId id : new ArrayList<>(oldest.ids)) {
+        removeRecord(id);
+      }
+      deleteSegment(oldest);
+      if (dropped > 0) {
+        options
+            .getLogger()
+            .log(
+                WARNING,
+                "Cache is full (respecting maxSegmentedCacheSize), %d envelopes dropped.",
+                dropped);
+      }
+    }
+  }
+
+  private void deleteSegment(final @NotNull Segment segment) {
+    if (!segments.remove(segment)) {
+      return;
+    }
+    totalSize -= segment.size;
+    try {
+      segment.channel.close();
+    } catch (IOException e) {
+      options.getLogger().log(WARNING, e, "Failed to close segment %d.", segment.id);
+    }
+    if (segment.file.exists() && !segment.file.delete()) {
+      options.getLogger().log(WARNING, "File can't be deleted: %s", segment.file.getAbsolutePath());
+    }
+
+    for (final Segment target : segment.tombstones.keySet()) {
+      target.tombstonedBy.remove(segment);
+    }
+    segment.tombstones.clear();
+    // deleted before the tombstones of its envelopes, so a crash in between reads nothing again
+    final List<Segment> tombstonedBy = new ArrayList<>(segment.tombstonedBy);
+    segment.tombstonedBy.clear();
+    for (final Segment holder : tombstonedBy) {
+      holder.tombstones.remove(segment);
+      deleteIfDead(holder);
+    }
+  }
+
+  private @NotNull File segmentFile(final long segmentId) {
+    return new File(logDirectory, segmentId + SUFFIX_SEGMENT_FILE);
+  }
+
+  private static @NotNull byte[] read(final @NotNull Record record) throws IOException {
+    final byte[] payload = new byte[record.length];
+    readFully(record.segment.channel, ByteBuffer.wrap(payload), record.offset + HEADER_SIZE);
+    return payload;
+  }
+
+  private static void readFully(
+      final @NotNull FileChannel channel, final @NotNull ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      final int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException();
+      }
+      position += read;
+    }
+  }
+
+  /**
+   * Returns the id the envelope is cached with. If the envelope has no eventId header, it generates
+   * a random one.
+   *
+   * @param envelope the SentryEnvelope object
+   * @return the id
+   */
+  private synchronized @NotNull SentryId getEnvelopeId(final @NotNull SentryEnvelope envelope) {
+    SentryId id = envelopeIds.get(envelope);
+    if (id == null) {
+      id =
+          envelope.getHeader().getEventId() != null
+              ? envelope.getHeader().getEventId()
+              : new SentryId();
+      envelopeIds.put(envelope, id);
+    }
+    return id;
+  }
+
+  /**
+   * Reads the cached envelope with the given id
+   *
+   * @param id the id
+   * @return the envelope or null if it's not cached anymore or can't be read
+   */
+  private @Nullable SentryEnvelope read(final @NotNull SentryId id) {
+    final byte[] payload;
+    synchronized (this) {
+      ensureRecovered();
+      final Record record = index.get(id);
+      if (record == null) {
+        return null;
+      }
+      try {
+        payload = read(record);
+      } catch (IOException e) {
+        options.getLogger().log(ERROR, e, "Error while reading cached envelope %s", id);
+        return null;
+      }
+    }
+
+    try {
+      final SentryEnvelope envelope =
+          options.getEnvelopeReader().read(new ByteArrayInputStream(payload));
+      if (envelope != null) {
+        synchronized (this) {
+          // so it can be discarded once it's sent
+          envelopeIds.put(envelope, id);
+        }
+      }
+      return envelope;
+    } catch (IOException | IllegalArgumentException e) {
+      options.getLogger().log(ERROR, e, "Error while reading cached envelope %s", id);
+    }
+    return null;
+  }
+
+  /**
+   * Iterates over the envelopes cached when it's called, from the oldest to the newest. They are
+   * read one at a time, and skipped if they are discarded meanwhile.
+   *
+   * @return the iterator
+   */
+  @Override
+  public @NotNull Iterator<SentryEnvelope> iterator() {
+    final List<SentryId> ids = new ArrayList<>();
+    synchronized (this) {
+      ensureRecovered();
+      // records are appended, so the ids of each segment are in the order they were written
+      for (final Segment segment : segments) {
+        ids.addAll(segment.ids);
+      }
+    }
+    return new EnvelopeIterator(ids.iterator());
+  }
+
+  @TestOnly
+  synchronized int getSegmentCount() {
+    ensureRecovered();
+    return segments.size();
+  }
+
+  @TestOnly
+  synchronized long getTotalSize() {
+    ensureRecovered();
+    return totalSize;
+  }
+
+  private final class EnvelopeIterator implements Iterator<SentryEnvelope> {
+    private final @NotNull Iterator<SentryId> ids;
+    private @Nullable SentryEnvelope next;
+
+    EnvelopeIterator(final @NotNull Iterator<SentryId> ids) {
+      this.ids = ids;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && ids.hasNext()) {
+        next = read(ids.next());
+      }
+      return next != null;
+    }
+
+    @Override
+    public @NotNull SentryEnvelope next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      final SentryEnvelope envelope = next;
+      next = null;
+      return envelope;
+    }
+  }
+
+  private static final class Segment {
+    private final long id;
+    private final @NotNull File file;
+    private final @NotNull FileChannel channel;
+    // the ids of the envelopes cached in this segment, in the order they were written
+    private final @NotNull Set<SentryId> ids = new LinkedHashSet<>();
+    // the ids of the tombstones in this segment, by the older segment holding their envelope
+    private final @NotNull Map<Segment, Set<SentryId>> tombstones = new HashMap<>();
+    // the newer segments holding tombstones of envelopes in this segment
+    private final @NotNull Set<Segment> tombstonedBy = new HashSet<>();
+    private long size;
+    private long liveSize;
+
+    Segment(final long id, final @NotNull File file) throws IOException {
+      this.id = id;
+      this.file = file;
+      this.channel = new RandomAccessFile(file, "rw").getChannel();
+      this.size = channel.size();
+    }
+  }
+
+  private static final class Record {
+    private final @NotNull Segment segment;
+    private final long offset;
+    private final int length;
+    // segments still holding a copy left by a compaction that was interrupted
+    private final @NotNull List<Segment> olderCopies = new ArrayList<>(0);
+
+    Record(final @NotNull Segment segment, final long offset, final int length) {
+      this.segment = segment;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
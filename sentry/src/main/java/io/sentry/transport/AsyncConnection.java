@@ -3,23 +3,30 @@ package io.sentry.transport;
 import io.sentry.ILogger;
 import io.sentry.SentryEnvelope;
 import io.sentry.SentryEnvelopeItem;
+import io.sentry.SentryItemType;
 import io.sentry.SentryLevel;
 import io.sentry.SentryOptions;
 import io.sentry.cache.IEnvelopeCache;
 import io.sentry.hints.Cached;
 import io.sentry.hints.DiskFlushNotification;
 import io.sentry.hints.Retryable;
+import io.sentry.hints.SessionEnd;
+import io.sentry.hints.SessionStart;
 import io.sentry.hints.SubmissionResult;
 import io.sentry.util.LogUtils;
 import io.sentry.util.Objects;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.jetbrains.annotations.ApiStatus;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -28,11 +35,26 @@ import org.jetbrains.annotations.TestOnly;
 /** A connection to Sentry that sends the events asynchronously. */
 @ApiStatus.Internal
 public final class AsyncConnection implements Closeable, Connection {
+  /** Sentry accepts up to 100 sessions per envelope. */
+  static final int MAX_BATCH_ITEMS = 100;
+
+  static final int MAX_BATCH_BYTES = 1024 * 1024; // 1MB
+
+  private static final AtomicIntegerFieldUpdater<EnvelopeSender> CLAIMED =
+      AtomicIntegerFieldUpdater.newUpdater(EnvelopeSender.class, "claimed");
+
   private final @NotNull ITransport transport;
   private final @NotNull ITransportGate transportGate;
   private final @NotNull ExecutorService executor;
   private final @NotNull IEnvelopeCache envelopeCache;
   private final @NotNull SentryOptions options;
+  private final @NotNull ClientRateLimiter clientRateLimiter;
+  private final @Nullable EnvelopeSpillover spillover;
+  private final @Nullable EnvelopeWriteBehind writeBehind;
+  private final int maxQueueSize;
+
+  // senders that are queued and may be sent along with another one, if batching is enabled
+  private final @NotNull Queue<EnvelopeSender> batchableSenders = new ConcurrentLinkedQueue<>();
 
   public AsyncConnection(
       final ITransport transport,
@@ -40,49 +62,208 @@ public final class AsyncConnection implements Closeable, Connection {
       final IEnvelopeCache envelopeCache,
       final int maxQueueSize,
       final SentryOptions options) {
+    this(transport, transportGate, envelopeCache, null, maxQueueSize, options);
+  }
+
+  @TestOnly
+  AsyncConnection(
+      final @NotNull ITransport transport,
+      final @NotNull ITransportGate transportGate,
+      final @NotNull IEnvelopeCache envelopeCache,
+      final @NotNull ExecutorService executorService,
+      final @NotNull SentryOptions options) {
     this(
         transport,
         transportGate,
         envelopeCache,
-        initExecutor(maxQueueSize, envelopeCache, options.getLogger()),
+        executorService,
+        options.getMaxQueueSize(),
         options);
   }
 
-  @TestOnly
-  AsyncConnection(
+  private AsyncConnection(
       final @NotNull ITransport transport,
       final @NotNull ITransportGate transportGate,
       final @NotNull IEnvelopeCache envelopeCache,
-      final @NotNull ExecutorService executorService,
+      final @Nullable ExecutorService executorService,
+      final int maxQueueSize,
       final @NotNull SentryOptions options) {
     this.transport = transport;
     this.transportGate = transportGate;
     this.envelopeCache = envelopeCache;
     this.options = options;
-    this.executor = executorService;
+    this.maxQueueSize = maxQueueSize;
+    this.executor = executorService != null ? executorService : initExecutor(maxQueueSize);
+    this.clientRateLimiter = new ClientRateLimiter(options, CurrentDateProvider.getInstance());
+    this.writeBehind = options.isEnableWriteBehindCache() ? new EnvelopeWriteBehind(options) : null;
+    // created last, as it may start replaying the envelopes left over right away
+    this.spillover = initSpillover();
   }
 
-  private static QueuedThreadPoolExecutor initExecutor(
-      final int maxQueueSize,
-      final @NotNull IEnvelopeCache envelopeCache,
-      final @NotNull ILogger logger) {
-
-    final RejectedExecutionHandler storeEvents =
-        (r, executor) -> {
-          if (r instanceof EnvelopeSender) {
-            final EnvelopeSender envelopeSender = (EnvelopeSender) r;
-
-            if (!(envelopeSender.hint instanceof Cached)) {
-              envelopeCache.store(envelopeSender.envelope, envelopeSender.hint);
-            }
+  private @NotNull ExecutorService initExecutor(final int maxQueueSize) {
+    final ILogger logger = options.getLogger();
 
-            markHintWhenSendingFailed(envelopeSender.hint, true);
-            logger.log(SentryLevel.WARNING, "Envelope rejected");
+    final RingBufferExecutor.RejectionListener storeEvents =
+        r -> {
+          // a sender that was already sent as part of a batch is not rejected for real
+          if (r instanceof EnvelopeSender && ((EnvelopeSender) r).claim()) {
+            onRejected((EnvelopeSender) r);
           }
         };
 
+    if (options.isEnableRingBufferQueue()) {
+      if (options.getSenderThreadCount() > 1) {
+        logger.log(
+            SentryLevel.WARNING,
+            "The ring buffer queue is drained by a single thread, senderThreadCount is ignored.");
+      }
+      return new RingBufferExecutor(
+          maxQueueSize, new AsyncConnectionThreadFactory(), storeEvents, logger);
+    }
+
+    final RejectedExecutionHandler rejectedExecutionHandler =
+        (r, executor) -> storeEvents.onRejected(r);
     return new QueuedThreadPoolExecutor(
-        1, maxQueueSize, new AsyncConnectionThreadFactory(), storeEvents, logger);
+        options.getSenderThreadCount(),
+        maxQueueSize,
+        new AsyncConnectionThreadFactory(),
+        rejectedExecutionHandler,
+        logger);
+  }
+
+  private @Nullable EnvelopeSpillover initSpillover() {
+    if (!options.isEnableQueueSpillover()) {
+      return null;
+    }
+    final String spilloverPath = options.getSpilloverPath();
+    if (spilloverPath == null) {
+      options
+          .getLogger()
+          .log(SentryLevel.WARNING, "The queue spillover requires a cacheDirPath, it's disabled.");
+      return null;
+    }
+    return new EnvelopeSpillover(options, spilloverPath, this::replay);
+  }
+
+  /**
+   * Stores the envelope that couldn't be queued, or writes it to the spillover if the queue was
+   * full. Replayed envelopes are kept by the spillover instead.
+   *
+   * @param envelopeSender the sender that couldn't be queued, claimed by the caller
+   */
+  private void onRejected(final @NotNull EnvelopeSender envelopeSender) {
+    if (envelopeSender.replayed) {
+      return;
+    }
+
+    // cached envelopes are on the disk already
+    if (!(envelopeSender.hint instanceof Cached)) {
+      if (spillover != null && spillover.spill(envelopeSender.envelope)) {
+        // the spillover is in charge of it now
+        markHintWhenSendingFailed(envelopeSender.hint, false);
+        options.getLogger().log(SentryLevel.DEBUG, "Envelope spilled to the disk");
+        return;
+      }
+      envelopeCache.store(envelopeSender.envelope, envelopeSender.hint);
+    }
+
+    markHintWhenSendingFailed(envelopeSender.hint, true);
+    options.getLogger().log(SentryLevel.WARNING, "Envelope rejected");
+  }
+
+  /**
+   * Queues a spilled envelope again, if there's room for it.
+   *
+   * @param envelope the envelope read from the spillover
+   * @return true if it was queued or false otherwise
+   */
+  private boolean replay(final @NotNull SentryEnvelope envelope) {
+    if (getQueueDepth() >= maxQueueSize) {
+      return false;
+    }
+    final EnvelopeSender envelopeSender = new EnvelopeSender(envelope, null, envelopeCache, true);
+    return !executor.submit(envelopeSender).isCancelled();
+  }
+
+  /**
+   * Returns the number of envelopes waiting to be sent. With the default queue, the ones being sent
+   * are counted as well.
+   *
+   * @return the queue depth
+   */
+  public int getQueueDepth() {
+    if (executor instanceof RingBufferExecutor) {
+      return ((RingBufferExecutor) executor).getQueueDepth();
+    }
+    if (executor instanceof QueuedThreadPoolExecutor) {
+      return ((QueuedThreadPoolExecutor) executor).getPendingTasks();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of envelopes that couldn't be queued, because the queue was full or the
+   * connection closed.
+   *
+   * @return the number of rejected envelopes
+   */
+  public long getRejectedEnvelopeCount() {
+    if (executor instanceof RingBufferExecutor) {
+      return ((RingBufferExecutor) executor).getRejectedCount();
+    }
+    if (executor instanceof QueuedThreadPoolExecutor) {
+      return ((QueuedThreadPoolExecutor) executor).getRejectedCount();
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the number of envelopes written to the disk because the queue was full, if {@link
+   * SentryOptions#isEnableQueueSpillover()} is enabled.
+   *
+   * @return the number of spilled envelopes
+   */
+  public long getSpilledEnvelopeCount() {
+    return spillover != null ? spillover.getSpilledCount() : 0;
+  }
+
+  /**
+   * Returns the number of spilled envelopes queued again once there was room.
+   *
+   * @return the number of replayed envelopes
+   */
+  public long getReplayedEnvelopeCount() {
+    return spillover != null ? spillover.getReplayedCount() : 0;
+  }
+
+  /**
+   * Returns the number of envelopes that didn't fit in the queue nor in the spillover.
+   *
+   * @return the number of dropped envelopes
+   */
+  public long getSpilloverDroppedEnvelopeCount() {
+    return spillover != null ? spillover.getDroppedCount() : 0;
+  }
+
+  /**
+   * Returns the number of envelope items dropped by the client side rate limits of {@link
+   * SentryOptions#getClientRateLimits()}.
+   *
+   * @return the number of rate limited items
+   */
+  public long getClientRateLimitedItemCount() {
+    return clientRateLimiter.getLimitedCount();
+  }
+
+  /**
+   * Returns the number of envelope items of a data category dropped by the client side rate limits
+   * of {@link SentryOptions#getClientRateLimits()}.
+   *
+   * @param category the data category: error, session, attachment or transaction
+   * @return the number of rate limited items
+   */
+  public long getClientRateLimitedItemCount(final @NotNull String category) {
+    return clientRateLimiter.getLimitedCount(category);
   }
 
   /**
@@ -116,8 +297,18 @@ public final class AsyncConnection implements Closeable, Connection {
     // Optimize for/No allocations if no items are under 429
     List<SentryEnvelopeItem> dropItems = null;
     for (SentryEnvelopeItem item : envelope.getItems()) {
-      // using the raw value of the enum to not expose SentryEnvelopeItemType
-      if (transport.isRetryAfter(item.getHeader().getType().getItemType())) {
+      final SentryItemType itemType = item.getHeader().getType();
+      // items rate limited by Sentry don't take a token of the client rate limits
+      final boolean retryAfter = transport.isRetryAfter(itemType);
+      if (retryAfter || !clientRateLimiter.tryAcquire(itemType)) {
+        if (!retryAfter) {
+          options
+              .getLogger()
+              .log(
+                  SentryLevel.INFO,
+                  "Item of type %s dropped by the client rate limit.",
+                  itemType.getItemType());
+        }
         if (dropItems == null) {
           dropItems = new ArrayList<>();
         }
@@ -153,7 +344,108 @@ public final class AsyncConnection implements Closeable, Connection {
       envelope = new SentryEnvelope(envelope.getHeader(), toSend);
     }
 
-    executor.submit(new EnvelopeSender(envelope, hint, currentEnvelopeCache));
+    final EnvelopeSender envelopeSender =
+        new EnvelopeSender(envelope, hint, currentEnvelopeCache, false);
+    if (options.isEnableEnvelopeBatching() && isBatchable(envelope)) {
+      batchableSenders.add(envelopeSender);
+      if (executor.submit(envelopeSender).isCancelled()) {
+        batchableSenders.remove(envelopeSender);
+        spillIfNotRejected(envelopeSender);
+      }
+    } else if (spillover != null) {
+      if (executor.submit(envelopeSender).isCancelled()) {
+        spillIfNotRejected(envelopeSender);
+      }
+    } else {
+      executor.submit(envelopeSender);
+    }
+  }
+
+  /**
+   * The default queue drops envelopes when it's full without rejecting them, those are handed to
+   * the spillover here.
+   *
+   * @param envelopeSender the sender that couldn't be queued
+   */
+  private void spillIfNotRejected(final @NotNull EnvelopeSender envelopeSender) {
+    if (spillover != null && envelopeSender.claim()) {
+      onRejected(envelopeSender);
+    }
+  }
+
+  /**
+   * Only envelopes made of session updates are merged, an envelope can't hold more than one event
+   * or transaction.
+   *
+   * @param envelope the envelope
+   * @return true if the envelope can be sent along with others or false otherwise
+   */
+  private static boolean isBatchable(final @NotNull SentryEnvelope envelope) {
+    if (envelope.getHeader().getEventId() != null) {
+      return false;
+    }
+    boolean hasItems = false;
+    for (final SentryEnvelopeItem item : envelope.getItems()) {
+      if (!SentryItemType.Session.equals(item.getHeader().getType())) {
+        return false;
+      }
+      hasItems = true;
+    }
+    return hasItems;
+  }
+
+  /**
+   * Takes the queued senders that can be sent along with the given one, bounded by {@link
+   * #MAX_BATCH_ITEMS} and {@link #MAX_BATCH_BYTES}. Their own tasks are still queued, but they
+   * won't do anything once they run. Only envelopes already waiting in the queue are merged, so
+   * batching doesn't delay anything.
+   *
+   * @param first the sender that is about to be sent
+   * @return the senders to be sent in one request, starting with the given one
+   */
+  private @NotNull List<EnvelopeSender> collectBatch(final @NotNull EnvelopeSender first) {
+    batchableSenders.remove(first);
+
+    int items = first.getItemCount();
+    long bytes = first.getSize();
+    if (items <= 0 || bytes < 0) {
+      return Collections.singletonList(first);
+    }
+
+    List<EnvelopeSender> batch = null;
+    EnvelopeSender next;
+    while ((next = batchableSenders.peek()) != null) {
+      if (!next.isCompatibleWith(first)) {
+        break;
+      }
+      final int nextItems = next.getItemCount();
+      final long nextBytes = next.getSize();
+      if (nextBytes < 0
+          || items + nextItems > MAX_BATCH_ITEMS
+          || bytes + nextBytes > MAX_BATCH_BYTES) {
+        break;
+      }
+      batchableSenders.remove(next);
+      if (!next.claim()) {
+        // it's being sent already
+        continue;
+      }
+      if (batch == null) {
+        batch = new ArrayList<>();
+        batch.add(first);
+      }
+      batch.add(next);
+      items += nextItems;
+      bytes += nextBytes;
+    }
+
+    if (batch == null) {
+      return Collections.singletonList(first);
+    }
+    options
+        .getLogger()
+        .log(SentryLevel.DEBUG, "Sending %d envelopes in one request.", batch.size());
+    return batch;
   }
 
   @Override
@@ -169,6 +461,13 @@ public final class AsyncConnection implements Closeable, Connection {
                 "Failed to shutdown the async connection async sender within 1 minute. Trying to force it now.");
         executor.shutdownNow();
       }
+      if (spillover != null) {
+        spillover.close(options.getFlushTimeoutMillis());
+      }
+      if (writeBehind != null) {
+        // whatever is still being sent is cached before the transport is closed
+        writeBehind.close();
+      }
       transport.close();
     } catch (InterruptedException e) {
       // ok, just give up then...
@@ -190,82 +489,282 @@ public final class AsyncConnection implements Closeable, Connection {
     }
   }
 
-  private final class EnvelopeSender implements Runnable {
+  private final class EnvelopeSender implements QueuedThreadPoolExecutor.OrderedRunnable {
     private final @NotNull SentryEnvelope envelope;
     private final @Nullable Object hint;
     private final @NotNull IEnvelopeCache envelopeCache;
     private final TransportResult failedResult = TransportResult.error();
+    // read from the spillover, which keeps its file if it's rejected again
+    private final boolean replayed;
+
+    // set once the envelope is being sent or was rejected, accessed through CLAIMED
+    volatile int claimed;
 
     EnvelopeSender(
         final @NotNull SentryEnvelope envelope,
         final @Nullable Object hint,
-        final @NotNull IEnvelopeCache envelopeCache) {
+        final @NotNull IEnvelopeCache envelopeCache,
+        final boolean replayed) {
       this.envelope = Objects.requireNonNull(envelope, "Envelope is required.");
       this.hint = hint;
       this.envelopeCache = Objects.requireNonNull(envelopeCache, "EnvelopeCache is required.");
+      this.replayed = replayed;
+    }
+
+    /**
+     * Session updates have to reach Sentry in order, so envelopes with a session item are sent one
+     * after the other. The session id is only known after deserializing the item, hence all of them
+     * share the same key.
+     *
+     * @return the ordering key or null if the envelope can be sent in parallel
+     */
+    @Override
+    public @Nullable Object getOrderingKey() {
+      for (final SentryEnvelopeItem item : envelope.getItems()) {
+        if (SentryItemType.Session.equals(item.getHeader().getType())) {
+          return SentryItemType.Session;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Envelopes whose hint is acted on by the cache, like the ones starting or ending a session or
+     * sent while crashing, are stored right away. The ones already cached don't need to be.
+     *
+     * @return true if the envelope can be kept in memory while it's being sent
+     */
+    boolean canWriteBehind() {
+      return !(hint instanceof DiskFlushNotification)
+          && !(hint instanceof SessionStart)
+          && !(hint instanceof SessionEnd)
+          && !(envelopeCache instanceof NoOpEnvelopeCache);
+    }
+
+    /**
+     * Makes sure the envelope is sent or rejected only once, even if it's part of a batch.
+     *
+     * @return true if the caller is in charge of this envelope or false otherwise
+     */
+    boolean claim() {
+      return CLAIMED.compareAndSet(this, 0, 1);
+    }
+
+    int getItemCount() {
+      int count = 0;
+      for (final SentryEnvelopeItem ignored : envelope.getItems()) {
+        count++;
+      }
+      return count;
+    }
+
+    /**
+     * Returns the size of the item payloads
+     *
+     * @return the size in bytes or -1 if unknown
+     */
+    long getSize() {
+      long size = 0;
+      for (final SentryEnvelopeItem item : envelope.getItems()) {
+        final int length = item.getHeader().getLength();
+        if (length < 0) {
+          return -1;
+        }
+        size += length;
+      }
+      return size;
+    }
+
+    /**
+     * Envelopes captured by the same client share the cache and SdkVersion instances. Cached ones
+     * read from the disk don't, and are sent on their own.
+     *
+     * @param other the other sender
+     * @return true if both envelopes can be sent as one or false otherwise
+     */
+    boolean isCompatibleWith(final @NotNull EnvelopeSender other) {
+      return envelopeCache == other.envelopeCache
+          && envelope.getHeader().getSdkVersion() == other.envelope.getHeader().getSdkVersion();
     }
 
     @Override
     public void run() {
+      if (!claim()) {
+        options.getLogger().log(SentryLevel.DEBUG, "Envelope was already sent in a batch.");
+        return;
+      }
+
+      // ordered envelopes are sent one after the other, so they wait for their response
+      if (transport instanceof IAsyncTransport && getOrderingKey() == null) {
+        sendAsync((IAsyncTransport) transport);
+        return;
+      }
+
+      final List<EnvelopeSender> batch =
+          options.isEnableEnvelopeBatching() && isBatchable(envelope)
+              ? collectBatch(this)
+              : Collections.singletonList(this);
+
       TransportResult result = this.failedResult;
       try {
-        result = flush();
+        result = flush(batch);
         options.getLogger().log(SentryLevel.DEBUG, "Envelope flushed");
       } catch (Exception e) {
         options.getLogger().log(SentryLevel.ERROR, e, "Envelope submission failed");
         throw e;
       } finally {
-        if (hint instanceof SubmissionResult) {
+        complete(batch, result);
+      }
+    }
+
+    /**
+     * Hands the envelope to the transport without waiting for the response, the callback completes
+     * it like {@link #run()} does for the other transports.
+     *
+     * @param asyncTransport the transport
+     */
+    private void sendAsync(final @NotNull IAsyncTransport asyncTransport) {
+      final List<EnvelopeSender> batch = Collections.singletonList(this);
+      store(batch);
+
+      if (!transportGate.isConnected()) {
+        // If transportGate is blocking from sending, allowed to retry
+        markRetry(batch);
+        complete(batch, failedResult);
+        return;
+      }
+
+      asyncTransport.sendAsync(
+          envelope,
+          new IAsyncTransport.Callback() {
+            @Override
+            public void onResult(final @NotNull TransportResult result) {
+              onSent(batch, result);
+              options.getLogger().log(SentryLevel.DEBUG, "Envelope flushed");
+              complete(batch, result);
+            }
+
+            @Override
+            public void onFailure(final @NotNull Throwable error) {
+              options.getLogger().log(SentryLevel.ERROR, error, "Envelope submission failed");
+              // Failure due to IO is allowed to retry the event
+              if (error instanceof IOException) {
+                markRetry(batch);
+              }
+              complete(batch, failedResult);
+            }
+          });
+    }
+
+    private void complete(
+        final @NotNull List<EnvelopeSender> batch, final @NotNull TransportResult result) {
+      if (writeBehind != null) {
+        // cached before the hint is marked, as the ones not sent have to be retried
+        for (final EnvelopeSender sender : batch) {
+          writeBehind.complete(sender.envelope, result.isSuccess());
+        }
+      }
+      for (final EnvelopeSender sender : batch) {
+        if (sender.hint instanceof SubmissionResult) {
           options
               .getLogger()
               .log(SentryLevel.DEBUG, "Marking envelope submission result: %s", result.isSuccess());
-          ((SubmissionResult) hint).setResult(result.isSuccess());
+          ((SubmissionResult) sender.hint).setResult(result.isSuccess());
         }
       }
+      if (spillover != null) {
+        // there's room in the queue again
+        spillover.replay();
+      }
     }
 
-    private @NotNull TransportResult flush() {
+    private @NotNull TransportResult flush(final @NotNull List<EnvelopeSender> batch) {
       TransportResult result = this.failedResult;
 
-      envelopeCache.store(envelope, hint);
-
-      if (hint instanceof DiskFlushNotification) {
-        ((DiskFlushNotification) hint).markFlushed();
-        options.getLogger().log(SentryLevel.DEBUG, "Disk flush envelope fired");
-      }
+      store(batch);
 
       if (transportGate.isConnected()) {
         try {
-          result = transport.send(envelope);
-          if (result.isSuccess()) {
-            envelopeCache.discard(envelope);
-          } else {
-            final String message =
+          result = transport.send(merge(batch));
+          onSent(batch, result);
+          if (!result.isSuccess()) {
+            throw new IllegalStateException(
                 "The transport failed to send the envelope with response code "
-                    + result.getResponseCode();
-
-            options.getLogger().log(SentryLevel.ERROR, message);
-
-            throw new IllegalStateException(message);
+                    + result.getResponseCode());
           }
         } catch (IOException e) {
           // Failure due to IO is allowed to retry the event
-          if (hint instanceof Retryable) {
-            ((Retryable) hint).setRetry(true);
-          } else {
-            LogUtils.logIfNotRetryable(options.getLogger(), hint);
-          }
+          markRetry(batch);
           throw new IllegalStateException("Sending the event failed.", e);
         }
       } else {
         // If transportGate is blocking from sending, allowed to retry
-        if (hint instanceof Retryable) {
-          ((Retryable) hint).setRetry(true);
+        markRetry(batch);
+      }
+      return result;
+    }
+
+    private void store(final @NotNull List<EnvelopeSender> batch) {
+      for (final EnvelopeSender sender : batch) {
+        if (writeBehind != null) {
+          if (sender.canWriteBehind()) {
+            writeBehind.defer(sender.envelope, sender.envelopeCache);
+            continue;
+          }
+          if (sender.hint instanceof DiskFlushNotification) {
+            // the app is crashing, the envelopes still being sent are lost otherwise
+            writeBehind.persistAll();
+          }
+        }
+        sender.envelopeCache.store(sender.envelope, sender.hint);
+
+        if (sender.hint instanceof DiskFlushNotification) {
+          ((DiskFlushNotification) sender.hint).markFlushed();
+          options.getLogger().log(SentryLevel.DEBUG, "Disk flush envelope fired");
+        }
+      }
+    }
+
+    private void onSent(
+        final @NotNull List<EnvelopeSender> batch, final @NotNull TransportResult result) {
+      if (result.isSuccess()) {
+        for (final EnvelopeSender sender : batch) {
+          // deferred envelopes are discarded when they are completed, if they had to be cached
+          if (writeBehind == null || !writeBehind.isDeferred(sender.envelope)) {
+            sender.envelopeCache.discard(sender.envelope);
+          }
+        }
+      } else {
+        options
+            .getLogger()
+            .log(
+                SentryLevel.ERROR,
+                "The transport failed to send the envelope with response code %d",
+                result.getResponseCode());
+      }
+    }
+
+    private @NotNull SentryEnvelope merge(final @NotNull List<EnvelopeSender> batch) {
+      if (batch.size() == 1) {
+        return batch.get(0).envelope;
+      }
+      final List<SentryEnvelopeItem> items = new ArrayList<>();
+      for (final EnvelopeSender sender : batch) {
+        for (final SentryEnvelopeItem item : sender.envelope.getItems()) {
+          items.add(item);
+        }
+      }
+      return new SentryEnvelope(envelope.getHeader(), items);
+    }
+
+    private void markRetry(final @NotNull List<EnvelopeSender> batch) {
+      for (final EnvelopeSender sender : batch) {
+        if (sender.hint instanceof Retryable) {
+          ((Retryable) sender.hint).setRetry(true);
         } else {
-          LogUtils.logIfNotRetryable(options.getLogger(), hint);
+          LogUtils.logIfNotRetryable(options.getLogger(), sender.hint);
         }
       }
-      return result;
     }
   }
 }
@@ -0,0 +1,140 @@
+package io.sentry.transport;
+
+import io.sentry.SentryItemType;
+import io.sentry.SentryLevel;
+import io.sentry.SentryOptions;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Limits how many items of each data category are sent to Sentry with a token bucket per category,
+ * so items over the limit are dropped before being serialized instead of after Sentry answers with
+ * a 429.
+ */
+final class ClientRateLimiter {
+
+  /** Only the categories an envelope item maps to can be limited */
+  private static final DataCategory[] LIMITABLE_CATEGORIES = {
+    DataCategory.Error, DataCategory.Session, DataCategory.Attachment, DataCategory.Transaction
+  };
+
+  // not modified after the constructor, so it's safe to read from any thread
+  private final @NotNull Map<DataCategory, TokenBucket> buckets = new EnumMap<>(DataCategory.class);
+  private final @NotNull Map<DataCategory, AtomicLong> limitedCounts =
+      new EnumMap<>(DataCategory.class);
+  private final @NotNull ICurrentDateProvider currentDateProvider;
+
+  ClientRateLimiter(
+      final @NotNull SentryOptions options,
+      final @NotNull ICurrentDateProvider currentDateProvider) {
+    this.currentDateProvider = currentDateProvider;
+
+    final long now = currentDateProvider.getCurrentTimeMillis();
+    for (final Map.Entry<String, SentryOptions.ClientRateLimit> entry :
+        options.getClientRateLimits().entrySet()) {
+      final DataCategory dataCategory = DataCategory.fromCategory(entry.getKey());
+      if (!isLimitable(dataCategory)) {
+        options
+            .getLogger()
+            .log(
+                SentryLevel.WARNING,
+                "Client rate limit for category %s is ignored, only error, session, attachment and transaction can be limited.",
+                entry.getKey());
+        continue;
+      }
+      final SentryOptions.ClientRateLimit limit = entry.getValue();
+      buckets.put(
+          dataCategory, new TokenBucket(limit.getItemsPerSecond(), limit.getBurst(), now));
+      limitedCounts.put(dataCategory, new AtomicLong());
+    }
+  }
+
+  private static boolean isLimitable(final DataCategory dataCategory) {
+    for (final DataCategory limitable : LIMITABLE_CATEGORIES) {
+      if (limitable == dataCategory) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Takes a token for an item of the given type, if its category is limited
+   *
+   * @param itemType the itemType
+   * @return true if the item can be sent or false if it's over the limit
+   */
+  boolean tryAcquire(final @NotNull SentryItemType itemType) {
+    if (buckets.isEmpty()) {
+      return true;
+    }
+    final DataCategory dataCategory = DataCategory.fromItemType(itemType);
+    final TokenBucket bucket = buckets.get(dataCategory);
+    if (bucket == null || bucket.tryAcquire(currentDateProvider.getCurrentTimeMillis())) {
+      return true;
+    }
+    final AtomicLong limitedCount = limitedCounts.get(dataCategory);
+    if (limitedCount != null) {
+      limitedCount.incrementAndGet();
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of items dropped because their category was over the limit
+   *
+   * @param category the category (eg error, session, attachment or transaction)
+   * @return the number of dropped items
+   */
+  long getLimitedCount(final @NotNull String category) {
+    final DataCategory dataCategory = DataCategory.fromCategory(category);
+    final AtomicLong limitedCount = dataCategory == null ? null : limitedCounts.get(dataCategory);
+    return limitedCount == null ? 0 : limitedCount.get();
+  }
+
+  /**
+   * Returns the number of items dropped because their category was over the limit
+   *
+   * @return the number of dropped items of all categories
+   */
+  long getLimitedCount() {
+    long count = 0;
+    for (final AtomicLong limitedCount : limitedCounts.values()) {
+      count += limitedCount.get();
+    }
+    return count;
+  }
+
+  /**
+   * Holds up to burst tokens and refills itemsPerSecond of them every second. Taking a token is a
+   * few arithmetic operations, so the lock is held very briefly.
+   */
+  static final class TokenBucket {
+    private final double tokensPerMillis;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillMillis;
+
+    TokenBucket(final double itemsPerSecond, final int burst, final long nowMillis) {
+      this.tokensPerMillis = itemsPerSecond / 1000d;
+      this.capacity = burst;
+      this.tokens = burst;
+      this.lastRefillMillis = nowMillis;
+    }
+
+    synchronized boolean tryAcquire(final long nowMillis) {
+      // the wall clock may go backwards, that doesn't take tokens away
+      if (nowMillis > lastRefillMillis) {
+        tokens = Math.min(capacity, tokens + (nowMillis - lastRefillMillis) * tokensPerMillis);
+        lastRefillMillis = nowMillis;
+      }
+      if (tokens >= 1) {
+        tokens--;
+        return true;
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package io.sentry.transport;
+
+import io.sentry.SentryItemType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/** The rate limiting categories of Sentry, eg the categories of the X-Sentry-Rate-Limits header */
+enum DataCategory {
+  All("__all__"),
+  Default("default"), // same as Error
+  Error("error"),
+  Session("session"),
+  Attachment("attachment"),
+  Transaction("transaction"),
+  Security("security"),
+  Unknown("unknown");
+
+  private static final DataCategory[] VALUES = values();
+
+  // the category of each SentryItemType, indexed by its ordinal
+  private static final DataCategory[] BY_ITEM_TYPE =
+      new DataCategory[SentryItemType.values().length];
+
+  static {
+    for (final SentryItemType itemType : SentryItemType.values()) {
+      BY_ITEM_TYPE[itemType.ordinal()] = fromItemType(itemType.getItemType());
+    }
+  }
+
+  private final String category;
+
+  DataCategory(final @NotNull String category) {
+    this.category = category;
+  }
+
+  public String getCategory() {
+    return category;
+  }
+
+  /**
+   * Returns a rate limiting category from item itemType
+   *
+   * @param itemType the item itemType (eg event, session, attachment, ...)
+   * @return the DataCategory eg (DataCategory.Error, DataCategory.Session, DataCategory.Attachment)
+   */
+  static @NotNull DataCategory fromItemType(final @NotNull String itemType) {
+    switch (itemType) {
+      case "event":
+        return Error;
+      case "session":
+        return Session;
+      case "attachment":
+        return Attachment;
+      case "transaction":
+        return Transaction;
+      default:
+        return Unknown;
+    }
+  }
+
+  /**
+   * Returns a rate limiting category from item itemType, without comparing strings
+   *
+   * @param itemType the item itemType
+   * @return the DataCategory eg (DataCategory.Error, DataCategory.Session, DataCategory.Attachment)
+   */
+  static @NotNull DataCategory fromItemType(final @NotNull SentryItemType itemType) {
+    return BY_ITEM_TYPE[itemType.ordinal()];
+  }
+
+  /**
+   * Returns the DataCategory whose name matches a region of a string, ignoring the case
+   *
+   * @param str the string, eg a X-Sentry-Rate-Limits header
+   * @param start the start of the region
+   * @param end the end of the region, exclusive
+   * @return the DataCategory or null if unknown
+   */
+  static @Nullable DataCategory fromName(
+      final @NotNull String str, final int start, final int end) {
+    final int length = end - start;
+    for (final DataCategory dataCategory : VALUES) {
+      final String name = dataCategory.name();
+      if (name.length() == length && str.regionMatches(true, start, name, 0, length)) {
+        return dataCategory;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the DataCategory of a category name
+   *
+   * @param category the category (eg error, session, attachment, ...)
+   * @return the DataCategory or null if unknown
+   */
+  static @Nullable DataCategory fromCategory(final @NotNull String category) {
+    for (final DataCategory dataCategory : VALUES) {
+      if (dataCategory.category.equals(category)) {
+        return dataCategory;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,300 @@
+package io.sentry.transport;
+
+import static io.sentry.SentryLevel.DEBUG;
+import static io.sentry.SentryLevel.ERROR;
+import static io.sentry.SentryLevel.WARNING;
+
+import io.sentry.SentryEnvelope;
+import io.sentry.SentryEnvelopeItem;
+import io.sentry.SentryOptions;
+import io.sentry.util.Objects;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Holds the envelopes that don't fit in the queue of {@link AsyncConnection} on the disk, and hands
+ * them back once there's room again.
+ *
+ * <p>Envelopes are written by a single background thread, which has at most maxQueueSize envelopes
+ * waiting to be written. The files take at most maxSpilloverSize bytes, envelopes that don't fit
+ * are dropped. Files left over by a previous run are replayed as well.
+ *
+ * <p>This class is not public because it is used solely in {@link AsyncConnection}.
+ */
+final class EnvelopeSpillover {
+  static final String SUFFIX_SPILLED_FILE = ".envelope";
+
+  private final @NotNull SentryOptions options;
+  private final @NotNull File directory;
+  private final long maxSize;
+  private final @NotNull QueuedThreadPoolExecutor writer;
+  private final @NotNull ReplayTarget target;
+
+  // only accessed by the writer thread
+  private final @NotNull Deque<File> files = new ArrayDeque<>();
+  private long size;
+
+  private final @NotNull AtomicInteger pendingFiles = new AtomicInteger();
+  private final @NotNull AtomicBoolean replayScheduled = new AtomicBoolean();
+
+  private final @NotNull AtomicLong spilledEnvelopes = new AtomicLong();
+  private final @NotNull AtomicLong replayedEnvelopes = new AtomicLong();
+  private final @NotNull AtomicLong droppedEnvelopes = new AtomicLong();
+
+  /**
+   * Creates the spillover and starts its thread, which replays the files left over right away.
+   *
+   * @param options the SentryOptions
+   * @param directoryPath the directory the envelopes are written to
+   * @param target takes the replayed envelopes
+   */
+  EnvelopeSpillover(
+      final @NotNull SentryOptions options,
+      final @NotNull String directoryPath,
+      final @NotNull ReplayTarget target) {
+    this.options = Objects.requireNonNull(options, "SentryOptions is required.");
+    this.directory = new File(Objects.requireNonNull(directoryPath, "Directory is required."));
+    this.target = Objects.requireNonNull(target, "ReplayTarget is required.");
+    this.maxSize = options.getMaxSpilloverSize();
+    this.writer =
+        new QueuedThreadPoolExecutor(
+            1,
+            options.getMaxQueueSize(),
+            new SpilloverThreadFactory(),
+            (r, executor) -> options.getLogger().log(WARNING, "Spillover task rejected."),
+            options.getLogger());
+
+    submit(this::loadFiles);
+  }
+
+  /**
+   * Queues the envelope to be written to the disk
+   *
+   * @param envelope the envelope
+   * @return true if it's going to be written or false if it was dropped
+   */
+  boolean spill(final @NotNull SentryEnvelope envelope) {
+    if (submit(() -> write(envelope))) {
+      return true;
+    }
+    droppedEnvelopes.incrementAndGet();
+    options.getLogger().log(WARNING, "Spillover writer is full, envelope dropped.");
+    return false;
+  }
+
+  /**
+   * Hands the spilled envelopes, oldest first, to the target on the background thread until it
+   * doesn't take any more. Does nothing if there's nothing spilled or it's scheduled already.
+   */
+  void replay() {
+    if (pendingFiles.get() > 0 && replayScheduled.compareAndSet(false, true)) {
+      if (!submit(this::replayFiles)) {
+        replayScheduled.set(false);
+      }
+    }
+  }
+
+  private boolean submit(final @NotNull Runnable task) {
+    return !writer.isShutdown() && !writer.submit(task).isCancelled();
+  }
+
+  private void loadFiles() {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      options
+          .getLogger()
+          .log(ERROR, "The directory for spilled files is inaccessible.: %s", directory);
+      return;
+    }
+    final File[] leftovers =
+        directory.listFiles((__, fileName) -> fileName.endsWith(SUFFIX_SPILLED_FILE));
+    if (leftovers == null || leftovers.length == 0) {
+      return;
+    }
+    Arrays.sort(leftovers, (f1, f2) -> Long.compare(f1.lastModified(), f2.lastModified()));
+    for (final File file : leftovers) {
+      addFile(file);
+    }
+    options.getLogger().log(DEBUG, "%d spilled envelopes left over.", leftovers.length);
+    replayFiles();
+  }
+
+  private void write(final @NotNull SentryEnvelope envelope) {
+    // the payloads alone tell most envelopes that don't fit, before anything is written
+    if (size + payloadLength(envelope) > maxSize) {
+      options.getLogger().log(WARNING, "Spillover folder is full, envelope dropped.");
+      droppedEnvelopes.incrementAndGet();
+      return;
+    }
+
+    final File file = new File(directory, UUID.randomUUID() + SUFFIX_SPILLED_FILE);
+    try (final OutputStream outputStream = new FileOutputStream(file)) {
+      options.getSerializer().serialize(envelope, outputStream);
+    } catch (Exception e) {
+      options.getLogger().log(ERROR, e, "Failed to spill the envelope to the disk.");
+      delete(file);
+      droppedEnvelopes.incrementAndGet();
+      return;
+    }
+
+    if (size + file.length() > maxSize) {
+      options.getLogger().log(WARNING, "Spillover folder is full, envelope dropped.");
+      delete(file);
+      droppedEnvelopes.incrementAndGet();
+      return;
+    }
+    addFile(file);
+    spilledEnvelopes.incrementAndGet();
+  }
+
+  /**
+   * Returns the length of the payloads announced by the item headers, which is a bit less than the
+   * size of the file the envelope is written to
+   *
+   * @param envelope the envelope
+   * @return the length of the payloads
+   */
+  private static long payloadLength(final @NotNull SentryEnvelope envelope) {
+    long length = 0;
+    for (final SentryEnvelopeItem item : envelope.getItems()) {
+      // -1 if it can't be computed, the item is dropped when written then
+      length += Math.max(0, item.getHeader().getLength());
+    }
+    return length;
+  }
+
+  private void replayFiles() {
+    // triggers coming in from now on schedule another run
+    replayScheduled.set(false);
+
+    File file;
+    while ((file = files.peek()) != null) {
+      final SentryEnvelope envelope = read(file);
+      if (envelope != null && !target.offer(envelope)) {
+        // no room left, the file is kept for the next run
+        return;
+      }
+      files.poll();
+      size -= file.length();
+      pendingFiles.decrementAndGet();
+      delete(file);
+      if (envelope != null) {
+        replayedEnvelopes.incrementAndGet();
+      } else {
+        droppedEnvelopes.incrementAndGet();
+      }
+    }
+  }
+
+  private @Nullable SentryEnvelope read(final @NotNull File file) {
+    try (final FileInputStream inputStream = new FileInputStream(file)) {
+      return options.getEnvelopeReader().readChannel(inputStream.getChannel());
+    } catch (IOException | IllegalArgumentException e) {
+      options.getLogger().log(ERROR, e, "Failed to read the spilled envelope.");
+    }
+    return null;
+  }
+
+  private void addFile(final @NotNull File file) {
+    files.add(file);
+    size += file.length();
+    pendingFiles.incrementAndGet();
+  }
+
+  private void delete(final @NotNull File file) {
+    if (file.exists() && !file.delete()) {
+      options.getLogger().log(WARNING, "File can't be deleted: %s", file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Returns the number of envelopes written to the disk since this spillover was created.
+   *
+   * @return the number of spilled envelopes
+   */
+  long getSpilledCount() {
+    return spilledEnvelopes.get();
+  }
+
+  /**
+   * Returns the number of spilled envelopes handed back to the connection.
+   *
+   * @return the number of replayed envelopes
+   */
+  long getReplayedCount() {
+    return replayedEnvelopes.get();
+  }
+
+  /**
+   * Returns the number of envelopes that couldn't be spilled or replayed, because the writer or the
+   * disk space was full or the file couldn't be written or read.
+   *
+   * @return the number of dropped envelopes
+   */
+  long getDroppedCount() {
+    return droppedEnvelopes.get();
+  }
+
+  /**
+   * Returns the number of spilled envelopes waiting to be replayed.
+   *
+   * @return the number of spilled files
+   */
+  int getPendingCount() {
+    return pendingFiles.get();
+  }
+
+  /**
+   * Writes what's queued already and stops the background thread. Spilled files are kept and
+   * replayed by the next run.
+   *
+   * @param timeoutMillis how long to wait for pending writes
+   */
+  void close(final long timeoutMillis) {
+    writer.shutdown();
+    try {
+      if (!writer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        options
+            .getLogger()
+            .log(WARNING, "Failed to write the spilled envelopes within %d ms.", timeoutMillis);
+        writer.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      options.getLogger().log(DEBUG, "Thread interrupted while closing the spillover.");
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Takes the replayed envelopes. */
+  interface ReplayTarget {
+    /**
+     * Called on the background thread for each spilled envelope, oldest first.
+     *
+     * @param envelope the envelope
+     * @return true if it was taken or false if there's no room for it
+     */
+    boolean offer(@NotNull SentryEnvelope envelope);
+  }
+
+  private static final class SpilloverThreadFactory implements ThreadFactory {
+    @Override
+    public @NotNull Thread newThread(final @NotNull Runnable r) {
+      final Thread ret = new Thread(r, "SentrySpilloverWriter");
+      ret.setDaemon(true);
+      return ret;
+    }
+  }
+}
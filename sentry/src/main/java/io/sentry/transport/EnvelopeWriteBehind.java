@@ -0,0 +1,305 @@
+package io.sentry.transport;
+
+import static io.sentry.SentryLevel.DEBUG;
+import static io.sentry.SentryLevel.ERROR;
+
+import io.sentry.SentryEnvelope;
+import io.sentry.SentryOptions;
+import io.sentry.cache.IEnvelopeCache;
+import io.sentry.util.Objects;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Keeps the envelopes being sent by {@link AsyncConnection} in memory instead of storing them in
+ * the cache right away. An envelope is only stored if its send takes longer than
+ * writeBehindDelayMillis, fails, or if the process is about to go away, so a healthy network costs
+ * neither a write nor a delete per envelope.
+ *
+ * <p>The envelopes that are due at the same time are stored as one group with {@link
+ * IEnvelopeCache#storeAll(List)}, so caches that sync the disk do it once per group. The cache is
+ * written to without holding the lock the sender threads take, so they don't wait for the disk.
+ *
+ * <p>This class is not public because it is used solely in {@link AsyncConnection}.
+ */
+final class EnvelopeWriteBehind {
+
+  private final @NotNull SentryOptions options;
+  private final long delayMillis;
+  private final @NotNull ScheduledExecutorService scheduler;
+
+  // in the order they were deferred, so the ones due are at the head, guarded by this
+  private final @NotNull Map<SentryEnvelope, Pending> pending = new LinkedHashMap<>();
+  private boolean persistScheduled;
+  private long persistedCount;
+
+  // held while storing a group, so persistAll waits for the one being stored by the scheduler
+  private final @NotNull Object persistLock = new Object();
+
+  EnvelopeWriteBehind(final @NotNull SentryOptions options) {
+    this(options, Executors.newSingleThreadScheduledExecutor(new WriteBehindThreadFactory()));
+  }
+
+  @TestOnly
+  EnvelopeWriteBehind(
+      final @NotNull SentryOptions options, final @NotNull ScheduledExecutorService scheduler) {
+    this.options = Objects.requireNonNull(options, "SentryOptions is required.");
+    this.scheduler = Objects.requireNonNull(scheduler, "Scheduler is required.");
+    this.delayMillis = options.getWriteBehindDelayMillis();
+  }
+
+  /**
+   * Holds the envelope in memory while it's being sent, it's stored in the cache if it's not
+   * completed within the delay.
+   *
+   * @param envelope the envelope
+   * @param envelopeCache the cache it's stored in if needed
+   */
+  synchronized void defer(
+      final @NotNull SentryEnvelope envelope, final @NotNull IEnvelopeCache envelopeCache) {
+    pending.put(
+        envelope, new Pending(envelope, envelopeCache, System.currentTimeMillis() + delayMillis));
+    schedulePersist(delayMillis);
+  }
+
+  /**
+   * Returns if the envelope is held here, the cache isn't in charge of it then
+   *
+   * @param envelope the envelope
+   * @return true if it was deferred and isn't completed yet
+   */
+  synchronized boolean isDeferred(final @NotNull SentryEnvelope envelope) {
+    return pending.containsKey(envelope);
+  }
+
+  /**
+   * Completes a deferred envelope. A sent one is discarded from the cache if it had to be stored,
+   * one that wasn't sent is stored now so it's retried later.
+   *
+   * @param envelope the envelope
+   * @param success if it was sent
+   */
+  void complete(final @NotNull SentryEnvelope envelope, final boolean success) {
+    final Pending entry;
+    synchronized (this) {
+      entry = pending.remove(envelope);
+      if (entry == null) {
+        return;
+      }
+      if (entry.storing) {
+        // it's discarded once stored, if it was sent
+        entry.completed = true;
+        entry.sent = success;
+        return;
+      }
+      if (!success && !entry.persisted) {
+        persistedCount++;
+      }
+    }
+    if (success) {
+      if (entry.persisted) {
+        entry.envelopeCache.discard(envelope);
+      }
+    } else if (!entry.persisted) {
+      entry.envelopeCache.store(envelope);
+    }
+  }
+
+  /**
+   * Stores every envelope that's still held in memory, used when the process is about to go away.
+   */
+  void persistAll() {
+    persist(Long.MAX_VALUE);
+  }
+
+  /**
+   * Stores the envelopes due by the given time, grouped by cache. They are taken under the lock,
+   * but stored after releasing it. The envelopes of a group that fails to be stored are held again,
+   * so they're retried, unless they were completed meanwhile.
+   *
+   * @param now the time the envelopes have to be due by
+   * @return true if every group due was stored
+   */
+  private boolean persist(final long now) {
+    synchronized (persistLock) {
+      final Map<IEnvelopeCache, List<Pending>> groups = takeDue(now);
+      if (groups == null) {
+        return true;
+      }
+
+      final List<Pending> stored = new ArrayList<>();
+      final List<Pending> failed = new ArrayList<>();
+      for (final Map.Entry<IEnvelopeCache, List<Pending>> group : groups.entrySet()) {
+        final List<SentryEnvelope> envelopes = new ArrayList<>(group.getValue().size());
+        for (final Pending entry : group.getValue()) {
+          envelopes.add(entry.envelope);
+        }
+        try {
+          group.getKey().storeAll(envelopes);
+          stored.addAll(group.getValue());
+          options
+              .getLogger()
+              .log(DEBUG, "%d envelopes still being sent were cached.", envelopes.size());
+        } catch (Exception e) {
+          failed.addAll(group.getValue());
+          options.getLogger().log(ERROR, e, "Failed to cache the envelopes still being sent.");
+        }
+      }
+
+      final List<Pending> sentMeanwhile = new ArrayList<>();
+      final List<Pending> failedMeanwhile = new ArrayList<>();
+      synchronized (this) {
+        persistedCount += stored.size();
+        for (final Pending entry : stored) {
+          entry.storing = false;
+          if (entry.completed && entry.sent) {
+            sentMeanwhile.add(entry);
+          }
+        }
+        for (final Pending entry : failed) {
+          entry.storing = false;
+          entry.persisted = false;
+          if (entry.completed && !entry.sent) {
+            // complete left it to be stored here, it's stored alone instead
+            persistedCount++;
+            failedMeanwhile.add(entry);
+          }
+        }
+      }
+      for (final Pending entry : sentMeanwhile) {
+        entry.envelopeCache.discard(entry.envelope);
+      }
+      for (final Pending entry : failedMeanwhile) {
+        entry.envelopeCache.store(entry.envelope);
+      }
+      return failed.isEmpty();
+    }
+  }
+
+  /**
+   * Marks the envelopes due by the given time as persisted and groups them by cache
+   *
+   * @param now the time the envelopes have to be due by
+   * @return the groups or null if none is due
+   */
+  private synchronized @Nullable Map<IEnvelopeCache, List<Pending>> takeDue(final long now) {
+    Map<IEnvelopeCache, List<Pending>> groups = null;
+    for (final Pending value : pending.values()) {
+      if (value.dueAt > now) {
+        break;
+      }
+      if (value.persisted) {
+        continue;
+      }
+      value.persisted = true;
+      value.storing = true;
+      if (groups == null) {
+        groups = new HashMap<>();
+      }
+      List<Pending> group = groups.get(value.envelopeCache);
+      if (group == null) {
+        group = new ArrayList<>();
+        groups.put(value.envelopeCache, group);
+      }
+      group.add(value);
+    }
+    return groups;
+  }
+
+  private void persistDue() {
+    synchronized (this) {
+      persistScheduled = false;
+    }
+    // if the cache failed, it's not retried before another delay went by
+    final long minDelay = persist(System.currentTimeMillis()) ? 0 : delayMillis;
+
+    synchronized (this) {
+      // the next one to be due, if any
+      final Iterator<Pending> iterator = pending.values().iterator();
+      while (iterator.hasNext()) {
+        final Pending next = iterator.next();
+        if (!next.persisted) {
+          schedulePersist(Math.max(minDelay, next.dueAt - System.currentTimeMillis()));
+          break;
+        }
+      }
+    }
+  }
+
+  /** Guarded by this. */
+  @SuppressWarnings("FutureReturnValueIgnored")
+  private void schedulePersist(final long delay) {
+    if (persistScheduled) {
+      return;
+    }
+    try {
+      scheduler.schedule(this::persistDue, delay, TimeUnit.MILLISECONDS);
+      persistScheduled = true;
+    } catch (RejectedExecutionException e) {
+      options.getLogger().log(DEBUG, "Write behind is closed, the envelope isn't cached.");
+    }
+  }
+
+  /**
+   * Returns the number of deferred envelopes that had to be stored
+   *
+   * @return the number of persisted envelopes
+   */
+  synchronized long getPersistedCount() {
+    return persistedCount;
+  }
+
+  @TestOnly
+  synchronized int getPendingCount() {
+    return pending.size();
+  }
+
+  /** Stores what's still held in memory and stops the background thread. */
+  void close() {
+    persistAll();
+    scheduler.shutdownNow();
+  }
+
+  /** An envelope being sent, guarded by the EnvelopeWriteBehind. */
+  private static final class Pending {
+    private final @NotNull SentryEnvelope envelope;
+    private final @NotNull IEnvelopeCache envelopeCache;
+    private final long dueAt;
+    private boolean persisted;
+    // taken to be stored, but not stored yet
+    private boolean storing;
+    // completed while it was being stored
+    private boolean completed;
+    private boolean sent;
+
+    Pending(
+        final @NotNull SentryEnvelope envelope,
+        final @NotNull IEnvelopeCache envelopeCache,
+        final long dueAt) {
+      this.envelope = envelope;
+      this.envelopeCache = envelopeCache;
+      this.dueAt = dueAt;
+    }
+  }
+
+  private static final class WriteBehindThreadFactory implements ThreadFactory {
+    @Override
+    public @NotNull Thread newThread(final @NotNull Runnable r) {
+      final Thread ret = new Thread(r, "SentryWriteBehind");
+      ret.setDaemon(true);
+      return ret;
+    }
+  }
+}
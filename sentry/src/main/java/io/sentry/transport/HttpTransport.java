@@ -2,16 +2,15 @@ package io.sentry.transport;
 
 import static io.sentry.SentryLevel.DEBUG;
 import static io.sentry.SentryLevel.ERROR;
-import static io.sentry.SentryLevel.INFO;
 import static java.net.HttpURLConnection.HTTP_OK;
 
 import com.jakewharton.nopen.annotation.Open;
 import io.sentry.ILogger;
 import io.sentry.ISerializer;
 import io.sentry.SentryEnvelope;
+import io.sentry.SentryItemType;
 import io.sentry.SentryOptions;
 import io.sentry.util.Objects;
-import io.sentry.util.StringUtils;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,9 +24,6 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.nio.charset.Charset;
-import java.util.Date;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPOutputStream;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -46,27 +42,6 @@ import org.jetbrains.annotations.TestOnly;
 @ApiStatus.Internal
 public class HttpTransport implements ITransport {
 
-  private enum DataCategory {
-    All("__all__"),
-    Default("default"), // same as Error
-    Error("error"),
-    Session("session"),
-    Attachment("attachment"),
-    Transaction("transaction"),
-    Security("security"),
-    Unknown("unknown");
-
-    private final String category;
-
-    DataCategory(final @NotNull String category) {
-      this.category = category;
-    }
-
-    public String getCategory() {
-      return category;
-    }
-  }
-
   @SuppressWarnings("CharsetObjectCanBeUsed")
   private static final Charset UTF_8 = Charset.forName("UTF-8");
 
@@ -81,14 +56,12 @@ public class HttpTransport implements ITransport {
 
   private final @NotNull SentryOptions options;
 
-  private final @NotNull Map<DataCategory, Date> sentryRetryAfterLimit = new ConcurrentHashMap<>();
-
-  private static final int HTTP_RETRY_AFTER_DEFAULT_DELAY_MILLIS = 60000;
-
-  private final @NotNull ICurrentDateProvider currentDateProvider;
+  private final @NotNull RateLimiter rateLimiter;
 
   private final @NotNull ILogger logger;
 
+  private final @Nullable KeepAliveConnectionPool connectionPool;
+
   /**
    * Constructs a new HTTP transport instance. Notably, the provided {@code requestUpdater} must set
    * the appropriate content encoding header for the {@link io.sentry.ISerializer} instance obtained
@@ -140,9 +113,13 @@ public class HttpTransport implements ITransport {
     this.options = options;
     this.sslSocketFactory = sslSocketFactory;
     this.hostnameVerifier = hostnameVerifier;
-    this.currentDateProvider =
-        Objects.requireNonNull(currentDateProvider, "CurrentDateProvider is required.");
     this.logger = Objects.requireNonNull(options.getLogger(), "Logger is required.");
+    this.rateLimiter = new RateLimiter(currentDateProvider, logger);
+    this.connectionPool =
+        options.isEnableKeepAlive()
+            ? new KeepAliveConnectionPool(
+                options.getConnectionPoolSize(), sslSocketFactory, options.getLogger())
+            : null;
 
     try {
       final URI uri = sentryUrl.toURI();
@@ -196,53 +173,20 @@ public class HttpTransport implements ITransport {
    * @param itemType the itemType (eg event, session, etc...)
    * @return true if retry after or false otherwise
    */
-  @SuppressWarnings("JdkObsolete")
   @Override
   public boolean isRetryAfter(final @NotNull String itemType) {
-    final DataCategory dataCategory = getCategoryFromItemType(itemType);
-    final Date currentDate = new Date(currentDateProvider.getCurrentTimeMillis());
-
-    // check all categories
-    final Date dateAllCategories = sentryRetryAfterLimit.get(DataCategory.All);
-    if (dateAllCategories != null) {
-      if (!currentDate.after(dateAllCategories)) {
-        return true;
-      }
-    }
-
-    // Unknown should not be rate limited
-    if (DataCategory.Unknown.equals(dataCategory)) {
-      return false;
-    }
-
-    // check for specific dataCategory
-    final Date dateCategory = sentryRetryAfterLimit.get(dataCategory);
-    if (dateCategory != null) {
-      return !currentDate.after(dateCategory);
-    }
-
-    return false;
+    return rateLimiter.isRetryAfter(itemType);
   }
 
   /**
-   * Returns a rate limiting category from item itemType
+   * Check if an itemType is retry after or not. It doesn't allocate anything.
    *
-   * @param itemType the item itemType (eg event, session, attachment, ...)
-   * @return the DataCategory eg (DataCategory.Error, DataCategory.Session, DataCategory.Attachment)
+   * @param itemType the itemType
+   * @return true if retry after or false otherwise
    */
-  private @NotNull DataCategory getCategoryFromItemType(final @NotNull String itemType) {
-    switch (itemType) {
-      case "event":
-        return DataCategory.Error;
-      case "session":
-        return DataCategory.Session;
-      case "attachment":
-        return DataCategory.Attachment;
-      case "transaction":
-        return DataCategory.Transaction;
-      default:
-        return DataCategory.Unknown;
-    }
+  @Override
+  public boolean isRetryAfter(final @NotNull SentryItemType itemType) {
+    return rateLimiter.isRetryAfter(itemType);
   }
 
   /**
@@ -262,8 +206,10 @@ public class HttpTransport implements ITransport {
     connection.setRequestProperty("Content-Type", "application/x-sentry-envelope");
     connection.setRequestProperty("Accept", "application/json");
 
-    // https://stackoverflow.com/questions/52726909/java-io-ioexception-unexpected-end-of-stream-on-connection/53089882
-    connection.setRequestProperty("Connection", "close");
+    if (connectionPool == null) {
+      // https://stackoverflow.com/questions/52726909/java-io-ioexception-unexpected-end-of-stream-on-connection/53089882
+      connection.setRequestProperty("Connection", "close");
+    }
 
     connection.setConnectTimeout(connectionTimeout);
     connection.setReadTimeout(readTimeout);
@@ -271,7 +217,10 @@ public class HttpTransport implements ITransport {
     if (connection instanceof HttpsURLConnection && hostnameVerifier != null) {
       ((HttpsURLConnection) connection).setHostnameVerifier(hostnameVerifier);
     }
-    if (connection instanceof HttpsURLConnection && sslSocketFactory != null) {
+    if (connection instanceof HttpsURLConnection && connectionPool != null) {
+      // the pool wraps the given sslSocketFactory, if any
+      ((HttpsURLConnection) connection).setSSLSocketFactory(connectionPool.getSslSocketFactory());
+    } else if (connection instanceof HttpsURLConnection && sslSocketFactory != null) {
       ((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
     }
 
@@ -281,19 +230,41 @@ public class HttpTransport implements ITransport {
 
   @Override
   public @NotNull TransportResult send(final @NotNull SentryEnvelope envelope) throws IOException {
+    if (connectionPool == null) {
+      return sendOverConnection(envelope);
+    }
+
+    connectionPool.acquire(connectionTimeout);
+    try {
+      return sendOverConnection(envelope);
+    } finally {
+      connectionPool.release();
+      connectionPool.logStatistics();
+    }
+  }
+
+  private @NotNull TransportResult sendOverConnection(final @NotNull SentryEnvelope envelope)
+      throws IOException {
     final HttpURLConnection connection = createConnection();
-    TransportResult result;
 
-    try (final OutputStream outputStream = connection.getOutputStream();
-        final GZIPOutputStream gzip = new GZIPOutputStream(outputStream)) {
-      serializer.serialize(envelope, gzip);
+    final byte[] compressedBytes = envelope.getCompressedBytes();
+    try (final OutputStream outputStream = connection.getOutputStream()) {
+      if (compressedBytes != null) {
+        // read gzipped from the cache, it's sent as is
+        outputStream.write(compressedBytes);
+      } else {
+        try (final GZIPOutputStream gzip = new GZIPOutputStream(outputStream)) {
+          serializer.serialize(envelope, gzip);
+        }
+      }
     } catch (Exception e) {
       logger.log(
           ERROR, e, "An exception occurred while submitting the envelope to the Sentry server.");
-    } finally {
-      result = readAndLog(connection);
+      // the body is only sent once the response is read, a partial envelope is never sent
+      connection.disconnect();
+      return TransportResult.error();
     }
-    return result;
+    return readAndLog(connection);
   }
 
   /**
@@ -331,11 +302,24 @@ public class HttpTransport implements ITransport {
   }
 
   /**
-   * Closes the Response stream and disconnect the connection
+   * Closes the Response stream and disconnect the connection. If keep-alive is enabled, the
+   * response is drained instead and the connection is left open for the next request.
    *
    * @param connection the HttpURLConnection
    */
   private void closeAndDisconnect(final @NotNull HttpURLConnection connection) {
+    if (connectionPool != null) {
+      InputStream responseStream;
+      try {
+        responseStream = connection.getInputStream();
+      } catch (IOException e) {
+        // the body of an error response can only be read through the error stream
+        responseStream = connection.getErrorStream();
+      }
+      connectionPool.drainAndClose(responseStream);
+      return;
+    }
+
     try {
       connection.getInputStream().close();
     } catch (IOException ignored) {
@@ -363,106 +347,7 @@ public class HttpTransport implements ITransport {
     // a real example: 50:transaction:key, 2700:default;error;security:organization
     // 50::key is also a valid case, it means no categories and it should apply to all of them
     final String sentryRateLimitHeader = connection.getHeaderField("X-Sentry-Rate-Limits");
-    updateRetryAfterLimits(sentryRateLimitHeader, retryAfterHeader, responseCode);
-  }
-
-  /**
-   * Reads and update the rate limit Dictionary
-   *
-   * @param sentryRateLimitHeader the sentry rate limit header
-   * @param retryAfterHeader the retry after header
-   * @param errorCode the error code if set
-   */
-  @SuppressWarnings("JdkObsolete")
-  private void updateRetryAfterLimits(
-      final @Nullable String sentryRateLimitHeader,
-      final @Nullable String retryAfterHeader,
-      final int errorCode) {
-    if (sentryRateLimitHeader != null) {
-      for (String limit : sentryRateLimitHeader.split(",", -1)) {
-
-        // Java 11 or so has strip() :(
-        limit = limit.replace(" ", "");
-
-        final String[] retryAfterAndCategories =
-            limit.split(":", -1); // we only need for 1st and 2nd item though.
-
-        if (retryAfterAndCategories.length > 0) {
-          final String retryAfter = retryAfterAndCategories[0];
-          long retryAfterMillis = parseRetryAfterOrDefault(retryAfter);
-
-          if (retryAfterAndCategories.length > 1) {
-            final String allCategories = retryAfterAndCategories[1];
-
-            // we dont care if Date is UTC as we just add the relative seconds
-            final Date date =
-                new Date(currentDateProvider.getCurrentTimeMillis() + retryAfterMillis);
-
-            if (allCategories != null && !allCategories.isEmpty()) {
-              final String[] categories = allCategories.split(";", -1);
-
-              for (final String catItem : categories) {
-                DataCategory dataCategory = DataCategory.Unknown;
-                try {
-                  dataCategory = DataCategory.valueOf(StringUtils.capitalize(catItem));
-                } catch (IllegalArgumentException e) {
-                  logger.log(INFO, e, "Unknown category: %s", catItem);
-                }
-                // we dont apply rate limiting for unknown categories
-                if (DataCategory.Unknown.equals(dataCategory)) {
-                  continue;
-                }
-                applyRetryAfterOnlyIfLonger(dataCategory, date);
-              }
-            } else {
-              // if categories are empty, we should apply to "all" categories.
-              applyRetryAfterOnlyIfLonger(DataCategory.All, date);
-            }
-          }
-        }
-      }
-    } else if (errorCode == 429) {
-      final long retryAfterMillis = parseRetryAfterOrDefault(retryAfterHeader);
-      // we dont care if Date is UTC as we just add the relative seconds
-      final Date date = new Date(currentDateProvider.getCurrentTimeMillis() + retryAfterMillis);
-      applyRetryAfterOnlyIfLonger(DataCategory.All, date);
-    }
-  }
-
-  /**
-   * apply new timestamp for rate limiting only if its longer than the previous one
-   *
-   * @param dataCategory the DataCategory
-   * @param date the Date to be applied
-   */
-  @SuppressWarnings("JdkObsolete")
-  private void applyRetryAfterOnlyIfLonger(
-      final @NotNull DataCategory dataCategory, final @NotNull Date date) {
-    final Date oldDate = sentryRetryAfterLimit.get(dataCategory);
-
-    // only overwrite its previous date if the limit is even longer
-    if (oldDate == null || date.after(oldDate)) {
-      sentryRetryAfterLimit.put(dataCategory, date);
-    }
-  }
-
-  /**
-   * Parses a millis string to a seconds number
-   *
-   * @param retryAfterHeader the header
-   * @return the millis in seconds or the default seconds value
-   */
-  private long parseRetryAfterOrDefault(final @Nullable String retryAfterHeader) {
-    long retryAfterMillis = HTTP_RETRY_AFTER_DEFAULT_DELAY_MILLIS;
-    if (retryAfterHeader != null) {
-      try {
-        retryAfterMillis =
-            (long) (Double.parseDouble(retryAfterHeader) * 1000L); // seconds -> milliseconds
-      } catch (NumberFormatException ignored) {
-        // let's use the default then
-      }
-    }
-    return retryAfterMillis;
+    rateLimiter.updateRetryAfterLimits(sentryRateLimitHeader, retryAfterHeader, responseCode);
   }
 
   /**
@@ -507,8 +392,15 @@ public class HttpTransport implements ITransport {
     return proxy;
   }
 
+  @TestOnly
+  @Nullable
+  KeepAliveConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
   @Override
   public void close() throws IOException {
-    // a connection is opened and closed for each request, so this method is not used at all.
+    // a connection is opened and closed for each request, or kept alive by the JDK's keep-alive
+    // cache which closes idle connections on its own, so this method is not used at all.
   }
 }
@@ -0,0 +1,39 @@
+package io.sentry.transport;
+
+import io.sentry.SentryEnvelope;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A transport that doesn't hold the calling thread while the request is in flight, so a few sender
+ * threads can have many envelopes in flight at once. {@link AsyncConnection} sends the envelopes
+ * that don't need to be ordered through it.
+ */
+public interface IAsyncTransport extends ITransport {
+
+  /**
+   * Starts sending the envelope and returns right away. It only blocks if the transport has as many
+   * requests in flight as it allows, until one of them completes.
+   *
+   * @param envelope the envelope
+   * @param callback called exactly once, with the result or the failure of the request
+   */
+  void sendAsync(@NotNull SentryEnvelope envelope, @NotNull Callback callback);
+
+  /** Gets the outcome of a request started by {@link #sendAsync(SentryEnvelope, Callback)}. */
+  interface Callback {
+    /**
+     * Called once Sentry answered the request, on a thread of the transport.
+     *
+     * @param result the result
+     */
+    void onResult(@NotNull TransportResult result);
+
+    /**
+     * Called if the request couldn't be sent or the response couldn't be read, on a thread of the
+     * transport or on the calling thread.
+     *
+     * @param error the reason
+     */
+    void onFailure(@NotNull Throwable error);
+  }
+}
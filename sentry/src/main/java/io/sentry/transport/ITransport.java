@@ -1,12 +1,24 @@
 package io.sentry.transport;
 
 import io.sentry.SentryEnvelope;
+import io.sentry.SentryItemType;
 import java.io.Closeable;
 import java.io.IOException;
+import org.jetbrains.annotations.NotNull;
 
 /** A transport is in charge of sending the event to the Sentry server. */
 public interface ITransport extends Closeable {
   boolean isRetryAfter(String type);
 
+  /**
+   * Check if an itemType is retry after or not, without going through its raw value
+   *
+   * @param itemType the itemType
+   * @return true if retry after or false otherwise
+   */
+  default boolean isRetryAfter(final @NotNull SentryItemType itemType) {
+    return isRetryAfter(itemType.getItemType());
+  }
+
   TransportResult send(SentryEnvelope envelope) throws IOException;
 }
@@ -0,0 +1,224 @@
+package io.sentry.transport;
+
+import static io.sentry.SentryLevel.DEBUG;
+
+import io.sentry.ILogger;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.TestOnly;
+
+/**
+ * Bounds and tracks the persistent connections that {@link HttpTransport} keeps open to the DSN
+ * host.
+ *
+ * <p>The sockets themselves are cached by the JDK's keep-alive cache of {@link
+ * java.net.HttpURLConnection}, which reuses a socket as long as the request doesn't ask for {@code
+ * Connection: close} and the response body is fully drained and closed. This class caps the number
+ * of connections in use at the same time, so every socket that is opened can be handed back to the
+ * keep-alive cache, and counts TLS handshakes to report the reuse rate.
+ */
+final class KeepAliveConnectionPool {
+
+  private final int maxConnections;
+  private final @NotNull Semaphore permits;
+  private final @NotNull CountingSSLSocketFactory sslSocketFactory;
+  private final @NotNull ILogger logger;
+
+  private final @NotNull AtomicLong requests = new AtomicLong();
+
+  KeepAliveConnectionPool(
+      final int maxConnections,
+      final @Nullable SSLSocketFactory sslSocketFactory,
+      final @NotNull ILogger logger) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("The max. number of connections has to be positive.");
+    }
+    this.maxConnections = maxConnections;
+    // fair, so a burst of senders gets the connections in order
+    this.permits = new Semaphore(maxConnections, true);
+    this.sslSocketFactory =
+        new CountingSSLSocketFactory(
+            sslSocketFactory != null
+                ? sslSocketFactory
+                : HttpsURLConnection.getDefaultSSLSocketFactory());
+    this.logger = logger;
+  }
+
+  /**
+   * Waits for a free connection slot.
+   *
+   * @param timeoutMillis the max. time to wait for a slot
+   * @throws IOException if no slot became free in time or the thread was interrupted
+   */
+  void acquire(final long timeoutMillis) throws IOException {
+    try {
+      if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new IOException(
+            "Timed out waiting for one of the " + maxConnections + " pooled connections.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a pooled connection.");
+    }
+    requests.incrementAndGet();
+  }
+
+  /** Frees the connection slot taken by {@link #acquire(long)}. */
+  void release() {
+    permits.release();
+  }
+
+  /**
+   * Returns the SSLSocketFactory to be set to every HTTPS connection. The same instance has to be
+   * used for every request, otherwise the JDK doesn't reuse the cached connections.
+   *
+   * @return the SSLSocketFactory
+   */
+  @NotNull
+  SSLSocketFactory getSslSocketFactory() {
+    return sslSocketFactory;
+  }
+
+  /**
+   * Reads the stream until its end and closes it, so the JDK can hand the underlying socket back to
+   * its keep-alive cache.
+   *
+   * @param stream the response or error stream, may be null
+   */
+  void drainAndClose(final @Nullable InputStream stream) {
+    if (stream == null) {
+      return;
+    }
+    try {
+      final byte[] buffer = new byte[1024];
+      //noinspection StatementWithEmptyBody
+      while (stream.read(buffer) != -1) {
+        // drain
+      }
+    } catch (IOException ignored) {
+      // the socket won't be reused, nothing else to do
+    } finally {
+      try {
+        stream.close();
+      } catch (IOException ignored) {
+        // connection is already closed
+      }
+    }
+  }
+
+  /** Logs the pool size and the ratio of requests that didn't need a new TLS handshake. */
+  void logStatistics() {
+    final long requestCount = requests.get();
+    final long handshakes = sslSocketFactory.getCreatedSockets();
+    if (requestCount == 0 || handshakes == 0) {
+      // either nothing was sent yet or only plain HTTP, where sockets can't be counted
+      logger.log(
+          DEBUG,
+          "Connection pool: %d of %d connections in use.",
+          getConnectionsInUse(),
+          maxConnections);
+      return;
+    }
+    final double reuseRate = Math.max(0, requestCount - handshakes) * 100d / requestCount;
+    logger.log(
+        DEBUG,
+        "Connection pool: %d of %d connections in use, %d requests over %d connections (%.1f%% reused).",
+        getConnectionsInUse(),
+        maxConnections,
+        requestCount,
+        handshakes,
+        reuseRate);
+  }
+
+  int getConnectionsInUse() {
+    return maxConnections - permits.availablePermits();
+  }
+
+  @TestOnly
+  long getRequestCount() {
+    return requests.get();
+  }
+
+  @TestOnly
+  long getCreatedSockets() {
+    return sslSocketFactory.getCreatedSockets();
+  }
+
+  /** Delegates to the given SSLSocketFactory and counts every socket it creates. */
+  private static final class CountingSSLSocketFactory extends SSLSocketFactory {
+    private final @NotNull SSLSocketFactory delegate;
+    private final @NotNull AtomicLong createdSockets = new AtomicLong();
+
+    CountingSSLSocketFactory(final @NotNull SSLSocketFactory delegate) {
+      this.delegate = delegate;
+    }
+
+    long getCreatedSockets() {
+      return createdSockets.get();
+    }
+
+    private @NotNull Socket counted(final @NotNull Socket socket) {
+      createdSockets.incrementAndGet();
+      return socket;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+      return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+      return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+      return counted(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(
+        final Socket socket, final String host, final int port, final boolean autoClose)
+        throws IOException {
+      return counted(delegate.createSocket(socket, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(final String host, final int port) throws IOException {
+      return counted(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(
+        final String host, final int port, final InetAddress localHost, final int localPort)
+        throws IOException {
+      return counted(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(final InetAddress host, final int port) throws IOException {
+      return counted(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(
+        final InetAddress address,
+        final int port,
+        final InetAddress localAddress,
+        final int localPort)
+        throws IOException {
+      return counted(delegate.createSocket(address, port, localAddress, localPort));
+    }
+  }
+}
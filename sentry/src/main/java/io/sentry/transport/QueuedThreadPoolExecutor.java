@@ -2,14 +2,21 @@ package io.sentry.transport;
 
 import io.sentry.ILogger;
 import io.sentry.SentryLevel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -19,13 +26,22 @@ import org.jetbrains.annotations.Nullable;
  *
  * <p>The {@link Runnable} instances.
  *
+ * <p>If more than one thread is used, tasks implementing {@link OrderedRunnable} that share the
+ * same ordering key are run one after the other, in the order they were submitted. Tasks without a
+ * key run in parallel.
+ *
  * <p>This class is not public because it is used solely in {@link AsyncConnection}.
  */
 final class QueuedThreadPoolExecutor extends ThreadPoolExecutor {
   private final int maxQueueSize;
-  private final AtomicInteger currentlyRunning;
+  // queued, waiting for their ordering key or running
+  private final @NotNull AtomicInteger pendingTasks = new AtomicInteger();
+  private final @NotNull AtomicLong rejectedTasks = new AtomicLong();
   private final @NotNull ILogger logger;
 
+  // tasks waiting for the task with the same ordering key to finish, guarded by itself
+  private final @NotNull Map<Object, Queue<OrderedTask>> waitingByKey = new HashMap<>();
+
   /**
    * Creates a new instance of the thread pool.
    *
@@ -48,30 +64,45 @@ final class QueuedThreadPoolExecutor extends ThreadPoolExecutor {
         TimeUnit.MILLISECONDS,
         new LinkedBlockingQueue<>(),
         threadFactory,
-        rejectedExecutionHandler);
+        new UnwrappingRejectedExecutionHandler(rejectedExecutionHandler));
     this.maxQueueSize = maxQueueSize;
-    this.currentlyRunning = new AtomicInteger();
     this.logger = logger;
   }
 
   @Override
   public Future<?> submit(final @NotNull Runnable task) {
-    if (isSchedulingAllowed()) {
-      return super.submit(task);
-    } else {
+    if (!tryReserveSlot()) {
+      rejectedTasks.incrementAndGet();
       // if the thread pool is full, we don't cache it
       logger.log(SentryLevel.WARNING, "Submit cancelled");
       return new CancelledFuture<>();
     }
+
+    final Object orderingKey =
+        getCorePoolSize() > 1 && task instanceof OrderedRunnable
+            ? ((OrderedRunnable) task).getOrderingKey()
+            : null;
+    if (orderingKey == null) {
+      return super.submit(task);
+    }
+
+    final OrderedTask orderedTask = new OrderedTask(orderingKey, newTaskFor(task, null));
+    synchronized (waitingByKey) {
+      final Queue<OrderedTask> waiting = waitingByKey.get(orderingKey);
+      if (waiting != null) {
+        // a task with the same key is queued or running, this one goes after it
+        waiting.add(orderedTask);
+        return orderedTask.future;
+      }
+      waitingByKey.put(orderingKey, new ArrayDeque<>());
+    }
+    execute(orderedTask);
+    return orderedTask.future;
   }
 
   @Override
-  protected void beforeExecute(final @NotNull Thread t, final @NotNull Runnable r) {
-    try {
-      super.beforeExecute(t, r);
-    } finally {
-      currentlyRunning.incrementAndGet();
-    }
+  protected <T> RunnableFuture<T> newTaskFor(final @NotNull Runnable runnable, final T value) {
+    return new SubmittedTask<>(runnable, value);
   }
 
   @SuppressWarnings("FutureReturnValueIgnored")
@@ -80,12 +111,150 @@ final class QueuedThreadPoolExecutor extends ThreadPoolExecutor {
     try {
       super.afterExecute(r, t);
     } finally {
-      currentlyRunning.decrementAndGet();
+      pendingTasks.decrementAndGet();
     }
   }
 
-  private boolean isSchedulingAllowed() {
-    return getQueue().size() + currentlyRunning.get() < maxQueueSize;
+  /**
+   * Takes one of the maxQueueSize slots, which is given back once the task has run or was rejected.
+   * Unlike checking the size of the queue, this can't be exceeded when tasks are submitted
+   * concurrently or while a worker has taken a task from the queue but not started it yet.
+   *
+   * @return true if a slot was taken, false if the executor is full
+   */
+  private boolean tryReserveSlot() {
+    while (true) {
+      final int pending = pendingTasks.get();
+      if (pending >= maxQueueSize) {
+        return false;
+      }
+      if (pendingTasks.compareAndSet(pending, pending + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Runs the next task waiting for the given ordering key, if any.
+   *
+   * @param orderingKey the ordering key of the task that just finished
+   */
+  private void executeNext(final @NotNull Object orderingKey) {
+    final OrderedTask next;
+    synchronized (waitingByKey) {
+      final Queue<OrderedTask> waiting = waitingByKey.get(orderingKey);
+      next = waiting != null ? waiting.poll() : null;
+      if (next == null) {
+        waitingByKey.remove(orderingKey);
+      }
+    }
+    if (next != null) {
+      // its slot was reserved on submit already
+      execute(next);
+    }
+  }
+
+  /**
+   * Returns the number of tasks that are queued, waiting for their ordering key or running.
+   *
+   * @return the number of pending tasks
+   */
+  int getPendingTasks() {
+    return pendingTasks.get();
+  }
+
+  /**
+   * Returns the number of tasks rejected since this executor was created.
+   *
+   * @return the number of rejected tasks
+   */
+  long getRejectedCount() {
+    return rejectedTasks.get();
+  }
+
+  /** A task that has to run after all the previously submitted tasks with the same key. */
+  interface OrderedRunnable extends Runnable {
+    /**
+     * Returns the ordering key of this task
+     *
+     * @return the key or null if the task doesn't need to be ordered
+     */
+    @Nullable
+    Object getOrderingKey();
+  }
+
+  /** A future that gives access to the submitted task, so it can be handed over on rejection. */
+  private static final class SubmittedTask<T> extends FutureTask<T> {
+    private final @NotNull Runnable task;
+
+    SubmittedTask(final @NotNull Runnable task, final T result) {
+      super(task, result);
+      this.task = task;
+    }
+  }
+
+  private final class OrderedTask implements Runnable {
+    private final @NotNull Object orderingKey;
+    private final @NotNull RunnableFuture<?> future;
+
+    OrderedTask(final @NotNull Object orderingKey, final @NotNull RunnableFuture<?> future) {
+      this.orderingKey = orderingKey;
+      this.future = future;
+    }
+
+    @Override
+    public void run() {
+      try {
+        future.run();
+      } finally {
+        executeNext(orderingKey);
+      }
+    }
+  }
+
+  /**
+   * Gives back the slot of a rejected task and hands the originally submitted {@link Runnable} over
+   * to the given handler, instead of the {@link FutureTask} wrapping it.
+   */
+  private static final class UnwrappingRejectedExecutionHandler
+      implements RejectedExecutionHandler {
+    private final @NotNull RejectedExecutionHandler delegate;
+
+    UnwrappingRejectedExecutionHandler(final @NotNull RejectedExecutionHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void rejectedExecution(
+        final @NotNull Runnable r, final @NotNull ThreadPoolExecutor executor) {
+      final QueuedThreadPoolExecutor queuedExecutor = (QueuedThreadPoolExecutor) executor;
+      queuedExecutor.pendingTasks.decrementAndGet();
+      queuedExecutor.rejectedTasks.incrementAndGet();
+
+      if (r instanceof OrderedTask) {
+        final OrderedTask orderedTask = (OrderedTask) r;
+        try {
+          rejectFuture(orderedTask.future, executor);
+        } finally {
+          // the tasks waiting for this one are rejected as well, one after the other
+          queuedExecutor.executeNext(orderedTask.orderingKey);
+        }
+      } else {
+        rejectFuture(r, executor);
+      }
+    }
+
+    private void rejectFuture(
+        final @NotNull Runnable r, final @NotNull ThreadPoolExecutor executor) {
+      if (r instanceof SubmittedTask) {
+        final SubmittedTask<?> submittedTask = (SubmittedTask<?>) r;
+        // nobody is going to run it, don't let callers wait for it
+        submittedTask.cancel(false);
+        delegate.rejectedExecution(submittedTask.task, executor);
+      } else {
+        delegate.rejectedExecution(r, executor);
+      }
+    }
   }
 
   private static final class CancelledFuture<T> implements Future<T> {
@@ -0,0 +1,229 @@
+package io.sentry.transport;
+
+import static io.sentry.SentryLevel.INFO;
+
+import io.sentry.ILogger;
+import io.sentry.SentryItemType;
+import io.sentry.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.jetbrains.annotations.ApiStatus;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the rate limits Sentry answered with, per data category, so envelope items are dropped
+ * until they expire. Shared by the transports, whichever HTTP client they use.
+ */
+@ApiStatus.Internal
+public final class RateLimiter {
+
+  private static final long NO_RETRY_AFTER = Long.MIN_VALUE;
+
+  private static final int HTTP_RETRY_AFTER_DEFAULT_DELAY_MILLIS = 60000;
+
+  // the time in millis until which each category is rate limited, indexed by its ordinal
+  private final @NotNull AtomicLongArray sentryRetryAfterLimit =
+      new AtomicLongArray(DataCategory.values().length);
+
+  // the latest of sentryRetryAfterLimit, so the check is a single read when nothing is limited
+  private final @NotNull AtomicLong latestRetryAfterLimit = new AtomicLong(NO_RETRY_AFTER);
+
+  private final @NotNull ICurrentDateProvider currentDateProvider;
+
+  private final @NotNull ILogger logger;
+
+  public RateLimiter(
+      final @NotNull ICurrentDateProvider currentDateProvider, final @NotNull ILogger logger) {
+    this.currentDateProvider =
+        Objects.requireNonNull(currentDateProvider, "CurrentDateProvider is required.");
+    this.logger = Objects.requireNonNull(logger, "Logger is required.");
+    for (int i = 0; i < sentryRetryAfterLimit.length(); i++) {
+      sentryRetryAfterLimit.set(i, NO_RETRY_AFTER);
+    }
+  }
+
+  /**
+   * Check if an itemType is retry after or not
+   *
+   * @param itemType the itemType (eg event, session, etc...)
+   * @return true if retry after or false otherwise
+   */
+  public boolean isRetryAfter(final @NotNull String itemType) {
+    return isRetryAfter(DataCategory.fromItemType(itemType));
+  }
+
+  /**
+   * Check if an itemType is retry after or not. It doesn't allocate anything.
+   *
+   * @param itemType the itemType
+   * @return true if retry after or false otherwise
+   */
+  public boolean isRetryAfter(final @NotNull SentryItemType itemType) {
+    return isRetryAfter(DataCategory.fromItemType(itemType));
+  }
+
+  private boolean isRetryAfter(final @NotNull DataCategory dataCategory) {
+    final long latestLimit = latestRetryAfterLimit.get();
+    if (latestLimit == NO_RETRY_AFTER) {
+      return false;
+    }
+
+    final long currentTimeMillis = currentDateProvider.getCurrentTimeMillis();
+    if (currentTimeMillis > latestLimit) {
+      // every limit has expired, it only fails if a new one has been applied meanwhile
+      latestRetryAfterLimit.compareAndSet(latestLimit, NO_RETRY_AFTER);
+      return false;
+    }
+
+    // check all categories
+    if (currentTimeMillis <= sentryRetryAfterLimit.get(DataCategory.All.ordinal())) {
+      return true;
+    }
+
+    // Unknown should not be rate limited
+    if (DataCategory.Unknown == dataCategory) {
+      return false;
+    }
+
+    // check for specific dataCategory
+    return currentTimeMillis <= sentryRetryAfterLimit.get(dataCategory.ordinal());
+  }
+
+  /**
+   * Reads the rate limit headers of a response and updates the limits
+   *
+   * @param sentryRateLimitHeader the sentry rate limit header
+   * @param retryAfterHeader the retry after header
+   * @param errorCode the error code if set
+   */
+  public void updateRetryAfterLimits(
+      final @Nullable String sentryRateLimitHeader,
+      final @Nullable String retryAfterHeader,
+      final int errorCode) {
+    if (sentryRateLimitHeader != null) {
+      final int length = sentryRateLimitHeader.length();
+      int start = 0;
+      while (start <= length) {
+        int end = sentryRateLimitHeader.indexOf(',', start);
+        if (end < 0) {
+          end = length;
+        }
+        updateRetryAfterLimit(sentryRateLimitHeader, start, end);
+        start = end + 1;
+      }
+    } else if (errorCode == 429) {
+      final long retryAfterMillis = parseRetryAfterOrDefault(retryAfterHeader);
+      // we dont care if the time is UTC as we just add the relative seconds
+      applyRetryAfterOnlyIfLonger(
+          DataCategory.All, currentDateProvider.getCurrentTimeMillis() + retryAfterMillis);
+    }
+  }
+
+  /**
+   * Reads a single quota limit of the X-Sentry-Rate-Limits header, without splitting it up
+   *
+   * @param header the sentry rate limit header
+   * @param start the start of the quota limit
+   * @param end the end of the quota limit, exclusive
+   */
+  private void updateRetryAfterLimit(final @NotNull String header, final int start, final int end) {
+    final int retryAfterEnd = header.indexOf(':', start);
+    // limits without categories are ignored
+    if (retryAfterEnd < 0 || retryAfterEnd >= end) {
+      return;
+    }
+    final long retryAfterMillis =
+        parseRetryAfterOrDefault(header.substring(start, retryAfterEnd).trim());
+
+    int categoriesEnd = header.indexOf(':', retryAfterEnd + 1);
+    if (categoriesEnd < 0 || categoriesEnd > end) {
+      categoriesEnd = end;
+    }
+
+    // we dont care if the time is UTC as we just add the relative seconds
+    final long limit = currentDateProvider.getCurrentTimeMillis() + retryAfterMillis;
+
+    int categoryStart = skipSpaces(header, retryAfterEnd + 1, categoriesEnd);
+    if (categoryStart == categoriesEnd) {
+      // if categories are empty, we should apply to "all" categories.
+      applyRetryAfterOnlyIfLonger(DataCategory.All, limit);
+      return;
+    }
+
+    while (categoryStart <= categoriesEnd) {
+      int categoryEnd = header.indexOf(';', categoryStart);
+      if (categoryEnd < 0 || categoryEnd > categoriesEnd) {
+        categoryEnd = categoriesEnd;
+      }
+      final int nameStart = skipSpaces(header, categoryStart, categoryEnd);
+      int nameEnd = categoryEnd;
+      while (nameEnd > nameStart && header.charAt(nameEnd - 1) == ' ') {
+        nameEnd--;
+      }
+
+      final DataCategory dataCategory = DataCategory.fromName(header, nameStart, nameEnd);
+      if (dataCategory == null) {
+        logger.log(INFO, "Unknown category: %s", header.substring(nameStart, nameEnd));
+      } else if (DataCategory.Unknown != dataCategory) {
+        // we dont apply rate limiting for unknown categories
+        applyRetryAfterOnlyIfLonger(dataCategory, limit);
+      }
+      categoryStart = categoryEnd + 1;
+    }
+  }
+
+  private static int skipSpaces(final @NotNull String str, int start, final int end) {
+    while (start < end && str.charAt(start) == ' ') {
+      start++;
+    }
+    return start;
+  }
+
+  /**
+   * apply new limit for rate limiting only if its longer than the previous one
+   *
+   * @param dataCategory the DataCategory
+   * @param limit the time in millis to be applied
+   */
+  private void applyRetryAfterOnlyIfLonger(
+      final @NotNull DataCategory dataCategory, final long limit) {
+    final int index = dataCategory.ordinal();
+
+    // only overwrite its previous limit if the limit is even longer
+    long oldLimit;
+    do {
+      oldLimit = sentryRetryAfterLimit.get(index);
+      if (limit <= oldLimit) {
+        return;
+      }
+    } while (!sentryRetryAfterLimit.compareAndSet(index, oldLimit, limit));
+
+    long latestLimit;
+    do {
+      latestLimit = latestRetryAfterLimit.get();
+      if (limit <= latestLimit) {
+        return;
+      }
+    } while (!latestRetryAfterLimit.compareAndSet(latestLimit, limit));
+  }
+
+  /**
+   * Parses a millis string to a seconds number
+   *
+   * @param retryAfterHeader the header
+   * @return the millis in seconds or the default seconds value
+   */
+  private long parseRetryAfterOrDefault(final @Nullable String retryAfterHeader) {
+    long retryAfterMillis = HTTP_RETRY_AFTER_DEFAULT_DELAY_MILLIS;
+    if (retryAfterHeader != null) {
+      try {
+        retryAfterMillis =
+            (long) (Double.parseDouble(retryAfterHeader) * 1000L); // seconds -> milliseconds
+      } catch (NumberFormatException ignored) {
+        // let's use the default then
+      }
+    }
+    return retryAfterMillis;
+  }
+}
@@ -0,0 +1,268 @@
+package io.sentry.transport;
+
+import io.sentry.ILogger;
+import io.sentry.SentryLevel;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An executor that runs the submitted tasks one after the other on a single thread, queueing them
+ * in a preallocated ring buffer.
+ *
+ * <p>Any number of threads may submit tasks at the same time. Submitting never blocks nor takes a
+ * lock: a slot is claimed with a single CAS, and once {@code maxQueueSize} tasks are waiting the
+ * task is cancelled right away. Like {@link QueuedThreadPoolExecutor}, a task that doesn't fit isn't
+ * handed to the rejection listener, only the ones submitted after the shutdown are. Unlike it, it
+ * doesn't allocate a queue node per task and the limit can't be exceeded by concurrent submits.
+ *
+ * <p>This class is not public because it is used solely in {@link AsyncConnection}.
+ */
+final class RingBufferExecutor extends AbstractExecutorService {
+  // set in the tail once shut down, so no slot can be claimed afterwards
+  private static final long CLOSED = 1L << 62;
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private final int maxQueueSize;
+  private final int mask;
+  private final @NotNull AtomicReferenceArray<Runnable> buffer;
+
+  // sequence of the next slot to be taken by the consumer, only written by the consumer thread
+  private final @NotNull AtomicLong head = new AtomicLong();
+  // sequence of the next slot to be claimed by a producer, plus the CLOSED bit
+  private final @NotNull AtomicLong tail = new AtomicLong();
+
+  private final @NotNull AtomicLong rejectedTasks = new AtomicLong();
+  private final @NotNull RejectionListener rejectionListener;
+  private final @NotNull ILogger logger;
+
+  private final @NotNull Thread consumer;
+  private volatile boolean consumerParked;
+  private volatile boolean stopped;
+  private final @NotNull CountDownLatch terminated = new CountDownLatch(1);
+
+  /**
+   * Creates the executor and starts its thread.
+   *
+   * @param maxQueueSize the max. number of tasks waiting to be run
+   * @param threadFactory the thread factory to construct the consumer thread
+   * @param rejectionListener gets the tasks that cannot be queued because the executor is shut
+   *     down, the ones that don't fit in the full queue are only counted
+   * @param logger the logger
+   */
+  RingBufferExecutor(
+      final int maxQueueSize,
+      final @NotNull ThreadFactory threadFactory,
+      final @NotNull RejectionListener rejectionListener,
+      final @NotNull ILogger logger) {
+    if (maxQueueSize <= 0 || maxQueueSize > MAX_CAPACITY) {
+      throw new IllegalArgumentException(
+          "The max. queue size has to be between 1 and " + MAX_CAPACITY + ".");
+    }
+    this.maxQueueSize = maxQueueSize;
+    // power of two, so the slot of a sequence is a bit mask away
+    final int capacity = Integer.highestOneBit(maxQueueSize - 1) << 1;
+    this.mask = Math.max(capacity, 1) - 1;
+    this.buffer = new AtomicReferenceArray<>(mask + 1);
+    this.rejectionListener = rejectionListener;
+    this.logger = logger;
+    this.consumer = threadFactory.newThread(this::consume);
+    this.consumer.start();
+  }
+
+  @Override
+  public @NotNull Future<?> submit(final @NotNull Runnable task) {
+    final RunnableFuture<Void> future = newTaskFor(task, null);
+    if (!offer(future)) {
+      // nobody is going to run it, don't let callers wait for it
+      future.cancel(false);
+      reject(task);
+    }
+    return future;
+  }
+
+  @Override
+  public void execute(final @NotNull Runnable command) {
+    if (!offer(command)) {
+      reject(command);
+    }
+  }
+
+  private boolean offer(final @NotNull Runnable task) {
+    while (true) {
+      final long t = tail.get();
+      if ((t & CLOSED) != 0 || t - head.get() >= maxQueueSize) {
+        return false;
+      }
+      if (tail.compareAndSet(t, t + 1)) {
+        // the consumer spins on this slot until it's set, in case it got there first
+        buffer.set(index(t), task);
+        if (consumerParked) {
+          LockSupport.unpark(consumer);
+        }
+        return true;
+      }
+    }
+  }
+
+  private void reject(final @NotNull Runnable task) {
+    rejectedTasks.incrementAndGet();
+    logger.log(SentryLevel.WARNING, "Submit cancelled");
+    // if the queue is full, we don't cache it, the submitting thread must never wait for the disk
+    if (isShutdown()) {
+      rejectionListener.onRejected(task);
+    }
+  }
+
+  private int index(final long sequence) {
+    return (int) (sequence & mask);
+  }
+
+  private void consume() {
+    try {
+      while (!stopped) {
+        final long h = head.get();
+        final long t = tail.get();
+        if (h == (t & ~CLOSED)) {
+          if ((t & CLOSED) != 0) {
+            // shut down and every queued task has run
+            return;
+          }
+          park(h);
+          continue;
+        }
+
+        final int index = index(h);
+        Runnable task;
+        while ((task = buffer.get(index)) == null) {
+          // the slot is claimed, but the producer didn't store the task yet
+          Thread.yield();
+        }
+        buffer.lazySet(index, null);
+        head.set(h + 1);
+
+        runTask(task);
+      }
+    } finally {
+      cancelRemaining();
+      terminated.countDown();
+    }
+  }
+
+  private void park(final long h) {
+    consumerParked = true;
+    try {
+      // a producer that didn't see the flag has advanced the tail already
+      if (!stopped && tail.get() == h) {
+        LockSupport.park(this);
+      }
+    } finally {
+      consumerParked = false;
+    }
+  }
+
+  private void runTask(final @NotNull Runnable task) {
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      // the thread is not replaced like in a thread pool, so it has to survive failing tasks
+      logger.log(SentryLevel.ERROR, e, "Task failed");
+    }
+  }
+
+  /** Cancels what's still queued after shutdownNow, so no caller waits for it forever. */
+  private void cancelRemaining() {
+    final long t = tail.get() & ~CLOSED;
+    for (long h = head.get(); h < t; h++) {
+      final int index = index(h);
+      Runnable task;
+      while ((task = buffer.getAndSet(index, null)) == null) {
+        Thread.yield();
+      }
+      if (task instanceof Future) {
+        ((Future<?>) task).cancel(false);
+      }
+    }
+    head.set(t);
+  }
+
+  /**
+   * Returns the number of tasks waiting to be run, not including the one that is running.
+   *
+   * @return the queue depth
+   */
+  int getQueueDepth() {
+    final long depth = (tail.get() & ~CLOSED) - head.get();
+    return (int) Math.max(0, Math.min(depth, maxQueueSize));
+  }
+
+  /**
+   * Returns the number of tasks rejected since this executor was created.
+   *
+   * @return the number of rejected tasks
+   */
+  long getRejectedCount() {
+    return rejectedTasks.get();
+  }
+
+  @Override
+  public void shutdown() {
+    while (true) {
+      final long t = tail.get();
+      if ((t & CLOSED) != 0 || tail.compareAndSet(t, t | CLOSED)) {
+        break;
+      }
+    }
+    LockSupport.unpark(consumer);
+  }
+
+  /**
+   * Stops the consumer thread after the running task. The queued tasks are cancelled by the
+   * consumer thread, so they aren't returned here.
+   *
+   * @return an empty list
+   */
+  @Override
+  public @NotNull List<Runnable> shutdownNow() {
+    // closed first, so nothing can be queued after the consumer has cancelled what's left
+    shutdown();
+    stopped = true;
+    consumer.interrupt();
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return (tail.get() & CLOSED) != 0;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return terminated.getCount() == 0;
+  }
+
+  @Override
+  public boolean awaitTermination(final long timeout, final @NotNull TimeUnit unit)
+      throws InterruptedException {
+    return terminated.await(timeout, unit);
+  }
+
+  /** Gets the tasks that couldn't be queued. */
+  interface RejectionListener {
+    /**
+     * Called on the submitting thread when a task is rejected because the executor is shut down.
+     *
+     * @param task the task as it was submitted
+     */
+    void onRejected(@NotNull Runnable task);
+  }
+}
@@ -1,11 +1,18 @@
 package io.sentry
 
+import java.lang.management.ManagementFactory
+import java.util.concurrent.CountDownLatch
+import kotlin.concurrent.thread
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertNotSame
+import kotlin.test.assertTrue
 
 class BreadcrumbTest {
+
+    private var lastBreadcrumb: Breadcrumb? = null
+
     @Test
     fun `cloning breadcrumb wont have the same references`() {
         val breadcrumb = Breadcrumb()
@@ -107,4 +114,75 @@ class BreadcrumbTest {
         assertEquals("http", breadcrumb.type)
         assertEquals("http", breadcrumb.category)
     }
+
+    @Test
+    fun `breadcrumb data can be changed through the data map before any is set`() {
+        val breadcrumb = Breadcrumb()
+        assertTrue(breadcrumb.data.isEmpty())
+
+        breadcrumb.data["data"] = "data"
+
+        assertEquals("data", breadcrumb.getData("data"))
+    }
+
+    @Test
+    fun `data set concurrently on a breadcrumb without data isn't lost`() {
+        val threads = 4
+        repeat(1000) {
+            val breadcrumb = Breadcrumb()
+            val start = CountDownLatch(1)
+            val workers = (0 until threads).map { i ->
+                thread {
+                    start.await()
+                    breadcrumb.setData("key$i", i)
+                }
+            }
+            start.countDown()
+            workers.forEach { it.join() }
+
+            assertEquals(threads, breadcrumb.data.size)
+        }
+    }
+
+    @Test
+    fun `adding a breadcrumb to the scope allocates less than twice what creating it does`() {
+        val threadMXBean = ManagementFactory.getThreadMXBean()
+        if (threadMXBean !is com.sun.management.ThreadMXBean || !threadMXBean.isThreadAllocatedMemorySupported) {
+            return
+        }
+        threadMXBean.isThreadAllocatedMemoryEnabled = true
+        val scope = Scope(SentryOptions())
+        val threadId = Thread.currentThread().id
+        val count = 100_000
+        // like the logging integrations do for every log line
+        fun createBreadcrumb() = Breadcrumb("message").apply {
+            level = SentryLevel.INFO
+            category = "io.sentry.Logger"
+        }
+        val create = { repeat(count) { lastBreadcrumb = createBreadcrumb() } }
+        val createAndAdd = { repeat(count) { scope.addBreadcrumb(createBreadcrumb()) } }
+        fun allocatedBytes(block: () -> Unit): Long {
+            val before = threadMXBean.getThreadAllocatedBytes(threadId)
+            block()
+            return threadMXBean.getThreadAllocatedBytes(threadId) - before
+        }
+        // warm up, the scope keeps the last max breadcrumbs
+        create()
+        createAndAdd()
+
+        val created = allocatedBytes(create)
+        val added = allocatedBytes(createAndAdd) - created
+
+        // about as much, a Calendar and an empty map per breadcrumb made it ten times as much
+        assertTrue(added < 2 * created, "adding allocated $added bytes, creating $created bytes")
+    }
+
+    @Test
+    fun `removing data from a breadcrumb without data is a no-op`() {
+        val breadcrumb = Breadcrumb()
+
+        breadcrumb.removeData("data")
+
+        assertTrue(breadcrumb.data.isEmpty())
+    }
 }
@@ -62,7 +62,7 @@ class DirectoryProcessorTest {
         val event = SentryEvent()
         val envelope = SentryEnvelope.from(fixture.serializer, event, null)
 
-        whenever(fixture.envelopeReader.read(any())).thenReturn(envelope)
+        whenever(fixture.envelopeReader.readChannel(any())).thenReturn(envelope)
         whenever(fixture.serializer.deserialize(any(), eq(SentryEvent::class.java))).thenReturn(event)
 
         fixture.getSut().processDirectory(file)
@@ -0,0 +1,72 @@
+package io.sentry
+
+import com.nhaarman.mockitokotlin2.mock
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+import org.awaitility.kotlin.await
+
+class DirectoryWatcherTest {
+
+    private class Fixture {
+        val dir: File = Files.createTempDirectory("sentry-directory-watcher-test").toFile()
+        val processed = CopyOnWriteArrayList<String>()
+        val processor = object : DirectoryProcessor(mock(), 10) {
+            override fun processFile(file: File, hint: Any?) {
+                processed.add(file.name)
+                file.delete()
+            }
+
+            override fun isRelevantFileName(fileName: String?) = fileName!!.endsWith(".envelope")
+        }
+
+        fun getSut(useWatchService: Boolean) = DirectoryWatcher(dir, processor, mock(), 50, useWatchService)
+    }
+
+    private val fixture = Fixture()
+
+    @AfterTest
+    fun `delete dir`() {
+        fixture.dir.deleteRecursively()
+    }
+
+    @Test
+    fun `processes the files written after it started`() {
+        val sut = fixture.getSut(true)
+        sut.start()
+
+        File(fixture.dir, "new.envelope").writeText("{}")
+        File(fixture.dir, "session.json").writeText("{}")
+
+        await.untilAsserted { assertEquals(listOf("new.envelope"), fixture.processed) }
+        sut.close()
+    }
+
+    @Test
+    fun `processes the files written after it started by listing the dir`() {
+        val sut = fixture.getSut(false)
+        sut.start()
+
+        File(fixture.dir, "new.envelope").writeText("{}")
+
+        await.untilAsserted { assertEquals(listOf("new.envelope"), fixture.processed) }
+        sut.close()
+    }
+
+    @Test
+    fun `files already in the dir are left to the replay on startup`() {
+        File(fixture.dir, "old.envelope").writeText("{}")
+        val sut = fixture.getSut(false)
+        sut.start()
+
+        File(fixture.dir, "new.envelope").writeText("{}")
+
+        await.untilAsserted { assertEquals(listOf("new.envelope"), fixture.processed) }
+        sut.close()
+        assertTrue(File(fixture.dir, "old.envelope").exists())
+    }
+}
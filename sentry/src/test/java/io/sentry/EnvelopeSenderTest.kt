@@ -1,22 +1,31 @@
 package io.sentry
 
 import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.anyOrNull
+import com.nhaarman.mockitokotlin2.check
+import com.nhaarman.mockitokotlin2.doAnswer
 import com.nhaarman.mockitokotlin2.doThrow
 import com.nhaarman.mockitokotlin2.eq
 import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
 import com.nhaarman.mockitokotlin2.verify
 import com.nhaarman.mockitokotlin2.verifyNoMoreInteractions
 import com.nhaarman.mockitokotlin2.whenever
 import io.sentry.cache.EnvelopeCache
+import io.sentry.cache.IEnvelopeCache
 import io.sentry.hints.Retryable
+import io.sentry.protocol.SentryId
 import io.sentry.util.noFlushTimeout
 import java.io.File
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.Collections
 import kotlin.test.AfterTest
 import kotlin.test.BeforeTest
 import kotlin.test.Test
+import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 class EnvelopeSenderTest {
     private class Fixture {
@@ -112,4 +121,123 @@ class EnvelopeSenderTest {
         verify(fixture.logger)!!.log(eq(SentryLevel.ERROR), eq(expected), eq("Failed to capture cached envelope %s"), eq(testFile.absolutePath))
         verifyNoMoreInteractions(fixture.hub)
     }
+
+    @Test
+    fun `a gzipped file is captured along with its gzipped bytes`() {
+        val options = SentryOptions().apply {
+            cacheDirPath = tempDirectory.toAbsolutePath().toString()
+            isEnableCompressedEnvelopeCache = true
+        }
+        EnvelopeCache(options).store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+        val file = tempDirectory.toFile().listFiles()!!.single()
+        val sut = EnvelopeSender(fixture.hub!!, options.serializer, fixture.logger!!, 0)
+
+        sut.processEnvelopeFile(file.absolutePath, null)
+
+        verify(fixture.hub)!!.captureEnvelope(check {
+            assertTrue(file.readBytes().contentEquals(it.compressedBytes))
+            assertEquals(SentryItemType.Event, it.items.single().header.type)
+        }, anyOrNull())
+    }
+
+    @Test
+    fun `when replaying concurrently, every file is captured and deleted, sessions in order`() {
+        val options = SentryOptions()
+        val captured = Collections.synchronizedList(mutableListOf<SentryEnvelope>())
+        doAnswer { captured.add(it.arguments[0] as SentryEnvelope); SentryId.EMPTY_ID }
+            .whenever(fixture.hub)!!.captureEnvelope(any(), any())
+        val session = Session("did", null, "production", "1.0")
+        val updatedSession = session.clone()
+        updatedSession.update(null, null, true)
+        val envelopes = listOf(
+            SentryEnvelope.from(options.serializer, session, null),
+            SentryEnvelope.from(options.serializer, SentryEvent(), null),
+            SentryEnvelope.from(options.serializer, updatedSession, null),
+            SentryEnvelope.from(options.serializer, SentryEvent(), null)
+        )
+        val files = envelopes.mapIndexed { i, envelope ->
+            val file = tempDirectory.resolve("$i${EnvelopeCache.SUFFIX_ENVELOPE_FILE}").toFile()
+            file.outputStream().use { options.serializer.serialize(envelope, it) }
+            file.setLastModified(1000L * (i + 1))
+            file
+        }
+        val sut = EnvelopeSender(fixture.hub!!, options.serializer, fixture.logger!!, 0, 3)
+
+        sut.processDirectory(File(tempDirectory.toUri()))
+
+        assertEquals(4, captured.size)
+        val sessions = captured.filter { it.items.first().header.type == SentryItemType.Session }
+        assertEquals(listOf(envelopes[0], envelopes[2]).map { String(it.items.first().data) }, sessions.map { String(it.items.first().data) })
+        files.forEach { assertFalse(it.exists()) }
+    }
+
+    @Test
+    fun `when replaying concurrently, framed session files are sent in order`() {
+        assertSessionsReplayedInOrder { isEnableFramedEnvelopeCache = true }
+    }
+
+    @Test
+    fun `when replaying concurrently, gzipped session files are sent in order`() {
+        assertSessionsReplayedInOrder { isEnableCompressedEnvelopeCache = true }
+    }
+
+    private fun assertSessionsReplayedInOrder(configure: SentryOptions.() -> Unit) {
+        val options = SentryOptions().apply {
+            cacheDirPath = tempDirectory.toAbsolutePath().toString()
+            configure()
+        }
+        val session = Session("did", null, "production", "1.0")
+        val updatedSession = session.clone()
+        updatedSession.update(null, null, true)
+        val sessions = listOf(session, updatedSession, updatedSession.clone().apply { end() })
+        val cache = EnvelopeCache(options)
+        sessions.forEachIndexed { i, it ->
+            val before = tempDirectory.toFile().listFiles()!!.toSet()
+            cache.store(SentryEnvelope.from(options.serializer, it, null))
+            (tempDirectory.toFile().listFiles()!!.toSet() - before).single().setLastModified(1000L * (i + 1))
+        }
+        val captured = Collections.synchronizedList(mutableListOf<String>())
+        doAnswer {
+            val item = (it.arguments[0] as SentryEnvelope).items.single()
+            val read = options.serializer.deserialize(item.data.inputStream().reader(), Session::class.java)!!
+            // the first one is slow, so one sent concurrently would overtake it
+            if (read.errorCount() == 0) {
+                Thread.sleep(200)
+            }
+            captured.add("${read.status}/${read.errorCount()}")
+            SentryId.EMPTY_ID
+        }.whenever(fixture.hub)!!.captureEnvelope(any(), any())
+        val sut = EnvelopeSender(fixture.hub!!, options.serializer, fixture.logger!!, 0, 3)
+
+        sut.processDirectory(File(tempDirectory.toUri()))
+
+        assertEquals(sessions.map { "${it.status}/${it.errorCount()}" }, captured.toList())
+    }
+
+    @Test
+    fun `processEnvelopeCache captures the cached envelopes and discards them`() {
+        val envelope = SentryEnvelope.from(SentryOptions().serializer, SentryEvent(), null)
+        val cache = mock<IEnvelopeCache>()
+        whenever(cache.iterator()).thenReturn(mutableListOf(envelope).iterator())
+        val sut = fixture.getSut()
+
+        sut.processEnvelopeCache(cache)
+
+        verify(fixture.hub)!!.captureEnvelope(eq(envelope), any())
+        verify(cache).discard(envelope)
+    }
+
+    @Test
+    fun `processEnvelopeCache keeps the envelopes marked to be retried`() {
+        val envelope = SentryEnvelope.from(SentryOptions().serializer, SentryEvent(), null)
+        val cache = mock<IEnvelopeCache>()
+        whenever(cache.iterator()).thenReturn(mutableListOf(envelope).iterator())
+        doAnswer { (it.arguments[1] as Retryable).isRetry = true; SentryId.EMPTY_ID }
+            .whenever(fixture.hub)!!.captureEnvelope(any(), any())
+        val sut = fixture.getSut()
+
+        sut.processEnvelopeCache(cache)
+
+        verify(cache, never()).discard(any())
+    }
 }
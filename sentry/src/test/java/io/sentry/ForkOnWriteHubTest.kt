@@ -0,0 +1,84 @@
+package io.sentry
+
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.sentry.protocol.SentryId
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ForkOnWriteHubTest {
+
+    private class Fixture {
+        val parent = mock<IHub>()
+        val forked = mock<IHub>()
+
+        fun getSut(): ForkOnWriteHub {
+            whenever(parent.clone()).thenReturn(forked)
+            return ForkOnWriteHub(parent)
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `reads the parent hub until written to`() {
+        val sut = fixture.getSut()
+
+        sut.isEnabled
+        sut.span
+
+        verify(fixture.parent).isEnabled
+        verify(fixture.parent).span
+        verify(fixture.parent, never()).clone()
+        assertFalse(sut.isForked)
+    }
+
+    @Test
+    fun `clones the parent hub once, on the first write`() {
+        val sut = fixture.getSut()
+
+        sut.setTag("key", "value")
+        sut.setTag("key", "other")
+        sut.isEnabled
+
+        verify(fixture.parent, times(1)).clone()
+        verify(fixture.parent, never()).setTag("key", "value")
+        verify(fixture.forked).setTag("key", "value")
+        verify(fixture.forked).setTag("key", "other")
+        verify(fixture.forked).isEnabled
+        assertTrue(sut.isForked)
+    }
+
+    @Test
+    fun `capturing forks the hub`() {
+        val sut = fixture.getSut()
+        val event = SentryEvent()
+
+        sut.captureEvent(event)
+
+        verify(fixture.forked).captureEvent(event, null)
+        verify(fixture.parent, never()).captureEvent(event, null)
+    }
+
+    @Test
+    fun `last event id is empty until forked`() {
+        whenever(fixture.parent.lastEventId).thenReturn(SentryId())
+        val sut = fixture.getSut()
+
+        assertEquals(SentryId.EMPTY_ID, sut.lastEventId)
+    }
+
+    @Test
+    fun `forking a fork that wasn't written to reads the same hub`() {
+        val sut = ForkOnWriteHub(fixture.getSut())
+
+        sut.isEnabled
+
+        verify(fixture.parent).isEnabled
+    }
+}
@@ -16,6 +16,7 @@ import io.sentry.protocol.SentryId
 import java.io.BufferedWriter
 import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
+import java.io.File
 import java.io.IOException
 import java.io.InputStream
 import java.io.InputStreamReader
@@ -547,6 +548,62 @@ class GsonSerializerTest {
                         any<SentryEnvelopeException>())
     }
 
+    @Test
+    fun `serialize envelope with attachment file removed after its length was taken drops it alone`() {
+        val file = File.createTempFile("attachment", ".txt")
+        file.writeText("hello from a file")
+        val fileItem = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        assertEquals(17, fileItem.header.length)
+        file.delete()
+        val eventID = SentryId()
+        val attachment = Attachment("hello".toByteArray(), "bytes.txt")
+        val envelope = SentryEnvelope(SentryEnvelopeHeader(eventID), listOf(fileItem, SentryEnvelopeItem.fromAttachment(attachment)))
+
+        val actualJson = serializeToString(envelope)
+
+        val expectedJson = "{\"event_id\":\"${eventID}\"}\n" +
+                "{\"content_type\":\"${attachment.contentType}\"," +
+                "\"filename\":\"${attachment.filename}\"," +
+                "\"type\":\"attachment\",\"length\":5}\n" +
+                "hello\n"
+        assertEquals(expectedJson, actualJson)
+        verify(fixture.logger)
+                .log(eq(SentryLevel.ERROR),
+                        eq("Failed to create envelope item. Dropping it."),
+                        any<SentryEnvelopeException>())
+    }
+
+    @Test
+    fun `serialize envelope with file attachment streams the file`() {
+        val file = File.createTempFile("attachment", ".txt")
+        file.deleteOnExit()
+        file.writeText("hello from a file")
+        val eventID = SentryId()
+        val attachment = Attachment(file.absolutePath)
+        val envelope = SentryEnvelope(SentryEnvelopeHeader(eventID), listOf(SentryEnvelopeItem.fromAttachment(attachment)))
+
+        val actualJson = serializeToString(envelope)
+
+        val expectedJson = "{\"event_id\":\"${eventID}\"}\n" +
+                "{\"content_type\":\"${attachment.contentType}\"," +
+                "\"filename\":\"${attachment.filename}\"," +
+                "\"type\":\"attachment\",\"length\":17}\n" +
+                "hello from a file\n"
+        assertEquals(expectedJson, actualJson)
+    }
+
+    @Test
+    fun `serialize envelope with transaction can be read back`() {
+        val transaction = SentryTransaction("transaction-name")
+        val envelope = SentryEnvelope.from(fixture.serializer, transaction, null)
+
+        val actual = fixture.serializer.deserializeEnvelope(ByteArrayInputStream(serializeToString(envelope).toByteArray(Charsets.UTF_8)))
+
+        val item = actual!!.items.single()
+        assertEquals(SentryItemType.Transaction, item.header.type)
+        assertEquals("transaction-name", (item.getTransaction(fixture.serializer) as SentryTransaction).transaction)
+    }
+
     private fun assertSessionData(expectedSession: Session?) {
         assertNotNull(expectedSession)
         assertEquals(UUID.fromString("c81d4e2e-bcf2-11e6-869b-7df92533d2db"), expectedSession.sessionId)
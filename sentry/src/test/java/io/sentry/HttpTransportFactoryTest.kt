@@ -1,9 +1,11 @@
 package io.sentry
 
 import io.sentry.exception.InvalidDsnException
+import io.sentry.transport.HttpTransport
 import kotlin.test.Test
 import kotlin.test.assertFailsWith
 import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
 
 class HttpTransportFactoryTest {
 
@@ -28,4 +30,14 @@ class HttpTransportFactoryTest {
         val transport = HttpTransportFactory.create(options)
         assertNotNull(transport)
     }
+
+    @Test
+    fun `When the non-blocking transport is enabled but not on the classpath, HttpTransport is created`() {
+        val options = SentryOptions().apply {
+            dsn = "https://key@sentry.io/proj"
+            isEnableNonBlockingTransport = true
+        }
+        val transport = HttpTransportFactory.create(options)
+        assertTrue(transport is HttpTransport)
+    }
 }
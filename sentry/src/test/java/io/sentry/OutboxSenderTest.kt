@@ -53,7 +53,7 @@ class OutboxSenderTest {
 
     @Test
     fun `when envelopeReader returns null, file is deleted `() {
-        whenever(fixture.envelopeReader.read(any())).thenReturn(null)
+        whenever(fixture.envelopeReader.readChannel(any())).thenReturn(null)
         val sut = fixture.getSut()
         val path = getTempEnvelope("envelope-event-attachment.txt")
         assertTrue(File(path).exists()) // sanity check
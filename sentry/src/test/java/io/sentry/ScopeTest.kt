@@ -13,6 +13,7 @@ import kotlin.test.assertEquals
 import kotlin.test.assertNotNull
 import kotlin.test.assertNotSame
 import kotlin.test.assertNull
+import kotlin.test.assertSame
 import kotlin.test.assertTrue
 import org.junit.Assert.assertArrayEquals
 
@@ -153,7 +154,6 @@ class ScopeTest {
         val newFingerprints = mutableListOf("def", "ghf")
         scope.fingerprint = newFingerprints
 
-        breadcrumb.message = "newMessage"
         scope.addBreadcrumb(Breadcrumb())
         scope.setTag("tag", "newTag")
         scope.setTag("otherTag", "otherTag")
@@ -672,4 +672,78 @@ class ScopeTest {
 
         assertNotNull(scope.fingerprint)
     }
+
+    @Test
+    fun `cloning scope shares the breadcrumbs, tags and extras until either changes them`() {
+        val scope = Scope(SentryOptions())
+        val breadcrumb = Breadcrumb()
+        scope.addBreadcrumb(breadcrumb)
+        scope.setTag("tag", "tag")
+        scope.setExtra("extra", "extra")
+
+        val clone = scope.clone()
+        clone.addBreadcrumb(Breadcrumb())
+        clone.setTag("tag", "cloneTag")
+        clone.removeExtra("extra")
+
+        assertSame(breadcrumb, clone.breadcrumbs.first())
+        assertEquals(2, clone.breadcrumbs.size)
+        assertEquals(1, scope.breadcrumbs.size)
+        assertEquals("tag", scope.tags["tag"])
+        assertEquals("cloneTag", clone.tags["tag"])
+        assertEquals("extra", scope.extras["extra"])
+        assertTrue(clone.extras.isEmpty())
+    }
+
+    @Test
+    fun `cloning scope copies the contexts once either changes them`() {
+        val scope = Scope(SentryOptions())
+        scope.setContexts("key", "value")
+
+        val clone = scope.clone()
+        clone.setContexts("other", "value")
+        scope.removeContexts("key")
+
+        assertNull(scope.contexts["other"])
+        assertNull(scope.contexts["key"])
+        assertNotNull(clone.contexts["key"])
+        assertNotNull(clone.contexts["other"])
+    }
+
+    @Test
+    fun `cloning scope copies the contexts handed out before`() {
+        val scope = Scope(SentryOptions())
+        val contexts = scope.contexts
+
+        val clone = scope.clone()
+        contexts["key"] = "value"
+
+        assertEquals("value", scope.contexts["key"])
+        assertNull(clone.contexts["key"])
+    }
+
+    @Test
+    fun `breadcrumbs are capped as per options, keeping the newest`() {
+        val scope = Scope(SentryOptions().apply { maxBreadcrumbs = 2 })
+
+        for (i in 1..5) {
+            scope.addBreadcrumb(Breadcrumb().apply { message = "$i" })
+        }
+
+        assertEquals(listOf("4", "5"), scope.breadcrumbs.map { it.message })
+    }
+
+    @Test
+    fun `breadcrumbs added concurrently are all kept`() {
+        val scope = Scope(SentryOptions().apply { maxBreadcrumbs = 4_000 })
+
+        val threads = (1..4).map {
+            Thread { repeat(1_000) { scope.addBreadcrumb(Breadcrumb()) } }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(4_000, scope.breadcrumbs.size)
+        assertEquals(4_000, ArrayList(scope.breadcrumbs).size)
+    }
 }
@@ -1,10 +1,18 @@
 package io.sentry
 
+import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.spy
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
 import io.sentry.exception.SentryEnvelopeException
 import io.sentry.protocol.User
 import io.sentry.test.injectForField
+import java.io.ByteArrayOutputStream
 import java.io.File
+import java.io.IOException
+import java.io.OutputStream
+import java.io.Writer
 import kotlin.test.AfterTest
 import kotlin.test.Test
 import kotlin.test.assertEquals
@@ -151,6 +159,110 @@ class SentryEnvelopeItemTest {
         assertAttachment(attachment, image.readBytes(), item)
     }
 
+    @Test
+    fun `fromAttachment with file takes the length from the file and streams it`() {
+        val file = File(fixture.pathname)
+        val twoMB = ByteArray(1024 * 1024 * 2) { (it % 7).toByte() }
+        file.writeBytes(twoMB)
+
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+
+        assertEquals(twoMB.size, item.header.length)
+        val stream = ByteArrayOutputStream()
+        item.writeData(stream)
+        assertArrayEquals(twoMB, stream.toByteArray())
+    }
+
+    @Test
+    fun `fromAttachment with file that got shorter fails to stream`() {
+        val file = File(fixture.pathname)
+        file.writeBytes(fixture.bytes)
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        assertEquals(fixture.bytes.size, item.header.length)
+
+        file.writeBytes("he".toByteArray())
+
+        assertFailsWith<SentryEnvelopeException> { item.writeData(ByteArrayOutputStream()) }
+    }
+
+    @Test
+    fun `fromAttachment with file that got longer streams the announced length`() {
+        val file = File(fixture.pathname)
+        file.writeBytes(fixture.bytes)
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        assertEquals(fixture.bytes.size, item.header.length)
+
+        file.appendBytes(" world".toByteArray())
+
+        val stream = ByteArrayOutputStream()
+        item.writeData(stream)
+        assertArrayEquals(fixture.bytes, stream.toByteArray())
+    }
+
+    @Test
+    fun `fromEvent with transaction streams the same bytes as its data`() {
+        val serializer = GsonSerializer(mock(), EnvelopeReader())
+        val transaction = SentryTransaction("transaction-name")
+        transaction.setTag("myTag", "myValue")
+
+        val item = SentryEnvelopeItem.fromEvent(serializer, transaction)
+
+        val stream = ByteArrayOutputStream()
+        item.writeData(stream)
+        assertEquals(SentryItemType.Transaction, item.header.type)
+        assertEquals(stream.size(), item.header.length)
+        assertArrayEquals(stream.toByteArray(), item.data)
+    }
+
+    @Test
+    fun `writePayload fails for a file that got shorter than the announced length`() {
+        val file = File(fixture.pathname)
+        file.writeBytes(fixture.bytes)
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        val length = item.header.length
+
+        file.writeBytes("he".toByteArray())
+
+        assertFailsWith<IOException> { item.writePayload(ByteArrayOutputStream(), length) }
+    }
+
+    @Test
+    fun `writePayload lets through the failures of the stream written to`() {
+        val file = File(fixture.pathname)
+        file.writeBytes(fixture.bytes)
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        val stream = object : OutputStream() {
+            override fun write(b: Int) = throw IOException("broken pipe")
+        }
+
+        assertFailsWith<IOException> { item.writePayload(stream, item.header.length) }
+    }
+
+    @Test
+    fun `preparePayload fails for a large file removed after its length was taken`() {
+        val file = File(fixture.pathname)
+        file.writeBytes(ByteArray(SentryEnvelopeItem.MAX_BUFFERED_PAYLOAD_SIZE + 1))
+        val item = SentryEnvelopeItem.fromAttachment(Attachment(file.absolutePath))
+        val length = item.header.length
+
+        file.delete()
+
+        assertFailsWith<SentryEnvelopeException> { item.preparePayload(length) }
+    }
+
+    @Test
+    fun `fromEvent with transaction serializes it once however many times it's written`() {
+        val serializer = spy(GsonSerializer(mock(), EnvelopeReader()))
+        val item = SentryEnvelopeItem.fromEvent(serializer, SentryTransaction("transaction-name"))
+
+        val length = item.header.length
+        item.writeData(ByteArrayOutputStream())
+        item.writeData(ByteArrayOutputStream())
+
+        assertEquals(length, item.preparePayload(length)!!.size)
+        verify(serializer, times(1)).serialize(any<SentryTransaction>(), any<Writer>())
+    }
+
     private fun createSession(): Session {
         return Session("dis", User(), "env", "rel")
     }
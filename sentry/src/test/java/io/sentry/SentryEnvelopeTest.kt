@@ -3,12 +3,18 @@ package io.sentry
 import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.whenever
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FilterInputStream
 import java.io.InputStream
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFailsWith
 import kotlin.test.assertNotNull
 import kotlin.test.assertNull
+import org.junit.Assert.assertArrayEquals
 
 class SentryEnvelopeTest {
 
@@ -136,4 +142,93 @@ abcdefghij""".toInputStream()
         assertEquals(10, secondItem.header.length)
         assertEquals(10, secondItem.data.size)
     }
+
+    @Test
+    fun `deserialize sample envelope from a file channel`() {
+        val envelopeReader = EnvelopeReader()
+        val testFile = this::class.java.classLoader.getResource("envelope-event-attachment.txt")!!
+        val expected = envelopeReader.read(testFile.openStream())!!
+
+        val envelope = FileInputStream(File(testFile.toURI())).use { envelopeReader.readChannel(it.channel) }
+
+        assertNotNull(envelope)
+        assertEquals(expected.header.eventId, envelope.header.eventId)
+        assertEquals(expected.items.count(), envelope.items.count())
+        expected.items.zip(envelope.items).forEach { (expectedItem, actualItem) ->
+            assertEquals(expectedItem.header.type, actualItem.header.type)
+            assertEquals(expectedItem.header.length, actualItem.header.length)
+            assertArrayEquals(expectedItem.data, actualItem.data)
+            assertArrayEquals(expectedItem.data, actualItem.dataStream.readBytes())
+        }
+    }
+
+    @Test
+    fun `when envelope file is big, it is mapped and its items can be written`() {
+        val envelopeReader = EnvelopeReader()
+        val payload = ByteArray(EnvelopeReader.MAPPING_THRESHOLD.toInt()) { (it % 10 + '0'.toInt()).toByte() }
+        val file = File.createTempFile("envelope", ".envelope")
+        file.deleteOnExit()
+        file.writeBytes("{}\n{\"type\":\"attachment\",\"length\":${payload.size}}\n".toByteArray() + payload + "\n".toByteArray())
+
+        val envelope = FileInputStream(file).use { envelopeReader.readChannel(it.channel) }
+
+        val item = envelope!!.items.single()
+        val written = ByteArrayOutputStream()
+        item.writeData(written)
+        assertArrayEquals(payload, written.toByteArray())
+        assertArrayEquals(payload, item.dataStream.readBytes())
+    }
+
+    @Test
+    fun `when envelope is read from a stream in small reads, items span the reads`() {
+        val envelopeReader = EnvelopeReader()
+        val payload = ByteArray(20_000) { (it % 10 + '0'.toInt()).toByte() }
+        val bytes = "{\"event_id\":\"9ec79c33ec9942ab8353589fcb2e04dc\"}\n{\"type\":\"attachment\",\"length\":${payload.size}}\n".toByteArray() +
+            payload + "\n{\"type\":\"event\",\"length\":2}\n{}".toByteArray()
+        val stream = object : FilterInputStream(ByteArrayInputStream(bytes)) {
+            override fun read(b: ByteArray, off: Int, len: Int): Int = super.read(b, off, minOf(len, 7))
+        }
+
+        val envelope = envelopeReader.read(stream)
+
+        assertNotNull(envelope)
+        assertEquals("9ec79c33ec9942ab8353589fcb2e04dc", envelope.header.eventId.toString())
+        assertEquals(2, envelope.items.count())
+        assertArrayEquals(payload, envelope.items.first().data)
+        assertEquals("{}", String(envelope.items.last().data))
+    }
+
+    @Test
+    fun `when envelope item length is huge, reader throws illegal argument without allocating it`() {
+        val envelopeReader = EnvelopeReader()
+        val stream = "{\"event_id\":\"9ec79c33ec9942ab8353589fcb2e04dc\"}\n{\"length\":${Int.MAX_VALUE - 8}}\n{}".toInputStream()
+
+        val exception = assertFailsWith<IllegalArgumentException> { envelopeReader.read(stream) }
+        assertEquals("Invalid length for item at index '0'. Item is '${Int.MAX_VALUE - 8 + 70L}' bytes. There are '72' in the buffer.", exception.message)
+    }
+
+    @Test
+    fun `when envelope item is longer than the preallocated payload, it is read from a stream`() {
+        val envelopeReader = EnvelopeReader()
+        val payload = ByteArray(EnvelopeReader.MAX_PREALLOCATED_PAYLOAD * 2 + 1) { (it % 10 + '0'.toInt()).toByte() }
+        val bytes = "{\"event_id\":\"9ec79c33ec9942ab8353589fcb2e04dc\"}\n{\"type\":\"attachment\",\"length\":${payload.size}}\n".toByteArray() + payload
+
+        val envelope = envelopeReader.read(ByteArrayInputStream(bytes))
+
+        assertNotNull(envelope)
+        assertArrayEquals(payload, envelope.items.single().data)
+    }
+
+    @Test
+    fun `when envelope file item length is bigger than the rest of the payload, reader throws illegal argument`() {
+        val envelopeReader = EnvelopeReader()
+        val file = File.createTempFile("envelope", ".envelope")
+        file.deleteOnExit()
+        file.writeText("{\"event_id\":\"9ec79c33ec9942ab8353589fcb2e04dc\"}\n{\"length\":\"3\"}\n{}")
+
+        val exception = assertFailsWith<IllegalArgumentException> {
+            FileInputStream(file).use { envelopeReader.readChannel(it.channel) }
+        }
+        assertEquals("Invalid length for item at index '0'. Item is '66' bytes. There are '65' in the buffer.", exception.message)
+    }
 }
@@ -154,6 +154,147 @@ class SentryOptionsTest {
         assertFalse(SentryOptions().isEnableScopeSync)
     }
 
+    @Test
+    fun `when options is initialized, enableKeepAlive is false`() {
+        assertFalse(SentryOptions().isEnableKeepAlive)
+    }
+
+    @Test
+    fun `when setConnectionPoolSize is called with 0, keeps the default`() {
+        val options = SentryOptions()
+        options.connectionPoolSize = 0
+        assertEquals(5, options.connectionPoolSize)
+    }
+
+    @Test
+    fun `when setSenderThreadCount is called with 0, keeps the default`() {
+        val options = SentryOptions()
+        options.senderThreadCount = 0
+        assertEquals(1, options.senderThreadCount)
+    }
+
+    @Test
+    fun `when setClientRateLimit is called with 0, the category is not limited`() {
+        val options = SentryOptions()
+        options.setClientRateLimit("error", 0.0, 10)
+        options.setClientRateLimit("session", 1.0, 0)
+        assertTrue(options.clientRateLimits.isEmpty())
+    }
+
+    @Test
+    fun `when setClientRateLimit is called, the category is limited`() {
+        val options = SentryOptions()
+        options.setClientRateLimit("error", 0.5, 10)
+        val limit = options.clientRateLimits["error"]!!
+        assertEquals(0.5, limit.itemsPerSecond)
+        assertEquals(10, limit.burst)
+    }
+
+    @Test
+    fun `when cacheDirPath is set, spilloverPath concatenate spillover path`() {
+        val options = SentryOptions()
+        options.cacheDirPath = "${File.separator}test"
+        assertEquals("${File.separator}test${File.separator}spillover", options.spilloverPath)
+    }
+
+    @Test
+    fun `queue spillover is disabled by default`() {
+        assertFalse(SentryOptions().isEnableQueueSpillover)
+    }
+
+    @Test
+    fun `when setMaxSpilloverSize is called with 0, keeps the default`() {
+        val options = SentryOptions()
+        options.maxSpilloverSize = 0
+        assertEquals(10L * 1024 * 1024, options.maxSpilloverSize)
+    }
+
+    @Test
+    fun `cache dir is not limited by bytes by default`() {
+        assertEquals(0, SentryOptions().cacheDirMaxBytes)
+    }
+
+    @Test
+    fun `when setCacheDirMaxBytes is called with a negative value, keeps the previous one`() {
+        val options = SentryOptions()
+        options.cacheDirMaxBytes = 1024
+        options.cacheDirMaxBytes = -1
+        assertEquals(1024, options.cacheDirMaxBytes)
+    }
+
+    @Test
+    fun `segmented envelope cache is disabled by default`() {
+        assertFalse(SentryOptions().isEnableSegmentedEnvelopeCache)
+    }
+
+    @Test
+    fun `when setMaxSegmentedCacheSize is called with 0, keeps the default`() {
+        val options = SentryOptions()
+        options.maxSegmentedCacheSize = 0
+        assertEquals(10L * 1024 * 1024, options.maxSegmentedCacheSize)
+    }
+
+    @Test
+    fun `write behind cache is disabled by default`() {
+        assertFalse(SentryOptions().isEnableWriteBehindCache)
+    }
+
+    @Test
+    fun `when setWriteBehindDelayMillis is called with a negative value, keeps the default`() {
+        val options = SentryOptions()
+        options.writeBehindDelayMillis = -1
+        assertEquals(2000, options.writeBehindDelayMillis)
+    }
+
+    @Test
+    fun `when setCachedEnvelopeReplayConcurrency is called with 0, keeps replaying one at a time`() {
+        val options = SentryOptions()
+        options.cachedEnvelopeReplayConcurrency = 0
+        assertEquals(1, options.cachedEnvelopeReplayConcurrency)
+    }
+
+    @Test
+    fun `when options is initialized, integrations contain DirectoryWatcherIntegration`() {
+        assertTrue(SentryOptions().integrations.any { it is DirectoryWatcherIntegration })
+    }
+
+    @Test
+    fun `directory watcher is disabled by default`() {
+        assertFalse(SentryOptions().isEnableDirectoryWatcher)
+    }
+
+    @Test
+    fun `when setDirectoryWatcherIntervalMillis is called with 0, keeps the default`() {
+        val options = SentryOptions()
+        options.directoryWatcherIntervalMillis = 0
+        assertEquals(1000, options.directoryWatcherIntervalMillis)
+    }
+
+    @Test
+    fun `compressed envelope cache is disabled by default`() {
+        assertFalse(SentryOptions().isEnableCompressedEnvelopeCache)
+    }
+
+    @Test
+    fun `framed envelope cache is disabled by default`() {
+        assertFalse(SentryOptions().isEnableFramedEnvelopeCache)
+    }
+
+    @Test
+    fun `mapped session file is disabled by default`() {
+        assertFalse(SentryOptions().isEnableMappedSessionFile)
+    }
+
+    @Test
+    fun `envelope batching is disabled by default`() {
+        assertFalse(SentryOptions().isEnableEnvelopeBatching)
+    }
+
+    @Test
+    fun `ring buffer queue is disabled by default`() {
+        assertFalse(SentryOptions().isEnableRingBufferQueue)
+    }
+
     @Test
     fun `when adds scope observer, observer list has it`() {
         val observer = mock<IScopeObserver>()
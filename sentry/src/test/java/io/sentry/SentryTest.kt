@@ -8,6 +8,7 @@ import io.sentry.protocol.SentryId
 import java.io.File
 import java.nio.file.Files
 import java.util.concurrent.CompletableFuture
+import kotlin.concurrent.thread
 import kotlin.test.AfterTest
 import kotlin.test.BeforeTest
 import kotlin.test.Test
@@ -26,6 +27,24 @@ class SentryTest {
         Sentry.close()
     }
 
+    @Test
+    fun `the current hub of a thread can be pushed and popped by the threads it's passed to`() {
+        Sentry.init { it.dsn = dsn }
+
+        repeat(10) {
+            var hub: IHub? = null
+            thread {
+                Sentry.setTag("tag", "root")
+                hub = Sentry.getCurrentHub()
+            }.join()
+            (0 until 4).map {
+                thread { repeat(10_000) { hub!!.withScope { scope -> scope.setTag("tag", "task") } } }
+            }.forEach { it.join() }
+
+            hub!!.configureScope { assertEquals("root", it.tags["tag"]) }
+        }
+    }
+
     @Test
     fun `outboxDir should be created at initialization`() {
         var sentryOptions: SentryOptions? = null
@@ -0,0 +1,86 @@
+package io.sentry
+
+import io.sentry.protocol.User
+import java.util.concurrent.Executors
+import kotlin.test.AfterTest
+import kotlin.test.BeforeTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+
+class SentryWrapperTest {
+
+    private val dsn = "http://key@localhost/proj"
+    private val executor = Executors.newSingleThreadExecutor()
+
+    @BeforeTest
+    @AfterTest
+    fun beforeTest() {
+        Sentry.close()
+    }
+
+    @AfterTest
+    fun shutdown() {
+        executor.shutdownNow()
+    }
+
+    @Test
+    fun `wrapped task runs with a fork of the hub that wrapped it`() {
+        Sentry.init { it.dsn = dsn }
+        Sentry.setTag("tag", "main")
+
+        var tagInTask: String? = null
+        val task = SentryWrapper.wrapRunnable {
+            Sentry.setTag("other", "task")
+            Sentry.configureScope { tagInTask = it.tags["tag"] }
+        }
+        executor.submit(task).get()
+
+        assertEquals("main", tagInTask)
+        Sentry.configureScope { assertNull(it.tags["other"]) }
+    }
+
+    @Test
+    fun `wrapped task runs with the scope as it was when wrapped`() {
+        Sentry.init { it.dsn = dsn }
+        Sentry.setTag("tag", "main")
+
+        var tagInTask: String? = null
+        var userInTask: String? = null
+        val task = SentryWrapper.wrapRunnable {
+            Sentry.configureScope {
+                tagInTask = it.tags["tag"]
+                userInTask = it.user?.id
+            }
+        }
+        Sentry.setTag("tag", "changed")
+        Sentry.setUser(User().apply { id = "next request" })
+        executor.submit(task).get()
+
+        assertEquals("main", tagInTask)
+        assertNull(userInTask)
+    }
+
+    @Test
+    fun `the thread's hub is put back once the wrapped task is done`() {
+        Sentry.init { it.dsn = dsn }
+
+        executor.submit(SentryWrapper.wrapCallable { Sentry.setTag("tag", "task") }).get()
+
+        assertNull(executor.submit<IHub?> { Sentry.peekCurrentHub() }.get())
+    }
+
+    @Test
+    fun `wrapped executor runs every task with the hub that gave it`() {
+        Sentry.init { it.dsn = dsn }
+        Sentry.setTag("tag", "main")
+
+        var tagInTask: String? = null
+        val wrapped = SentryWrapper.wrapExecutor(executor)
+        executor.submit(Runnable { Sentry.setTag("tag", "pool") }).get()
+        wrapped.execute { Sentry.configureScope { tagInTask = it.tags["tag"] } }
+        executor.submit(Runnable { }).get()
+
+        assertEquals("main", tagInTask)
+    }
+}
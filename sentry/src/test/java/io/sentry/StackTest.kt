@@ -4,7 +4,11 @@ import com.nhaarman.mockitokotlin2.mock
 import io.sentry.Stack.StackItem
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
 import kotlin.test.assertNotEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
 
 class StackTest {
 
@@ -69,4 +73,57 @@ class StackTest {
         assertNotEquals(stackRootItem.scope, cloneRootItem.scope)
         assertEquals(stackRootItem.client, cloneRootItem.client)
     }
+
+    @Test
+    fun `cloning stack keeps the order of the items and shares none of them`() {
+        val stack = fixture.getSut()
+        val item = StackItem(fixture.options, fixture.client, Scope(fixture.options).apply { setTag("item", "pushed") })
+        stack.push(item)
+
+        val clone = Stack(Stack(stack))
+
+        assertEquals(2, clone.size())
+        assertEquals("pushed", clone.peek().scope.tags["item"])
+        assertNotSame(item, clone.peek())
+        assertNotSame(item.scope, clone.peek().scope)
+        clone.pop()
+        assertNotSame(fixture.rootItem, clone.peek())
+        assertNull(clone.peek().scope.tags["item"])
+    }
+
+    @Test
+    fun `thread confined stack pushes and pops`() {
+        val stack = Stack(fixture.options.logger, fixture.rootItem, true)
+        val item = mock<StackItem>()
+
+        stack.push(item)
+        assertEquals(item, stack.peek())
+        stack.pop()
+        stack.pop()
+
+        assertEquals(fixture.rootItem, stack.peek())
+        assertEquals(1, stack.size())
+    }
+
+    @Test
+    fun `cloning stack as thread confined clones stack items`() {
+        val stack = fixture.getSut()
+        val clone = Stack(stack, true)
+
+        assertTrue(clone.isThreadConfined)
+        assertFalse(stack.isThreadConfined)
+        assertNotEquals(stack.peek().scope, clone.peek().scope)
+    }
+
+    @Test
+    fun `peek() sees the items pushed by another thread`() {
+        val stack = fixture.getSut()
+        val item = mock<StackItem>()
+
+        val thread = Thread { stack.push(item) }
+        thread.start()
+        thread.join()
+
+        assertEquals(item, stack.peek())
+    }
 }
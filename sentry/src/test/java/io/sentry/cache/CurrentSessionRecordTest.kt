@@ -0,0 +1,124 @@
+package io.sentry.cache
+
+import com.nhaarman.mockitokotlin2.mock
+import io.sentry.ILogger
+import io.sentry.Session
+import io.sentry.protocol.User
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class CurrentSessionRecordTest {
+
+    private class Fixture {
+        val dir: File = Files.createTempDirectory("sentry-session-record-test").toFile()
+        val file = File(dir, "session.bin")
+        val logger = mock<ILogger>()
+
+        fun getSut() = CurrentSessionRecord(file, logger)
+
+        fun createSession(): Session = Session("did", User().apply { ipAddress = "127.0.0.1" }, "production", "1.0")
+    }
+
+    private val fixture = Fixture()
+
+    @AfterTest
+    fun `delete dir`() {
+        fixture.dir.deleteRecursively()
+    }
+
+    @Test
+    fun `reads back the session written by a previous run`() {
+        val session = fixture.createSession()
+        session.update(Session.State.Crashed, "agent", true)
+        assertTrue(fixture.getSut().write(session))
+
+        val read = fixture.getSut().read()
+
+        assertNotNull(read)
+        assertEquals(CurrentSessionRecord.FILE_SIZE.toLong(), fixture.file.length())
+        assertEquals(session.sessionId, read.sessionId)
+        assertEquals(session.status, read.status)
+        assertEquals(session.errorCount(), read.errorCount())
+        assertEquals(session.started, read.started)
+        assertEquals(session.timestamp, read.timestamp)
+        assertEquals(session.sequence, read.sequence)
+        assertEquals(session.init, read.init)
+        assertEquals(session.distinctId, read.distinctId)
+        assertEquals("127.0.0.1", read.ipAddress)
+        assertEquals("agent", read.userAgent)
+        assertEquals("production", read.environment)
+        assertEquals("1.0", read.release)
+    }
+
+    @Test
+    fun `every status reads back, stored as its stable code`() {
+        val codes = mapOf(
+            Session.State.Ok to CurrentSessionRecord.STATUS_OK,
+            Session.State.Exited to CurrentSessionRecord.STATUS_EXITED,
+            Session.State.Crashed to CurrentSessionRecord.STATUS_CRASHED,
+            Session.State.Abnormal to CurrentSessionRecord.STATUS_ABNORMAL
+        )
+        assertEquals(Session.State.values().toSet(), codes.keys)
+
+        codes.forEach { (status, code) ->
+            fixture.file.delete()
+            val session = fixture.createSession()
+            session.update(status, null, false)
+            fixture.getSut().write(session)
+
+            // the first write goes to the first slot, the status follows the presence byte and the session id
+            RandomAccessFile(fixture.file, "r").use {
+                it.seek(8L + 16 + 1 + 16)
+                assertEquals(code, it.readByte())
+            }
+            assertEquals(status, fixture.getSut().read()?.status)
+        }
+    }
+
+    @Test
+    fun `a torn write leaves the previous session in place`() {
+        val sut = fixture.getSut()
+        val first = fixture.createSession()
+        sut.write(first)
+        sut.write(fixture.createSession())
+
+        // the second write went to the second slot, corrupt its payload
+        RandomAccessFile(fixture.file, "rw").use {
+            val payloadStart = 8L + (CurrentSessionRecord.FILE_SIZE - 8) / 2 + 16
+            it.seek(payloadStart + 4)
+            it.write(byteArrayOf(1, 2, 3, 4))
+        }
+
+        val read = fixture.getSut().read()
+        assertEquals(first.sessionId, read?.sessionId)
+    }
+
+    @Test
+    fun `once cleared, there's no current session`() {
+        val sut = fixture.getSut()
+        sut.write(fixture.createSession())
+
+        sut.clear()
+
+        assertNull(sut.currentSessionId)
+        assertNull(fixture.getSut().read())
+        assertTrue(fixture.file.exists())
+    }
+
+    @Test
+    fun `sessions that don't fit aren't written`() {
+        val sut = fixture.getSut()
+        val session = Session("did", null, "production", "x".repeat(CurrentSessionRecord.FILE_SIZE))
+
+        assertFalse(sut.write(session))
+        assertNull(sut.currentSessionId)
+    }
+}
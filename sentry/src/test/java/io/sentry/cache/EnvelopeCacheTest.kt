@@ -8,6 +8,9 @@ import com.nhaarman.mockitokotlin2.whenever
 import io.sentry.ILogger
 import io.sentry.ISerializer
 import io.sentry.SentryEnvelope
+import io.sentry.SentryEnvelopeItem
+import io.sentry.SentryEvent
+import io.sentry.SentryItemType
 import io.sentry.SentryLevel
 import io.sentry.SentryOptions
 import io.sentry.Session
@@ -16,13 +19,18 @@ import io.sentry.cache.EnvelopeCache.SUFFIX_CURRENT_SESSION_FILE
 import io.sentry.hints.SessionEndHint
 import io.sentry.hints.SessionStartHint
 import io.sentry.protocol.User
+import java.io.ByteArrayInputStream
 import java.io.File
+import java.io.IOException
+import java.io.InputStreamReader
+import java.io.OutputStream
 import java.nio.file.Files
 import java.nio.file.Path
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
+import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
 class EnvelopeCacheTest {
@@ -181,6 +189,255 @@ class EnvelopeCacheTest {
         File(fixture.options.cacheDirPath!!).deleteRecursively()
     }
 
+    @Test
+    fun `rotates the oldest envelope file out once the cache is full`() {
+        val options = createOptionsWithRealSerializer(2)
+        val cache = EnvelopeCache(options)
+        val envelopes = (1..3).map { SentryEnvelope.from(options.serializer, SentryEvent(), null) }
+
+        envelopes.forEach { cache.store(it) }
+
+        assertEquals(envelopes.drop(1).map { it.header.eventId }.toSet(), cache.map { it.header.eventId }.toSet())
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `envelope files deleted by others don't count towards the max size`() {
+        val options = createOptionsWithRealSerializer(2)
+        val cache = EnvelopeCache(options)
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+        File(options.cacheDirPath!!).listFiles()!!.forEach { it.delete() }
+
+        val envelopes = (1..2).map { SentryEnvelope.from(options.serializer, SentryEvent(), null) }
+        envelopes.forEach { cache.store(it) }
+
+        assertEquals(envelopes.map { it.header.eventId }.toSet(), cache.map { it.header.eventId }.toSet())
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `files cached by a previous run are rotated out first`() {
+        val options = createOptionsWithRealSerializer(2)
+        val previous = SentryEnvelope.from(options.serializer, SentryEvent(), null)
+        EnvelopeCache(options).store(previous)
+        File(options.cacheDirPath!!).listFiles()!!.forEach { it.setLastModified(0) }
+        val cache = EnvelopeCache(options)
+
+        val envelopes = (1..2).map { SentryEnvelope.from(options.serializer, SentryEvent(), null) }
+        envelopes.forEach { cache.store(it) }
+
+        assertEquals(envelopes.map { it.header.eventId }.toSet(), cache.map { it.header.eventId }.toSet())
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `moves the init flag of a rotated session to the next file with the session`() {
+        val options = createOptionsWithRealSerializer(2)
+        val cache = EnvelopeCache(options)
+        val session = createSession()
+        val initSession = session.clone()
+        initSession.setInitAsTrue()
+        val updatedSession = session.clone()
+        updatedSession.update(null, null, true)
+
+        cache.store(SentryEnvelope.from(options.serializer, initSession, null))
+        cache.store(SentryEnvelope.from(options.serializer, updatedSession, null))
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+
+        val sessions = readSessions(cache, options)
+        assertEquals(1, sessions.size)
+        assertEquals(true, sessions.first().init)
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `doesn't move the init flag of a rotated session that isn't ok`() {
+        val options = createOptionsWithRealSerializer(2)
+        val cache = EnvelopeCache(options)
+        val session = createSession()
+        val crashedSession = session.clone()
+        crashedSession.update(Session.State.Crashed, null, true)
+        crashedSession.setInitAsTrue()
+        val updatedSession = session.clone()
+        updatedSession.update(null, null, true)
+
+        cache.store(SentryEnvelope.from(options.serializer, crashedSession, null))
+        cache.store(SentryEnvelope.from(options.serializer, updatedSession, null))
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+
+        val sessions = readSessions(cache, options)
+        assertEquals(1, sessions.size)
+        assertNull(sessions.first().init)
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `files of a previous run are rotated out from the least to the most recently modified`() {
+        val options = createOptionsWithRealSerializer(4)
+        val previous = EnvelopeCache(options)
+        val envelopes = (1..3).map { SentryEnvelope.from(options.serializer, SentryEvent(), null) }
+        envelopes.forEach { previous.store(it) }
+        // the first one stored is the last one modified
+        envelopes.forEachIndexed { i, envelope -> envelopeFile(options, envelope).setLastModified((3 - i) * 1000L) }
+        options.cacheDirSize = 3
+        val cache = EnvelopeCache(options)
+
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+
+        assertFalse(envelopeFile(options, envelopes[2]).exists())
+        assertTrue(envelopeFile(options, envelopes[1]).exists())
+        assertTrue(envelopeFile(options, envelopes[0]).exists())
+        assertEquals(3, cache.cachedEnvelopeCount)
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `once over the byte budget, sessions are rotated out before errors of a similar size`() {
+        val options = createOptionsWithRealSerializer(30)
+        val cache = EnvelopeCache(options)
+        val event = SentryEnvelope.from(options.serializer, SentryEvent(), null)
+        cache.store(event)
+        cache.store(SentryEnvelope.from(options.serializer, createSession(), null))
+        options.cacheDirMaxBytes = cache.cachedBytes + 1
+
+        cache.store(SentryEnvelope.from(options.serializer, createSession(), null))
+
+        assertEquals(2, cache.cachedEnvelopeCount)
+        assertEquals(1, cache.rotatedEnvelopeCount)
+        assertTrue(cache.cachedBytes <= options.cacheDirMaxBytes)
+        assertTrue(cache.any { it.header.eventId == event.header.eventId })
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `cache occupancy counts the envelope files and their size`() {
+        val options = createOptionsWithRealSerializer(30)
+        val cache = EnvelopeCache(options)
+        val envelope = SentryEnvelope.from(options.serializer, SentryEvent(), null)
+
+        cache.store(envelope)
+        val file = File(options.cacheDirPath!!).listFiles()!!.single()
+        assertEquals(1, cache.cachedEnvelopeCount)
+        assertEquals(file.length(), cache.cachedBytes)
+
+        cache.discard(envelope)
+        assertEquals(0, cache.cachedEnvelopeCount)
+        assertEquals(0, cache.cachedBytes)
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `with the mapped session file, the session left over is ended with its last update`() {
+        val options = createOptionsWithRealSerializer(30).apply { isEnableMappedSessionFile = true }
+        val session = createSession()
+        EnvelopeCache(options).apply {
+            store(SentryEnvelope.from(options.serializer, session, null), SessionStartHint())
+            session.update(Session.State.Ok, null, true)
+            store(SentryEnvelope(null, null, listOf(
+                SentryEnvelopeItem.fromEvent(options.serializer, SentryEvent()),
+                SentryEnvelopeItem.fromSession(options.serializer, session)
+            )))
+        }
+        assertFalse(File(options.cacheDirPath!!, "$PREFIX_CURRENT_SESSION_FILE$SUFFIX_CURRENT_SESSION_FILE").exists())
+
+        // the next run
+        val cache = EnvelopeCache(options)
+        cache.store(SentryEnvelope.from(options.serializer, createSession(), null), SessionStartHint())
+
+        val ended = cache.flatMap { it.items }
+            .filter { it.header.type == SentryItemType.Session }
+            .map { options.serializer.deserialize(InputStreamReader(ByteArrayInputStream(it.data)), Session::class.java)!! }
+            .single { it.sessionId == session.sessionId && it.status == Session.State.Exited }
+        assertEquals(1, ended.errorCount())
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `a framed envelope file cut short is repaired when indexed`() {
+        val options = createOptionsWithRealSerializer(30).apply { isEnableFramedEnvelopeCache = true }
+        EnvelopeCache(options).store(SentryEnvelope(null, null, listOf(
+            SentryEnvelopeItem.fromEvent(options.serializer, SentryEvent()),
+            SentryEnvelopeItem.fromSession(options.serializer, createSession())
+        )))
+        val file = File(options.cacheDirPath!!).listFiles()!!.single()
+        assertTrue(FramedEnvelope.isFramed(file))
+        file.writeBytes(file.readBytes().let { it.copyOf(it.size - 10) })
+
+        val cache = EnvelopeCache(options)
+
+        assertEquals(1, cache.cachedEnvelopeCount)
+        assertFalse(FramedEnvelope.read(file.readBytes(), true)!!.isDamaged)
+        assertEquals(listOf(SentryItemType.Event), cache.single().items.map { it.header.type })
+        // rewritten through a temp file renamed over it
+        assertEquals(listOf(file.name), File(options.cacheDirPath!!).list()!!.toList())
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `the temp file of a rewrite a crash cut short is deleted, the envelope file is kept`() {
+        val options = createOptionsWithRealSerializer(30).apply { isEnableFramedEnvelopeCache = true }
+        EnvelopeCache(options).store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+        val file = File(options.cacheDirPath!!).listFiles()!!.single()
+        val tempFile = File(file.parentFile, file.name + CacheStrategy.SUFFIX_TEMP_FILE)
+        tempFile.writeBytes(file.readBytes().let { it.copyOf(it.size / 2) })
+
+        val cache = EnvelopeCache(options)
+
+        assertEquals(1, cache.cachedEnvelopeCount)
+        assertFalse(tempFile.exists())
+        assertFalse(FramedEnvelope.read(file.readBytes(), true)!!.isDamaged)
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `with the compressed cache, envelopes are stored gzipped and read back`() {
+        val options = createOptionsWithRealSerializer(30).apply { isEnableCompressedEnvelopeCache = true }
+        val cache = EnvelopeCache(options)
+
+        cache.store(SentryEnvelope.from(options.serializer, SentryEvent(), null))
+
+        val file = File(options.cacheDirPath!!).listFiles()!!.single()
+        assertTrue(CompressedEnvelope.isCompressed(file))
+        assertEquals(file.length(), cache.cachedBytes)
+        val envelope = cache.single()
+        assertEquals(SentryItemType.Event, envelope.items.single().header.type)
+        assertTrue(file.readBytes().contentEquals(envelope.compressedBytes))
+        File(options.cacheDirPath!!).deleteRecursively()
+    }
+
+    @Test
+    fun `an envelope that fails halfway through serializing leaves no file behind`() {
+        val cache = fixture.getSUT()
+        whenever(fixture.serializer.serialize(any<SentryEnvelope>(), any())).thenAnswer {
+            (it.arguments[1] as OutputStream).write("{}\n{\"type\":\"attachment\",\"length\":100}\n".toByteArray())
+            throw IOException("The attachment got shorter.")
+        }
+
+        cache.store(SentryEnvelope.from(fixture.serializer, SentryEvent(), null))
+
+        assertEquals(0, File(fixture.options.cacheDirPath!!).list()!!.size)
+        assertFalse(cache.iterator().hasNext())
+        File(fixture.options.cacheDirPath!!).deleteRecursively()
+    }
+
+    private fun createOptionsWithRealSerializer(maxSize: Int): SentryOptions {
+        return SentryOptions().apply {
+            cacheDirPath = Files.createTempDirectory("sentry-envelope-cache-test").toAbsolutePath().toString()
+            cacheDirSize = maxSize
+        }
+    }
+
+    private fun envelopeFile(options: SentryOptions, envelope: SentryEnvelope): File {
+        return File(options.cacheDirPath!!, "${envelope.header.eventId}${EnvelopeCache.SUFFIX_ENVELOPE_FILE}")
+    }
+
+    private fun readSessions(cache: EnvelopeCache, options: SentryOptions): List<Session> {
+        return cache.flatMap { it.items }
+            .filter { it.header.type == SentryItemType.Session }
+            .map { options.serializer.deserialize(InputStreamReader(ByteArrayInputStream(it.data), Charsets.UTF_8), Session::class.java)!! }
+    }
+
     private fun createSession(): Session {
         return Session("dis", User(), "env", "rel")
     }
@@ -0,0 +1,113 @@
+package io.sentry.cache
+
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEnvelopeItem
+import io.sentry.SentryEvent
+import io.sentry.SentryItemType
+import io.sentry.SentryOptions
+import io.sentry.Session
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class FramedEnvelopeTest {
+
+    private class Fixture {
+        val options = SentryOptions()
+
+        fun serialize(): ByteArray {
+            val envelope = SentryEnvelope(null, null, listOf(
+                SentryEnvelopeItem.fromEvent(options.serializer, SentryEvent()),
+                SentryEnvelopeItem.fromSession(options.serializer, Session("did", null, "production", "1.0"))
+            ))
+            val stream = ByteArrayOutputStream()
+            options.serializer.serialize(envelope, stream)
+            return stream.toByteArray()
+        }
+
+        fun frame(wire: ByteArray): ByteArray {
+            val stream = ByteArrayOutputStream()
+            assertTrue(FramedEnvelope.frame(wire, stream))
+            return stream.toByteArray()
+        }
+
+        fun readTypes(wire: ByteArray): List<SentryItemType> =
+            options.envelopeReader.read(ByteArrayInputStream(wire))!!.items.map { it.header.type }
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `turns back into the same wire format`() {
+        val wire = fixture.serialize()
+
+        val framed = fixture.frame(wire)
+
+        assertTrue(FramedEnvelope.isFramed(framed))
+        assertFalse(FramedEnvelope.isFramed(wire))
+        val frames = FramedEnvelope.read(framed, true)!!
+        assertFalse(frames.isDamaged)
+        assertEquals(String(wire), String(frames.wire!!))
+    }
+
+    @Test
+    fun `a file cut short keeps the items written before`() {
+        val framed = fixture.frame(fixture.serialize())
+
+        val frames = FramedEnvelope.read(framed.copyOf(framed.size - 10), false)!!
+
+        assertTrue(frames.isTruncated)
+        assertEquals(listOf(SentryItemType.Event), fixture.readTypes(frames.wire!!))
+    }
+
+    @Test
+    fun `a corrupted item is dropped`() {
+        val framed = fixture.frame(fixture.serialize())
+        // within the event payload
+        framed[framed.size / 3] = (framed[framed.size / 3].toInt() xor 0x55).toByte()
+
+        val frames = FramedEnvelope.read(framed, true)!!
+
+        assertFalse(frames.isTruncated)
+        assertEquals(1, frames.droppedItems)
+        assertEquals(listOf(SentryItemType.Session), fixture.readTypes(frames.wire!!))
+    }
+
+    @Test
+    fun `the items of a file of the right length are only checked when verified`() {
+        val wire = fixture.serialize()
+        val framed = fixture.frame(wire)
+        framed[framed.size / 3] = (framed[framed.size / 3].toInt() xor 0x55).toByte()
+
+        val frames = FramedEnvelope.read(framed, false)!!
+
+        assertFalse(frames.isDamaged)
+        assertEquals(wire.size, frames.wire!!.size)
+        assertEquals(1, FramedEnvelope.read(framed, true)!!.droppedItems)
+    }
+
+    @Test
+    fun `envelopes whose items can't be told apart aren't framed`() {
+        val stream = ByteArrayOutputStream()
+
+        assertFalse(FramedEnvelope.frame("{}\n{\"type\":\"event\"}\n{}".toByteArray(), stream))
+        assertEquals(0, stream.size())
+    }
+
+    @Test
+    fun `nothing is left of a file with a corrupted header`() {
+        val framed = fixture.frame(fixture.serialize())
+        framed[26] = (framed[26].toInt() xor 1).toByte()
+
+        val frames = FramedEnvelope.read(framed, true)
+
+        assertNotNull(frames)
+        assertNull(frames.wire)
+        assertTrue(frames.isDamaged)
+    }
+}
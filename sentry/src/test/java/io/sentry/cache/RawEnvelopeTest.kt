@@ -0,0 +1,99 @@
+package io.sentry.cache
+
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEnvelopeItem
+import io.sentry.SentryEvent
+import io.sentry.SentryItemType
+import io.sentry.SentryOptions
+import io.sentry.Session
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.InputStreamReader
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class RawEnvelopeTest {
+
+    private class Fixture {
+        val options = SentryOptions()
+
+        fun serialize(envelope: SentryEnvelope): ByteArray {
+            val stream = ByteArrayOutputStream()
+            options.serializer.serialize(envelope, stream)
+            return stream.toByteArray()
+        }
+
+        fun readSessions(bytes: ByteArray): List<Session> {
+            val envelope = options.envelopeReader.read(ByteArrayInputStream(bytes))!!
+            return envelope.items
+                .filter { it.header.type == SentryItemType.Session }
+                .map { options.serializer.deserialize(InputStreamReader(ByteArrayInputStream(it.data), Charsets.UTF_8), Session::class.java)!! }
+        }
+
+        fun createSession(): Session = Session("did", null, "production", "1.0")
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `finds the items and their types`() {
+        val session = fixture.createSession()
+        val envelope = SentryEnvelope(null, null, listOf(
+            SentryEnvelopeItem.fromEvent(fixture.options.serializer, SentryEvent()),
+            SentryEnvelopeItem.fromSession(fixture.options.serializer, session)
+        ))
+
+        val sut = RawEnvelope.parse(fixture.serialize(envelope))!!
+
+        assertEquals(listOf(SentryItemType.Event, SentryItemType.Session), sut.items.map { it.type })
+        val fields = sut.readSession(sut.items[1])!!
+        assertEquals(session.sessionId, fields.sessionId)
+        assertTrue(fields.isOk)
+        assertFalse(fields.isInit)
+    }
+
+    @Test
+    fun `sets the init flag of a session that doesn't have it`() {
+        val session = fixture.createSession()
+        val sut = RawEnvelope.parse(fixture.serialize(SentryEnvelope.from(fixture.options.serializer, session, null)))!!
+        val item = sut.items.single()
+
+        val patched = sut.withInit(item, sut.readSession(item)!!)
+
+        val read = fixture.readSessions(patched).single()
+        assertEquals(true, read.init)
+        assertEquals(session.sessionId, read.sessionId)
+        assertEquals(session.started, read.started)
+    }
+
+    @Test
+    fun `sets the init flag of a session where it's false`() {
+        val payload = "{\"sid\":\"c81d4e2e-bcf2-11e6-869b-7df92533d2db\",\"init\":false,\"status\":\"ok\"}"
+        val bytes = "{}\n{\"type\":\"session\",\"length\":${payload.length}}\n$payload\n".toByteArray()
+        val sut = RawEnvelope.parse(bytes)!!
+        val item = sut.items.single()
+
+        val patched = sut.withInit(item, sut.readSession(item)!!)
+
+        assertEquals(true, fixture.readSessions(patched).single().init)
+    }
+
+    @Test
+    fun `sessions with escaped strings aren't read`() {
+        val payload = "{\"sid\":\"c81d4e2e-bcf2-11e6-869b-7df92533d2db\",\"did\":\"a\\\"b\",\"status\":\"ok\"}"
+
+        assertNull(RawEnvelope.readSession(payload.toByteArray()))
+    }
+
+    @Test
+    fun `envelopes with a wrong item length aren't read`() {
+        val bytes = "{}\n{\"type\":\"session\",\"length\":100}\n{}\n".toByteArray()
+
+        assertNull(RawEnvelope.parse(bytes))
+        assertNotNull(RawEnvelope.parse("{}\n{\"type\":\"session\",\"length\":2}\n{}\n".toByteArray()))
+    }
+}
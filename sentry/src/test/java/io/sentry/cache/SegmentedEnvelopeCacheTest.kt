@@ -0,0 +1,258 @@
+package io.sentry.cache
+
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEvent
+import io.sentry.SentryOptions
+import io.sentry.protocol.SentryId
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class SegmentedEnvelopeCacheTest {
+
+    private class Fixture {
+        val dir: File = Files.createTempDirectory("sentry-segmented-cache-test").toFile()
+        val options = SentryOptions()
+
+        fun getSUT(): SegmentedEnvelopeCache {
+            options.cacheDirPath = dir.absolutePath
+            return SegmentedEnvelopeCache(options)
+        }
+
+        fun createEnvelope(event: SentryEvent = SentryEvent()): SentryEnvelope {
+            return SentryEnvelope.from(options.serializer, event, null)
+        }
+
+        fun segments(): List<File> {
+            return File(dir, SegmentedEnvelopeCache.LOG_DIRECTORY).listFiles()!!.sortedBy { it.name }
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @AfterTest
+    fun `delete the cache folder`() {
+        fixture.dir.deleteRecursively()
+    }
+
+    @Test
+    fun `stores envelopes in a single segment and iterates them oldest first`() {
+        val sut = fixture.getSUT()
+        val first = SentryEvent()
+        val second = SentryEvent()
+
+        sut.store(fixture.createEnvelope(first))
+        sut.store(fixture.createEnvelope(second))
+
+        assertEquals(listOf(first.eventId, second.eventId), sut.map { it.header.eventId })
+        assertEquals(1, fixture.segments().size)
+    }
+
+    @Test
+    fun `discarded envelopes aren't iterated`() {
+        val sut = fixture.getSUT()
+        val discarded = fixture.createEnvelope()
+        val kept = SentryEvent()
+
+        sut.store(discarded)
+        sut.store(fixture.createEnvelope(kept))
+        sut.discard(discarded)
+
+        assertEquals(listOf(kept.eventId), sut.map { it.header.eventId })
+    }
+
+    @Test
+    fun `envelopes read from the cache can be discarded`() {
+        val sut = fixture.getSUT()
+        sut.store(fixture.createEnvelope())
+
+        sut.forEach { sut.discard(it) }
+
+        assertTrue(sut.toList().isEmpty())
+    }
+
+    @Test
+    fun `envelopes without an event id are cached with a generated one`() {
+        val sut = fixture.getSUT()
+        val envelope = SentryEnvelope(null, null, listOf())
+
+        sut.store(envelope)
+        sut.discard(envelope)
+
+        assertTrue(sut.toList().isEmpty())
+    }
+
+    @Test
+    fun `stored and discarded envelopes are recovered by the next cache`() {
+        val sut = fixture.getSUT()
+        val discarded = fixture.createEnvelope()
+        val kept = SentryEvent()
+        sut.store(discarded)
+        sut.store(fixture.createEnvelope(kept))
+        sut.discard(discarded)
+
+        val next = fixture.getSUT()
+
+        assertEquals(listOf(kept.eventId), next.map { it.header.eventId })
+    }
+
+    @Test
+    fun `a torn record at the end of a segment is cut off on recovery`() {
+        val sut = fixture.getSUT()
+        val kept = SentryEvent()
+        sut.store(fixture.createEnvelope(kept))
+        val segment = fixture.segments().single()
+        val size = segment.length()
+        // a header that claims more bytes than were written
+        segment.appendBytes(ByteArray(SegmentedEnvelopeCache.HEADER_SIZE) { 1 })
+
+        val next = fixture.getSUT()
+
+        assertEquals(listOf(kept.eventId), next.map { it.header.eventId })
+        assertEquals(size, segment.length())
+    }
+
+    @Test
+    fun `the segments are read on the first use of the cache, not when it's created`() {
+        fixture.getSUT()
+        assertFalse(File(fixture.dir, SegmentedEnvelopeCache.LOG_DIRECTORY).exists())
+
+        val sut = fixture.getSUT()
+        val kept = SentryEvent()
+        sut.store(fixture.createEnvelope(kept))
+        val segment = fixture.segments().single()
+        val size = segment.length()
+        segment.appendBytes(ByteArray(SegmentedEnvelopeCache.HEADER_SIZE) { 1 })
+
+        val next = fixture.getSUT()
+        assertEquals(size + SegmentedEnvelopeCache.HEADER_SIZE, segment.length())
+
+        assertEquals(listOf(kept.eventId), next.map { it.header.eventId })
+        assertEquals(size, segment.length())
+    }
+
+    @Test
+    fun `a record with a wrong checksum is cut off on recovery`() {
+        val sut = fixture.getSUT()
+        sut.store(fixture.createEnvelope())
+        val segment = fixture.segments().single()
+        val bytes = segment.readBytes()
+        bytes[bytes.size - 1] = (bytes[bytes.size - 1] + 1).toByte()
+        segment.writeBytes(bytes)
+
+        val next = fixture.getSUT()
+
+        assertTrue(next.toList().isEmpty())
+        assertEquals(0, segment.length())
+    }
+
+    @Test
+    fun `segments whose envelopes were all discarded are deleted`() {
+        fixture.options.maxSegmentedCacheSize = 8 * 1024
+        val sut = fixture.getSUT()
+        val envelopes = (1..20).map { fixture.createEnvelope() }
+        envelopes.forEach { sut.store(it) }
+        assertTrue(sut.segmentCount > 1)
+
+        envelopes.forEach { sut.discard(it) }
+
+        assertEquals(1, sut.segmentCount)
+        assertEquals(1, fixture.segments().size)
+    }
+
+    @Test
+    fun `tombstones are kept while the segment of their envelope is`() {
+        fixture.options.maxSegmentedCacheSize = 8 * 1024
+        val sut = fixture.getSUT()
+        val firstSegment = mutableListOf<SentryEnvelope>()
+        while (sut.segmentCount == 1) {
+            val envelope = fixture.createEnvelope()
+            sut.store(envelope)
+            if (sut.segmentCount == 1) firstSegment.add(envelope) else sut.discard(envelope)
+        }
+        val discarded = firstSegment.first()
+        // its tombstone goes to the second segment, which rolls over with nothing cached in it
+        sut.discard(discarded)
+        var stored = 0
+        while (!File(fixture.dir, "${SegmentedEnvelopeCache.LOG_DIRECTORY}/2.log").exists() && stored++ < 100) {
+            val envelope = fixture.createEnvelope()
+            sut.store(envelope)
+            sut.discard(envelope)
+        }
+        assertEquals(3, sut.segmentCount)
+
+        val next = fixture.getSUT()
+
+        assertEquals(firstSegment.drop(1).map { it.header.eventId }, next.map { it.header.eventId })
+        next.forEach { next.discard(it) }
+        assertEquals(1, next.segmentCount)
+        assertTrue(fixture.getSUT().toList().isEmpty())
+    }
+
+    @Test
+    fun `mostly discarded segments are compacted`() {
+        fixture.options.maxSegmentedCacheSize = 8 * 1024
+        val sut = fixture.getSUT()
+        val envelopes = (1..20).map { fixture.createEnvelope() }
+        envelopes.forEach { sut.store(it) }
+        val kept = envelopes.last()
+        val sizeBefore = sut.totalSize
+
+        envelopes.dropLast(1).forEach { sut.discard(it) }
+
+        assertEquals(listOf(kept.header.eventId), sut.map { it.header.eventId })
+        assertTrue(sut.totalSize < sizeBefore)
+        assertEquals(listOf(kept.header.eventId), fixture.getSUT().map { it.header.eventId })
+    }
+
+    @Test
+    fun `the oldest envelopes are dropped once the max size is exceeded`() {
+        fixture.options.maxSegmentedCacheSize = 4 * 1024
+        val sut = fixture.getSUT()
+        val events = (1..50).map { SentryEvent() }
+
+        events.forEach { sut.store(fixture.createEnvelope(it)) }
+
+        assertTrue(sut.totalSize <= 4 * 1024)
+        assertTrue(fixture.segments().sumOf { it.length() } <= 4 * 1024)
+        val cached = sut.map { it.header.eventId }
+        assertTrue(cached.isNotEmpty())
+        assertEquals(events.takeLast(cached.size).map { it.eventId }, cached)
+    }
+
+    @Test
+    fun `envelopes bigger than the max size aren't cached`() {
+        fixture.options.maxSegmentedCacheSize = 10
+        val sut = fixture.getSUT()
+
+        sut.store(fixture.createEnvelope())
+
+        assertTrue(sut.toList().isEmpty())
+    }
+
+    @Test
+    fun `an envelope stored twice is cached once`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+
+        sut.store(envelope)
+        sut.store(envelope)
+
+        assertEquals(listOf<SentryId?>(envelope.header.eventId), sut.map { it.header.eventId })
+    }
+
+    @Test
+    fun `envelopes stored as a group are cached in order and recovered`() {
+        val sut = fixture.getSUT()
+        val events = (1..3).map { SentryEvent() }
+
+        sut.storeAll(events.map { fixture.createEnvelope(it) })
+
+        assertEquals(events.map { it.eventId }, sut.map { it.header.eventId })
+        assertEquals(events.map { it.eventId }, fixture.getSUT().map { it.header.eventId })
+    }
+}
@@ -2,27 +2,42 @@ package io.sentry.transport
 
 import com.nhaarman.mockitokotlin2.any
 import com.nhaarman.mockitokotlin2.anyOrNull
+import com.nhaarman.mockitokotlin2.argumentCaptor
 import com.nhaarman.mockitokotlin2.check
+import com.nhaarman.mockitokotlin2.doAnswer
 import com.nhaarman.mockitokotlin2.eq
 import com.nhaarman.mockitokotlin2.inOrder
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
 import com.nhaarman.mockitokotlin2.verify
 import com.nhaarman.mockitokotlin2.whenever
 import io.sentry.CachedEvent
+import io.sentry.GsonSerializer
 import io.sentry.SentryEnvelope
 import io.sentry.SentryEnvelopeHeader
 import io.sentry.SentryEnvelopeItem
 import io.sentry.SentryEvent
+import io.sentry.SentryItemType
 import io.sentry.SentryOptions
 import io.sentry.Session
 import io.sentry.cache.IEnvelopeCache
 import io.sentry.dsnString
+import io.sentry.hints.Retryable
+import io.sentry.hints.SessionStart
+import io.sentry.hints.SubmissionResult
 import io.sentry.protocol.User
 import java.io.IOException
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
 import kotlin.test.Test
 import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+import org.awaitility.kotlin.await
 
 class AsyncConnectionTest {
 
@@ -81,7 +96,7 @@ class AsyncConnectionTest {
 
         // then
         verify(fixture.envelopeCache).store(eq(envelope), anyOrNull())
-        verify(fixture.transport).isRetryAfter(any())
+        verify(fixture.transport).isRetryAfter(any<SentryItemType>())
     }
 
     @Test
@@ -132,7 +147,7 @@ class AsyncConnectionTest {
     fun `when event is retry after, do not submit runnable`() {
         // given
         val ev = SentryEvent()
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, ev, null)
 
         // when
@@ -146,7 +161,7 @@ class AsyncConnectionTest {
     fun `when event is not retry after, submit runnable`() {
         // given
         val ev = SentryEvent()
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(false)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(false)
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, ev, null)
 
         // when
@@ -160,7 +175,7 @@ class AsyncConnectionTest {
     fun `when session is retry after, do not submit runnable`() {
         // given
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
 
         // when
         fixture.getSUT().send(envelope)
@@ -173,7 +188,7 @@ class AsyncConnectionTest {
     fun `when session is retry after and cached, discard session`() {
         // given
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
 
         // when
         fixture.getSUT().send(envelope, CachedEvent())
@@ -186,7 +201,7 @@ class AsyncConnectionTest {
     fun `when session is retry after but not cached, do nothing`() {
         // given
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
 
         // when
         fixture.getSUT().send(envelope)
@@ -199,7 +214,7 @@ class AsyncConnectionTest {
     fun `when session is not retry after, submit runnable`() {
         // given
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(false)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(false)
 
         // when
         fixture.getSUT().send(envelope)
@@ -214,8 +229,8 @@ class AsyncConnectionTest {
         val eventItem = SentryEnvelopeItem.fromEvent(fixture.sentryOptions.serializer, SentryEvent())
         val envelope = SentryEnvelope(SentryEnvelopeHeader(), arrayListOf(sessionItem, eventItem))
 
-        whenever(fixture.transport.isRetryAfter(eq("event"))).thenReturn(false)
-        whenever(fixture.transport.isRetryAfter(eq("session"))).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(eq(SentryItemType.Event))).thenReturn(false)
+        whenever(fixture.transport.isRetryAfter(eq(SentryItemType.Session))).thenReturn(true)
         whenever(fixture.transportGate.isConnected).thenReturn(true)
         whenever(fixture.transport.send(any<SentryEnvelope>())).thenReturn(TransportResult.success())
         fixture.getSUT().send(envelope)
@@ -224,11 +239,43 @@ class AsyncConnectionTest {
         })
     }
 
+    @Test
+    fun `items over the client rate limit are dropped before being queued and counted`() {
+        fixture.sentryOptions.setClientRateLimit("session", 1.0, 1)
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any<SentryEnvelope>())).thenReturn(TransportResult.success())
+        val sut = fixture.getSUT()
+        val hint = SendHint()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null), hint)
+
+        verify(fixture.executor).submit(any())
+        assertEquals(false, hint.result)
+        assertEquals(1, sut.clientRateLimitedItemCount)
+        assertEquals(1, sut.getClientRateLimitedItemCount("session"))
+        assertEquals(0, sut.getClientRateLimitedItemCount("error"))
+    }
+
+    @Test
+    fun `items rate limited by Sentry don't take client rate limit tokens`() {
+        fixture.sentryOptions.setClientRateLimit("session", 1.0, 1)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
+        val sut = fixture.getSUT()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(false)
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+
+        verify(fixture.executor).submit(any())
+        assertEquals(0, sut.clientRateLimitedItemCount)
+    }
+
     @Test
     fun `when event is retry after and cached, discard session`() {
         // given
         val ev = SentryEvent()
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, ev, null)
 
         // when
@@ -242,7 +289,7 @@ class AsyncConnectionTest {
     fun `when event is retry after but not cached, do nothing`() {
         // given
         val ev = SentryEvent()
-        whenever(fixture.transport.isRetryAfter(any())).thenReturn(true)
+        whenever(fixture.transport.isRetryAfter(any<SentryItemType>())).thenReturn(true)
         val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, ev, null)
 
         // when
@@ -252,6 +299,334 @@ class AsyncConnectionTest {
         verify(fixture.envelopeCache, never()).discard(any())
     }
 
+    @Test
+    fun `envelopes with sessions are submitted with the session ordering key`() {
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
+
+        fixture.getSUT().send(envelope)
+
+        verify(fixture.executor).submit(check<QueuedThreadPoolExecutor.OrderedRunnable> {
+            assertEquals(SentryItemType.Session, it.orderingKey)
+        })
+    }
+
+    @Test
+    fun `envelopes without sessions are submitted without ordering key`() {
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null)
+
+        fixture.getSUT().send(envelope)
+
+        verify(fixture.executor).submit(check<QueuedThreadPoolExecutor.OrderedRunnable> {
+            assertNull(it.orderingKey)
+        })
+    }
+
+    @Test
+    fun `when batching is enabled, queued session envelopes are sent in one request`() {
+        val queued = queueSubmittedTasks()
+        fixture.sentryOptions.isEnableEnvelopeBatching = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val sut = fixture.getSUT()
+        val hints = (1..3).map { SendHint() }
+        val envelopes = hints.map { SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null) }
+
+        envelopes.zip(hints).forEach { (envelope, hint) -> sut.send(envelope, hint) }
+        queued.forEach { it.run() }
+
+        verify(fixture.transport).send(check { assertEquals(3, it.items.count()) })
+        envelopes.forEach {
+            verify(fixture.envelopeCache).store(eq(it), anyOrNull())
+            verify(fixture.envelopeCache).discard(eq(it))
+        }
+        hints.forEach { assertTrue(it.isSuccess) }
+    }
+
+    @Test
+    fun `when batching is enabled, envelopes with events are sent on their own`() {
+        val queued = queueSubmittedTasks()
+        fixture.sentryOptions.isEnableEnvelopeBatching = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val sut = fixture.getSUT()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null))
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null))
+        queued.forEach { it.run() }
+
+        verify(fixture.transport, times(2)).send(check { assertEquals(1, it.items.count()) })
+    }
+
+    @Test
+    fun `when batching is disabled, every session envelope is sent on its own`() {
+        val queued = queueSubmittedTasks()
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val sut = fixture.getSUT()
+
+        repeat(3) { sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)) }
+        queued.forEach { it.run() }
+
+        verify(fixture.transport, times(3)).send(any())
+    }
+
+    @Test
+    fun `when batching is enabled, a batch holds at most MAX_BATCH_ITEMS items`() {
+        val queued = queueSubmittedTasks()
+        fixture.sentryOptions.isEnableEnvelopeBatching = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val sut = fixture.getSUT()
+
+        repeat(AsyncConnection.MAX_BATCH_ITEMS + 1) {
+            sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+        }
+        queued.forEach { it.run() }
+
+        val sent = argumentCaptor<SentryEnvelope>()
+        verify(fixture.transport, times(2)).send(sent.capture())
+        assertEquals(listOf(AsyncConnection.MAX_BATCH_ITEMS, 1), sent.allValues.map { it.items.count() })
+    }
+
+    @Test
+    fun `when a batch fails, every envelope of it is marked as retryable`() {
+        val queued = queueSubmittedTasks()
+        fixture.sentryOptions.isEnableEnvelopeBatching = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenThrow(IOException())
+        val sut = fixture.getSUT()
+        val hints = (1..2).map { SendHint() }
+
+        hints.forEach { sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null), it) }
+        try {
+            queued.first().run()
+        } catch (e: IllegalStateException) {
+        }
+        queued.drop(1).forEach { it.run() }
+
+        verify(fixture.transport).send(any())
+        verify(fixture.envelopeCache, never()).discard(any())
+        hints.forEach {
+            assertTrue(it.isRetry)
+            assertEquals(false, it.result)
+        }
+    }
+
+    @Test
+    fun `when the ring buffer queue is enabled, envelopes are sent through it`() {
+        fixture.sentryOptions.isEnableRingBufferQueue = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val sut = AsyncConnection(fixture.transport, fixture.transportGate, fixture.envelopeCache, 1, fixture.sentryOptions)
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
+
+        sut.send(envelope)
+        sut.close()
+
+        verify(fixture.transport).send(eq(envelope))
+        assertEquals(0, sut.queueDepth)
+    }
+
+    @Test
+    fun `counts the rejected envelopes`() {
+        fixture.sentryOptions.isEnableRingBufferQueue = true
+        val sut = AsyncConnection(fixture.transport, fixture.transportGate, fixture.envelopeCache, 1, fixture.sentryOptions)
+        sut.close()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+
+        assertEquals(1, sut.rejectedEnvelopeCount)
+        verify(fixture.transport, never()).send(any())
+    }
+
+    @Test
+    fun `when the ring buffer queue is full, envelopes are dropped without being cached`() {
+        fixture.sentryOptions.isEnableRingBufferQueue = true
+        val blocker = CountDownLatch(1)
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenAnswer { blocker.await(); TransportResult.success() }
+        val sut = AsyncConnection(fixture.transport, fixture.transportGate, fixture.envelopeCache, 1, fixture.sentryOptions)
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+        await.untilAsserted { verify(fixture.transport).send(any()) }
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+
+        assertEquals(1, sut.rejectedEnvelopeCount)
+        verify(fixture.envelopeCache, never()).store(any(), anyOrNull())
+        blocker.countDown()
+        sut.close()
+    }
+
+    @Test
+    fun `when the spillover is enabled, envelopes that don't fit are spilled and replayed once there's room`() {
+        val dir = Files.createTempDirectory("sentry-spillover-test").toFile()
+        fixture.sentryOptions.cacheDirPath = dir.absolutePath
+        fixture.sentryOptions.isEnableQueueSpillover = true
+        fixture.sentryOptions.setSerializer(GsonSerializer(fixture.sentryOptions.logger, fixture.sentryOptions.envelopeReader))
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val cancelled = mock<Future<*>>()
+        whenever(cancelled.isCancelled).thenReturn(true)
+        whenever(fixture.executor.submit(any())).thenReturn(cancelled)
+        val sut = fixture.getSUT()
+        val hint = SendHint()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null), hint)
+
+        await.untilAsserted { assertEquals(1, sut.spilledEnvelopeCount) }
+        assertEquals(false, hint.result)
+        assertFalse(hint.isRetry)
+        verify(fixture.transport, never()).send(any())
+
+        whenever(fixture.executor.submit(any())).thenAnswer { (it.arguments[0] as Runnable).run(); mock<Future<*>>() }
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null))
+
+        await.untilAsserted { assertEquals(1, sut.replayedEnvelopeCount) }
+        verify(fixture.transport, times(2)).send(any())
+        assertEquals(0, sut.spilloverDroppedEnvelopeCount)
+        sut.close()
+        dir.deleteRecursively()
+    }
+
+    @Test
+    fun `when the spillover is disabled, envelopes that don't fit are dropped`() {
+        val cancelled = mock<Future<*>>()
+        whenever(cancelled.isCancelled).thenReturn(true)
+        whenever(fixture.executor.submit(any())).thenReturn(cancelled)
+        val sut = fixture.getSUT()
+
+        sut.send(SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null))
+
+        assertEquals(0, sut.spilledEnvelopeCount)
+        verify(fixture.envelopeCache, never()).store(any(), anyOrNull())
+    }
+
+    @Test
+    fun `with an async transport, envelopes without sessions don't wait for the response`() {
+        val transport = mock<IAsyncTransport>()
+        fixture.transport = transport
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null)
+        val hint = SendHint()
+
+        fixture.getSUT().send(envelope, hint)
+
+        val callback = argumentCaptor<IAsyncTransport.Callback>()
+        verify(transport).sendAsync(eq(envelope), callback.capture())
+        verify(transport, never()).send(any())
+        assertNull(hint.result)
+
+        callback.firstValue.onResult(TransportResult.success())
+        verify(fixture.envelopeCache).discard(eq(envelope))
+        assertEquals(true, hint.result)
+    }
+
+    @Test
+    fun `with an async transport, envelopes that failed to be sent are marked as retryable`() {
+        val transport = mock<IAsyncTransport>()
+        fixture.transport = transport
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        doAnswer {
+            (it.arguments[1] as IAsyncTransport.Callback).onFailure(IOException())
+        }.whenever(transport).sendAsync(any(), any())
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null)
+        val hint = SendHint()
+
+        fixture.getSUT().send(envelope, hint)
+
+        verify(fixture.envelopeCache, never()).discard(any())
+        assertEquals(false, hint.result)
+        assertTrue(hint.isRetry)
+    }
+
+    @Test
+    fun `with an async transport, session envelopes are still sent in order`() {
+        val transport = mock<IAsyncTransport>()
+        fixture.transport = transport
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(transport.send(any())).thenReturn(TransportResult.success())
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
+
+        fixture.getSUT().send(envelope)
+
+        verify(transport).send(eq(envelope))
+        verify(transport, never()).sendAsync(any(), any())
+    }
+
+    @Test
+    fun `when write behind is enabled, envelopes sent in time aren't stored nor discarded`() {
+        fixture.sentryOptions.isEnableWriteBehindCache = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null)
+
+        fixture.getSUT().send(envelope)
+
+        verify(fixture.transport).send(eq(envelope))
+        verify(fixture.envelopeCache, never()).store(any(), anyOrNull())
+        verify(fixture.envelopeCache, never()).discard(any())
+    }
+
+    @Test
+    fun `when write behind is enabled, envelopes that failed to be sent are stored`() {
+        fixture.sentryOptions.isEnableWriteBehindCache = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.error(500))
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, SentryEvent(), null)
+
+        try {
+            fixture.getSUT().send(envelope)
+        } catch (e: IllegalStateException) {
+            // expected - this is how the AsyncConnection signals failure to the executor for it to retry
+        }
+
+        verify(fixture.envelopeCache).store(eq(envelope), anyOrNull())
+        verify(fixture.envelopeCache, never()).discard(any())
+    }
+
+    @Test
+    fun `when write behind is enabled, envelopes starting a session are stored right away`() {
+        fixture.sentryOptions.isEnableWriteBehindCache = true
+        whenever(fixture.transportGate.isConnected).thenReturn(true)
+        whenever(fixture.transport.send(any())).thenReturn(TransportResult.success())
+        val envelope = SentryEnvelope.from(fixture.sentryOptions.serializer, createSession(), null)
+        val hint = SessionStartHint()
+
+        fixture.getSUT().send(envelope, hint)
+
+        val order = inOrder(fixture.transport, fixture.envelopeCache)
+        order.verify(fixture.envelopeCache).store(eq(envelope), eq(hint))
+        order.verify(fixture.transport).send(eq(envelope))
+        order.verify(fixture.envelopeCache).discard(eq(envelope))
+    }
+
+    private fun queueSubmittedTasks(): List<Runnable> {
+        val queued = mutableListOf<Runnable>()
+        val future = mock<Future<*>>()
+        whenever(fixture.executor.submit(any())).thenAnswer { queued.add(it.arguments[0] as Runnable); future }
+        return queued
+    }
+
+    private class SessionStartHint : SessionStart
+
+    private class SendHint : SubmissionResult, Retryable {
+        var result: Boolean? = null
+        private var retry = false
+
+        override fun setResult(success: Boolean) {
+            result = success
+        }
+
+        override fun isSuccess(): Boolean = result == true
+
+        override fun isRetry(): Boolean = retry
+
+        override fun setRetry(retry: Boolean) {
+            this.retry = retry
+        }
+    }
+
     private fun createSession(): Session {
         return Session("123", User(), "env", "release")
     }
@@ -0,0 +1,109 @@
+package io.sentry.transport
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.eq
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.sentry.ILogger
+import io.sentry.SentryItemType
+import io.sentry.SentryLevel
+import io.sentry.SentryOptions
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class ClientRateLimiterTest {
+
+    private class Fixture {
+        val currentDateProvider = mock<ICurrentDateProvider>()
+        val logger = mock<ILogger>()
+        val options = SentryOptions().apply {
+            setLogger(logger)
+            setDebug(true)
+        }
+
+        init {
+            whenever(currentDateProvider.currentTimeMillis).thenReturn(0)
+        }
+
+        fun getSUT(): ClientRateLimiter {
+            return ClientRateLimiter(options, currentDateProvider)
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `when no limit is set, every item is acquired`() {
+        val sut = fixture.getSUT()
+
+        repeat(100) { assertTrue(sut.tryAcquire(SentryItemType.Event)) }
+        assertEquals(0, sut.limitedCount)
+    }
+
+    @Test
+    fun `items over the burst are limited and counted`() {
+        fixture.options.setClientRateLimit("error", 1.0, 2)
+        val sut = fixture.getSUT()
+
+        assertTrue(sut.tryAcquire(SentryItemType.Event))
+        assertTrue(sut.tryAcquire(SentryItemType.Event))
+        assertFalse(sut.tryAcquire(SentryItemType.Event))
+
+        assertEquals(1, sut.getLimitedCount("error"))
+        assertEquals(1, sut.limitedCount)
+    }
+
+    @Test
+    fun `tokens are refilled over time up to the burst`() {
+        fixture.options.setClientRateLimit("transaction", 2.0, 2)
+        val sut = fixture.getSUT()
+        assertTrue(sut.tryAcquire(SentryItemType.Transaction))
+        assertTrue(sut.tryAcquire(SentryItemType.Transaction))
+        assertFalse(sut.tryAcquire(SentryItemType.Transaction))
+
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(500)
+        assertTrue(sut.tryAcquire(SentryItemType.Transaction))
+        assertFalse(sut.tryAcquire(SentryItemType.Transaction))
+
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(60_000)
+        assertTrue(sut.tryAcquire(SentryItemType.Transaction))
+        assertTrue(sut.tryAcquire(SentryItemType.Transaction))
+        assertFalse(sut.tryAcquire(SentryItemType.Transaction))
+    }
+
+    @Test
+    fun `when the clock goes backwards, no tokens are refilled`() {
+        fixture.options.setClientRateLimit("session", 1.0, 1)
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(10_000)
+        val sut = fixture.getSUT()
+        assertTrue(sut.tryAcquire(SentryItemType.Session))
+
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0)
+        assertFalse(sut.tryAcquire(SentryItemType.Session))
+    }
+
+    @Test
+    fun `categories are limited independently`() {
+        fixture.options.setClientRateLimit("attachment", 1.0, 1)
+        val sut = fixture.getSUT()
+
+        assertTrue(sut.tryAcquire(SentryItemType.Attachment))
+        assertFalse(sut.tryAcquire(SentryItemType.Attachment))
+        assertTrue(sut.tryAcquire(SentryItemType.Event))
+        assertTrue(sut.tryAcquire(SentryItemType.Session))
+        assertEquals(0, sut.getLimitedCount("error"))
+    }
+
+    @Test
+    fun `limits of unsupported categories are ignored`() {
+        fixture.options.setClientRateLimit("security", 1.0, 1)
+        val sut = fixture.getSUT()
+
+        verify(fixture.logger).log(eq(SentryLevel.WARNING), any(), any<Any>())
+        assertTrue(sut.tryAcquire(SentryItemType.Unknown))
+        assertTrue(sut.tryAcquire(SentryItemType.Unknown))
+    }
+}
@@ -0,0 +1,125 @@
+package io.sentry.transport
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.verify
+import io.sentry.ISerializer
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEvent
+import io.sentry.SentryOptions
+import java.io.File
+import java.io.OutputStream
+import java.nio.file.Files
+import java.util.concurrent.CopyOnWriteArrayList
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import org.awaitility.kotlin.await
+
+class EnvelopeSpilloverTest {
+
+    private class Fixture {
+        val dir: File = Files.createTempDirectory("sentry-spillover-test").toFile()
+        val options = SentryOptions()
+        val replayed = CopyOnWriteArrayList<SentryEnvelope>()
+        @Volatile
+        var hasRoom = false
+
+        fun getSUT(): EnvelopeSpillover {
+            return EnvelopeSpillover(options, dir.absolutePath, EnvelopeSpillover.ReplayTarget {
+                if (hasRoom) {
+                    replayed.add(it)
+                }
+                hasRoom
+            })
+        }
+
+        fun createEnvelope(event: SentryEvent = SentryEvent()): SentryEnvelope {
+            return SentryEnvelope.from(options.serializer, event, null)
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @AfterTest
+    fun `delete the spillover folder`() {
+        fixture.dir.deleteRecursively()
+    }
+
+    @Test
+    fun `spilled envelopes are written to the disk and replayed once there's room`() {
+        val sut = fixture.getSUT()
+        val event = SentryEvent()
+
+        sut.spill(fixture.createEnvelope(event))
+        await.untilAsserted { assertEquals(1, sut.spilledCount) }
+        assertEquals(1, fixture.dir.list()!!.size)
+        assertEquals(1, sut.pendingCount)
+
+        sut.replay()
+        sut.close(1000)
+        assertEquals(0, sut.replayedCount)
+        assertEquals(1, fixture.dir.list()!!.size)
+
+        fixture.hasRoom = true
+        val next = fixture.getSUT()
+        await.untilAsserted { assertEquals(1, next.replayedCount) }
+        assertEquals(0, fixture.dir.list()!!.size)
+        assertEquals(event.eventId, fixture.replayed.single().header.eventId)
+    }
+
+    @Test
+    fun `replay hands the spilled envelopes over oldest first`() {
+        val sut = fixture.getSUT()
+        val first = SentryEvent()
+        val second = SentryEvent()
+
+        sut.spill(fixture.createEnvelope(first))
+        sut.spill(fixture.createEnvelope(second))
+        await.untilAsserted { assertEquals(2, sut.spilledCount) }
+
+        fixture.hasRoom = true
+        sut.replay()
+
+        await.untilAsserted { assertEquals(2, sut.replayedCount) }
+        assertEquals(listOf(first.eventId, second.eventId), fixture.replayed.map { it.header.eventId })
+        assertEquals(0, sut.pendingCount)
+    }
+
+    @Test
+    fun `envelopes that don't fit in the max spillover size are dropped`() {
+        fixture.options.maxSpilloverSize = 1
+        val sut = fixture.getSUT()
+
+        sut.spill(fixture.createEnvelope())
+
+        await.untilAsserted { assertEquals(1, sut.droppedCount) }
+        assertEquals(0, sut.spilledCount)
+        assertEquals(0, fixture.dir.list()!!.size)
+    }
+
+    @Test
+    fun `envelopes with payloads larger than the max spillover size aren't written`() {
+        val envelope = fixture.createEnvelope()
+        val serializer = mock<ISerializer>()
+        fixture.options.setSerializer(serializer)
+        fixture.options.maxSpilloverSize = 1
+        val sut = fixture.getSUT()
+
+        sut.spill(envelope)
+
+        await.untilAsserted { assertEquals(1, sut.droppedCount) }
+        verify(serializer, never()).serialize(any<SentryEnvelope>(), any<OutputStream>())
+    }
+
+    @Test
+    fun `when closed, envelopes are dropped`() {
+        val sut = fixture.getSUT()
+        sut.close(1000)
+
+        sut.spill(fixture.createEnvelope())
+
+        assertEquals(1, sut.droppedCount)
+    }
+}
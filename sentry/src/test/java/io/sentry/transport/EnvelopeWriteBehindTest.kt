@@ -0,0 +1,212 @@
+package io.sentry.transport
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.doThrow
+import com.nhaarman.mockitokotlin2.inOrder
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.sentry.SentryEnvelope
+import io.sentry.SentryEvent
+import io.sentry.SentryOptions
+import io.sentry.cache.IEnvelopeCache
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+import org.awaitility.kotlin.await
+
+class EnvelopeWriteBehindTest {
+
+    private class Fixture {
+        val options = SentryOptions()
+        val envelopeCache = mock<IEnvelopeCache>()
+        var sut: EnvelopeWriteBehind? = null
+
+        fun getSUT(delayMillis: Long = 60_000): EnvelopeWriteBehind {
+            options.writeBehindDelayMillis = delayMillis
+            return EnvelopeWriteBehind(options).also { sut = it }
+        }
+
+        fun createEnvelope(): SentryEnvelope {
+            return SentryEnvelope.from(options.serializer, SentryEvent(), null)
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @AfterTest
+    fun `close the write behind`() {
+        fixture.sut?.close()
+    }
+
+    @Test
+    fun `envelopes sent within the delay are never stored`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+
+        sut.defer(envelope, fixture.envelopeCache)
+        assertTrue(sut.isDeferred(envelope))
+        sut.complete(envelope, true)
+
+        assertFalse(sut.isDeferred(envelope))
+        verify(fixture.envelopeCache, never()).store(any())
+        verify(fixture.envelopeCache, never()).storeAll(any())
+        verify(fixture.envelopeCache, never()).discard(any())
+        assertEquals(0, sut.persistedCount)
+    }
+
+    @Test
+    fun `envelopes that failed to be sent are stored`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+
+        sut.defer(envelope, fixture.envelopeCache)
+        sut.complete(envelope, false)
+
+        verify(fixture.envelopeCache).store(envelope)
+        assertEquals(1, sut.persistedCount)
+    }
+
+    @Test
+    fun `envelopes still being sent after the delay are stored as a group, and discarded once sent`() {
+        val sut = fixture.getSUT(delayMillis = 10)
+        val first = fixture.createEnvelope()
+        val second = fixture.createEnvelope()
+
+        sut.defer(first, fixture.envelopeCache)
+        sut.defer(second, fixture.envelopeCache)
+
+        await.untilAsserted { assertEquals(2, sut.persistedCount) }
+        verify(fixture.envelopeCache).storeAll(listOf(first, second))
+
+        sut.complete(first, true)
+        sut.complete(second, false)
+        verify(fixture.envelopeCache).discard(first)
+        verify(fixture.envelopeCache, never()).discard(second)
+        verify(fixture.envelopeCache, never()).store(any())
+        assertEquals(0, sut.pendingCount)
+    }
+
+    @Test
+    fun `persistAll stores the envelopes before they are due`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        sut.defer(envelope, fixture.envelopeCache)
+
+        sut.persistAll()
+        sut.persistAll()
+
+        verify(fixture.envelopeCache).storeAll(listOf(envelope))
+        assertEquals(1, sut.persistedCount)
+    }
+
+    @Test
+    fun `senders don't wait for the group being stored, and one sent meanwhile is discarded once stored`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        val storing = CountDownLatch(1)
+        val stored = CountDownLatch(1)
+        doAnswer {
+            storing.countDown()
+            stored.await()
+        }.whenever(fixture.envelopeCache).storeAll(any())
+        sut.defer(envelope, fixture.envelopeCache)
+        val persister = Thread { sut.persistAll() }
+        persister.start()
+        assertTrue(storing.await(5, TimeUnit.SECONDS))
+
+        val sender = Thread {
+            sut.defer(fixture.createEnvelope(), fixture.envelopeCache)
+            sut.complete(envelope, true)
+        }
+        sender.start()
+        sender.join(5_000)
+
+        assertFalse(sender.isAlive)
+        assertFalse(sut.isDeferred(envelope))
+        verify(fixture.envelopeCache, never()).discard(any())
+        stored.countDown()
+        persister.join(5_000)
+        val inOrder = inOrder(fixture.envelopeCache)
+        inOrder.verify(fixture.envelopeCache).storeAll(listOf(envelope))
+        inOrder.verify(fixture.envelopeCache).discard(envelope)
+    }
+
+    @Test
+    fun `a group the cache fails to store is held again and stored by the next persist`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        doThrow(RuntimeException("disk full")).doNothing().whenever(fixture.envelopeCache).storeAll(any())
+        sut.defer(envelope, fixture.envelopeCache)
+
+        sut.persistAll()
+        assertTrue(sut.isDeferred(envelope))
+        assertEquals(0, sut.persistedCount)
+
+        sut.persistAll()
+        verify(fixture.envelopeCache, times(2)).storeAll(listOf(envelope))
+        assertEquals(1, sut.persistedCount)
+
+        sut.complete(envelope, true)
+        verify(fixture.envelopeCache).discard(envelope)
+    }
+
+    @Test
+    fun `one that failed to be sent is stored by the sender if the cache failed to store its group`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        doThrow(RuntimeException("disk full")).whenever(fixture.envelopeCache).storeAll(any())
+        sut.defer(envelope, fixture.envelopeCache)
+
+        sut.persistAll()
+        sut.complete(envelope, false)
+
+        verify(fixture.envelopeCache).store(envelope)
+        assertEquals(1, sut.persistedCount)
+    }
+
+    @Test
+    fun `one that failed to be sent while its group failed to be stored is stored alone`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        val storing = CountDownLatch(1)
+        val failing = CountDownLatch(1)
+        doAnswer {
+            storing.countDown()
+            failing.await()
+            throw RuntimeException("disk full")
+        }.whenever(fixture.envelopeCache).storeAll(any())
+        sut.defer(envelope, fixture.envelopeCache)
+        val persister = Thread { sut.persistAll() }
+        persister.start()
+        assertTrue(storing.await(5, TimeUnit.SECONDS))
+
+        sut.complete(envelope, false)
+        verify(fixture.envelopeCache, never()).store(any())
+        failing.countDown()
+        persister.join(5_000)
+
+        assertFalse(persister.isAlive)
+        verify(fixture.envelopeCache).store(envelope)
+        assertEquals(1, sut.persistedCount)
+        assertEquals(0, sut.pendingCount)
+    }
+
+    @Test
+    fun `close stores what's still being sent`() {
+        val sut = fixture.getSUT()
+        val envelope = fixture.createEnvelope()
+        sut.defer(envelope, fixture.envelopeCache)
+
+        sut.close()
+
+        verify(fixture.envelopeCache).storeAll(listOf(envelope))
+    }
+}
@@ -5,16 +5,20 @@ import com.nhaarman.mockitokotlin2.check
 import com.nhaarman.mockitokotlin2.eq
 import com.nhaarman.mockitokotlin2.mock
 import com.nhaarman.mockitokotlin2.never
+import com.nhaarman.mockitokotlin2.times
 import com.nhaarman.mockitokotlin2.verify
 import com.nhaarman.mockitokotlin2.verifyZeroInteractions
 import com.nhaarman.mockitokotlin2.whenever
 import io.sentry.ISerializer
 import io.sentry.SentryEnvelope
 import io.sentry.SentryEvent
+import io.sentry.SentryItemType
 import io.sentry.SentryOptions
 import io.sentry.SentryOptions.Proxy
 import io.sentry.Session
 import io.sentry.protocol.User
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
 import java.io.IOException
 import java.net.InetSocketAddress
 import java.net.Proxy.Type
@@ -26,6 +30,8 @@ import javax.net.ssl.SSLSocketFactory
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNotSame
 import kotlin.test.assertNull
 import kotlin.test.assertTrue
 
@@ -43,6 +49,7 @@ class HttpTransportTest {
         val authenticatorWrapper = mock<AuthenticatorWrapper>()
         var sslSocketFactory: SSLSocketFactory? = null
         var hostnameVerifier: HostnameVerifier? = null
+        var enableKeepAlive = false
 
         init {
             whenever(connection.outputStream).thenReturn(mock())
@@ -57,6 +64,7 @@ class HttpTransportTest {
             options.proxy = proxy
             options.sslSocketFactory = sslSocketFactory
             options.hostnameVerifier = hostnameVerifier
+            options.isEnableKeepAlive = enableKeepAlive
 
             return object : HttpTransport(options, requestUpdater, connectionTimeout, readTimeout, sslSocketFactory, hostnameVerifier, dsn, currentDateProvider, authenticatorWrapper) {
                 override fun open(): HttpsURLConnection {
@@ -81,11 +89,27 @@ class HttpTransportTest {
         assertTrue(result.isSuccess)
     }
 
+    @Test
+    fun `sends the gzipped bytes of an envelope read from the cache as they are`() {
+        val transport = fixture.getSUT()
+        val outputStream = ByteArrayOutputStream()
+        whenever(fixture.connection.outputStream).thenReturn(outputStream)
+        whenever(fixture.connection.responseCode).thenReturn(200)
+        val compressedBytes = byteArrayOf(0x1f, 0x8b.toByte(), 1, 2, 3)
+
+        val envelope = SentryEnvelope.from(fixture.serializer, createSession(), null).withCompressedBytes(compressedBytes)
+
+        val result = transport.send(envelope)
+
+        verify(fixture.serializer, never()).serialize(any<SentryEnvelope>(), any())
+        assertTrue(compressedBytes.contentEquals(outputStream.toByteArray()))
+        assertTrue(result.isSuccess)
+    }
+
     @Test
     fun `uses Retry-After header if X-Sentry-Rate-Limit is not set when sending an envelope`() {
         val transport = fixture.getSUT()
 
-        throwOnEnvelopeSerialize()
         whenever(fixture.connection.getHeaderField(eq("Retry-After"))).thenReturn("30")
         whenever(fixture.connection.responseCode).thenReturn(429)
         whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0)
@@ -103,7 +127,6 @@ class HttpTransportTest {
     fun `passes on the response code on error when sending an envelope`() {
         val transport = fixture.getSUT()
 
-        throwOnEnvelopeSerialize()
         whenever(fixture.connection.responseCode).thenReturn(1234)
 
         val envelope = SentryEnvelope.from(fixture.serializer, createSession(), null)
@@ -119,7 +142,6 @@ class HttpTransportTest {
     fun `uses the default retry interval if there is no Retry-After header when sending an envelope`() {
         val transport = fixture.getSUT()
 
-        throwOnEnvelopeSerialize()
         whenever(fixture.connection.responseCode).thenReturn(429)
         whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0)
 
@@ -136,7 +158,6 @@ class HttpTransportTest {
     fun `failure to get response code doesn't break sending an envelope`() {
         val transport = fixture.getSUT()
 
-        throwOnEnvelopeSerialize()
         whenever(fixture.connection.responseCode).thenThrow(IOException())
 
         val session = Session("123", User(), "env", "release")
@@ -149,6 +170,23 @@ class HttpTransportTest {
         assertEquals(-1, result.responseCode)
     }
 
+    @Test
+    fun `failure to serialize an envelope doesn't send what was written of it`() {
+        val transport = fixture.getSUT()
+
+        throwOnEnvelopeSerialize()
+        whenever(fixture.connection.responseCode).thenReturn(200)
+
+        val envelope = SentryEnvelope.from(fixture.serializer, createSession(), null)
+
+        val result = transport.send(envelope)
+
+        verify(fixture.serializer).serialize(eq(envelope), any())
+        verify(fixture.connection, never()).responseCode
+        verify(fixture.connection).disconnect()
+        assertFalse(result.isSuccess)
+    }
+
     @Test
     fun `uses X-Sentry-Rate-Limit and returns accordingly`() {
         val transport = fixture.getSUT()
@@ -279,6 +317,47 @@ class HttpTransportTest {
         assertTrue(transport.isRetryAfter("event"))
     }
 
+    @Test
+    fun `parse X-Sentry-Rate-Limit with spaces and upper case categories`() {
+        val transport = fixture.getSUT()
+
+        whenever(fixture.connection.inputStream).thenThrow(IOException())
+        whenever(fixture.connection.getHeaderField(eq("X-Sentry-Rate-Limits")))
+            .thenReturn(" 60 : Transaction ; SESSION :key,")
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0)
+
+        transport.send(createEnvelope())
+        assertTrue(transport.isRetryAfter(SentryItemType.Transaction))
+        assertTrue(transport.isRetryAfter(SentryItemType.Session))
+        assertFalse(transport.isRetryAfter(SentryItemType.Event))
+    }
+
+    @Test
+    fun `when nothing is rate limited, isRetryAfter doesn't read the time`() {
+        val transport = fixture.getSUT()
+
+        assertFalse(transport.isRetryAfter(SentryItemType.Event))
+        assertFalse(transport.isRetryAfter("event"))
+
+        verifyZeroInteractions(fixture.currentDateProvider)
+    }
+
+    @Test
+    fun `when every limit has expired, isRetryAfter doesn't read the time anymore`() {
+        val transport = fixture.getSUT()
+
+        whenever(fixture.connection.inputStream).thenThrow(IOException())
+        whenever(fixture.connection.getHeaderField(eq("X-Sentry-Rate-Limits")))
+            .thenReturn("1:error:key")
+        whenever(fixture.currentDateProvider.currentTimeMillis).thenReturn(0, 1001)
+
+        transport.send(createEnvelope())
+        assertFalse(transport.isRetryAfter(SentryItemType.Event))
+        assertFalse(transport.isRetryAfter(SentryItemType.Event))
+
+        verify(fixture.currentDateProvider, times(2)).currentTimeMillis
+    }
+
     @Test
     fun `When SSLSocketFactory is given, set to connection`() {
         val factory = mock<SSLSocketFactory>()
@@ -353,6 +432,93 @@ class HttpTransportTest {
         verifyZeroInteractions(fixture.authenticatorWrapper)
     }
 
+    @Test
+    fun `When keep-alive is disabled, closes and disconnects the connection`() {
+        val transport = fixture.getSUT()
+        whenever(fixture.connection.responseCode).thenReturn(200)
+
+        transport.send(createEnvelope())
+
+        verify(fixture.connection).setRequestProperty(eq("Connection"), eq("close"))
+        verify(fixture.connection).disconnect()
+        assertNull(transport.connectionPool)
+    }
+
+    @Test
+    fun `When keep-alive is enabled, does not ask the server to close the connection`() {
+        fixture.enableKeepAlive = true
+        val transport = fixture.getSUT()
+        whenever(fixture.connection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+        whenever(fixture.connection.responseCode).thenReturn(200)
+
+        val result = transport.send(createEnvelope())
+
+        assertTrue(result.isSuccess)
+        verify(fixture.connection, never()).setRequestProperty(eq("Connection"), any())
+        verify(fixture.connection, never()).disconnect()
+    }
+
+    @Test
+    fun `When keep-alive is enabled, drains the response body`() {
+        fixture.enableKeepAlive = true
+        val transport = fixture.getSUT()
+        val response = ByteArrayInputStream("{\"id\":\"123\"}".toByteArray())
+        whenever(fixture.connection.inputStream).thenReturn(response)
+        whenever(fixture.connection.responseCode).thenReturn(200)
+
+        transport.send(createEnvelope())
+
+        assertEquals(0, response.available())
+        assertEquals(0, transport.connectionPool!!.connectionsInUse)
+        assertEquals(1, transport.connectionPool!!.requestCount)
+    }
+
+    @Test
+    fun `When keep-alive is enabled, drains the error body of failed requests`() {
+        fixture.enableKeepAlive = true
+        val transport = fixture.getSUT()
+        val error = ByteArrayInputStream("rate limited".toByteArray())
+        whenever(fixture.connection.inputStream).thenThrow(IOException())
+        whenever(fixture.connection.errorStream).thenReturn(error)
+        whenever(fixture.connection.responseCode).thenReturn(429)
+
+        val result = transport.send(createEnvelope())
+
+        assertFalse(result.isSuccess)
+        assertEquals(0, error.available())
+        verify(fixture.connection, never()).disconnect()
+    }
+
+    @Test
+    fun `When keep-alive is enabled, frees the pooled connection if connecting fails`() {
+        fixture.enableKeepAlive = true
+        val transport = fixture.getSUT()
+        whenever(fixture.connection.connect()).thenThrow(IOException())
+
+        try {
+            transport.send(createEnvelope())
+        } catch (e: IOException) {
+        }
+
+        assertEquals(0, transport.connectionPool!!.connectionsInUse)
+    }
+
+    @Test
+    fun `When keep-alive is enabled, sets the pooled SSLSocketFactory to the connection`() {
+        fixture.enableKeepAlive = true
+        val factory = mock<SSLSocketFactory>()
+        fixture.sslSocketFactory = factory
+        val transport = fixture.getSUT()
+        whenever(fixture.connection.inputStream).thenReturn(ByteArrayInputStream(ByteArray(0)))
+
+        transport.send(createEnvelope())
+
+        val pool = transport.connectionPool
+        assertNotNull(pool)
+        assertNotSame(factory, pool.sslSocketFactory)
+        verify(fixture.connection).sslSocketFactory = eq(pool.sslSocketFactory)
+    }
+
     private fun createSession(): Session {
         return Session("123", User(), "env", "release")
     }
@@ -0,0 +1,107 @@
+package io.sentry.transport
+
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import io.sentry.ILogger
+import io.sentry.SentryLevel
+import java.io.ByteArrayInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.net.Socket
+import javax.net.ssl.SSLSocketFactory
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class KeepAliveConnectionPoolTest {
+
+    private class Fixture {
+        val logger = mock<ILogger>()
+        val sslSocketFactory = mock<SSLSocketFactory>()
+
+        fun getSUT(maxConnections: Int = 2): KeepAliveConnectionPool {
+            return KeepAliveConnectionPool(maxConnections, sslSocketFactory, logger)
+        }
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `pool size has to be positive`() {
+        assertFailsWith<IllegalArgumentException> { fixture.getSUT(0) }
+    }
+
+    @Test
+    fun `acquire fails once all connections are in use`() {
+        val pool = fixture.getSUT(2)
+        pool.acquire(0)
+        pool.acquire(0)
+
+        assertEquals(2, pool.connectionsInUse)
+        assertFailsWith<IOException> { pool.acquire(0) }
+    }
+
+    @Test
+    fun `release makes the connection available again`() {
+        val pool = fixture.getSUT(1)
+        pool.acquire(0)
+        pool.release()
+
+        pool.acquire(0)
+        assertEquals(1, pool.connectionsInUse)
+        assertEquals(2, pool.requestCount)
+    }
+
+    @Test
+    fun `drainAndClose reads the whole stream and closes it`() {
+        val pool = fixture.getSUT()
+        val stream = ByteArrayInputStream(ByteArray(4096))
+
+        pool.drainAndClose(stream)
+
+        assertEquals(0, stream.available())
+    }
+
+    @Test
+    fun `drainAndClose closes the stream if reading fails`() {
+        val pool = fixture.getSUT()
+        val stream = mock<InputStream>()
+        whenever(stream.read(any())).thenThrow(IOException())
+
+        pool.drainAndClose(stream)
+
+        verify(stream).close()
+    }
+
+    @Test
+    fun `counts the sockets created by the SSLSocketFactory`() {
+        val pool = fixture.getSUT()
+        whenever(fixture.sslSocketFactory.createSocket("localhost", 443)).thenReturn(mock<Socket>())
+
+        pool.sslSocketFactory.createSocket("localhost", 443)
+        pool.sslSocketFactory.createSocket("localhost", 443)
+
+        assertEquals(2, pool.createdSockets)
+    }
+
+    @Test
+    fun `logs the reuse rate`() {
+        val pool = fixture.getSUT()
+        whenever(fixture.sslSocketFactory.createSocket("localhost", 443)).thenReturn(mock<Socket>())
+        pool.sslSocketFactory.createSocket("localhost", 443)
+        repeat(4) {
+            pool.acquire(0)
+            pool.release()
+        }
+
+        pool.logStatistics()
+
+        verify(fixture.logger).log(
+            SentryLevel.DEBUG,
+            "Connection pool: %d of %d connections in use, %d requests over %d connections (%.1f%% reused).",
+            0, 2, 4L, 1L, 75.0
+        )
+    }
+}
@@ -1,9 +1,13 @@
 package io.sentry.transport
 
 import com.nhaarman.mockitokotlin2.mock
+import java.util.Collections
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionHandler
 import java.util.concurrent.ThreadFactory
 import java.util.concurrent.ThreadPoolExecutor.DiscardPolicy
+import java.util.concurrent.TimeUnit
 import java.util.concurrent.atomic.AtomicInteger
 import kotlin.test.Test
 import kotlin.test.assertEquals
@@ -11,6 +15,7 @@ import kotlin.test.assertFalse
 import kotlin.test.assertNotNull
 import kotlin.test.assertTrue
 import kotlin.test.fail
+import org.awaitility.kotlin.await
 
 class QueuedThreadPoolExecutorTest {
 
@@ -28,8 +33,16 @@ class QueuedThreadPoolExecutorTest {
             t
         }
 
-        fun getSut(): QueuedThreadPoolExecutor =
-            QueuedThreadPoolExecutor(maxQueueSize + 1, maxQueueSize, threadFactory, DiscardPolicy(), mock())
+        fun getSut(
+            threads: Int = maxQueueSize + 1,
+            rejectedExecutionHandler: RejectedExecutionHandler = DiscardPolicy()
+        ): QueuedThreadPoolExecutor =
+            QueuedThreadPoolExecutor(threads, maxQueueSize, threadFactory, rejectedExecutionHandler, mock())
+    }
+
+    private class OrderedTask(private val key: Any?, private val block: () -> Unit) : QueuedThreadPoolExecutor.OrderedRunnable {
+        override fun getOrderingKey(): Any? = key
+        override fun run() = block()
     }
 
     private val fixture = Fixture()
@@ -138,4 +151,96 @@ class QueuedThreadPoolExecutorTest {
         val runnables = sut.shutdownNow()
         assertTrue(runnables.isEmpty())
     }
+
+    @Test
+    fun `runs tasks with the same ordering key one after the other in submit order`() {
+        val sut = fixture.getSut(threads = 3)
+        val order = Collections.synchronizedList(mutableListOf<Int>())
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+
+        (1..fixture.maxQueueSize).forEach { i ->
+            sut.submit(OrderedTask("session") {
+                maxRunning.accumulateAndGet(running.incrementAndGet()) { a, b -> maxOf(a, b) }
+                Thread.sleep(20)
+                order.add(i)
+                running.decrementAndGet()
+            })
+        }
+
+        await.until { order.size == fixture.maxQueueSize }
+        assertEquals((1..fixture.maxQueueSize).toList(), order)
+        assertEquals(1, maxRunning.get())
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `runs tasks without ordering key in parallel`() {
+        val sut = fixture.getSut(threads = 2)
+        val bothStarted = CountDownLatch(2)
+        val finished = CountDownLatch(2)
+
+        repeat(2) {
+            sut.submit(OrderedTask(null) {
+                bothStarted.countDown()
+                bothStarted.await()
+                finished.countDown()
+            })
+        }
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS), "Tasks without ordering key should run in parallel.")
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `tasks waiting for their ordering key count towards the queue size`() {
+        val sut = fixture.getSut(threads = 2)
+        val blocker = CountDownLatch(1)
+
+        val futures = (1..fixture.maxQueueSize).map {
+            sut.submit(OrderedTask("session") { blocker.await() })
+        }
+        futures.forEach { assertFalse(it.isCancelled) }
+
+        val f = sut.submit(OrderedTask("session") {})
+        assertTrue(f.isCancelled, "A task above the queue size should have been cancelled.")
+
+        blocker.countDown()
+        await.until { sut.pendingTasks == 0 }
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `rejected tasks are handed over unwrapped and free their slot`() {
+        val rejected = CopyOnWriteArrayList<Runnable>()
+        val sut = fixture.getSut(threads = 2, rejectedExecutionHandler = RejectedExecutionHandler { r, _ -> rejected.add(r) })
+        sut.shutdown()
+
+        val task = OrderedTask(null) {}
+        val future = sut.submit(task)
+
+        assertEquals(listOf<Runnable>(task), rejected)
+        assertTrue(future.isCancelled)
+        assertEquals(0, sut.pendingTasks)
+    }
+
+    @Test
+    fun `tasks waiting for their ordering key are rejected on shutdown`() {
+        val rejected = CopyOnWriteArrayList<Runnable>()
+        val sut = fixture.getSut(threads = 2, rejectedExecutionHandler = RejectedExecutionHandler { r, _ -> rejected.add(r) })
+        val started = CountDownLatch(1)
+        val blocker = CountDownLatch(1)
+
+        sut.submit(OrderedTask("session") { started.countDown(); blocker.await() })
+        started.await()
+        val waiting = (1..2).map { OrderedTask("session") {} }
+        waiting.forEach { sut.submit(it) }
+
+        sut.shutdown()
+        blocker.countDown()
+
+        assertTrue(sut.awaitTermination(5, TimeUnit.SECONDS))
+        assertEquals(waiting, rejected.toList())
+        assertEquals(0, sut.pendingTasks)
+    }
 }
@@ -0,0 +1,184 @@
+package io.sentry.transport
+
+import com.nhaarman.mockitokotlin2.mock
+import java.util.Collections
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+import org.awaitility.kotlin.await
+
+class RingBufferExecutorTest {
+
+    private class Fixture {
+        val maxQueueSize = 5
+        val rejected = CopyOnWriteArrayList<Runnable>()
+
+        private val threadFactory = ThreadFactory { r ->
+            val t = Thread(r, "RingBufferExecutorTestThread")
+            t.isDaemon = true
+            t
+        }
+
+        fun getSut(maxQueueSize: Int = this.maxQueueSize): RingBufferExecutor =
+            RingBufferExecutor(maxQueueSize, threadFactory, RingBufferExecutor.RejectionListener { rejected.add(it) }, mock())
+    }
+
+    private val fixture = Fixture()
+
+    @Test
+    fun `runs the tasks in the order they were submitted`() {
+        val sut = fixture.getSut()
+        val order = CopyOnWriteArrayList<Int>()
+        val done = CountDownLatch(3)
+
+        (1..3).forEach {
+            sut.submit {
+                order.add(it)
+                done.countDown()
+            }
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(listOf(1, 2, 3), order)
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `keeps running after a task fails`() {
+        val sut = fixture.getSut()
+        val done = CountDownLatch(1)
+
+        sut.execute { throw RuntimeException() }
+        sut.execute { done.countDown() }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `queues exactly maxQueueSize tasks and rejects the rest`() {
+        val sut = fixture.getSut()
+        val blocker = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        sut.submit {
+            started.countDown()
+            blocker.await()
+        }
+        started.await()
+
+        val futures = (1..fixture.maxQueueSize + 2).map { sut.submit {} }
+
+        assertEquals(fixture.maxQueueSize, sut.queueDepth)
+        assertEquals(2, sut.rejectedCount)
+        // the queue being full isn't the listener's business
+        assertTrue(fixture.rejected.isEmpty())
+        assertTrue(futures.takeLast(2).all { it.isCancelled })
+        assertTrue(futures.take(fixture.maxQueueSize).none { it.isCancelled })
+
+        blocker.countDown()
+        futures.take(fixture.maxQueueSize).forEach { it.get(5, TimeUnit.SECONDS) }
+        await.untilAsserted { assertEquals(0, sut.queueDepth) }
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `the rejection listener gets the task submitted after the shutdown`() {
+        val sut = fixture.getSut(maxQueueSize = 1)
+        sut.shutdown()
+
+        val task = Runnable {}
+        sut.submit(task)
+
+        assertSame(task, fixture.rejected.single())
+        assertEquals(1, sut.rejectedCount)
+    }
+
+    @Test
+    fun `never queues more than maxQueueSize tasks when submitted concurrently`() {
+        val sut = fixture.getSut()
+        val blocker = CountDownLatch(1)
+        val started = CountDownLatch(1)
+        sut.submit {
+            started.countDown()
+            blocker.await()
+        }
+        started.await()
+
+        val accepted = AtomicInteger()
+        val ran = AtomicInteger()
+        val threads = (1..8).map {
+            Thread {
+                repeat(100) {
+                    if (!sut.submit { ran.incrementAndGet() }.isCancelled) {
+                        accepted.incrementAndGet()
+                    }
+                }
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+
+        assertEquals(fixture.maxQueueSize, accepted.get())
+        assertEquals(800L - fixture.maxQueueSize, sut.rejectedCount)
+        blocker.countDown()
+        await.untilAsserted { assertEquals(fixture.maxQueueSize, ran.get()) }
+        sut.shutdownNow()
+    }
+
+    @Test
+    fun `shutdown runs the queued tasks and rejects new ones`() {
+        val sut = fixture.getSut()
+        val blocker = CountDownLatch(1)
+        val ran = Collections.synchronizedList(mutableListOf<Int>())
+        sut.submit { blocker.await() }
+        (1..3).forEach { sut.submit { ran.add(it) } }
+
+        sut.shutdown()
+        assertTrue(sut.isShutdown)
+        assertTrue(sut.submit {}.isCancelled)
+        assertEquals(1, fixture.rejected.size)
+
+        blocker.countDown()
+        assertTrue(sut.awaitTermination(5, TimeUnit.SECONDS))
+        assertTrue(sut.isTerminated)
+        assertEquals(listOf(1, 2, 3), ran)
+    }
+
+    @Test
+    fun `shutdownNow cancels the queued tasks`() {
+        val sut = fixture.getSut()
+        val started = CountDownLatch(1)
+        sut.submit {
+            started.countDown()
+            Thread.sleep(10_000)
+        }
+        started.await()
+        val queued = sut.submit {}
+
+        sut.shutdownNow()
+
+        assertTrue(sut.awaitTermination(5, TimeUnit.SECONDS))
+        assertTrue(queued.isCancelled)
+    }
+
+    @Test
+    fun `rejects a queue size that isn't positive`() {
+        assertFailsWith<IllegalArgumentException> { fixture.getSut(maxQueueSize = 0) }
+    }
+
+    @Test
+    fun `is not shut down after creation`() {
+        val sut = fixture.getSut()
+        assertFalse(sut.isShutdown)
+        assertFalse(sut.isTerminated)
+        sut.shutdownNow()
+    }
+}
@@ -19,3 +19,8 @@ include("sentry-android",
     "sentry-samples:sentry-samples-servlet",
     "sentry-samples:sentry-samples-spring",
     "sentry-samples:sentry-samples-spring-boot")
+
+// java.net.http requires Java 11+, the module is left out of builds running on Java 8
+if (JavaVersion.current().isJava11Compatible) {
+    include("sentry-java11-transport")
+}